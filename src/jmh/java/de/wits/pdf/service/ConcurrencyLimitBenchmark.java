@@ -0,0 +1,123 @@
+package de.wits.pdf.service;
+
+import de.wits.pdf.configuration.GenerationProperties;
+import de.wits.pdf.model.PdfRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.actuate.metrics.repository.InMemoryMetricRepository;
+import org.springframework.boot.actuate.metrics.writer.DefaultCounterService;
+import org.springframework.boot.actuate.metrics.writer.DefaultGaugeService;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test of the render scheduler with the fixed number of workers against the adaptive limit. The
+ * jobs stand in for compiles: they burn {@link #cpuMillis} of CPU time, like pdflatex typesetting, and
+ * wait {@link #waitMillis}, like pdflatex reading fonts and images. Every operation sends a burst of
+ * {@link #JOBS} jobs and waits for all of them; the score is in jobs per second.
+ * <p>
+ * The scheduler lives as long as a fork, so the adaptive limit carries what it learned in the warmup
+ * into the measurement like a running service. Hosts with more CPUs than the fixed workers can use show
+ * the difference best; on a single CPU both settle at the same throughput. No pdflatex needed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 5)
+@Measurement(iterations = 10, time = 5)
+@Fork(1)
+public class ConcurrencyLimitBenchmark {
+
+    private static final int JOBS = 200;
+
+    public enum Limit {
+        /**
+         * {@code generation.workers} jobs at the same time.
+         */
+        FIXED,
+        ADAPTIVE
+    }
+
+    @Param({"FIXED", "ADAPTIVE"})
+    public Limit limit;
+
+    @Param({"6"})
+    public int workers;
+
+    /**
+     * Highest adaptive limit, 0 for the default.
+     */
+    @Param({"0"})
+    public int maxWorkers;
+
+    @Param({"20"})
+    public long cpuMillis;
+
+    @Param({"20", "80"})
+    public long waitMillis;
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private RenderScheduler scheduler;
+
+    @Setup
+    public void setUp() {
+        GenerationProperties generation = new GenerationProperties();
+        generation.setWorkers(workers);
+        generation.setBacklog(JOBS);
+        generation.setAdaptiveWorkers(limit == Limit.ADAPTIVE);
+        generation.setMaxWorkers(maxWorkers);
+        generation.setLimitInterval(200);
+        InMemoryMetricRepository repository = new InMemoryMetricRepository();
+        scheduler = new RenderScheduler(generation, new PdfMetrics(new DefaultCounterService(repository), new DefaultGaugeService(repository)));
+        scheduler.start();
+    }
+
+    @TearDown
+    public void tearDown() {
+        scheduler.stop();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(JOBS)
+    public void burst() throws Exception {
+        List<CompletableFuture<File>> results = new ArrayList<>();
+        for (int i = 0; i < JOBS; i++) {
+            PdfRequest request = new PdfRequest(UUID.randomUUID(), "template");
+            results.add(scheduler.submit(request, () -> compile(request)));
+        }
+        CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).get();
+    }
+
+    private File compile(PdfRequest request) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        long until = threads.getCurrentThreadCpuTime() + TimeUnit.MILLISECONDS.toNanos(cpuMillis);
+        double sink = 0;
+        while (threads.getCurrentThreadCpuTime() < until) {
+            for (int i = 0; i < 10_000; i++) {
+                sink += Math.sqrt(i + sink);
+            }
+        }
+        Thread.sleep(waitMillis);
+        // the limiter only learns from the time of pdflatex and Ghostscript
+        request.addProcessMillis(System.currentTimeMillis() - start);
+        return sink < 0 ? null : new File("document.pdf");
+    }
+}
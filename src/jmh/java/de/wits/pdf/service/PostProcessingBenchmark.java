@@ -0,0 +1,90 @@
+package de.wits.pdf.service;
+
+import de.wits.pdf.configuration.GenerationProperties;
+import de.wits.pdf.model.OptimizationLevel;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Compares the post processing levels with the former pdftk / Ghostscript / pdftk chain on a rendered
+ * document. Needs gs and pdftk on the path; not run as part of the build.
+ * <p>
+ * {@code mvn -P benchmark test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=de.wits.pdf.service.PostProcessingBenchmark -Dexec.args="document.pdf 20"}
+ */
+public class PostProcessingBenchmark {
+
+    private interface Stage {
+        File run(File pdfFile) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("Usage: PostProcessingBenchmark <pdf file> [iterations]");
+            System.exit(1);
+        }
+        File input = new File(args[0]);
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        PdfMetrics metrics = mock(PdfMetrics.class);
+        ProcessSupervisor supervisor = new ProcessSupervisor(new GenerationProperties(), metrics);
+        supervisor.start();
+        PdfPostProcessor postProcessor = new PdfPostProcessor(supervisor, metrics);
+
+        System.out.printf("%-16s %12s %12s %14s%n", "stage", "median ms", "p90 ms", "output bytes");
+        measure("input", input, iterations, pdfFile -> pdfFile);
+        measure("pdftk+gs+pdftk", input, iterations, PostProcessingBenchmark::legacyChain);
+        for (OptimizationLevel level : OptimizationLevel.values()) {
+            measure(level.name().toLowerCase(), input, iterations, pdfFile -> postProcessor.process(pdfFile, level, null));
+        }
+        supervisor.stop();
+    }
+
+    private static void measure(String name, File input, int iterations, Stage stage) throws Exception {
+        long[] millis = new long[iterations];
+        long size = 0;
+        for (int i = 0; i < iterations; i++) {
+            File folder = Files.createTempDirectory("post-processing").toFile();
+            try {
+                File pdfFile = new File(folder, "template.pdf");
+                Files.copy(input.toPath(), pdfFile.toPath());
+                long start = System.nanoTime();
+                File output = stage.run(pdfFile);
+                millis[i] = (System.nanoTime() - start) / 1_000_000;
+                size = output.length();
+            } finally {
+                FileUtils.deleteDirectory(folder);
+            }
+        }
+        Arrays.sort(millis);
+        System.out.printf("%-16s %12d %12d %14d%n", name, millis[iterations / 2], millis[(int) (iterations * 0.9)], size);
+    }
+
+    /**
+     * The post processing as it was done before the in-JVM stage, one process per step.
+     */
+    private static File legacyChain(File pdfFile) throws IOException, InterruptedException {
+        File folder = pdfFile.getParentFile();
+        String name = pdfFile.getName();
+        run(folder, "pdftk", name, "dump_data_utf8", "output", "metadata");
+        run(folder, "gs", "-sDEVICE=pdfwrite", "-dProcessDSCComments=false", "-dCompatibilityLevel=1.4", "-dNOPAUSE",
+                "-dQUIET", "-dBATCH", "-sOutputFile=final-" + name, name);
+        run(folder, "pdftk", "final-" + name, "update_info_utf8", "metadata", "output", "patched-final-" + name);
+        return new File(folder, "patched-final-" + name);
+    }
+
+    private static void run(File folder, String... command) throws IOException, InterruptedException {
+        ProcessBuilder processBuilder = new ProcessBuilder(command);
+        processBuilder.directory(folder);
+        processBuilder.redirectErrorStream(true);
+        processBuilder.redirectOutput(new File(folder, command[0] + ".out"));
+        if (processBuilder.start().waitFor() != 0) {
+            throw new IOException(command[0] + " failed");
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package de.wits.pdf.service;
+
+import com.sun.net.httpserver.HttpServer;
+import de.wits.pdf.model.OptimizationLevel;
+import de.wits.pdf.model.PageRange;
+import de.wits.pdf.model.PdfRequest;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the latency of one interactive render in preview mode with a normal render of the same
+ * document, through the whole pipeline as in {@link RenderBenchmark}. The media server sends large
+ * photos, so normalizing them to the lower resolution of previews makes a difference; the copies are
+ * made once and cached like the downloads.
+ * <p>
+ * Needs pdflatex and Ghostscript. Use {@code -p pdfLatex=...} if pdflatex is not on the path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 10, time = 5)
+@Fork(1)
+public class PreviewBenchmark {
+
+    public enum RenderMode {
+        /**
+         * A normal render with the Ghostscript pass.
+         */
+        FULL,
+        PREVIEW,
+        /**
+         * A preview of the first page only.
+         */
+        PREVIEW_FIRST_PAGE
+    }
+
+    @Param({"letter.tex", "report.tex", "catalog.tex"})
+    public String document;
+
+    @Param({"FULL", "PREVIEW", "PREVIEW_FIRST_PAGE"})
+    public RenderMode mode;
+
+    /**
+     * Width of the served images.
+     */
+    @Param({"3000"})
+    public int imageWidth;
+
+    @Param({"pdflatex"})
+    public String pdfLatex;
+
+    private final List<Runnable> shutdown = new ArrayList<>();
+    private File temporal;
+    private HttpServer server;
+    private PdfServiceImpl pdfService;
+    private String template;
+
+    @Setup
+    public void setUp() throws IOException {
+        temporal = Files.createTempDirectory("preview-benchmark").toFile();
+        server = RenderBenchmark.mediaServer(imageWidth, imageWidth * 2 / 3);
+        template = RenderBenchmark.template(document, "http://localhost:" + server.getAddress().getPort());
+        pdfService = RenderBenchmark.pipeline(temporal, pdfLatex, 1, 1, shutdown);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        for (int i = shutdown.size() - 1; i >= 0; i--) {
+            shutdown.get(i).run();
+        }
+        server.stop(0);
+        FileUtils.deleteDirectory(temporal);
+    }
+
+    @Benchmark
+    public File render() throws Exception {
+        PdfRequest request = new PdfRequest(UUID.randomUUID(), template);
+        if (mode == RenderMode.FULL) {
+            request.setOptimization(OptimizationLevel.FULL);
+        } else {
+            request.setPreview(true);
+        }
+        if (mode == RenderMode.PREVIEW_FIRST_PAGE) {
+            request.setPages(new PageRange(1, 1));
+        }
+        try {
+            return pdfService.getPdf(request).get();
+        } finally {
+            pdfService.release(request);
+        }
+    }
+}
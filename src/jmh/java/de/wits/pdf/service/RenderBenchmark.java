@@ -0,0 +1,228 @@
+package de.wits.pdf.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import de.wits.pdf.configuration.AssetProperties;
+import de.wits.pdf.configuration.CacheProperties;
+import de.wits.pdf.configuration.FileSystemPathProperties;
+import de.wits.pdf.configuration.FormatProperties;
+import de.wits.pdf.configuration.GenerationProperties;
+import de.wits.pdf.configuration.MediaProperties;
+import de.wits.pdf.configuration.TexPoolProperties;
+import de.wits.pdf.configuration.UploadProperties;
+import de.wits.pdf.configuration.WorkspaceProperties;
+import de.wits.pdf.model.OptimizationLevel;
+import de.wits.pdf.model.PdfRequest;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.actuate.metrics.repository.InMemoryMetricRepository;
+import org.springframework.boot.actuate.metrics.writer.DefaultCounterService;
+import org.springframework.boot.actuate.metrics.writer.DefaultGaugeService;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders a fixed corpus of templates through the whole pipeline: media download from a local stub
+ * server, pdflatex and post processing. Every operation renders {@link #rounds} copies of the corpus,
+ * sent by {@link #clients} concurrent clients. The result cache is disabled, so every document is
+ * rendered; the media cache and the warm pdflatex processes are used as in production.
+ * <p>
+ * Needs pdflatex, and Ghostscript for {@link OptimizationLevel#FULL}. Use {@code -p pdfLatex=...} if
+ * pdflatex is not on the path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class RenderBenchmark {
+
+    private static final String[] CORPUS = {"letter.tex", "report.tex", "catalog.tex"};
+
+    @Param({"1", "4", "16"})
+    public int clients;
+
+    @Param({"NONE", "FULL"})
+    public OptimizationLevel optimization;
+
+    @Param({"4"})
+    public int workers;
+
+    @Param({"4"})
+    public int rounds;
+
+    @Param({"pdflatex"})
+    public String pdfLatex;
+
+    private final List<Runnable> shutdown = new ArrayList<>();
+    private File temporal;
+    private HttpServer server;
+    private PdfServiceImpl pdfService;
+    private List<String> templates;
+    private ExecutorService clientThreads;
+
+    @Setup
+    public void setUp() throws IOException {
+        temporal = Files.createTempDirectory("render-benchmark").toFile();
+        server = mediaServer(400, 300);
+        String media = "http://localhost:" + server.getAddress().getPort();
+        templates = new ArrayList<>();
+        for (String name : CORPUS) {
+            templates.add(template(name, media));
+        }
+
+        pdfService = pipeline(temporal, pdfLatex, workers, rounds * CORPUS.length, shutdown);
+
+        clientThreads = Executors.newFixedThreadPool(clients);
+        shutdown.add(clientThreads::shutdownNow);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        for (int i = shutdown.size() - 1; i >= 0; i--) {
+            shutdown.get(i).run();
+        }
+        server.stop(0);
+        FileUtils.deleteDirectory(temporal);
+    }
+
+    @Benchmark
+    public int render() throws Exception {
+        List<Future<File>> documents = new ArrayList<>();
+        for (int round = 0; round < rounds; round++) {
+            for (String template : templates) {
+                documents.add(clientThreads.submit(() -> render(template)));
+            }
+        }
+        for (Future<File> document : documents) {
+            document.get();
+        }
+        return documents.size();
+    }
+
+    private File render(String template) throws Exception {
+        PdfRequest request = new PdfRequest(UUID.randomUUID(), template);
+        request.setOptimization(optimization);
+        try {
+            return pdfService.getPdf(request).get();
+        } finally {
+            pdfService.release(request);
+        }
+    }
+
+    /**
+     * @param media base URL the media references of the template point to
+     */
+    static String template(String name, String media) throws IOException {
+        try (InputStream in = RenderBenchmark.class.getResourceAsStream("/corpus/" + name)) {
+            return IOUtils.toString(in, "UTF-8").replace("@MEDIA@", media);
+        }
+    }
+
+    /**
+     * Wires the render pipeline as the application does, with the result cache disabled.
+     *
+     * @param shutdown collects what has to be stopped after the benchmark
+     */
+    static PdfServiceImpl pipeline(File temporal, String pdfLatex, int workers, int backlog, List<Runnable> shutdown) throws IOException {
+        FileSystemPathProperties paths = new FileSystemPathProperties();
+        paths.setTemporal(temporal.getAbsolutePath());
+        paths.setPdfLatex(pdfLatex);
+        GenerationProperties generation = new GenerationProperties();
+        generation.setWorkers(workers);
+        generation.setAdaptiveWorkers(false);
+        generation.setBacklog(backlog);
+        CacheProperties cache = new CacheProperties();
+        cache.setEnabled(false);
+        TexPoolProperties texPool = new TexPoolProperties();
+        InMemoryMetricRepository repository = new InMemoryMetricRepository();
+        PdfMetrics metrics = new PdfMetrics(new DefaultCounterService(repository), new DefaultGaugeService(repository));
+
+        ProcessSupervisor supervisor = new ProcessSupervisor(generation, metrics);
+        supervisor.start();
+        shutdown.add(supervisor::stop);
+        RenderScheduler scheduler = new RenderScheduler(generation, metrics);
+        scheduler.start();
+        shutdown.add(scheduler::stop);
+        PdfResultCache resultCache = new PdfResultCache(cache, paths, metrics);
+        resultCache.init();
+        MediaCache mediaCache = new MediaCache(paths, new MediaProperties());
+        mediaCache.init();
+        MediaResolver mediaResolver = new MediaResolver(new MediaProperties(), mediaCache, metrics);
+        mediaResolver.start();
+        shutdown.add(mediaResolver::stop);
+        MediaNormalizer mediaNormalizer = new MediaNormalizer(new MediaProperties(), mediaCache, metrics);
+        mediaNormalizer.start();
+        shutdown.add(mediaNormalizer::stop);
+        FormatCache formatCache = new FormatCache(new FormatProperties(), paths, metrics, supervisor);
+        formatCache.start();
+        shutdown.add(formatCache::stop);
+        TexWorkerPool texWorkerPool = new TexWorkerPool(texPool, paths, metrics, supervisor, scheduler);
+        texWorkerPool.start();
+        shutdown.add(texWorkerPool::stop);
+        LatexCompiler latexCompiler = new LatexCompiler(paths, generation, metrics, formatCache, texWorkerPool, supervisor);
+        WorkspaceManager workspaceManager = new WorkspaceManager(new WorkspaceProperties(), paths, metrics);
+        workspaceManager.start();
+        AssetStore assetStore = new AssetStore(new AssetProperties(), paths, new UploadProperties(), new ObjectMapper(), metrics);
+        assetStore.init();
+        return new PdfServiceImpl(workspaceManager, generation, scheduler, resultCache, mediaResolver, mediaNormalizer, latexCompiler,
+                new ZipExtractor(new UploadProperties()), assetStore, new PdfPostProcessor(supervisor, metrics));
+    }
+
+    /**
+     * Serves the same PNG of the given size for every path.
+     */
+    static HttpServer mediaServer(int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        for (int i = 0; i < 10; i++) {
+            graphics.setColor(new Color(i * 25, 100, 250 - i * 25));
+            graphics.fillRect(i * width / 10, height - i * height / 10, width / 10, i * height / 10);
+        }
+        graphics.dispose();
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", png);
+        byte[] body = png.toByteArray();
+
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+            exchange.close();
+        });
+        server.start();
+        return server;
+    }
+}
@@ -0,0 +1,148 @@
+package de.wits.pdf.service;
+
+import de.wits.pdf.configuration.GenerationProperties;
+import de.wits.pdf.configuration.MediaProperties;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the template preprocessing: rewriting the {@code img:} references to the local file names
+ * while writing the template file, and filling {@code var:} placeholders. Media resolution is stubbed
+ * out. Templates are generated from a fixed seed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class TemplateMediaBenchmark {
+
+    /**
+     * Paragraphs of filler text.
+     */
+    @Param({"10", "100", "1000"})
+    public int paragraphs;
+
+    /**
+     * Image references, a third of them repeated. Only used by {@link #media()}.
+     */
+    @Param({"0", "10", "100"})
+    public int images;
+
+    private PdfServiceImpl pdfService;
+    private String mediaTemplate;
+    private String variableTemplate;
+    private Map<String, String> values;
+    private File folder;
+    private File templateFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("template-benchmark").toFile();
+        templateFile = new File(folder, "template.tex");
+        MediaProperties mediaProperties = new MediaProperties();
+        mediaProperties.setNormalize(false);
+        pdfService = new PdfServiceImpl(null, new GenerationProperties(), null, null,
+                new ResolvedMedia(folder), new MediaNormalizer(mediaProperties, null, null), null, null, null, null);
+
+        Random random = new Random(42);
+        StringBuilder media = new StringBuilder("\\documentclass{article}\n\\usepackage{graphicx}\n\\begin{document}\n");
+        StringBuilder variables = new StringBuilder(media);
+        values = new HashMap<>();
+        int image = 0;
+        for (int i = 0; i < paragraphs; i++) {
+            String paragraph = paragraph(random);
+            media.append(paragraph);
+            variables.append(paragraph);
+            // spread evenly over the paragraphs
+            for (; image < images && image * paragraphs / images == i; image++) {
+                media.append("\\includegraphics[width=3cm]{img:https://media.example.com/catalog/item")
+                        .append(random.nextInt(images * 2 / 3 + 1)).append(".png?size=large\\&amp;format=png}\n\n");
+            }
+            variables.append("Customer: var:customer.").append(i % 20).append(", order var:order").append(i).append("\n\n");
+            values.put("customer." + i % 20, "Name & Co. " + i);
+            values.put("order" + i, Integer.toString(random.nextInt(100000)));
+        }
+        media.append("\\end{document}\n");
+        variables.append("\\end{document}\n");
+        mediaTemplate = media.toString();
+        variableTemplate = variables.toString();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(folder);
+    }
+
+    @Benchmark
+    public File media() throws Exception {
+        pdfService.processTemplate(mediaTemplate, null, templateFile, false);
+        return templateFile;
+    }
+
+    @Benchmark
+    public String variables() throws Exception {
+        return TemplateVariables.apply(variableTemplate, values);
+    }
+
+    private static String paragraph(Random random) {
+        StringBuilder paragraph = new StringBuilder();
+        int words = 40 + random.nextInt(40);
+        for (int i = 0; i < words; i++) {
+            int length = 2 + random.nextInt(9);
+            for (int j = 0; j < length; j++) {
+                paragraph.append((char) ('a' + random.nextInt(26)));
+            }
+            paragraph.append(i % 12 == 11 ? ".\n" : " ");
+        }
+        return paragraph.append("\n\n").toString();
+    }
+
+    /**
+     * Answers every URL with the same file and links nothing.
+     */
+    private static class ResolvedMedia extends MediaResolver {
+
+        private final File file;
+
+        ResolvedMedia(File folder) {
+            super(new MediaProperties(), null, null);
+            this.file = new File(folder, "media.png");
+        }
+
+        @Override
+        public Map<String, File> resolve(Collection<String> urls) {
+            Map<String, File> files = new LinkedHashMap<>();
+            for (String url : urls) {
+                files.put(url, file);
+            }
+            return files;
+        }
+
+        @Override
+        public void link(File cached, File target) {
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package de.wits.pdf.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.wits.pdf.configuration.AssetProperties;
+import de.wits.pdf.configuration.FileSystemPathProperties;
+import de.wits.pdf.configuration.UploadProperties;
+import de.wits.pdf.model.PdfRequest;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.actuate.metrics.repository.InMemoryMetricRepository;
+import org.springframework.boot.actuate.metrics.writer.DefaultCounterService;
+import org.springframework.boot.actuate.metrics.writer.DefaultGaugeService;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Measures the extraction of uploaded bundles as done for {@code /zippedpdf}: a template plus images.
+ * The images are random bytes from a fixed seed, so they do not compress, like real PNGs.
+ * {@link Bundle#MANIFEST} sends a bundle again that the {@link AssetStore} knows: the zip holds the
+ * template and a manifest, and the workspace is assembled from links into the store.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ZipExtractionBenchmark {
+
+    public enum Bundle {
+        /**
+         * All files in the zip.
+         */
+        ZIP,
+        MANIFEST
+    }
+
+    @Param({"ZIP", "MANIFEST"})
+    public Bundle bundle;
+
+    @Param({"1", "10", "100"})
+    public int images;
+
+    @Param({"16384", "524288"})
+    public int imageBytes;
+
+    private ZipExtractor zipExtractor;
+    private AssetStore assetStore;
+    private Path store;
+    private byte[] upload;
+    private Path target;
+
+    @Setup
+    public void setUp() throws IOException, UploadRejectedException {
+        zipExtractor = new ZipExtractor(new UploadProperties());
+        store = Files.createTempDirectory("asset-benchmark");
+        FileSystemPathProperties paths = new FileSystemPathProperties();
+        paths.setTemporal(store.toString());
+        InMemoryMetricRepository repository = new InMemoryMetricRepository();
+        assetStore = new AssetStore(new AssetProperties(), paths, new UploadProperties(), new ObjectMapper(),
+                new PdfMetrics(new DefaultCounterService(repository), new DefaultGaugeService(repository)));
+        assetStore.init();
+        Random random = new Random(42);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            StringBuilder template = new StringBuilder("\\documentclass{article}\n\\usepackage{graphicx}\n\\begin{document}\n");
+            Map<String, String> manifest = new LinkedHashMap<>();
+            for (int i = 0; i < images; i++) {
+                byte[] image = new byte[imageBytes];
+                random.nextBytes(image);
+                String path = "images/image" + i + ".png";
+                if (bundle == Bundle.MANIFEST) {
+                    String hash = Digests.hex(Digests.sha256().digest(image));
+                    assetStore.put(hash, new ByteArrayInputStream(image));
+                    manifest.put(path, hash);
+                } else {
+                    zip.putNextEntry(new ZipEntry(path));
+                    zip.write(image);
+                    zip.closeEntry();
+                }
+                template.append("\\includegraphics{images/image").append(i).append(".png}\n");
+            }
+            if (bundle == Bundle.MANIFEST) {
+                zip.putNextEntry(new ZipEntry(AssetStore.MANIFEST));
+                zip.write(new ObjectMapper().writeValueAsBytes(manifest));
+                zip.closeEntry();
+            }
+            zip.putNextEntry(new ZipEntry("template.tex"));
+            zip.write(template.append("\\end{document}\n").toString().getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+        }
+        upload = bytes.toByteArray();
+    }
+
+    @TearDown
+    public void deleteStore() throws IOException {
+        FileUtils.deleteDirectory(store.toFile());
+    }
+
+    @Setup(Level.Invocation)
+    public void createTarget() throws IOException {
+        target = Files.createTempDirectory(store, "zip-benchmark");
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteTarget() throws IOException {
+        FileUtils.deleteDirectory(target.toFile());
+    }
+
+    @Benchmark
+    public Path extract() throws Exception {
+        zipExtractor.extract(new ByteArrayInputStream(upload), target);
+        if (bundle == Bundle.MANIFEST) {
+            PdfRequest request = new PdfRequest(UUID.randomUUID(), null);
+            assetStore.assemble(request, target.toFile());
+            assetStore.release(request);
+        }
+        return target;
+    }
+}
@@ -0,0 +1,23 @@
+package de.wits.pdf.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "assets")
+public class AssetProperties {
+
+    /**
+     * Bytes the asset store may take. The least recently used assets no running job links to are
+     * evicted beyond it.
+     */
+    private long maxBytes = 2L * 1024 * 1024 * 1024;
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+}
@@ -0,0 +1,38 @@
+package de.wits.pdf.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Settings of the result cache. It only has a disk tier, see {@link de.wits.pdf.service.PdfResultCache}.
+ */
+@Component
+@ConfigurationProperties(prefix = "cache")
+public class CacheProperties {
+
+    /**
+     * Whether identical requests are served from the cache instead of being rendered again.
+     */
+    private boolean enabled = true;
+
+    /**
+     * Upper bound for the size of all cached PDF files on disk.
+     */
+    private long diskMaxBytes = 1024L * 1024 * 1024;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public long getDiskMaxBytes() {
+        return diskMaxBytes;
+    }
+
+    public void setDiskMaxBytes(long diskMaxBytes) {
+        this.diskMaxBytes = diskMaxBytes;
+    }
+}
@@ -0,0 +1,99 @@
+package de.wits.pdf.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "distributed")
+public class DistributedProperties {
+
+    /**
+     * Shares the jobs of the job API between all instances: they are published to an SQS queue and
+     * rendered by whichever instance has a free worker.
+     */
+    private boolean enabled;
+
+    /**
+     * Name of the queue, created if it does not exist.
+     */
+    private String queue = "pdf-jobs";
+
+    /**
+     * SQS endpoint, e.g. {@code http://localhost:9324} for ElasticMQ. The endpoint of the region if not set.
+     */
+    private String endpoint;
+
+    private String region = "eu-central-1";
+
+    /**
+     * Folder every instance has mounted, e.g. on NFS or EFS. Job states, templates and results are kept there.
+     */
+    private String sharedFolder;
+
+    /**
+     * Seconds a receive waits for messages before it returns empty.
+     */
+    private int pollWait = 20;
+
+    /**
+     * Seconds a taken job stays hidden from the other instances. It is extended while the job runs, so
+     * it only has to cover an instance that stops without giving the job back.
+     */
+    private int visibilityTimeout = 120;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String getQueue() {
+        return queue;
+    }
+
+    public void setQueue(String queue) {
+        this.queue = queue;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public void setEndpoint(String endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    public String getRegion() {
+        return region;
+    }
+
+    public void setRegion(String region) {
+        this.region = region;
+    }
+
+    public String getSharedFolder() {
+        return sharedFolder;
+    }
+
+    public void setSharedFolder(String sharedFolder) {
+        this.sharedFolder = sharedFolder;
+    }
+
+    public int getPollWait() {
+        return pollWait;
+    }
+
+    public void setPollWait(int pollWait) {
+        this.pollWait = pollWait;
+    }
+
+    public int getVisibilityTimeout() {
+        return visibilityTimeout;
+    }
+
+    public void setVisibilityTimeout(int visibilityTimeout) {
+        this.visibilityTimeout = visibilityTimeout;
+    }
+}
@@ -11,6 +11,11 @@ public class FileSystemPathProperties {
 
   private String pdfLatex;
 
+  /**
+   * Where registered templates are kept, {@code templates} below the temporal folder if not set.
+   */
+  private String templates;
+
   public String getTemporal() {
     return temporal;
   }
@@ -27,4 +32,12 @@ public class FileSystemPathProperties {
     this.pdfLatex = pdfLatex;
   }
 
+  public String getTemplates() {
+    return templates;
+  }
+
+  public void setTemplates(String templates) {
+    this.templates = templates;
+  }
+
 }
@@ -0,0 +1,98 @@
+package de.wits.pdf.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "formats")
+public class FormatProperties {
+
+    private boolean enabled = true;
+
+    /**
+     * How often a preamble has to be seen before a format is built for it.
+     */
+    private int minUses = 2;
+
+    /**
+     * Number of formats kept on disk. The least recently used ones are removed first.
+     */
+    private int maxEntries = 20;
+
+    /**
+     * Number of format builds running at the same time.
+     */
+    private int threads = 1;
+
+    /**
+     * Number of format builds waiting to run. Further builds are skipped.
+     */
+    private int queueSize = 10;
+
+    /**
+     * Seconds a format build may take.
+     */
+    private long buildTimeout = 120;
+
+    /**
+     * Seconds before the format of a preamble whose build failed is built again. Until then its
+     * documents compile without a format.
+     */
+    private long retryFailedAfter = 3600;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getMinUses() {
+        return minUses;
+    }
+
+    public void setMinUses(int minUses) {
+        this.minUses = minUses;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    public long getBuildTimeout() {
+        return buildTimeout;
+    }
+
+    public void setBuildTimeout(long buildTimeout) {
+        this.buildTimeout = buildTimeout;
+    }
+
+    public long getRetryFailedAfter() {
+        return retryFailedAfter;
+    }
+
+    public void setRetryFailedAfter(long retryFailedAfter) {
+        this.retryFailedAfter = retryFailedAfter;
+    }
+}
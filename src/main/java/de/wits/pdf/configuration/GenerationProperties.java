@@ -1,14 +1,101 @@
 package de.wits.pdf.configuration;
 
+import de.wits.pdf.model.OptimizationLevel;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 
+import java.util.HashMap;
+import java.util.Map;
+
 @Component
 @ConfigurationProperties(prefix = "generation")
 public class GenerationProperties {
 
     private long timeout;
 
+    /**
+     * Number of render workers, i.e. how many documents are compiled at the same time. With an adaptive
+     * limit it is the limit the service starts with.
+     */
+    private int workers = 6;
+
+    /**
+     * Adapts the number of documents compiled at the same time to the observed pdflatex and Ghostscript
+     * times and CPU load, between {@code min-workers} and {@code max-workers}. Starts up to
+     * {@code max-workers} threads.
+     */
+    private boolean adaptiveWorkers;
+
+    /**
+     * Lowest adaptive limit.
+     */
+    private int minWorkers = 1;
+
+    /**
+     * Highest adaptive limit. 0 for four times the CPUs of the container, at least {@code workers}; the
+     * CPU load keeps the limit lower while compiles are busy typesetting.
+     */
+    private int maxWorkers;
+
+    /**
+     * Share of the CPUs of the container, between 0 and 1, above which the adaptive limit is not raised.
+     */
+    private double targetCpuLoad = 0.9;
+
+    /**
+     * Factor by which recent pdflatex and Ghostscript times may exceed their long-term average before the
+     * adaptive limit is lowered.
+     */
+    private double latencyTolerance = 2.0;
+
+    /**
+     * Minimum time in milliseconds between two changes of the adaptive limit.
+     */
+    private long limitInterval = 1000;
+
+    /**
+     * Maximum number of jobs waiting for a free worker. Further jobs are rejected.
+     */
+    private int backlog = 50;
+
+    /**
+     * Upper bound of pdflatex passes per document. Further passes only run while LaTeX asks for them.
+     */
+    private int maxRuns = 3;
+
+    /**
+     * Post processing of rendered documents: none, metadata or full (Ghostscript).
+     */
+    private OptimizationLevel optimization = OptimizationLevel.FULL;
+
+    /**
+     * Maximum number of bulk jobs waiting, within the backlog, so interactive requests still find room.
+     * 0 for no limit of its own.
+     */
+    private int bulkBacklog;
+
+    /**
+     * Number of workers bulk jobs may occupy at the same time. The others are kept for interactive
+     * requests, which then never wait for a long bulk render. 0 for no limit.
+     */
+    private int bulkMaxActive;
+
+    /**
+     * Maximum number of jobs waiting per tenant. Further jobs of the tenant are rejected while others
+     * are still admitted. 0 for no limit.
+     */
+    private int tenantBacklog;
+
+    /**
+     * Number of workers a tenant may occupy at the same time. 0 for no limit.
+     */
+    private int tenantMaxActive;
+
+    /**
+     * Share of the workers per tenant, relative to the others. Tenants not listed have weight 1.
+     */
+    private Map<String, Integer> tenantWeights = new HashMap<>();
+
     public long getTimeout() {
         return timeout;
     }
@@ -16,4 +103,124 @@ public class GenerationProperties {
     public void setTimeout(long timeout) {
         this.timeout = timeout;
     }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public void setWorkers(int workers) {
+        this.workers = workers;
+    }
+
+    public boolean isAdaptiveWorkers() {
+        return adaptiveWorkers;
+    }
+
+    public void setAdaptiveWorkers(boolean adaptiveWorkers) {
+        this.adaptiveWorkers = adaptiveWorkers;
+    }
+
+    public int getMinWorkers() {
+        return minWorkers;
+    }
+
+    public void setMinWorkers(int minWorkers) {
+        this.minWorkers = minWorkers;
+    }
+
+    public int getMaxWorkers() {
+        return maxWorkers;
+    }
+
+    public void setMaxWorkers(int maxWorkers) {
+        this.maxWorkers = maxWorkers;
+    }
+
+    public double getTargetCpuLoad() {
+        return targetCpuLoad;
+    }
+
+    public void setTargetCpuLoad(double targetCpuLoad) {
+        this.targetCpuLoad = targetCpuLoad;
+    }
+
+    public double getLatencyTolerance() {
+        return latencyTolerance;
+    }
+
+    public void setLatencyTolerance(double latencyTolerance) {
+        this.latencyTolerance = latencyTolerance;
+    }
+
+    public long getLimitInterval() {
+        return limitInterval;
+    }
+
+    public void setLimitInterval(long limitInterval) {
+        this.limitInterval = limitInterval;
+    }
+
+    public int getBacklog() {
+        return backlog;
+    }
+
+    public void setBacklog(int backlog) {
+        this.backlog = backlog;
+    }
+
+    public int getMaxRuns() {
+        return maxRuns;
+    }
+
+    public void setMaxRuns(int maxRuns) {
+        this.maxRuns = maxRuns;
+    }
+
+    public OptimizationLevel getOptimization() {
+        return optimization;
+    }
+
+    public void setOptimization(OptimizationLevel optimization) {
+        this.optimization = optimization;
+    }
+
+    public int getBulkBacklog() {
+        return bulkBacklog;
+    }
+
+    public void setBulkBacklog(int bulkBacklog) {
+        this.bulkBacklog = bulkBacklog;
+    }
+
+    public int getBulkMaxActive() {
+        return bulkMaxActive;
+    }
+
+    public void setBulkMaxActive(int bulkMaxActive) {
+        this.bulkMaxActive = bulkMaxActive;
+    }
+
+    public int getTenantBacklog() {
+        return tenantBacklog;
+    }
+
+    public void setTenantBacklog(int tenantBacklog) {
+        this.tenantBacklog = tenantBacklog;
+    }
+
+    public int getTenantMaxActive() {
+        return tenantMaxActive;
+    }
+
+    public void setTenantMaxActive(int tenantMaxActive) {
+        this.tenantMaxActive = tenantMaxActive;
+    }
+
+    public Map<String, Integer> getTenantWeights() {
+        return tenantWeights;
+    }
+
+    public void setTenantWeights(Map<String, Integer> tenantWeights) {
+        this.tenantWeights = tenantWeights;
+    }
 }
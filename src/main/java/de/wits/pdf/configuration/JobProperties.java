@@ -0,0 +1,55 @@
+package de.wits.pdf.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "jobs")
+public class JobProperties {
+
+    /**
+     * Seconds a finished job and its result are kept.
+     */
+    private long ttl = 3600;
+
+    /**
+     * Number of jobs kept at the same time. Submissions beyond it are rejected.
+     */
+    private int maxJobs = 1000;
+
+    private int callbackThreads = 2;
+
+    private int callbackTimeout = 5000;
+
+    public long getTtl() {
+        return ttl;
+    }
+
+    public void setTtl(long ttl) {
+        this.ttl = ttl;
+    }
+
+    public int getMaxJobs() {
+        return maxJobs;
+    }
+
+    public void setMaxJobs(int maxJobs) {
+        this.maxJobs = maxJobs;
+    }
+
+    public int getCallbackThreads() {
+        return callbackThreads;
+    }
+
+    public void setCallbackThreads(int callbackThreads) {
+        this.callbackThreads = callbackThreads;
+    }
+
+    public int getCallbackTimeout() {
+        return callbackTimeout;
+    }
+
+    public void setCallbackTimeout(int callbackTimeout) {
+        this.callbackTimeout = callbackTimeout;
+    }
+}
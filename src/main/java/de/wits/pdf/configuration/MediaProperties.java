@@ -0,0 +1,148 @@
+package de.wits.pdf.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "media")
+public class MediaProperties {
+
+    /**
+     * Number of parallel downloads shared by all requests.
+     */
+    private int threads = 8;
+
+    private int connectTimeout = 5000;
+
+    private int readTimeout = 15000;
+
+    /**
+     * Downloads larger than this are rejected.
+     */
+    private long maxBytes = 20L * 1024 * 1024;
+
+    /**
+     * Seconds a cached download is used without asking the origin server again.
+     */
+    private long maxAge = 60;
+
+    /**
+     * Upper bound for the size of the shared media cache on disk.
+     */
+    private long cacheMaxBytes = 512L * 1024 * 1024;
+
+    /**
+     * Converts images pdflatex cannot read to PNG and downsamples images with more pixels than
+     * {@code dpi} needs at their printed size.
+     */
+    private boolean normalize = true;
+
+    /**
+     * Resolution images are downsampled to, at the size they are printed with.
+     */
+    private int dpi = 300;
+
+    /**
+     * Resolution of the images of previews.
+     */
+    private int previewDpi = 96;
+
+    /**
+     * Printed width in centimeters assumed for images whose width the template gives relative to the
+     * page, e.g. {@code width=0.5\textwidth}.
+     */
+    private double maxPrintWidth = 21.0;
+
+    /**
+     * Number of images converted at the same time, shared by all requests.
+     */
+    private int normalizeThreads = Runtime.getRuntime().availableProcessors();
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    public void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public long getMaxAge() {
+        return maxAge;
+    }
+
+    public void setMaxAge(long maxAge) {
+        this.maxAge = maxAge;
+    }
+
+    public long getCacheMaxBytes() {
+        return cacheMaxBytes;
+    }
+
+    public void setCacheMaxBytes(long cacheMaxBytes) {
+        this.cacheMaxBytes = cacheMaxBytes;
+    }
+
+    public boolean isNormalize() {
+        return normalize;
+    }
+
+    public void setNormalize(boolean normalize) {
+        this.normalize = normalize;
+    }
+
+    public int getDpi() {
+        return dpi;
+    }
+
+    public void setDpi(int dpi) {
+        this.dpi = dpi;
+    }
+
+    public int getPreviewDpi() {
+        return previewDpi;
+    }
+
+    public void setPreviewDpi(int previewDpi) {
+        this.previewDpi = previewDpi;
+    }
+
+    public double getMaxPrintWidth() {
+        return maxPrintWidth;
+    }
+
+    public void setMaxPrintWidth(double maxPrintWidth) {
+        this.maxPrintWidth = maxPrintWidth;
+    }
+
+    public int getNormalizeThreads() {
+        return normalizeThreads;
+    }
+
+    public void setNormalizeThreads(int normalizeThreads) {
+        this.normalizeThreads = normalizeThreads;
+    }
+}
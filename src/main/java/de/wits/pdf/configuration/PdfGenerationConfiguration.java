@@ -1,7 +1,42 @@
 package de.wits.pdf.configuration;
 
+import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
+import com.amazonaws.regions.RegionUtils;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.AmazonSQSClient;
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.MetricRegistry;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.concurrent.TimeUnit;
+
 @Configuration
 public class PdfGenerationConfiguration {
+
+    /**
+     * Publishes the metrics as MBeans, so Jolokia serves the percentiles of every timer and histogram.
+     */
+    @Bean(destroyMethod = "stop")
+    public JmxReporter jmxReporter(MetricRegistry metricRegistry) {
+        JmxReporter reporter = JmxReporter.forRegistry(metricRegistry)
+                .inDomain("pdf.metrics")
+                .convertDurationsTo(TimeUnit.MILLISECONDS)
+                .build();
+        reporter.start();
+        return reporter;
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    @ConditionalOnProperty(prefix = "distributed", name = "enabled")
+    public AmazonSQS amazonSqs(DistributedProperties distributedProperties) {
+        AmazonSQSClient client = new AmazonSQSClient(new DefaultAWSCredentialsProviderChain());
+        if (distributedProperties.getEndpoint() != null) {
+            client.setEndpoint(distributedProperties.getEndpoint());
+        } else {
+            client.setRegion(RegionUtils.getRegion(distributedProperties.getRegion()));
+        }
+        return client;
+    }
 }
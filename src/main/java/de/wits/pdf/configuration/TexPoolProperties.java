@@ -0,0 +1,59 @@
+package de.wits.pdf.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "tex-pool")
+public class TexPoolProperties {
+
+    private boolean enabled = true;
+
+    /**
+     * Number of pdflatex processes kept waiting for a pass, capped by the number of render workers. 0 for
+     * one per render worker.
+     */
+    private int size;
+
+    /**
+     * Seconds an idle process is kept before it is replaced by a fresh one.
+     */
+    private long maxIdle = 600;
+
+    /**
+     * Seconds between two checks of the idle processes.
+     */
+    private long healthCheckInterval = 10;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public void setSize(int size) {
+        this.size = size;
+    }
+
+    public long getMaxIdle() {
+        return maxIdle;
+    }
+
+    public void setMaxIdle(long maxIdle) {
+        this.maxIdle = maxIdle;
+    }
+
+    public long getHealthCheckInterval() {
+        return healthCheckInterval;
+    }
+
+    public void setHealthCheckInterval(long healthCheckInterval) {
+        this.healthCheckInterval = healthCheckInterval;
+    }
+}
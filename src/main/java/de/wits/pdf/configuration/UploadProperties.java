@@ -0,0 +1,45 @@
+package de.wits.pdf.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "upload")
+public class UploadProperties {
+
+    /**
+     * Upper bound for the size of all files of an uploaded zip once extracted.
+     */
+    private long maxUncompressedBytes = 200L * 1024 * 1024;
+
+    private int maxEntries = 1000;
+
+    /**
+     * Highest accepted ratio between the extracted and the uploaded size.
+     */
+    private int maxCompressionRatio = 100;
+
+    public long getMaxUncompressedBytes() {
+        return maxUncompressedBytes;
+    }
+
+    public void setMaxUncompressedBytes(long maxUncompressedBytes) {
+        this.maxUncompressedBytes = maxUncompressedBytes;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    public int getMaxCompressionRatio() {
+        return maxCompressionRatio;
+    }
+
+    public void setMaxCompressionRatio(int maxCompressionRatio) {
+        this.maxCompressionRatio = maxCompressionRatio;
+    }
+}
@@ -0,0 +1,67 @@
+package de.wits.pdf.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+@Component
+@ConfigurationProperties(prefix = "warmup")
+public class WarmupProperties {
+
+    /**
+     * Whether the sample templates are rendered before the instance reports being ready. Without it, the
+     * instance is ready right away.
+     */
+    private boolean enabled = true;
+
+    /**
+     * Locations of the sample templates, e.g. {@code classpath:warmup/sample.tex} or
+     * {@code file:/etc/pdf/warmup/invoice.tex}. They should load the packages and fonts the clients use.
+     */
+    private List<String> templates = new ArrayList<>(Collections.singletonList("classpath:warmup/sample.tex"));
+
+    /**
+     * Number of times every sample is rendered in full. One more render of each runs as a preview.
+     */
+    private int rounds = 3;
+
+    /**
+     * Seconds the warm-up may take. The instance reports being ready after it, whether it finished or not.
+     */
+    private long timeout = 300;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public List<String> getTemplates() {
+        return templates;
+    }
+
+    public void setTemplates(List<String> templates) {
+        this.templates = templates;
+    }
+
+    public int getRounds() {
+        return rounds;
+    }
+
+    public void setRounds(int rounds) {
+        this.rounds = rounds;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+}
@@ -0,0 +1,92 @@
+package de.wits.pdf.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "workspace")
+public class WorkspaceProperties {
+
+    /**
+     * Where the working folders of the jobs are created, {@code workspaces} below the temporal folder if
+     * not set. Pointing it to a tmpfs mount keeps the LaTeX scratch files in memory; media and assets
+     * are copied instead of linked then, since links cannot cross file systems.
+     */
+    private String folder;
+
+    /**
+     * Bytes all working folders may take together. New jobs are rejected while they take more.
+     */
+    private long maxBytes = 4L * 1024 * 1024 * 1024;
+
+    /**
+     * Bytes a new working folder is expected to take. They count against {@code max-bytes} from its
+     * creation until the folder is measured to be larger or is deleted, so a burst of new jobs cannot
+     * pass the quota before the sweep measures their folders.
+     */
+    private long reservedBytes = 16L * 1024 * 1024;
+
+    /**
+     * Bytes that have to stay free on the file system of the working folders. New jobs are rejected
+     * below it.
+     */
+    private long minFreeBytes = 512L * 1024 * 1024;
+
+    /**
+     * Seconds after which a folder no job of this instance works in is deleted by the sweep.
+     */
+    private long maxAge = 3600;
+
+    /**
+     * Folders deleted by one sweep at most, so a large backlog is removed over several runs.
+     */
+    private int sweepBatch = 200;
+
+    public String getFolder() {
+        return folder;
+    }
+
+    public void setFolder(String folder) {
+        this.folder = folder;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public long getReservedBytes() {
+        return reservedBytes;
+    }
+
+    public void setReservedBytes(long reservedBytes) {
+        this.reservedBytes = reservedBytes;
+    }
+
+    public long getMinFreeBytes() {
+        return minFreeBytes;
+    }
+
+    public void setMinFreeBytes(long minFreeBytes) {
+        this.minFreeBytes = minFreeBytes;
+    }
+
+    public long getMaxAge() {
+        return maxAge;
+    }
+
+    public void setMaxAge(long maxAge) {
+        this.maxAge = maxAge;
+    }
+
+    public int getSweepBatch() {
+        return sweepBatch;
+    }
+
+    public void setSweepBatch(int sweepBatch) {
+        this.sweepBatch = sweepBatch;
+    }
+}
@@ -0,0 +1,55 @@
+package de.wits.pdf.controller;
+
+import de.wits.pdf.service.AssetStore;
+import de.wits.pdf.service.UploadRejectedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lets clients of {@code /zippedpdf} find out which assets of a bundle the server already has, so they
+ * only send the others, see {@link AssetStore}.
+ */
+@RestController
+public class AssetController {
+
+    @Autowired
+    AssetStore assetStore;
+
+    private static final Logger log = LoggerFactory.getLogger(AssetController.class);
+
+    /**
+     * Takes a manifest, the paths of a bundle mapped to the SHA-256 hashes of their content.
+     *
+     * @return the hashes the server does not have
+     */
+    @RequestMapping(value = "/assets/missing", method = RequestMethod.POST, consumes = "application/json")
+    public List<String> missing(@RequestBody Map<String, String> manifest) {
+        return assetStore.missing(manifest.values());
+    }
+
+    /**
+     * Uploads a single asset under the SHA-256 hash of its content.
+     */
+    @RequestMapping(value = "/assets/{hash}", method = RequestMethod.PUT)
+    public ResponseEntity<Void> put(@PathVariable String hash, HttpServletRequest request) throws IOException {
+        try {
+            return new ResponseEntity<>(assetStore.put(hash, request.getInputStream()) ? HttpStatus.CREATED : HttpStatus.NO_CONTENT);
+        } catch (UploadRejectedException e) {
+            log.warn("Rejecting asset {}: {}", hash, e.getMessage());
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+    }
+}
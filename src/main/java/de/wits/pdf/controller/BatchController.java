@@ -0,0 +1,148 @@
+package de.wits.pdf.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.wits.pdf.configuration.GenerationProperties;
+import de.wits.pdf.model.BatchItemResult;
+import de.wits.pdf.model.BatchRequest;
+import de.wits.pdf.model.JobState;
+import de.wits.pdf.model.PdfRequest;
+import de.wits.pdf.service.BatchService;
+import de.wits.pdf.service.PDFCreationFailedException;
+import de.wits.pdf.service.PdfMerger;
+import de.wits.pdf.service.RenderQueueFullException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.IOException;
+import java.security.Principal;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Renders many documents in one call and streams them back as a zip archive while they finish. The
+ * archive ends with {@code report.json}, which lists the outcome of every document.
+ * <p>
+ * Merged batches answer with one PDF instead. The indexes of documents that failed are listed in the
+ * {@code X-Failed-Documents} header; if all of them failed, the report is returned with status 500.
+ */
+@RestController
+public class BatchController {
+
+    static final String REPORT_NAME = "report.json";
+    static final String FAILED_HEADER = "X-Failed-Documents";
+
+    @Autowired
+    BatchService batchService;
+
+    @Autowired
+    PdfMerger pdfMerger;
+
+    @Autowired
+    GenerationProperties generationProperties;
+
+    @Autowired
+    PdfResponseWriter pdfResponseWriter;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    private static final Logger log = LoggerFactory.getLogger(BatchController.class);
+
+    @RequestMapping(value = "/batch", method = RequestMethod.POST, consumes = "application/json")
+    public void render(@RequestBody BatchRequest batch, Principal principal, HttpServletRequest httpRequest, HttpServletResponse response) throws IOException, InterruptedException {
+        String tenant = Tenants.of(principal);
+        if (batch.size() == 0) {
+            response.setStatus(HttpStatus.BAD_REQUEST.value());
+            return;
+        }
+        if (batch.isMerge()) {
+            renderMerged(batch, tenant, httpRequest, response);
+            return;
+        }
+        log.info("Rendering a batch of {} documents", batch.size());
+        response.setContentType("application/zip");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"batch.zip\"");
+
+        try (ZipOutputStream zip = new ZipOutputStream(response.getOutputStream())) {
+            // PDFs are compressed already
+            zip.setLevel(Deflater.BEST_SPEED);
+            List<BatchItemResult> results = batchService.render(batch, tenant, (result, pdfFile) -> {
+                if (result.getState() == JobState.DONE) {
+                    zip.putNextEntry(new ZipEntry(result.getName()));
+                    Files.copy(pdfFile.toPath(), zip);
+                    zip.closeEntry();
+                    zip.flush();
+                }
+            });
+            zip.putNextEntry(new ZipEntry(REPORT_NAME));
+            zip.write(objectMapper.writerWithDefaultPrettyPrinter().writeValueAsBytes(results));
+            zip.closeEntry();
+        }
+    }
+
+    private void renderMerged(BatchRequest batch, String tenant, HttpServletRequest httpRequest, HttpServletResponse response) throws IOException, InterruptedException {
+        log.info("Rendering a merged batch of {} documents", batch.size());
+        PdfRequest merge;
+        try {
+            merge = pdfMerger.newMerge(tenant);
+        } catch (RenderQueueFullException e) {
+            log.warn("Rejecting merge: {}", e.getMessage());
+            response.setStatus(Tenants.rejection(e).value());
+            return;
+        }
+        try {
+            Map<Integer, File> parts = new TreeMap<>();
+            List<BatchItemResult> results = batchService.render(batch, tenant, (result, pdfFile) -> {
+                if (result.getState() == JobState.DONE) {
+                    parts.put(result.getIndex(), pdfMerger.addPart(merge, result.getIndex(), pdfFile));
+                }
+            });
+            if (parts.isEmpty()) {
+                response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR.value());
+                response.setContentType("application/json");
+                objectMapper.writerWithDefaultPrettyPrinter().writeValue(response.getOutputStream(), results);
+                return;
+            }
+
+            File merged;
+            try {
+                merged = pdfMerger.merge(merge, new ArrayList<>(parts.values()), generationProperties.getOptimization());
+            } catch (RenderQueueFullException e) {
+                log.warn("Rejecting merge: {}", e.getMessage());
+                response.setStatus(Tenants.rejection(e).value());
+                return;
+            } catch (PDFCreationFailedException e) {
+                log.error("Could not merge the batch", e);
+                response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR.value());
+                return;
+            }
+            String failed = results.stream()
+                    .filter(result -> result.getState() != JobState.DONE)
+                    .map(result -> String.valueOf(result.getIndex()))
+                    .collect(Collectors.joining(","));
+            if (!failed.isEmpty()) {
+                response.setHeader(FAILED_HEADER, failed);
+            }
+            pdfResponseWriter.write(merged, httpRequest, response);
+        } finally {
+            pdfMerger.release(merge);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package de.wits.pdf.controller;
+
+import de.wits.pdf.model.JobState;
+import de.wits.pdf.model.JobStatus;
+import de.wits.pdf.model.OptimizationLevel;
+import de.wits.pdf.model.PdfJob;
+import de.wits.pdf.model.PdfRequest;
+import de.wits.pdf.service.JobService;
+import de.wits.pdf.service.PDFCreationFailedException;
+import de.wits.pdf.service.PdfMerger;
+import de.wits.pdf.service.RenderQueueFullException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.IOException;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Asynchronous variant of {@code /pdf}: submit a template, poll the job and download the result once it
+ * is done. Results of finished jobs can also be downloaded merged into one document.
+ */
+@RestController
+public class JobController {
+
+    @Autowired
+    JobService jobService;
+
+    @Autowired
+    PdfMerger pdfMerger;
+
+    @Autowired
+    PdfResponseWriter pdfResponseWriter;
+
+    private static final Logger log = LoggerFactory.getLogger(JobController.class);
+
+    @RequestMapping(value = "/jobs", method = RequestMethod.POST, consumes = "text/plain")
+    public ResponseEntity<JobStatus> submit(@RequestBody String template,
+                                            @RequestParam(value = "callback", required = false) String callbackUrl,
+                                            Principal principal) {
+        if (template == null) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        PdfJob job;
+        try {
+            job = jobService.submit(template, callbackUrl, Tenants.of(principal));
+        } catch (RenderQueueFullException e) {
+            log.warn("Rejecting job: {}", e.getMessage());
+            return new ResponseEntity<>(Tenants.rejection(e));
+        } catch (PDFCreationFailedException e) {
+            log.warn("Rejecting job: {}", e.getMessage());
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        return ResponseEntity.accepted()
+                .location(ServletUriComponentsBuilder.fromCurrentRequest().path("/{id}").buildAndExpand(job.getId()).toUri())
+                .body(jobService.status(job));
+    }
+
+    @RequestMapping(value = "/jobs/{id}", method = RequestMethod.GET)
+    public ResponseEntity<JobStatus> status(@PathVariable UUID id) {
+        PdfJob job = jobService.get(id);
+        if (job == null) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        return ResponseEntity.ok(jobService.status(job));
+    }
+
+    /**
+     * Cancels a job that is still waiting or running, or deletes a finished one.
+     */
+    @RequestMapping(value = "/jobs/{id}", method = RequestMethod.DELETE)
+    public ResponseEntity<JobStatus> cancel(@PathVariable UUID id) {
+        PdfJob job = jobService.get(id);
+        if (job == null) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        if (jobService.cancel(job)) {
+            return ResponseEntity.accepted().body(jobService.status(job));
+        }
+        return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+    }
+
+    @RequestMapping(value = "/jobs/{id}/pdf", method = {RequestMethod.GET, RequestMethod.HEAD})
+    public void result(@PathVariable UUID id, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        PdfJob job = jobService.get(id);
+        if (job == null) {
+            response.setStatus(HttpStatus.NOT_FOUND.value());
+            return;
+        }
+        if (job.getState() != JobState.DONE) {
+            // not finished yet or failed, the job status tells which
+            response.setStatus(HttpStatus.CONFLICT.value());
+            return;
+        }
+        pdfResponseWriter.write(job.getResult(), request, response);
+    }
+
+    /**
+     * Concatenates the results of finished jobs in the given order.
+     */
+    @RequestMapping(value = "/jobs/merge", method = RequestMethod.POST, consumes = "application/json")
+    public void merge(@RequestBody List<UUID> ids, Principal principal, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (ids == null || ids.isEmpty()) {
+            response.setStatus(HttpStatus.BAD_REQUEST.value());
+            return;
+        }
+        List<PdfJob> jobs = new ArrayList<>(ids.size());
+        for (UUID id : ids) {
+            PdfJob job = jobService.get(id);
+            if (job == null) {
+                response.setStatus(HttpStatus.NOT_FOUND.value());
+                return;
+            }
+            if (job.getState() != JobState.DONE) {
+                response.setStatus(HttpStatus.CONFLICT.value());
+                return;
+            }
+            jobs.add(job);
+        }
+
+        PdfRequest merge;
+        try {
+            merge = pdfMerger.newMerge(Tenants.of(principal));
+        } catch (RenderQueueFullException e) {
+            log.warn("Rejecting merge: {}", e.getMessage());
+            response.setStatus(Tenants.rejection(e).value());
+            return;
+        }
+        try {
+            List<File> parts = new ArrayList<>(jobs.size());
+            for (PdfJob job : jobs) {
+                // taken right away, the job may expire while the merge waits for a worker
+                parts.add(pdfMerger.addPart(merge, parts.size(), job.getResult()));
+            }
+            File merged;
+            try {
+                // job results have been post processed already
+                merged = pdfMerger.merge(merge, parts, OptimizationLevel.METADATA);
+            } catch (RenderQueueFullException e) {
+                log.warn("Rejecting merge: {}", e.getMessage());
+                response.setStatus(Tenants.rejection(e).value());
+                return;
+            } catch (PDFCreationFailedException e) {
+                log.error("Could not merge jobs {}", ids, e);
+                response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR.value());
+                return;
+            }
+            pdfResponseWriter.write(merged, request, response);
+        } finally {
+            pdfMerger.release(merge);
+        }
+    }
+}
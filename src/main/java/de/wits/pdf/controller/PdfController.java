@@ -1,22 +1,29 @@
 package de.wits.pdf.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.wits.pdf.model.PageRange;
 import de.wits.pdf.model.PdfRequest;
+import de.wits.pdf.service.AssetStore;
+import de.wits.pdf.service.MissingAssetsException;
 import de.wits.pdf.service.PdfService;
+import de.wits.pdf.service.RenderQueueFullException;
+import de.wits.pdf.service.UploadRejectedException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
-import org.springframework.http.MediaType;
-import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.security.Principal;
+import java.util.Collections;
 import java.util.UUID;
 
 @RestController
@@ -25,50 +32,100 @@ public class PdfController {
     @Autowired
     PdfService pdfService;
 
+    @Autowired
+    PdfResponseWriter pdfResponseWriter;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
     private static final Logger log = LoggerFactory.getLogger(PdfController.class);
 
+    /**
+     * Renders a template. {@code preview=true} returns a quick draft for editors, {@code pages=2-4} only
+     * the given pages.
+     */
     @RequestMapping(value = "/pdf", method = RequestMethod.POST, consumes = "text/plain")
-    public ResponseEntity<byte[]> getPdfFile(@RequestBody String template) throws IOException {
+    public void getPdfFile(@RequestBody String template, @RequestParam(value = "preview", defaultValue = "false") boolean preview,
+                           @RequestParam(value = "pages", required = false) String pages, Principal principal,
+                           HttpServletRequest httpRequest, HttpServletResponse response) throws IOException {
         if (template == null) {
-            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+            response.setStatus(HttpStatus.BAD_REQUEST.value());
+            return;
         }
         log.debug("Generating PDF file");
-        File pdfFile;
-
+        PdfRequest request = new PdfRequest(UUID.randomUUID(), template);
+        request.setTenant(Tenants.of(principal));
+        request.setPreview(preview);
         try {
-            pdfFile = pdfService.getPdf(new PdfRequest(UUID.randomUUID(), template)).get();
-            log.trace("Returning pdf file {} stored at {}", pdfFile.getName(), pdfFile.getAbsolutePath());
-        } catch (Exception e) {
-            log.error("Exception occurred while generating the PDF file", e);
-            return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+            request.setPages(pages != null ? PageRange.parse(pages) : null);
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpStatus.BAD_REQUEST.value(), e.getMessage());
+            return;
+        }
+        try {
+            File pdfFile;
+            try {
+                pdfFile = pdfService.getPdf(request).get();
+                log.trace("Returning pdf file {} stored at {}", pdfFile.getName(), pdfFile.getAbsolutePath());
+            } catch (RenderQueueFullException e) {
+                log.warn("Rejecting PDF request: {}", e.getMessage());
+                response.setStatus(Tenants.rejection(e).value());
+                return;
+            } catch (Exception e) {
+                log.error("Exception occurred while generating the PDF file", e);
+                response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR.value());
+                return;
+            }
+            log.info("Returning file");
+            pdfResponseWriter.write(pdfFile, httpRequest, response);
+        } finally {
+            // stops the render if we got here without its result
+            pdfService.cancel(request);
+            pdfService.release(request);
         }
-        log.info("Returning file");
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.parseMediaType("application/pdf"));
-        headers.setCacheControl("must-revalidate, post-check=0, pre-check=0");
-        return new ResponseEntity<>(Files.readAllBytes(pdfFile.toPath()), headers, HttpStatus.OK);
     }
 
+    /**
+     * Renders a zip file with {@code template.tex} and its assets. Assets the server already has can be
+     * left out and listed in a {@value AssetStore#MANIFEST} instead, mapping their paths to the SHA-256
+     * hashes of their content; if some of them are missing after all, the answer is 409 with their hashes
+     * under {@code missing}.
+     */
     @RequestMapping(value = "/zippedpdf", headers = ("content-type=multipart/mixed"), method = RequestMethod.POST, consumes = "text/plain")
-    public ResponseEntity<byte[]> getPdfFileOutOfZip(@RequestBody byte[] zipFile) throws IOException {
-        if (zipFile == null) {
-            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
-        }
+    public void getPdfFileOutOfZip(Principal principal, HttpServletRequest httpRequest, HttpServletResponse response) throws IOException {
         log.debug("Generating PDF file out the provided zip file");
-        File pdfFile;
-
+        PdfRequest request = new PdfRequest(UUID.randomUUID(), null);
+        request.setTenant(Tenants.of(principal));
         try {
-            pdfFile = pdfService.getPdf(zipFile);
-            log.trace("Returning pdf file {} stored at {}", pdfFile.getName(), pdfFile.getAbsolutePath());
-            //resource = Files.readAllBytes(pdfService.getPdf(template).toPath());
-        } catch (Exception e) {
-            log.error("Exception occurred while generating the PDF file", e);
-            return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+            File pdfFile;
+            try {
+                pdfFile = pdfService.getPdf(request, httpRequest.getInputStream());
+                log.trace("Returning pdf file {} stored at {}", pdfFile.getName(), pdfFile.getAbsolutePath());
+            } catch (MissingAssetsException e) {
+                log.info("Asking for {} missing assets", e.getMissing().size());
+                response.setStatus(HttpStatus.CONFLICT.value());
+                response.setContentType("application/json");
+                objectMapper.writeValue(response.getOutputStream(), Collections.singletonMap("missing", e.getMissing()));
+                return;
+            } catch (UploadRejectedException e) {
+                log.warn("Rejecting zip file: {}", e.getMessage());
+                response.setStatus(HttpStatus.BAD_REQUEST.value());
+                return;
+            } catch (RenderQueueFullException e) {
+                log.warn("Rejecting PDF request: {}", e.getMessage());
+                response.setStatus(Tenants.rejection(e).value());
+                return;
+            } catch (Exception e) {
+                log.error("Exception occurred while generating the PDF file", e);
+                response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR.value());
+                return;
+            }
+            log.info("Returning file");
+            pdfResponseWriter.write(pdfFile, httpRequest, response);
+        } finally {
+            // stops the render if we got here without its result
+            pdfService.cancel(request);
+            pdfService.release(request);
         }
-        log.info("Returning file");
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.parseMediaType("application/pdf"));
-        headers.setCacheControl("must-revalidate, post-check=0, pre-check=0");
-        return new ResponseEntity<>(Files.readAllBytes(pdfFile.toPath()), headers, HttpStatus.OK);
     }
 }
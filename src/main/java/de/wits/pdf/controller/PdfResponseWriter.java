@@ -0,0 +1,119 @@
+package de.wits.pdf.controller;
+
+import de.wits.pdf.service.PdfResultCache;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Streams PDF files to the client from disk. The requested bytes are copied to the response through a
+ * small buffer instead of loading the file onto the heap; a range skips to its start without reading
+ * what lies before it. Single byte ranges and conditional requests ({@code If-None-Match},
+ * {@code If-Range}) are supported.
+ */
+@Component
+public class PdfResponseWriter {
+
+    private static final Pattern RANGE = Pattern.compile("^bytes=(\\d*)-(\\d*)$");
+    static final String PDF_CONTENT_TYPE = "application/pdf";
+
+    private final PdfResultCache resultCache;
+
+    @Autowired
+    public PdfResponseWriter(PdfResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    public void write(File pdfFile, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        long length = pdfFile.length();
+        String etag = etag(pdfFile);
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setHeader(HttpHeaders.CACHE_CONTROL, "must-revalidate, post-check=0, pre-check=0");
+
+        if (matches(request.getHeader(HttpHeaders.IF_NONE_MATCH), etag)) {
+            response.setStatus(isRead(request) ? HttpStatus.NOT_MODIFIED.value() : HttpStatus.PRECONDITION_FAILED.value());
+            return;
+        }
+
+        long start = 0;
+        long end = length - 1;
+        int status = HttpStatus.OK.value();
+        String range = request.getHeader(HttpHeaders.RANGE);
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        Matcher matcher = range != null ? RANGE.matcher(range) : null;
+        if (matcher != null && matcher.matches() && (ifRange == null || ifRange.equals(etag))) {
+            String first = matcher.group(1);
+            String last = matcher.group(2);
+            if (first.isEmpty() && !last.isEmpty()) {
+                start = Math.max(0, length - Long.parseLong(last));
+            } else if (!first.isEmpty()) {
+                start = Long.parseLong(first);
+                if (!last.isEmpty()) {
+                    end = Math.min(end, Long.parseLong(last));
+                }
+            }
+            if (first.isEmpty() && last.isEmpty() || start >= length || start > end) {
+                response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                return;
+            }
+            status = HttpStatus.PARTIAL_CONTENT.value();
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+        }
+
+        long count = end - start + 1;
+        response.setStatus(status);
+        response.setContentType(PDF_CONTENT_TYPE);
+        response.setHeader(HttpHeaders.CONTENT_LENGTH, Long.toString(count));
+        if (HttpMethod.HEAD.matches(request.getMethod())) {
+            return;
+        }
+
+        try (InputStream in = Files.newInputStream(pdfFile.toPath())) {
+            StreamUtils.copyRange(in, response.getOutputStream(), start, end);
+        }
+        response.flushBuffer();
+    }
+
+    /**
+     * Cached results are named by their key, which makes a strong validator. Other files get a weak one
+     * from their size and modification time.
+     */
+    String etag(File pdfFile) {
+        String key = resultCache.keyOf(pdfFile);
+        if (key != null) {
+            return "\"" + key + "\"";
+        }
+        return "W/\"" + Long.toHexString(pdfFile.length()) + "-" + Long.toHexString(pdfFile.lastModified()) + "\"";
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String trimmed = candidate.trim();
+            if (trimmed.equals("*") || trimmed.equals(etag) || trimmed.replaceFirst("^W/", "").equals(etag.replaceFirst("^W/", ""))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isRead(HttpServletRequest request) {
+        return HttpMethod.GET.matches(request.getMethod()) || HttpMethod.HEAD.matches(request.getMethod());
+    }
+}
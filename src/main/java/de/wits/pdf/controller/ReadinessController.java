@@ -0,0 +1,31 @@
+package de.wits.pdf.controller;
+
+import de.wits.pdf.service.Warmup;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Tells load balancers whether to send requests to the instance. Unlike {@code /health}, which is up as
+ * soon as the process runs, it answers 503 until the {@link Warmup} is over.
+ */
+@RestController
+public class ReadinessController {
+
+    @Autowired
+    Warmup warmup;
+
+    @RequestMapping(value = "/ready", method = RequestMethod.GET)
+    public ResponseEntity<Map<String, String>> ready() {
+        if (!warmup.isReady()) {
+            return new ResponseEntity<>(Collections.singletonMap("status", "WARMING_UP"), HttpStatus.SERVICE_UNAVAILABLE);
+        }
+        return new ResponseEntity<>(Collections.singletonMap("status", "UP"), HttpStatus.OK);
+    }
+}
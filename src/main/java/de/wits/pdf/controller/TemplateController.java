@@ -0,0 +1,158 @@
+package de.wits.pdf.controller;
+
+import de.wits.pdf.model.PageRange;
+import de.wits.pdf.model.PdfRequest;
+import de.wits.pdf.model.RegisteredTemplate;
+import de.wits.pdf.service.PDFCreationFailedException;
+import de.wits.pdf.service.PdfService;
+import de.wits.pdf.service.RenderQueueFullException;
+import de.wits.pdf.service.TemplateRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.IOException;
+import java.security.Principal;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+
+/**
+ * Registers templates with their assets and renders them from data only: the values of their
+ * {@code var:} placeholders, sent as a JSON object.
+ */
+@RestController
+public class TemplateController {
+
+    @Autowired
+    TemplateRegistry templateRegistry;
+
+    @Autowired
+    PdfService pdfService;
+
+    @Autowired
+    PdfResponseWriter pdfResponseWriter;
+
+    private static final Logger log = LoggerFactory.getLogger(TemplateController.class);
+
+    @RequestMapping(value = "/templates/{name}", method = RequestMethod.POST, consumes = "text/plain")
+    public ResponseEntity<RegisteredTemplate> register(@PathVariable String name, @RequestBody String template) throws IOException {
+        try {
+            return created(templateRegistry.register(name, template));
+        } catch (PDFCreationFailedException e) {
+            log.warn("Rejecting template {}: {}", name, e.getMessage());
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    /**
+     * Registers a zip file with {@code template.tex} and its assets.
+     */
+    @RequestMapping(value = "/templates/{name}", method = RequestMethod.POST, consumes = "application/zip")
+    public ResponseEntity<RegisteredTemplate> registerZip(@PathVariable String name, HttpServletRequest request) throws IOException {
+        try {
+            return created(templateRegistry.register(name, request.getInputStream()));
+        } catch (PDFCreationFailedException e) {
+            log.warn("Rejecting template {}: {}", name, e.getMessage());
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    @RequestMapping(value = "/templates/{name}", method = RequestMethod.GET)
+    public ResponseEntity<List<RegisteredTemplate>> versions(@PathVariable String name) {
+        List<RegisteredTemplate> versions = templateRegistry.versions(name);
+        if (versions.isEmpty()) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        return ResponseEntity.ok(versions);
+    }
+
+    @RequestMapping(value = "/templates/{name}/{version}", method = RequestMethod.GET)
+    public ResponseEntity<RegisteredTemplate> version(@PathVariable String name, @PathVariable int version) {
+        RegisteredTemplate template = templateRegistry.get(name, version);
+        if (template == null) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        return ResponseEntity.ok(template);
+    }
+
+    @RequestMapping(value = "/templates/{name}/{version}", method = RequestMethod.DELETE)
+    public ResponseEntity<Void> delete(@PathVariable String name, @PathVariable int version) throws IOException {
+        return new ResponseEntity<>(templateRegistry.delete(name, version) ? HttpStatus.NO_CONTENT : HttpStatus.NOT_FOUND);
+    }
+
+    /**
+     * Renders a registered template, the latest version unless one is given. Takes {@code preview} and
+     * {@code pages} like {@code /pdf}.
+     */
+    @RequestMapping(value = "/templates/{name}/pdf", method = RequestMethod.POST, consumes = "application/json")
+    public void render(@PathVariable String name, @RequestParam(value = "version", required = false) Integer version,
+                       @RequestParam(value = "preview", defaultValue = "false") boolean preview,
+                       @RequestParam(value = "pages", required = false) String pages,
+                       @RequestBody Map<String, String> data, Principal principal, HttpServletRequest httpRequest,
+                       HttpServletResponse response) throws IOException {
+        RegisteredTemplate template = templateRegistry.get(name, version);
+        if (template == null) {
+            response.setStatus(HttpStatus.NOT_FOUND.value());
+            return;
+        }
+        Set<String> missing = new TreeSet<>(template.getVariables());
+        missing.removeAll(data.keySet());
+        if (!missing.isEmpty()) {
+            log.warn("Rejecting render of template {} version {}, missing values for {}", name, template.getVersion(), missing);
+            response.sendError(HttpStatus.BAD_REQUEST.value(), "Missing values for " + missing);
+            return;
+        }
+
+        PdfRequest request = new PdfRequest(UUID.randomUUID(), template.getSource());
+        request.setAssets(template.getFolder());
+        request.setVariables(new HashMap<>(data));
+        request.setTenant(Tenants.of(principal));
+        request.setPreview(preview);
+        try {
+            request.setPages(pages != null ? PageRange.parse(pages) : null);
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpStatus.BAD_REQUEST.value(), e.getMessage());
+            return;
+        }
+        try {
+            File pdfFile;
+            try {
+                pdfFile = pdfService.getPdf(request).get();
+            } catch (RenderQueueFullException e) {
+                log.warn("Rejecting PDF request: {}", e.getMessage());
+                response.setStatus(Tenants.rejection(e).value());
+                return;
+            } catch (Exception e) {
+                log.error("Exception occurred while rendering template {} version {}", name, template.getVersion(), e);
+                response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR.value());
+                return;
+            }
+            pdfResponseWriter.write(pdfFile, httpRequest, response);
+        } finally {
+            // stops the render if we got here without its result
+            pdfService.cancel(request);
+            pdfService.release(request);
+        }
+    }
+
+    private static ResponseEntity<RegisteredTemplate> created(RegisteredTemplate template) {
+        return ResponseEntity.created(ServletUriComponentsBuilder.fromCurrentRequest().path("/{version}")
+                .buildAndExpand(template.getVersion()).toUri()).body(template);
+    }
+}
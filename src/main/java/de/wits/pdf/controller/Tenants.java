@@ -0,0 +1,41 @@
+package de.wits.pdf.controller;
+
+import de.wits.pdf.service.RenderQueueFullException;
+import de.wits.pdf.service.TenantBacklogFullException;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+
+import java.security.Principal;
+
+/**
+ * Tells which tenant a request is rendered for.
+ */
+final class Tenants {
+
+    static final String ANONYMOUS = "anonymous";
+
+    private Tenants() {
+    }
+
+    /**
+     * @return the OAuth2 client of the token, the name of any other principal, or {@link #ANONYMOUS}
+     * for requests without one
+     */
+    static String of(Principal principal) {
+        if (principal instanceof OAuth2Authentication) {
+            String clientId = ((OAuth2Authentication) principal).getOAuth2Request().getClientId();
+            if (clientId != null) {
+                return clientId;
+            }
+        }
+        return principal != null && principal.getName() != null ? principal.getName() : ANONYMOUS;
+    }
+
+    /**
+     * @return the status of a rejected request: 429 if only the backlog of its tenant is full, 503 if
+     * the service as a whole is busy
+     */
+    static HttpStatus rejection(RenderQueueFullException e) {
+        return e instanceof TenantBacklogFullException ? HttpStatus.TOO_MANY_REQUESTS : HttpStatus.SERVICE_UNAVAILABLE;
+    }
+}
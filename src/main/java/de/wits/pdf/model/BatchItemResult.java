@@ -0,0 +1,49 @@
+package de.wits.pdf.model;
+
+/**
+ * Outcome of a single document of a batch.
+ */
+public class BatchItemResult {
+
+    private int index;
+    private String name;
+    private JobState state;
+    private String error;
+    private long queueWaitMillis;
+    private long executionMillis;
+
+    public BatchItemResult(int index, String name, JobState state, String error, PdfRequest request) {
+        this.index = index;
+        this.name = name;
+        this.state = state;
+        this.error = error;
+        if (request != null) {
+            this.queueWaitMillis = request.getQueueWaitMillis();
+            this.executionMillis = request.getExecutionMillis();
+        }
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public JobState getState() {
+        return state;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public long getQueueWaitMillis() {
+        return queueWaitMillis;
+    }
+
+    public long getExecutionMillis() {
+        return executionMillis;
+    }
+}
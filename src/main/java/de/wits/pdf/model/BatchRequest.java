@@ -0,0 +1,60 @@
+package de.wits.pdf.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Many documents rendered in one call: either a list of complete templates, or one template together
+ * with a list of variable sets, each producing one document. With {@code merge} set, the documents are
+ * returned concatenated into one PDF instead.
+ */
+public class BatchRequest {
+
+    private String template;
+
+    private List<String> templates = new ArrayList<>();
+
+    private List<Map<String, String>> variables = new ArrayList<>();
+
+    private boolean merge;
+
+    public String getTemplate() {
+        return template;
+    }
+
+    public void setTemplate(String template) {
+        this.template = template;
+    }
+
+    public List<String> getTemplates() {
+        return templates;
+    }
+
+    public void setTemplates(List<String> templates) {
+        this.templates = templates;
+    }
+
+    public List<Map<String, String>> getVariables() {
+        return variables;
+    }
+
+    public void setVariables(List<Map<String, String>> variables) {
+        this.variables = variables;
+    }
+
+    public boolean isMerge() {
+        return merge;
+    }
+
+    public void setMerge(boolean merge) {
+        this.merge = merge;
+    }
+
+    public int size() {
+        if (template != null) {
+            return variables.isEmpty() ? 1 : variables.size();
+        }
+        return templates.size();
+    }
+}
@@ -0,0 +1,112 @@
+package de.wits.pdf.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.util.UUID;
+
+/**
+ * State of a job in distributed mode, kept in the shared folder so every instance can report it.
+ */
+public class JobRecord {
+
+    private UUID id;
+    private String tenant;
+    private String callbackUrl;
+    private JobState state;
+    private long submittedAt;
+    private long startedAt;
+    private long completedAt;
+    private String error;
+    private String instance;
+
+    public JobRecord() {
+    }
+
+    public JobRecord(UUID id, String tenant, String callbackUrl) {
+        this.id = id;
+        this.tenant = tenant;
+        this.callbackUrl = callbackUrl;
+        this.state = JobState.QUEUED;
+        this.submittedAt = System.currentTimeMillis();
+    }
+
+    public UUID getId() {
+        return id;
+    }
+
+    public void setId(UUID id) {
+        this.id = id;
+    }
+
+    public String getTenant() {
+        return tenant;
+    }
+
+    public void setTenant(String tenant) {
+        this.tenant = tenant;
+    }
+
+    public String getCallbackUrl() {
+        return callbackUrl;
+    }
+
+    public void setCallbackUrl(String callbackUrl) {
+        this.callbackUrl = callbackUrl;
+    }
+
+    public JobState getState() {
+        return state;
+    }
+
+    public void setState(JobState state) {
+        this.state = state;
+    }
+
+    public long getSubmittedAt() {
+        return submittedAt;
+    }
+
+    public void setSubmittedAt(long submittedAt) {
+        this.submittedAt = submittedAt;
+    }
+
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    public void setStartedAt(long startedAt) {
+        this.startedAt = startedAt;
+    }
+
+    public long getCompletedAt() {
+        return completedAt;
+    }
+
+    public void setCompletedAt(long completedAt) {
+        this.completedAt = completedAt;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    /**
+     * @return the instance that rendered the job, null while nobody has taken it
+     */
+    public String getInstance() {
+        return instance;
+    }
+
+    public void setInstance(String instance) {
+        this.instance = instance;
+    }
+
+    @JsonIgnore
+    public boolean isCompleted() {
+        return completedAt > 0;
+    }
+}
@@ -0,0 +1,5 @@
+package de.wits.pdf.model;
+
+public enum JobState {
+    QUEUED, RUNNING, DONE, FAILED
+}
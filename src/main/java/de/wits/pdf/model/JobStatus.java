@@ -0,0 +1,64 @@
+package de.wits.pdf.model;
+
+import java.util.UUID;
+
+/**
+ * What the job API reports about a job.
+ */
+public class JobStatus {
+
+    private UUID id;
+    private JobState state;
+    private Integer queuePosition;
+    private long submittedAt;
+    private long completedAt;
+    private long queueWaitMillis;
+    private long executionMillis;
+    private String error;
+
+    public JobStatus(PdfJob job, Integer queuePosition) {
+        this.id = job.getId();
+        this.state = job.getState();
+        this.queuePosition = queuePosition;
+        this.submittedAt = job.getSubmittedAt();
+        this.completedAt = job.getCompletedAt();
+        this.queueWaitMillis = job.getRequest().getQueueWaitMillis();
+        this.executionMillis = job.getRequest().getExecutionMillis();
+        this.error = job.getError();
+    }
+
+    public UUID getId() {
+        return id;
+    }
+
+    public JobState getState() {
+        return state;
+    }
+
+    /**
+     * Zero based position in the render queue, null once the job has left it.
+     */
+    public Integer getQueuePosition() {
+        return queuePosition;
+    }
+
+    public long getSubmittedAt() {
+        return submittedAt;
+    }
+
+    public long getCompletedAt() {
+        return completedAt;
+    }
+
+    public long getQueueWaitMillis() {
+        return queueWaitMillis;
+    }
+
+    public long getExecutionMillis() {
+        return executionMillis;
+    }
+
+    public String getError() {
+        return error;
+    }
+}
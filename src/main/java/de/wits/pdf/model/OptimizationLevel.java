@@ -0,0 +1,23 @@
+package de.wits.pdf.model;
+
+/**
+ * How much post processing a rendered document gets.
+ */
+public enum OptimizationLevel {
+
+    /**
+     * The document is returned as pdflatex wrote it. Merged documents lose their outlines and page labels.
+     */
+    NONE,
+
+    /**
+     * No Ghostscript pass. Document information, outline and page labels are kept, which only takes work
+     * when documents are merged.
+     */
+    METADATA,
+
+    /**
+     * One Ghostscript pass shrinks the document. Its metadata is copied over from the input afterwards.
+     */
+    FULL
+}
@@ -0,0 +1,53 @@
+package de.wits.pdf.model;
+
+/**
+ * Pages of a document to return, counted from 1, both ends included.
+ */
+public final class PageRange {
+
+    private final int first;
+    private final int last;
+
+    public PageRange(int first, int last) {
+        if (first < 1 || last < first) {
+            throw new IllegalArgumentException("Invalid page range " + first + "-" + last);
+        }
+        this.first = first;
+        this.last = last;
+    }
+
+    /**
+     * Parses {@code 3}, {@code 2-5} or {@code 4-}, the latter up to the last page.
+     *
+     * @throws IllegalArgumentException if the range cannot be parsed
+     */
+    public static PageRange parse(String range) {
+        String[] ends = range.trim().split("-", -1);
+        try {
+            if (ends.length == 1) {
+                int page = Integer.parseInt(ends[0]);
+                return new PageRange(page, page);
+            }
+            if (ends.length == 2) {
+                int first = Integer.parseInt(ends[0].trim());
+                return new PageRange(first, ends[1].trim().isEmpty() ? Integer.MAX_VALUE : Integer.parseInt(ends[1].trim()));
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("Invalid page range " + range);
+    }
+
+    public int getFirst() {
+        return first;
+    }
+
+    public int getLast() {
+        return last;
+    }
+
+    @Override
+    public String toString() {
+        return last == Integer.MAX_VALUE ? first + "-" : first + "-" + last;
+    }
+}
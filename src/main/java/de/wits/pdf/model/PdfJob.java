@@ -0,0 +1,88 @@
+package de.wits.pdf.model;
+
+import java.io.File;
+import java.util.UUID;
+
+/**
+ * A render request submitted through the job API, kept until its result expires.
+ */
+public class PdfJob {
+
+    private final PdfRequest request;
+    private final String callbackUrl;
+    private final long submittedAt;
+
+    private volatile File result;
+    private volatile String error;
+    private volatile long completedAt;
+
+    public PdfJob(PdfRequest request, String callbackUrl) {
+        this(request, callbackUrl, System.currentTimeMillis());
+    }
+
+    public PdfJob(PdfRequest request, String callbackUrl, long submittedAt) {
+        this.request = request;
+        this.callbackUrl = callbackUrl;
+        this.submittedAt = submittedAt;
+    }
+
+    public UUID getId() {
+        return request.getId();
+    }
+
+    public PdfRequest getRequest() {
+        return request;
+    }
+
+    public String getCallbackUrl() {
+        return callbackUrl;
+    }
+
+    public long getSubmittedAt() {
+        return submittedAt;
+    }
+
+    public File getResult() {
+        return result;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public long getCompletedAt() {
+        return completedAt;
+    }
+
+    public JobState getState() {
+        if (result != null) {
+            return JobState.DONE;
+        }
+        if (error != null) {
+            return JobState.FAILED;
+        }
+        return request.getStartedAt() > 0 ? JobState.RUNNING : JobState.QUEUED;
+    }
+
+    public boolean isCompleted() {
+        return completedAt > 0;
+    }
+
+    public void succeeded(File result) {
+        succeeded(result, System.currentTimeMillis());
+    }
+
+    public void succeeded(File result, long completedAt) {
+        this.result = result;
+        this.completedAt = completedAt;
+    }
+
+    public void failed(String error) {
+        failed(error, System.currentTimeMillis());
+    }
+
+    public void failed(String error, long completedAt) {
+        this.error = error;
+        this.completedAt = completedAt;
+    }
+}
@@ -1,7 +1,9 @@
 package de.wits.pdf.model;
 
 import java.io.File;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by alberto on 12.07.17.
@@ -12,6 +14,23 @@ public class PdfRequest {
 
     File tmpFolder;
 
+    OptimizationLevel optimization;
+    boolean preview;
+    PageRange pages;
+
+    Priority priority = Priority.INTERACTIVE;
+    String tenant;
+
+    File assets;
+    Map<String, String> variables;
+
+    long queuedAt;
+    long startedAt;
+    long finishedAt;
+    final AtomicLong processMillis = new AtomicLong();
+
+    volatile boolean cancelled;
+
     public PdfRequest(UUID id, String latexTemplate) {
         this.id = id;
         this.latexTemplate = latexTemplate;
@@ -41,6 +60,146 @@ public class PdfRequest {
         this.tmpFolder = tmpFolder;
     }
 
+    /**
+     * @return post processing of this request, null for the configured default
+     */
+    public OptimizationLevel getOptimization() {
+        return optimization;
+    }
+
+    public void setOptimization(OptimizationLevel optimization) {
+        this.optimization = optimization;
+    }
+
+    /**
+     * @return true for a quick draft of the document: the first pdflatex pass only writes the
+     * auxiliary files, images are replaced by downscaled copies and there is no post processing
+     */
+    public boolean isPreview() {
+        return preview;
+    }
+
+    public void setPreview(boolean preview) {
+        this.preview = preview;
+    }
+
+    /**
+     * @return the pages to return, null for the whole document
+     */
+    public PageRange getPages() {
+        return pages;
+    }
+
+    public void setPages(PageRange pages) {
+        this.pages = pages;
+    }
+
+    public Priority getPriority() {
+        return priority;
+    }
+
+    public void setPriority(Priority priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * @return the client the request is rendered for, null if it is unknown. Requests of a tenant share
+     * its fair share of the render workers.
+     */
+    public String getTenant() {
+        return tenant;
+    }
+
+    public void setTenant(String tenant) {
+        this.tenant = tenant;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Marks the request as no longer wanted. Its processes are killed by the supervisor.
+     */
+    public void cancel() {
+        this.cancelled = true;
+    }
+
+    /**
+     * @return folder whose files are linked into the workspace before compiling, null for none
+     */
+    public File getAssets() {
+        return assets;
+    }
+
+    public void setAssets(File assets) {
+        this.assets = assets;
+    }
+
+    /**
+     * @return values of the {@code var:} placeholders of the template, null to leave them as they are
+     */
+    public Map<String, String> getVariables() {
+        return variables;
+    }
+
+    public void setVariables(Map<String, String> variables) {
+        this.variables = variables;
+    }
+
+    public long getQueuedAt() {
+        return queuedAt;
+    }
+
+    public void setQueuedAt(long queuedAt) {
+        this.queuedAt = queuedAt;
+    }
+
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    public void setStartedAt(long startedAt) {
+        this.startedAt = startedAt;
+    }
+
+    public long getFinishedAt() {
+        return finishedAt;
+    }
+
+    public void setFinishedAt(long finishedAt) {
+        this.finishedAt = finishedAt;
+    }
+
+    /**
+     * Time the request spent waiting for a free render worker.
+     */
+    public long getQueueWaitMillis() {
+        return startedAt > 0 ? startedAt - queuedAt : 0;
+    }
+
+    /**
+     * Time the render worker spent on the request.
+     */
+    public long getExecutionMillis() {
+        return finishedAt > 0 ? finishedAt - startedAt : 0;
+    }
+
+    /**
+     * Adds the time a pdflatex or Ghostscript process ran for the request.
+     */
+    public void addProcessMillis(long millis) {
+        processMillis.addAndGet(millis);
+    }
+
+    /**
+     * Time pdflatex and Ghostscript ran for the request, without downloads and waiting. 0 if the result
+     * came from the cache or from the render of an identical request.
+     */
+    public long getProcessMillis() {
+        return processMillis.get();
+    }
+
 
     @Override
     public boolean equals(Object o) {
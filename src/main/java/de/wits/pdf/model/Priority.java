@@ -0,0 +1,18 @@
+package de.wits.pdf.model;
+
+/**
+ * Scheduling class of a render request.
+ */
+public enum Priority {
+
+    /**
+     * A client waits for the document, e.g. on {@code /pdf}. Always taken before bulk requests.
+     */
+    INTERACTIVE,
+
+    /**
+     * Jobs and batches, whose results are picked up later. They use the workers interactive requests
+     * leave free.
+     */
+    BULK
+}
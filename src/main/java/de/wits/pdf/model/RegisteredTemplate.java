@@ -0,0 +1,60 @@
+package de.wits.pdf.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.io.File;
+import java.util.Set;
+
+/**
+ * One version of a template registered with the service, together with its assets.
+ */
+public class RegisteredTemplate {
+
+    private final String name;
+    private final int version;
+    private final long registeredAt;
+    private final File folder;
+    private final String source;
+    private final Set<String> variables;
+
+    public RegisteredTemplate(String name, int version, long registeredAt, File folder, String source, Set<String> variables) {
+        this.name = name;
+        this.version = version;
+        this.registeredAt = registeredAt;
+        this.folder = folder;
+        this.source = source;
+        this.variables = variables;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public long getRegisteredAt() {
+        return registeredAt;
+    }
+
+    /**
+     * @return folder holding {@code template.tex} and the assets
+     */
+    @JsonIgnore
+    public File getFolder() {
+        return folder;
+    }
+
+    @JsonIgnore
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * @return names of the {@code var:} placeholders a render has to provide
+     */
+    public Set<String> getVariables() {
+        return variables;
+    }
+}
@@ -0,0 +1,407 @@
+package de.wits.pdf.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.wits.pdf.configuration.AssetProperties;
+import de.wits.pdf.configuration.FileSystemPathProperties;
+import de.wits.pdf.configuration.UploadProperties;
+import de.wits.pdf.model.PdfRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed store of the files of uploaded bundles, below {@code pdf.temporal/assets}. Every file
+ * is kept once under the SHA-256 hash of its content and hard linked into the workspaces of the jobs
+ * using it.
+ * <p>
+ * A bundle may carry a {@value #MANIFEST} mapping paths to the hashes of files the client expects the
+ * server to have; only the files the store is missing have to be in the zip. Clients ask for those
+ * beforehand with {@link #missing(Collection)}, or learn them from the {@link MissingAssetsException} of
+ * a bundle sent without them. Files in the zip are added to the store as they are.
+ * <p>
+ * Assets are counted as referenced while a job links to them and never evicted then; the others are
+ * evicted least recently used first once the store exceeds {@code assets.max-bytes}.
+ * <p>
+ * Stored assets are read-only, and so are their links in the workspaces; pdflatex writing to a bundle
+ * file would otherwise change it for every later job. Processes running as the owner or as root can still
+ * write to them, so the modification time of an asset is recorded whenever its content is known to match
+ * its hash. An asset modified since, or not seen since the start, is hashed again before it is handed
+ * out and removed if it no longer matches. Use times are kept in memory for that reason.
+ */
+@Component
+public class AssetStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AssetStore.class);
+    static final String ASSETS_FOLDER = "assets";
+    public static final String MANIFEST = "manifest.json";
+    private static final Pattern HASH = Pattern.compile("[0-9a-f]{64}");
+
+    private final AssetProperties assetProperties;
+    private final FileSystemPathProperties fileSystemPathProperties;
+    private final UploadProperties uploadProperties;
+    private final ObjectMapper objectMapper;
+    private final PdfMetrics metrics;
+    // guarded by this
+    private final Map<String, Integer> references = new HashMap<>();
+    private final Map<UUID, Collection<String>> requestReferences = new ConcurrentHashMap<>();
+    private final Map<String, Long> lastUsed = new ConcurrentHashMap<>();
+    // modification times at which the assets were known to match their hashes
+    private final Map<String, Long> verified = new ConcurrentHashMap<>();
+    private final AtomicLong size = new AtomicLong();
+    private File assetsFolder;
+
+    @Autowired
+    public AssetStore(AssetProperties assetProperties, FileSystemPathProperties fileSystemPathProperties,
+                      UploadProperties uploadProperties, ObjectMapper objectMapper, PdfMetrics metrics) {
+        this.assetProperties = assetProperties;
+        this.fileSystemPathProperties = fileSystemPathProperties;
+        this.uploadProperties = uploadProperties;
+        this.objectMapper = objectMapper;
+        this.metrics = metrics;
+    }
+
+    @PostConstruct
+    public void init() {
+        assetsFolder = new File(fileSystemPathProperties.getTemporal(), ASSETS_FOLDER);
+        assetsFolder.mkdirs();
+        size.set(entries().stream().mapToLong(File::length).sum());
+        metrics.recordAssetStore(size.get());
+    }
+
+    public static boolean isHash(String hash) {
+        return hash != null && HASH.matcher(hash).matches();
+    }
+
+    /**
+     * @return the hashes the store does not have, in the given order without duplicates
+     */
+    public List<String> missing(Collection<String> hashes) {
+        return hashes.stream().distinct().filter(hash -> !isHash(hash) || !file(hash).isFile()).collect(Collectors.toList());
+    }
+
+    /**
+     * Adds an asset uploaded on its own.
+     *
+     * @return true if it was new
+     * @throws UploadRejectedException if the content does not match the hash or is too large
+     */
+    public boolean put(String hash, InputStream content) throws IOException, UploadRejectedException {
+        if (!isHash(hash)) {
+            throw new UploadRejectedException("Not a SHA-256 hash: " + hash);
+        }
+        if (intact(hash)) {
+            lastUsed.put(hash, System.currentTimeMillis());
+            return false;
+        }
+        File upload = File.createTempFile("upload", ".part", assetsFolder);
+        try {
+            MessageDigest digest = Digests.sha256();
+            byte[] buffer = new byte[8192];
+            long length = 0;
+            try (OutputStream out = Files.newOutputStream(upload.toPath())) {
+                int read;
+                while ((read = content.read(buffer)) != -1) {
+                    length += read;
+                    if (length > uploadProperties.getMaxUncompressedBytes()) {
+                        throw new UploadRejectedException("Asset is larger than " + uploadProperties.getMaxUncompressedBytes() + " bytes");
+                    }
+                    digest.update(buffer, 0, read);
+                    out.write(buffer, 0, read);
+                }
+            }
+            String actual = Digests.hex(digest.digest());
+            if (!actual.equals(hash)) {
+                throw new UploadRejectedException("Asset content has the hash " + actual + ", not " + hash);
+            }
+            synchronized (this) {
+                if (file(hash).isFile()) {
+                    return false;
+                }
+                Files.move(upload.toPath(), file(hash).toPath(), StandardCopyOption.ATOMIC_MOVE);
+                seal(hash);
+                size.addAndGet(file(hash).length());
+            }
+            metrics.recordAssetStored();
+            evictIfFull();
+            return true;
+        } finally {
+            Files.deleteIfExists(upload.toPath());
+        }
+    }
+
+    /**
+     * Completes the workspace of an uploaded bundle: the extracted files are added to the store, the files
+     * of the manifest are linked from it. Both count as referenced by the request until it is
+     * {@link #release(PdfRequest) released}. Files named like the outputs of the job are copied, not
+     * shared; pdflatex would write through their links into the store.
+     *
+     * @throws MissingAssetsException  if the manifest names assets the store does not have; the files of
+     *                                 the bundle are kept for the next attempt
+     * @throws UploadRejectedException if the manifest is malformed
+     */
+    public void assemble(PdfRequest request, File workspace) throws IOException, UploadRejectedException {
+        Path root = workspace.toPath().toAbsolutePath().normalize();
+        Map<String, String> manifest = readManifest(root.resolve(MANIFEST));
+        // one entry per reference taken
+        List<String> used = new ArrayList<>();
+        try {
+            for (Path file : extracted(root)) {
+                used.add(add(file));
+            }
+            List<String> missing = new ArrayList<>();
+            for (Map.Entry<String, String> entry : manifest.entrySet()) {
+                Path target = root.resolve(entry.getKey()).normalize();
+                if (!target.startsWith(root) || target.equals(root)) {
+                    throw new UploadRejectedException("Manifest path " + entry.getKey() + " points outside of the job folder");
+                }
+                if (acquire(entry.getValue())) {
+                    used.add(entry.getValue());
+                    link(entry.getValue(), target, isOutput(root, target));
+                    metrics.recordAssetReused();
+                } else {
+                    missing.add(entry.getValue());
+                }
+            }
+            if (!missing.isEmpty()) {
+                List<String> distinct = missing.stream().distinct().collect(Collectors.toList());
+                LOG.info("Bundle of request {} references {} assets the store does not have", request.getId(), distinct.size());
+                throw new MissingAssetsException(distinct);
+            }
+        } catch (IOException | UploadRejectedException | RuntimeException e) {
+            release(used);
+            throw e;
+        }
+        requestReferences.put(request.getId(), used);
+        evictIfFull();
+    }
+
+    /**
+     * Gives back the assets referenced by the workspace of a request.
+     */
+    public void release(PdfRequest request) {
+        Collection<String> used = requestReferences.remove(request.getId());
+        if (used != null) {
+            release(used);
+        }
+    }
+
+    /**
+     * Removes the least recently used assets no job references until the store fits into its size.
+     */
+    public synchronized void evict() {
+        List<File> files = entries();
+        files.sort(Comparator.comparingLong(file -> lastUsed.getOrDefault(file.getName(), file.lastModified())));
+        long total = files.stream().mapToLong(File::length).sum();
+        for (File file : files) {
+            if (total <= assetProperties.getMaxBytes()) {
+                break;
+            }
+            if (references.containsKey(file.getName())) {
+                continue;
+            }
+            total -= file.length();
+            remove(file.getName());
+            metrics.recordAssetEvicted();
+        }
+        size.set(total);
+        metrics.recordAssetStore(total);
+    }
+
+    /**
+     * @return the bytes taken by the stored assets
+     */
+    public long getSize() {
+        return size.get();
+    }
+
+    File file(String hash) {
+        return new File(assetsFolder, hash);
+    }
+
+    private Map<String, String> readManifest(Path file) throws IOException, UploadRejectedException {
+        if (!Files.isRegularFile(file)) {
+            return new HashMap<>();
+        }
+        Map<String, String> manifest;
+        try {
+            manifest = objectMapper.readValue(file.toFile(), new TypeReference<Map<String, String>>() {
+            });
+        } catch (IOException e) {
+            throw new UploadRejectedException("Malformed " + MANIFEST, e);
+        } finally {
+            Files.delete(file);
+        }
+        if (manifest == null) {
+            return new HashMap<>();
+        }
+        if (manifest.size() > uploadProperties.getMaxEntries()) {
+            throw new UploadRejectedException(MANIFEST + " has more than " + uploadProperties.getMaxEntries() + " entries");
+        }
+        for (String hash : manifest.values()) {
+            if (!isHash(hash)) {
+                throw new UploadRejectedException(MANIFEST + " holds a value that is no SHA-256 hash: " + hash);
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * @return the files of the workspace that are shared through the store
+     */
+    private static List<Path> extracted(Path root) throws IOException {
+        try (Stream<Path> walk = Files.walk(root)) {
+            return walk.filter(Files::isRegularFile).filter(path -> !isOutput(root, path)).collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Adds an extracted file to the store, or replaces it by a link to the stored copy.
+     *
+     * @return its hash, referenced once more
+     */
+    private String add(Path file) throws IOException {
+        String hash = FileHashes.hash(file);
+        File stored = file(hash);
+        boolean existing;
+        synchronized (this) {
+            existing = acquire(hash);
+            if (!existing) {
+                try {
+                    Files.createLink(stored.toPath(), file);
+                } catch (FileAlreadyExistsException e) {
+                    existing = true;
+                } catch (IOException | UnsupportedOperationException e) {
+                    Files.copy(file, stored.toPath());
+                }
+                references.merge(hash, 1, Integer::sum);
+                if (!existing) {
+                    seal(hash);
+                    size.addAndGet(stored.length());
+                }
+            }
+        }
+        if (existing) {
+            link(hash, file, false);
+            metrics.recordAssetReused();
+        } else {
+            metrics.recordAssetStored();
+        }
+        return hash;
+    }
+
+    private void link(String hash, Path target, boolean copy) throws IOException {
+        File stored = file(hash);
+        lastUsed.put(hash, System.currentTimeMillis());
+        if (copy) {
+            Files.createDirectories(target.getParent());
+            Files.copy(stored.toPath(), target, StandardCopyOption.REPLACE_EXISTING);
+            // the copy takes over the permissions of the asset
+            target.toFile().setWritable(true);
+        } else {
+            FileLinks.linkReadOnly(stored, target.toFile());
+        }
+    }
+
+    /**
+     * Makes a newly stored asset read-only and records it as matching its hash.
+     */
+    private void seal(String hash) throws IOException {
+        File stored = file(hash);
+        stored.setWritable(false, false);
+        FileHashes.remember(stored.toPath(), hash);
+        verified.put(hash, stored.lastModified());
+        lastUsed.put(hash, System.currentTimeMillis());
+    }
+
+    /**
+     * @return true if the store has the asset and its content still matches the hash; an asset that was
+     * modified is removed
+     */
+    private synchronized boolean intact(String hash) throws IOException {
+        File stored = file(hash);
+        if (!stored.isFile()) {
+            return false;
+        }
+        long modified = stored.lastModified();
+        if (verified.getOrDefault(hash, -1L) == modified) {
+            return true;
+        }
+        if (Digests.hex(FileHashes.digest(stored.toPath()).digest()).equals(hash)) {
+            FileHashes.remember(stored.toPath(), hash);
+            verified.put(hash, modified);
+            return true;
+        }
+        LOG.warn("Asset {} was modified in the store, removing it", hash);
+        size.addAndGet(-stored.length());
+        remove(hash);
+        return false;
+    }
+
+    private void remove(String hash) {
+        file(hash).delete();
+        verified.remove(hash);
+        lastUsed.remove(hash);
+    }
+
+    /**
+     * Counts a reference to a stored asset.
+     *
+     * @return false if the store does not have it, or not with the content of the hash
+     */
+    private synchronized boolean acquire(String hash) throws IOException {
+        if (!intact(hash)) {
+            return false;
+        }
+        references.merge(hash, 1, Integer::sum);
+        return true;
+    }
+
+    private synchronized void release(Collection<String> hashes) {
+        for (String hash : hashes) {
+            references.computeIfPresent(hash, (key, count) -> count > 1 ? count - 1 : null);
+        }
+    }
+
+    private void evictIfFull() {
+        if (size.get() > assetProperties.getMaxBytes()) {
+            evict();
+        } else {
+            metrics.recordAssetStore(size.get());
+        }
+    }
+
+    private List<File> entries() {
+        File[] files = assetsFolder.listFiles((dir, name) -> isHash(name));
+        return files != null ? new ArrayList<>(Arrays.asList(files)) : new ArrayList<>();
+    }
+
+    private static boolean isOutput(Path root, Path file) {
+        return file.getParent().equals(root) && file.getFileName().toString().startsWith("template.");
+    }
+}
@@ -0,0 +1,202 @@
+package de.wits.pdf.service;
+
+import de.wits.pdf.configuration.GenerationProperties;
+import de.wits.pdf.model.BatchItemResult;
+import de.wits.pdf.model.BatchRequest;
+import de.wits.pdf.model.JobState;
+import de.wits.pdf.model.OptimizationLevel;
+import de.wits.pdf.model.PdfRequest;
+import de.wits.pdf.model.Priority;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Renders the documents of a batch in parallel. At most as many documents as there are render workers
+ * are queued at a time, so one batch cannot fill the backlog on its own. Finished documents are handed
+ * to the caller in the order they complete; a failing document does not stop the others.
+ * <p>
+ * Documents of a batch usually share their media and preamble. Downloads are shared through the media
+ * cache, and the repeated preamble gets a pre-compiled format early in the batch.
+ */
+@Service
+public class BatchService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BatchService.class);
+
+    /**
+     * Receives every document of a batch as soon as it is done.
+     */
+    public interface ResultConsumer {
+
+        /**
+         * @param pdfFile the rendered document, null if it failed
+         */
+        void accept(BatchItemResult result, File pdfFile) throws IOException;
+    }
+
+    private final PdfService pdfService;
+    private final GenerationProperties generationProperties;
+
+    @Autowired
+    public BatchService(PdfService pdfService, GenerationProperties generationProperties) {
+        this.pdfService = pdfService;
+        this.generationProperties = generationProperties;
+    }
+
+    /**
+     * Renders the documents as bulk requests.
+     *
+     * @param tenant the client the batch is rendered for
+     */
+    public List<BatchItemResult> render(BatchRequest batch, String tenant, ResultConsumer consumer) throws IOException, InterruptedException {
+        int size = batch.size();
+        int parallelism = Math.max(1, generationProperties.getWorkers());
+        BlockingQueue<Completion> completions = new LinkedBlockingQueue<>();
+        AtomicBoolean abandoned = new AtomicBoolean();
+        List<PdfRequest> submitted = new ArrayList<>(size);
+        List<BatchItemResult> results = new ArrayList<>(size);
+        int next = 0;
+        int inFlight = 0;
+        Set<String> names = batch.getTemplate() != null ? TemplateVariables.names(batch.getTemplate()) : Collections.emptySet();
+
+        try {
+            while (next < size || inFlight > 0) {
+                while (next < size && inFlight < parallelism) {
+                    int index = next;
+                    PdfRequest request;
+                    try {
+                        request = new PdfRequest(UUID.randomUUID(), template(batch, index));
+                        request.setVariables(variables(batch, names, index));
+                        request.setPriority(Priority.BULK);
+                        request.setTenant(tenant);
+                        // merged batches are optimized once as a whole
+                        if (batch.isMerge()) {
+                            request.setOptimization(OptimizationLevel.NONE);
+                        }
+                    } catch (PDFCreationFailedException e) {
+                        next++;
+                        results.add(deliver(consumer, new BatchItemResult(index, name(index), JobState.FAILED, e.getMessage(), null), null));
+                        continue;
+                    }
+                    try {
+                        pdfService.getPdf(request).whenComplete((file, error) -> {
+                            if (abandoned.get()) {
+                                pdfService.release(request);
+                            } else {
+                                completions.add(new Completion(index, request, file, error));
+                            }
+                        });
+                        submitted.add(request);
+                        next++;
+                        inFlight++;
+                    } catch (RenderQueueFullException e) {
+                        pdfService.release(request);
+                        if (inFlight > 0) {
+                            // retry once one of our own documents has left the queue
+                            break;
+                        }
+                        next++;
+                        results.add(deliver(consumer, new BatchItemResult(index, name(index), JobState.FAILED, e.getMessage(), request), null));
+                    } catch (Exception e) {
+                        pdfService.release(request);
+                        next++;
+                        results.add(deliver(consumer, new BatchItemResult(index, name(index), JobState.FAILED, e.getMessage(), request), null));
+                    }
+                }
+                if (inFlight == 0) {
+                    continue;
+                }
+
+                Completion completion = completions.take();
+                inFlight--;
+                try {
+                    if (completion.error == null) {
+                        results.add(deliver(consumer, new BatchItemResult(completion.index, name(completion.index), JobState.DONE, null, completion.request), completion.file));
+                    } else {
+                        Throwable cause = completion.error.getCause() != null ? completion.error.getCause() : completion.error;
+                        LOG.warn("Document {} of the batch failed", completion.index, completion.error);
+                        results.add(deliver(consumer, new BatchItemResult(completion.index, name(completion.index), JobState.FAILED, cause.getMessage(), completion.request), null));
+                    }
+                } finally {
+                    pdfService.release(completion.request);
+                }
+            }
+        } finally {
+            abandoned.set(true);
+            if (inFlight > 0) {
+                // the consumer gave up, the remaining documents are not wanted anymore
+                submitted.forEach(pdfService::cancel);
+            }
+            Completion completion;
+            while ((completion = completions.poll()) != null) {
+                pdfService.release(completion.request);
+            }
+        }
+        results.sort(Comparator.comparingInt(BatchItemResult::getIndex));
+        return results;
+    }
+
+    public static String name(int index) {
+        return String.format("document-%04d.pdf", index);
+    }
+
+    private static String template(BatchRequest batch, int index) {
+        return batch.getTemplate() != null ? batch.getTemplate() : batch.getTemplates().get(index);
+    }
+
+    /**
+     * The variables are filled in while the template is rewritten, like those of registered templates,
+     * so placeholders in media references are treated the same.
+     *
+     * @param names the placeholders of the shared template
+     * @return the values of the document, null if there are none
+     */
+    private static Map<String, String> variables(BatchRequest batch, Set<String> names, int index) throws PDFCreationFailedException {
+        if (batch.getTemplate() == null || batch.getVariables().isEmpty()) {
+            return null;
+        }
+        Map<String, String> values = batch.getVariables().get(index);
+        for (String name : names) {
+            if (!values.containsKey(name)) {
+                throw new PDFCreationFailedException("No value for the template variable " + name);
+            }
+        }
+        return new HashMap<>(values);
+    }
+
+    private static BatchItemResult deliver(ResultConsumer consumer, BatchItemResult result, File pdfFile) throws IOException {
+        consumer.accept(result, pdfFile);
+        return result;
+    }
+
+    private static class Completion {
+
+        final int index;
+        final PdfRequest request;
+        final File file;
+        final Throwable error;
+
+        Completion(int index, PdfRequest request, File file, Throwable error) {
+            this.index = index;
+            this.request = request;
+            this.file = file;
+            this.error = error;
+        }
+    }
+}
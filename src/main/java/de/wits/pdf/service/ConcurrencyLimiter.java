@@ -0,0 +1,91 @@
+package de.wits.pdf.service;
+
+import de.wits.pdf.configuration.GenerationProperties;
+
+/**
+ * Adapts how many render jobs run at the same time, additive increase and multiplicative decrease.
+ * After every finished job the limit is reconsidered, at most once per {@code generation.limit-interval}:
+ * <ul>
+ * <li>it is lowered by a quarter when the recent process times exceed their long-term average by
+ * {@code generation.latency-tolerance}, or when the CPUs are oversubscribed and renders get slower,</li>
+ * <li>it is raised by one when jobs are waiting, every allowed job is running and the CPU load of the
+ * container is below {@code generation.target-cpu-load},</li>
+ * <li>otherwise it is kept.</li>
+ * </ul>
+ * Large hosts thus grow into their capacity while small ones stop piling up heavy compiles that only
+ * slow each other down.
+ */
+class ConcurrencyLimiter {
+
+    static final String INCREASE = "increase";
+    static final String DECREASE = "decrease";
+    static final String HOLD = "hold";
+
+    /**
+     * Weights of a new render time in the recent and in the long-term average.
+     */
+    private static final double RECENT_WEIGHT = 0.3;
+    private static final double AVERAGE_WEIGHT = 0.02;
+    private static final double BACKOFF = 0.75;
+
+    private final GenerationProperties generationProperties;
+    private final CpuLoad cpuLoad;
+    private final PdfMetrics metrics;
+    private final int min;
+    private final int max;
+    private int limit;
+    private double recent = Double.NaN;
+    private double average = Double.NaN;
+    private long lastDecision;
+
+    ConcurrencyLimiter(GenerationProperties generationProperties, CpuLoad cpuLoad, PdfMetrics metrics) {
+        this.generationProperties = generationProperties;
+        this.cpuLoad = cpuLoad;
+        this.metrics = metrics;
+        max = Math.max(1, generationProperties.getMaxWorkers() > 0 ? generationProperties.getMaxWorkers()
+                : Math.max(generationProperties.getWorkers(), 4 * cpuLoad.cpus()));
+        min = Math.max(1, Math.min(generationProperties.getMinWorkers(), max));
+        limit = Math.max(min, Math.min(generationProperties.getWorkers(), max));
+    }
+
+    synchronized int getLimit() {
+        return limit;
+    }
+
+    int getMax() {
+        return max;
+    }
+
+    /**
+     * Records a finished job and adapts the limit.
+     *
+     * @param processMillis time the processes of the job ran
+     * @param waiting       jobs in the backlog
+     * @param running       jobs running, including the finished one
+     * @return the new limit
+     */
+    synchronized int done(long processMillis, int waiting, int running, long now) {
+        recent = Double.isNaN(recent) ? processMillis : recent + RECENT_WEIGHT * (processMillis - recent);
+        average = Double.isNaN(average) ? processMillis : average + AVERAGE_WEIGHT * (processMillis - average);
+        if (now - lastDecision < generationProperties.getLimitInterval()) {
+            return limit;
+        }
+        lastDecision = now;
+        double load = cpuLoad.sample();
+        double slowdown = average > 0 ? recent / average : 1;
+        String decision = HOLD;
+        if (slowdown > generationProperties.getLatencyTolerance() || load > 1 && slowdown > 1) {
+            if (limit > min) {
+                limit = Math.max(min, Math.min(limit - 1, (int) (limit * BACKOFF)));
+                // the next decision only looks at renders under the new limit
+                recent = Double.NaN;
+                decision = DECREASE;
+            }
+        } else if (waiting > 0 && running >= limit && !(load >= generationProperties.getTargetCpuLoad()) && limit < max) {
+            limit++;
+            decision = INCREASE;
+        }
+        metrics.recordConcurrencyLimit(limit, decision, load);
+        return limit;
+    }
+}
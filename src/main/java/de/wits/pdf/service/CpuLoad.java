@@ -0,0 +1,111 @@
+package de.wits.pdf.service;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * CPU capacity and utilization of the container the service runs in. The capacity is the CPU quota of
+ * the cgroup if one is set, the number of processors otherwise. The utilization is measured from the
+ * CPU time the cgroup used, which includes the pdflatex and Ghostscript processes; without cgroup
+ * accounting the system load average is used instead.
+ */
+class CpuLoad {
+
+    private static final Path CGROUP = Paths.get("/sys/fs/cgroup");
+
+    private final Path cgroup;
+    private final int cpus;
+    private long lastUsageNanos = -1;
+    private long lastSampleNanos;
+
+    CpuLoad() {
+        this(CGROUP);
+    }
+
+    CpuLoad(Path cgroup) {
+        this.cgroup = cgroup;
+        this.cpus = cpus(cgroup);
+    }
+
+    /**
+     * @return the number of CPUs the service may use, rounded up
+     */
+    int cpus() {
+        return cpus;
+    }
+
+    /**
+     * @return share of the CPUs used since the last sample, 1 for fully used, NaN if unknown
+     */
+    synchronized double sample() {
+        long usage = usageNanos();
+        long now = System.nanoTime();
+        if (usage < 0) {
+            double average = ManagementFactory.getOperatingSystemMXBean().getSystemLoadAverage();
+            return average >= 0 ? average / cpus : Double.NaN;
+        }
+        double load = Double.NaN;
+        if (lastUsageNanos >= 0 && now > lastSampleNanos) {
+            load = (double) (usage - lastUsageNanos) / (now - lastSampleNanos) / cpus;
+        }
+        lastUsageNanos = usage;
+        lastSampleNanos = now;
+        return load;
+    }
+
+    /**
+     * @return CPU time used by the cgroup, -1 if there is no accounting
+     */
+    private long usageNanos() {
+        try {
+            // cgroup v2
+            for (String line : lines(cgroup.resolve("cpu.stat"))) {
+                if (line.startsWith("usage_usec ")) {
+                    return Long.parseLong(line.substring("usage_usec ".length()).trim()) * 1000;
+                }
+            }
+            // cgroup v1
+            List<String> usage = lines(cgroup.resolve("cpuacct").resolve("cpuacct.usage"));
+            return usage.isEmpty() ? -1 : Long.parseLong(usage.get(0).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    static int cpus(Path cgroup) {
+        int processors = Runtime.getRuntime().availableProcessors();
+        double quota = Double.NaN;
+        try {
+            List<String> max = lines(cgroup.resolve("cpu.max"));
+            if (!max.isEmpty()) {
+                String[] fields = max.get(0).trim().split("\\s+");
+                if (fields.length == 2 && !"max".equals(fields[0])) {
+                    quota = Double.parseDouble(fields[0]) / Double.parseDouble(fields[1]);
+                }
+            } else {
+                List<String> quotaMicros = lines(cgroup.resolve("cpu").resolve("cpu.cfs_quota_us"));
+                List<String> periodMicros = lines(cgroup.resolve("cpu").resolve("cpu.cfs_period_us"));
+                if (!quotaMicros.isEmpty() && !periodMicros.isEmpty() && Long.parseLong(quotaMicros.get(0).trim()) > 0) {
+                    quota = Double.parseDouble(quotaMicros.get(0).trim()) / Double.parseDouble(periodMicros.get(0).trim());
+                }
+            }
+        } catch (NumberFormatException e) {
+            quota = Double.NaN;
+        }
+        return Double.isNaN(quota) ? processors : Math.max(1, Math.min(processors, (int) Math.ceil(quota)));
+    }
+
+    private static List<String> lines(Path file) {
+        try {
+            return Files.readAllLines(file, StandardCharsets.UTF_8);
+        } catch (IOException | RuntimeException e) {
+            return Collections.emptyList();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package de.wits.pdf.service;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import de.wits.pdf.configuration.DistributedProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Takes jobs from the distributed queue while this instance has free workers, so a busy instance
+ * leaves them to the others. A taken job stays hidden from the other instances while it runs; its
+ * message is deleted once the job has finished, or given back right away if the job could not be
+ * admitted. If the instance dies, the message becomes visible again and another instance takes over.
+ */
+@Component
+@ConditionalOnProperty(prefix = "distributed", name = "enabled")
+public class DistributedJobWorker {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DistributedJobWorker.class);
+    private static final int MAX_MESSAGES = 10;
+    private static final long IDLE_MILLIS = 1000;
+    private static final long BACKOFF_MILLIS = 5000;
+
+    private final AmazonSQS sqs;
+    private final DistributedJobs distributedJobs;
+    private final JobService jobService;
+    private final RenderScheduler renderScheduler;
+    private final DistributedProperties distributedProperties;
+    // receipt handles of the messages of running jobs
+    private final Map<UUID, String> inFlight = new ConcurrentHashMap<>();
+    private Thread poller;
+    private long lastExtension;
+
+    @Autowired
+    public DistributedJobWorker(AmazonSQS sqs, DistributedJobs distributedJobs, JobService jobService,
+                                RenderScheduler renderScheduler, DistributedProperties distributedProperties) {
+        this.sqs = sqs;
+        this.distributedJobs = distributedJobs;
+        this.jobService = jobService;
+        this.renderScheduler = renderScheduler;
+        this.distributedProperties = distributedProperties;
+    }
+
+    @PostConstruct
+    public void start() {
+        poller = new Thread(this::poll, "distributed-job-poller");
+        poller.setDaemon(true);
+        poller.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        poller.interrupt();
+    }
+
+    private void poll() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                jobService.cancelExecuting();
+                extendVisibility();
+                int free = renderScheduler.getLimit() - renderScheduler.getActive() - renderScheduler.getWaiting();
+                if (free <= 0) {
+                    Thread.sleep(IDLE_MILLIS);
+                    continue;
+                }
+                ReceiveMessageRequest receive = new ReceiveMessageRequest(distributedJobs.getQueueUrl())
+                        .withMaxNumberOfMessages(Math.min(free, MAX_MESSAGES))
+                        .withWaitTimeSeconds(distributedProperties.getPollWait())
+                        .withVisibilityTimeout(distributedProperties.getVisibilityTimeout());
+                for (Message message : sqs.receiveMessage(receive).getMessages()) {
+                    take(message);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (AmazonClientException e) {
+                LOG.warn("Could not poll {}: {}", distributedJobs.getQueueUrl(), e.getMessage());
+                try {
+                    Thread.sleep(BACKOFF_MILLIS);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    private void take(Message message) {
+        UUID id;
+        try {
+            id = UUID.fromString(message.getBody());
+        } catch (IllegalArgumentException e) {
+            LOG.warn("Dropping message {} without a job id", message.getMessageId());
+            sqs.deleteMessage(distributedJobs.getQueueUrl(), message.getReceiptHandle());
+            return;
+        }
+        inFlight.put(id, message.getReceiptHandle());
+        jobService.execute(id).whenComplete((ignored, error) -> {
+            inFlight.remove(id);
+            try {
+                if (error == null) {
+                    sqs.deleteMessage(distributedJobs.getQueueUrl(), message.getReceiptHandle());
+                } else {
+                    LOG.info("Giving back job {}: {}", id, error.getMessage());
+                    sqs.changeMessageVisibility(distributedJobs.getQueueUrl(), message.getReceiptHandle(), 0);
+                }
+            } catch (AmazonClientException e) {
+                // the message becomes visible again, a finished job is skipped when it is delivered again
+                LOG.warn("Could not settle the message of job {}: {}", id, e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Keeps the messages of running jobs hidden, jobs may run longer than the visibility timeout.
+     */
+    private void extendVisibility() {
+        long now = System.currentTimeMillis();
+        if (now - lastExtension < TimeUnit.SECONDS.toMillis(distributedProperties.getVisibilityTimeout()) / 2) {
+            return;
+        }
+        lastExtension = now;
+        inFlight.forEach((id, receiptHandle) -> {
+            try {
+                sqs.changeMessageVisibility(distributedJobs.getQueueUrl(), receiptHandle, distributedProperties.getVisibilityTimeout());
+            } catch (AmazonClientException e) {
+                LOG.warn("Could not extend the visibility of job {}: {}", id, e.getMessage());
+            }
+        });
+    }
+}
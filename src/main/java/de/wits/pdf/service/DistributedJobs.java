@@ -0,0 +1,159 @@
+package de.wits.pdf.service;
+
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.wits.pdf.configuration.DistributedProperties;
+import de.wits.pdf.model.JobRecord;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Jobs shared by all instances in distributed mode. A job is published as a message holding its id to
+ * the SQS queue; its state, template and result live in the {@code jobs} folder below
+ * {@code distributed.shared-folder}, so every instance can report and serve it, whichever instance
+ * rendered it. Cancellation is signalled with a marker file the rendering instance looks for.
+ * <p>
+ * Files are replaced atomically, readers never see a partial state or result.
+ */
+@Service
+public class DistributedJobs {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DistributedJobs.class);
+    static final String JOBS_FOLDER = "jobs";
+
+    private final DistributedProperties distributedProperties;
+    private final ObjectMapper objectMapper;
+    private final AmazonSQS sqs;
+    private File jobsFolder;
+    private String queueUrl;
+
+    @Autowired
+    public DistributedJobs(DistributedProperties distributedProperties, ObjectMapper objectMapper, Optional<AmazonSQS> sqs) {
+        this.distributedProperties = distributedProperties;
+        this.objectMapper = objectMapper;
+        this.sqs = sqs.orElse(null);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!isEnabled()) {
+            return;
+        }
+        if (distributedProperties.getSharedFolder() == null) {
+            throw new IllegalStateException("distributed.shared-folder has to be set in distributed mode");
+        }
+        jobsFolder = new File(distributedProperties.getSharedFolder(), JOBS_FOLDER);
+        jobsFolder.mkdirs();
+        queueUrl = sqs.createQueue(distributedProperties.getQueue()).getQueueUrl();
+        LOG.info("Sharing jobs through {} and {}", queueUrl, jobsFolder);
+    }
+
+    public boolean isEnabled() {
+        return distributedProperties.isEnabled() && sqs != null;
+    }
+
+    public String getQueueUrl() {
+        return queueUrl;
+    }
+
+    /**
+     * Stores the job and queues it for any instance.
+     */
+    public void publish(JobRecord record, String template) throws IOException {
+        write(file(record.getId(), ".tex"), template.getBytes(StandardCharsets.UTF_8));
+        save(record);
+        sqs.sendMessage(queueUrl, record.getId().toString());
+    }
+
+    /**
+     * @return the state of the job, null if it is unknown or expired
+     */
+    public JobRecord find(UUID id) throws IOException {
+        File file = file(id, ".json");
+        if (!file.isFile()) {
+            return null;
+        }
+        return objectMapper.readValue(file, JobRecord.class);
+    }
+
+    public void save(JobRecord record) throws IOException {
+        write(file(record.getId(), ".json"), objectMapper.writeValueAsBytes(record));
+    }
+
+    public String template(UUID id) throws IOException {
+        return FileUtils.readFileToString(file(id, ".tex"), "UTF-8");
+    }
+
+    public File result(UUID id) {
+        return file(id, ".pdf");
+    }
+
+    public void storeResult(UUID id, File pdfFile) throws IOException {
+        Path temporary = temporary(result(id));
+        Files.copy(pdfFile.toPath(), temporary, StandardCopyOption.REPLACE_EXISTING);
+        Files.move(temporary, result(id).toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    public void cancel(UUID id) throws IOException {
+        file(id, ".cancel").createNewFile();
+    }
+
+    public boolean isCancelled(UUID id) {
+        return file(id, ".cancel").exists();
+    }
+
+    public void delete(UUID id) {
+        for (String extension : new String[]{".json", ".tex", ".pdf", ".cancel"}) {
+            file(id, extension).delete();
+        }
+    }
+
+    /**
+     * Deletes finished jobs that completed before the deadline together with their results.
+     */
+    public void expire(long deadline) {
+        File[] records = jobsFolder.listFiles((dir, name) -> name.endsWith(".json"));
+        if (records == null) {
+            return;
+        }
+        for (File file : records) {
+            try {
+                JobRecord record = objectMapper.readValue(file, JobRecord.class);
+                if (record.isCompleted() && record.getCompletedAt() < deadline) {
+                    delete(record.getId());
+                    LOG.debug("Removed job {}", record.getId());
+                }
+            } catch (IOException e) {
+                // removed by another instance in the meantime
+                LOG.debug("Could not read {}", file, e);
+            }
+        }
+    }
+
+    private File file(UUID id, String extension) {
+        return new File(jobsFolder, id + extension);
+    }
+
+    private static void write(File file, byte[] content) throws IOException {
+        Path temporary = temporary(file);
+        Files.write(temporary, content);
+        Files.move(temporary, file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static Path temporary(File file) {
+        return new File(file.getParentFile(), file.getName() + "." + UUID.randomUUID() + ".tmp").toPath();
+    }
+}
@@ -0,0 +1,119 @@
+package de.wits.pdf.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * SHA-256 hashes of file contents, remembered by the identity of the file: its inode, size and
+ * modification time. The shared files of jobs are hard links to the asset store, the media cache and the
+ * template registry, so a file is only read once however many workspaces link to it. The stores hand in
+ * the hashes they compute anyway.
+ */
+final class FileHashes {
+
+    private static final int MAX_ENTRIES = 10_000;
+
+    // guarded by itself
+    private static final Map<Identity, String> HASHES = new LinkedHashMap<Identity, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Identity, String> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private FileHashes() {
+    }
+
+    /**
+     * @return the hex encoded SHA-256 hash of the content of the file
+     */
+    static String hash(Path file) throws IOException {
+        Identity identity = Identity.of(file);
+        if (identity != null) {
+            synchronized (HASHES) {
+                String hash = HASHES.get(identity);
+                if (hash != null) {
+                    return hash;
+                }
+            }
+        }
+        String hash = Digests.hex(digest(file).digest());
+        remember(identity, hash);
+        return hash;
+    }
+
+    /**
+     * @return a digest that has been fed the content of the file
+     */
+    static MessageDigest digest(Path file) throws IOException {
+        MessageDigest digest = Digests.sha256();
+        byte[] buffer = new byte[8192];
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return digest;
+    }
+
+    /**
+     * Records the hash of a file whose content is known.
+     */
+    static void remember(Path file, String hash) throws IOException {
+        remember(Identity.of(file), hash);
+    }
+
+    private static void remember(Identity identity, String hash) {
+        if (identity != null) {
+            synchronized (HASHES) {
+                HASHES.put(identity, hash);
+            }
+        }
+    }
+
+    private static final class Identity {
+
+        private final Object fileKey;
+        private final long size;
+        private final FileTime modified;
+
+        private Identity(Object fileKey, long size, FileTime modified) {
+            this.fileKey = fileKey;
+            this.size = size;
+            this.modified = modified;
+        }
+
+        /**
+         * @return the identity, null if the file system has no file keys
+         */
+        static Identity of(Path file) throws IOException {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            if (attributes.fileKey() == null) {
+                return null;
+            }
+            return new Identity(attributes.fileKey(), attributes.size(), attributes.lastModifiedTime());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Identity that = (Identity) o;
+            return size == that.size && modified.equals(that.modified) && fileKey.equals(that.fileKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(fileKey, size, modified);
+        }
+    }
+}
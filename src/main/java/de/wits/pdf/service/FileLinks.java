@@ -0,0 +1,44 @@
+package de.wits.pdf.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Places shared files into job folders without copying their content.
+ */
+final class FileLinks {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FileLinks.class);
+
+    private FileLinks() {
+    }
+
+    /**
+     * Hard links the source to the target. Falls back to a copy if the file system does not support it.
+     */
+    static void link(File source, File target) throws IOException {
+        Files.deleteIfExists(target.toPath());
+        target.getParentFile().mkdirs();
+        try {
+            Files.createLink(target.toPath(), source.toPath());
+        } catch (IOException | UnsupportedOperationException e) {
+            LOG.debug("Could not link {}, copying it instead", source, e);
+            Files.copy(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Hard links a file that other jobs share. The file is made read-only first; a link is the same file,
+     * so pdflatex writing to it through {@code \openout} or {@code filecontents} would otherwise change it
+     * for every job.
+     */
+    static void linkReadOnly(File source, File target) throws IOException {
+        source.setWritable(false, false);
+        link(source, target);
+    }
+}
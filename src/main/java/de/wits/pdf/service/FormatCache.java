@@ -0,0 +1,372 @@
+package de.wits.pdf.service;
+
+import de.wits.pdf.configuration.FileSystemPathProperties;
+import de.wits.pdf.configuration.FormatProperties;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Pre-compiled LaTeX formats for recurring preambles. A format is a dump of pdflatex after it has loaded
+ * the preamble (document class, packages, fonts), built with {@code mylatexformat}. Compiling with it
+ * skips the preamble of the document, which is most of the startup time of a pass.
+ * <p>
+ * Formats are keyed by a hash over the preamble and the local style files of the job, and stored in the
+ * {@code formats} folder below {@code pdf.temporal}. They are built in the background once a preamble
+ * has been seen {@code formats.min-uses} times; until then documents compile the normal way.
+ * <p>
+ * Only the style files are linked into a build. Preambles that read other files of the job, by naming
+ * them or through {@code \IfFileExists}, get no format, since it would miss or freeze their content. A
+ * preamble whose build fails anyway is not built again for {@code formats.retry-failed-after} seconds.
+ */
+@Component
+public class FormatCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FormatCache.class);
+    static final String FORMATS_FOLDER = "formats";
+    static final String BEGIN_DOCUMENT = "\\begin{document}";
+    private static final List<String> STYLE_EXTENSIONS = Arrays.asList(".sty", ".cls", ".def", ".cfg", ".fd", ".clo");
+    private static final Pattern CONDITIONAL_INPUT = Pattern.compile("\\\\(?:IfFileExists|InputIfFileExists)\\b");
+
+    private final FormatProperties formatProperties;
+    private final FileSystemPathProperties fileSystemPathProperties;
+    private final PdfMetrics metrics;
+    private final ProcessSupervisor processSupervisor;
+    // completed once the build has ended, successful or not
+    private final Map<String, CompletableFuture<Void>> building = new ConcurrentHashMap<>();
+    private Map<String, Integer> uses;
+    // preambles whose build failed, with the time of the failure
+    private Map<String, Long> failures;
+    private final AtomicLong size = new AtomicLong();
+    private ThreadPoolExecutor executor;
+    private File formatsFolder;
+
+    @Autowired
+    public FormatCache(FormatProperties formatProperties, FileSystemPathProperties fileSystemPathProperties, PdfMetrics metrics,
+                       ProcessSupervisor processSupervisor) {
+        this.formatProperties = formatProperties;
+        this.fileSystemPathProperties = fileSystemPathProperties;
+        this.metrics = metrics;
+        this.processSupervisor = processSupervisor;
+    }
+
+    @PostConstruct
+    public void start() {
+        formatsFolder = new File(fileSystemPathProperties.getTemporal(), FORMATS_FOLDER);
+        formatsFolder.mkdirs();
+        File[] formats = formatsFolder.listFiles((dir, name) -> name.endsWith(".fmt"));
+        size.set(formats == null ? 0 : Arrays.stream(formats).mapToLong(File::length).sum());
+        uses = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+                return size() > 1000;
+            }
+        };
+        failures = new LinkedHashMap<String, Long>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > 1000;
+            }
+        };
+        AtomicInteger count = new AtomicInteger();
+        executor = new ThreadPoolExecutor(formatProperties.getThreads(), formatProperties.getThreads(), 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(formatProperties.getQueueSize()), runnable -> {
+            Thread thread = new Thread(runnable, "format-build-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+        // builds that were still queued never run
+        building.values().forEach(done -> done.complete(null));
+    }
+
+    public File getFormatsFolder() {
+        return formatsFolder;
+    }
+
+    /**
+     * Looks up the format for the preamble of a template. Schedules a build if the preamble is used often
+     * enough and no format exists yet.
+     *
+     * @return the name of the format to pass to pdflatex, or null to compile without one
+     */
+    public String formatFor(File templateFile) throws IOException {
+        if (!formatProperties.isEnabled()) {
+            return null;
+        }
+        String template = FileUtils.readFileToString(templateFile, "UTF-8");
+        int end = template.indexOf(BEGIN_DOCUMENT);
+        if (end < 0) {
+            return null;
+        }
+        String preamble = template.substring(0, end);
+        File workspace = templateFile.getParentFile();
+        List<Path> files = workspaceFiles(workspace);
+        if (readsLocalFiles(preamble, workspace, files)) {
+            return null;
+        }
+        String key = key(preamble, workspace, files);
+
+        File format = formatFile(key);
+        if (format.isFile()) {
+            format.setLastModified(System.currentTimeMillis());
+            metrics.recordFormatHit();
+            return key;
+        }
+        if (countUse(key) >= formatProperties.getMinUses()) {
+            schedule(key, preamble, workspace, files);
+        }
+        return null;
+    }
+
+    /**
+     * Schedules the build of the format of a template right away, for templates that are known before
+     * they are rendered. Preambles with placeholders are left alone, they differ between renders.
+     */
+    public void prepare(File templateFile) throws IOException {
+        if (!formatProperties.isEnabled()) {
+            return;
+        }
+        String template = FileUtils.readFileToString(templateFile, "UTF-8");
+        int end = template.indexOf(BEGIN_DOCUMENT);
+        if (end < 0) {
+            return;
+        }
+        String preamble = template.substring(0, end);
+        if (preamble.contains(TemplateVariables.PREFIX) || preamble.contains(MediaReferences.PREFIX)) {
+            return;
+        }
+        File workspace = templateFile.getParentFile();
+        List<Path> files = workspaceFiles(workspace);
+        if (readsLocalFiles(preamble, workspace, files)) {
+            return;
+        }
+        String key = key(preamble, workspace, files);
+        if (!formatFile(key).isFile()) {
+            schedule(key, preamble, workspace, files);
+        }
+    }
+
+    /**
+     * Waits for the scheduled format builds, for callers that want the formats of prepared templates.
+     *
+     * @return false if builds were still running at the deadline
+     */
+    public boolean awaitBuilds(long deadline) throws InterruptedException {
+        CompletableFuture<?>[] builds = building.values().toArray(new CompletableFuture<?>[0]);
+        try {
+            CompletableFuture.allOf(builds).get(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (ExecutionException e) {
+            // builds complete normally even if they fail
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Removes a format that could not be used, e.g. because it was dumped by another TeX version.
+     */
+    public void discard(String key) {
+        LOG.warn("Discarding format {}", key);
+        File format = formatFile(key);
+        long length = format.length();
+        if (format.delete()) {
+            size.addAndGet(-length);
+        }
+    }
+
+    /**
+     * Removes the least recently used formats until at most {@code formats.max-entries} are left.
+     */
+    public synchronized void evict() {
+        File[] formats = formatsFolder.listFiles((dir, name) -> name.endsWith(".fmt"));
+        if (formats == null) {
+            return;
+        }
+        Arrays.sort(formats, Comparator.comparingLong(File::lastModified));
+        long total = Arrays.stream(formats).mapToLong(File::length).sum();
+        for (int i = 0; i < formats.length - formatProperties.getMaxEntries(); i++) {
+            LOG.info("Evicting format {}", formats[i].getName());
+            total -= formats[i].length();
+            formats[i].delete();
+        }
+        size.set(total);
+    }
+
+    /**
+     * @return the bytes taken by the formats as of the last build or eviction
+     */
+    public long getSize() {
+        return size.get();
+    }
+
+    private synchronized int countUse(String key) {
+        int count = uses.getOrDefault(key, 0) + 1;
+        uses.put(key, count);
+        return count;
+    }
+
+    private synchronized boolean failedRecently(String key) {
+        Long failedAt = failures.get(key);
+        return failedAt != null && System.currentTimeMillis() - failedAt < TimeUnit.SECONDS.toMillis(formatProperties.getRetryFailedAfter());
+    }
+
+    private synchronized void recordFailure(String key) {
+        failures.put(key, System.currentTimeMillis());
+    }
+
+    private void schedule(String key, String preamble, File workspace, List<Path> files) throws IOException {
+        if (failedRecently(key)) {
+            return;
+        }
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        if (building.putIfAbsent(key, done) != null) {
+            return;
+        }
+        File buildFolder = new File(formatsFolder, "build-" + key);
+        try {
+            for (Path file : styleFiles(files)) {
+                FileLinks.link(file.toFile(), buildFolder.toPath().resolve(workspace.toPath().relativize(file)).toFile());
+            }
+            FileUtils.writeStringToFile(new File(buildFolder, key + ".tex"), preamble + BEGIN_DOCUMENT + "\n\\end{document}\n", "UTF-8");
+            executor.execute(() -> build(key, buildFolder, done));
+            LOG.info("Scheduled the build of format {}", key);
+        } catch (IOException | RejectedExecutionException e) {
+            LOG.debug("Skipping the build of format {}", key, e);
+            building.remove(key);
+            done.complete(null);
+            FileUtils.deleteDirectory(buildFolder);
+        }
+    }
+
+    private void build(String key, File buildFolder, CompletableFuture<Void> done) {
+        long start = System.currentTimeMillis();
+        try {
+            ProcessBuilder processBuilder = new ProcessBuilder(fileSystemPathProperties.getPdfLatex(), "-ini",
+                    "--interaction=nonstopmode", "--shell-escape", "-jobname=" + key, "&pdflatex", "mylatexformat.ltx", key + ".tex");
+            processBuilder.directory(buildFolder);
+            long deadline = start + TimeUnit.SECONDS.toMillis(formatProperties.getBuildTimeout());
+            SupervisedProcess process = processSupervisor.start("pdflatex-format", processBuilder);
+            int exitValue = processSupervisor.await(process, null, deadline);
+            File dump = new File(buildFolder, key + ".fmt");
+            if (exitValue != 0 || !dump.isFile()) {
+                LOG.debug("Output of the format build: {}", process.getOutput());
+                throw new IOException("pdflatex exited with " + exitValue);
+            }
+            Files.move(dump.toPath(), formatFile(key).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            metrics.recordFormatBuild(System.currentTimeMillis() - start);
+            LOG.info("Built format {} in {} ms", key, System.currentTimeMillis() - start);
+            evict();
+        } catch (IOException | PDFCreationFailedException e) {
+            recordFailure(key);
+            metrics.recordFormatBuildFailure();
+            LOG.warn("Could not build format {}: {}", key, e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                FileUtils.deleteDirectory(buildFolder);
+            } catch (IOException e) {
+                LOG.warn("Could not delete the build folder of format {}", key, e);
+            }
+            building.remove(key);
+            done.complete(null);
+        }
+    }
+
+    private String key(String preamble, File workspace, List<Path> files) throws IOException {
+        MessageDigest digest = Digests.sha256();
+        digest.update(preamble.replace("\r\n", "\n").getBytes(StandardCharsets.UTF_8));
+        for (Path file : styleFiles(files)) {
+            digest.update(workspace.toPath().relativize(file).toString().getBytes(StandardCharsets.UTF_8));
+            digest.update(FileHashes.hash(file).getBytes(StandardCharsets.US_ASCII));
+        }
+        return Digests.hex(digest.digest());
+    }
+
+    /**
+     * @return whether the preamble may read files of the job other than style files: it tests for
+     * files, or it names one, with or without its extension
+     */
+    private static boolean readsLocalFiles(String preamble, File workspace, List<Path> files) {
+        if (CONDITIONAL_INPUT.matcher(preamble).find()) {
+            return true;
+        }
+        for (Path file : files) {
+            if (isStyleFile(file)) {
+                continue;
+            }
+            String name = workspace.toPath().relativize(file).toString().replace(File.separatorChar, '/');
+            String stem = name.replaceFirst("\\.[^./]*$", "");
+            Pattern reference = Pattern.compile("(?<![\\w/.-])" + Pattern.quote(stem) + "(?:\\.\\w+)?(?![\\w/.-])");
+            if (reference.matcher(preamble).find()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the files of the job except the template and its outputs, sorted by path
+     */
+    private static List<Path> workspaceFiles(File workspace) throws IOException {
+        Path root = workspace.toPath();
+        try (Stream<Path> walk = Files.walk(root)) {
+            return walk.filter(Files::isRegularFile)
+                    .filter(path -> !(path.getParent().equals(root) && path.getFileName().toString().startsWith("template.")))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * @return the style files of the job that the preamble might load
+     */
+    private static List<Path> styleFiles(List<Path> files) {
+        return files.stream().filter(FormatCache::isStyleFile).collect(Collectors.toList());
+    }
+
+    private static boolean isStyleFile(Path file) {
+        return STYLE_EXTENSIONS.stream().anyMatch(extension -> file.getFileName().toString().endsWith(extension));
+    }
+
+    private File formatFile(String key) {
+        return new File(formatsFolder, key + ".fmt");
+    }
+}
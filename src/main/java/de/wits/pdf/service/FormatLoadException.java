@@ -0,0 +1,12 @@
+package de.wits.pdf.service;
+
+/**
+ * Thrown when pdflatex could not load a pre-compiled format, e.g. because another TeX version dumped it.
+ * Unlike other {@link LatexException}s it says nothing about the template.
+ */
+class FormatLoadException extends LatexException {
+
+    FormatLoadException(String s) {
+        super(s);
+    }
+}
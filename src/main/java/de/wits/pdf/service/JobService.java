@@ -0,0 +1,374 @@
+package de.wits.pdf.service;
+
+import com.amazonaws.AmazonClientException;
+import de.wits.pdf.configuration.FileSystemPathProperties;
+import de.wits.pdf.configuration.JobProperties;
+import de.wits.pdf.model.JobRecord;
+import de.wits.pdf.model.JobState;
+import de.wits.pdf.model.JobStatus;
+import de.wits.pdf.model.PdfJob;
+import de.wits.pdf.model.PdfRequest;
+import de.wits.pdf.model.Priority;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs render requests in the background for the job API. Clients get a job id right away, poll its
+ * status and download the result later. Results are kept in the {@code jobs} folder below
+ * {@code pdf.temporal} for {@code jobs.ttl} seconds, independent of the result cache. If a callback URL
+ * was given, the final status is posted to it once the job has finished.
+ * <p>
+ * In distributed mode jobs are handed to {@link DistributedJobs} instead: any instance with a free
+ * worker takes them from the queue and {@link #execute(UUID) executes} them, and their state and result
+ * are read from the shared folder by whichever instance is asked.
+ */
+@Service
+public class JobService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JobService.class);
+    static final String JOBS_FOLDER = "jobs";
+    private static final String INSTANCE = ManagementFactory.getRuntimeMXBean().getName();
+
+    private final PdfService pdfService;
+    private final RenderScheduler renderScheduler;
+    private final JobProperties jobProperties;
+    private final FileSystemPathProperties fileSystemPathProperties;
+    private final DistributedJobs distributedJobs;
+    private final Map<UUID, PdfJob> jobs = new ConcurrentHashMap<>();
+    private final Map<UUID, PdfRequest> executing = new ConcurrentHashMap<>();
+    private RestTemplate restTemplate;
+    private ExecutorService callbackExecutor;
+    private File jobsFolder;
+
+    @Autowired
+    public JobService(PdfService pdfService, RenderScheduler renderScheduler, JobProperties jobProperties,
+                      FileSystemPathProperties fileSystemPathProperties, DistributedJobs distributedJobs) {
+        this.pdfService = pdfService;
+        this.renderScheduler = renderScheduler;
+        this.jobProperties = jobProperties;
+        this.fileSystemPathProperties = fileSystemPathProperties;
+        this.distributedJobs = distributedJobs;
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        jobsFolder = new File(fileSystemPathProperties.getTemporal(), JOBS_FOLDER);
+        jobsFolder.mkdirs();
+        // jobs only live in memory, results left over from a previous run cannot be requested anymore
+        FileUtils.cleanDirectory(jobsFolder);
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(jobProperties.getCallbackTimeout());
+        requestFactory.setReadTimeout(jobProperties.getCallbackTimeout());
+        restTemplate = new RestTemplate(requestFactory);
+        AtomicInteger count = new AtomicInteger();
+        callbackExecutor = Executors.newFixedThreadPool(jobProperties.getCallbackThreads(), runnable -> {
+            Thread thread = new Thread(runnable, "job-callback-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        callbackExecutor.shutdownNow();
+    }
+
+    public File getJobsFolder() {
+        return jobsFolder;
+    }
+
+    /**
+     * Queues a render request. Jobs are rendered as bulk requests.
+     *
+     * @param callbackUrl optional http(s) URL the final job status is posted to
+     * @param tenant      the client the job is rendered for
+     * @throws RenderQueueFullException if the job store or the render backlog is full
+     */
+    public PdfJob submit(String template, String callbackUrl, String tenant) throws PDFCreationFailedException {
+        if (callbackUrl != null && !callbackUrl.matches("^https?://.+")) {
+            throw new PDFCreationFailedException("Callback URL must be an http(s) URL: " + callbackUrl);
+        }
+        if (distributedJobs.isEnabled()) {
+            JobRecord record = new JobRecord(UUID.randomUUID(), tenant, callbackUrl);
+            try {
+                distributedJobs.publish(record, template);
+            } catch (IOException | AmazonClientException e) {
+                throw new PDFCreationFailedException("Could not queue the PDF Document.", e);
+            }
+            LOG.info("Published job {}", record.getId());
+            return restore(record);
+        }
+        expireLocal();
+        if (jobs.size() >= jobProperties.getMaxJobs()) {
+            throw new RenderQueueFullException("Job store is full (" + jobProperties.getMaxJobs() + " jobs)");
+        }
+
+        PdfRequest request = new PdfRequest(UUID.randomUUID(), template);
+        request.setPriority(Priority.BULK);
+        request.setTenant(tenant);
+        PdfJob job = new PdfJob(request, callbackUrl);
+        CompletableFuture<File> result;
+        try {
+            result = pdfService.getPdf(request);
+        } catch (PDFCreationFailedException e) {
+            pdfService.release(request);
+            throw e;
+        } catch (Exception e) {
+            pdfService.release(request);
+            throw new PDFCreationFailedException("Could not queue the PDF Document.", e);
+        }
+        jobs.put(job.getId(), job);
+        result.whenComplete((file, error) -> complete(job, file, error));
+        LOG.info("Submitted job {}", job.getId());
+        return job;
+    }
+
+    public PdfJob get(UUID id) {
+        PdfJob job = jobs.get(id);
+        if (job != null || !distributedJobs.isEnabled()) {
+            return job;
+        }
+        try {
+            JobRecord record = distributedJobs.find(id);
+            return record != null ? restore(record) : null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Cancels a job that has not finished yet; it fails once its processes are gone. A finished job is
+     * removed together with its result.
+     *
+     * @return true if the job was still waiting or running
+     */
+    public boolean cancel(PdfJob job) {
+        if (distributedJobs.isEnabled() && !jobs.containsKey(job.getId())) {
+            if (job.isCompleted()) {
+                distributedJobs.delete(job.getId());
+                return false;
+            }
+            try {
+                distributedJobs.cancel(job.getId());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            LOG.info("Cancelled job {}", job.getId());
+            return true;
+        }
+        if (job.isCompleted()) {
+            remove(job);
+            return false;
+        }
+        pdfService.cancel(job.getRequest());
+        LOG.info("Cancelled job {}", job.getId());
+        return true;
+    }
+
+    public JobStatus status(PdfJob job) {
+        int position = renderScheduler.positionOf(job.getRequest());
+        return new JobStatus(job, position >= 0 ? position : null);
+    }
+
+    /**
+     * Drops finished jobs older than the TTL together with their results. If the store is still full,
+     * the oldest finished jobs go first.
+     */
+    public void expire() {
+        expireLocal();
+        if (distributedJobs.isEnabled()) {
+            distributedJobs.expire(System.currentTimeMillis() - jobProperties.getTtl() * 1000);
+        }
+    }
+
+    /**
+     * Renders a job taken from the distributed queue and stores its result in the shared folder.
+     *
+     * @return completed once the job has finished or turned out to be gone, failed if the job has to be
+     * given back to the queue, e.g. with a {@link RenderQueueFullException}
+     */
+    public CompletableFuture<Void> execute(UUID id) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        try {
+            JobRecord record = distributedJobs.find(id);
+            if (record == null || record.isCompleted()) {
+                // expired, or delivered again after it finished
+                done.complete(null);
+                return done;
+            }
+            if (distributedJobs.isCancelled(id)) {
+                finish(record, null, new RenderCancelledException("Request " + id + " was cancelled"));
+                done.complete(null);
+                return done;
+            }
+            PdfRequest request = new PdfRequest(id, distributedJobs.template(id));
+            request.setPriority(Priority.BULK);
+            request.setTenant(record.getTenant());
+            CompletableFuture<File> result;
+            try {
+                result = pdfService.getPdf(request);
+            } catch (RenderQueueFullException e) {
+                pdfService.release(request);
+                throw e;
+            } catch (PDFCreationFailedException e) {
+                pdfService.release(request);
+                finish(record, null, e);
+                done.complete(null);
+                return done;
+            }
+            record.setState(JobState.RUNNING);
+            record.setStartedAt(System.currentTimeMillis());
+            record.setInstance(INSTANCE);
+            distributedJobs.save(record);
+            executing.put(id, request);
+            LOG.info("Took job {}", id);
+            result.whenComplete((file, error) -> {
+                executing.remove(id);
+                try {
+                    finish(record, file, error);
+                } finally {
+                    pdfService.release(request);
+                    done.complete(null);
+                }
+            });
+        } catch (Exception e) {
+            done.completeExceptionally(e);
+        }
+        return done;
+    }
+
+    /**
+     * Stops the jobs this instance executes that have been cancelled through another instance.
+     */
+    public void cancelExecuting() {
+        executing.forEach((id, request) -> {
+            if (distributedJobs.isCancelled(id)) {
+                LOG.info("Cancelled job {}", id);
+                pdfService.cancel(request);
+            }
+        });
+    }
+
+    private void expireLocal() {
+        long deadline = System.currentTimeMillis() - jobProperties.getTtl() * 1000;
+        jobs.values().stream()
+                .filter(job -> job.isCompleted() && job.getCompletedAt() < deadline)
+                .forEach(this::remove);
+        int excess = jobs.size() - jobProperties.getMaxJobs() + 1;
+        if (excess > 0) {
+            jobs.values().stream()
+                    .filter(PdfJob::isCompleted)
+                    .sorted(Comparator.comparingLong(PdfJob::getCompletedAt))
+                    .limit(excess)
+                    .forEach(this::remove);
+        }
+    }
+
+    private void remove(PdfJob job) {
+        if (jobs.remove(job.getId(), job) && job.getResult() != null) {
+            job.getResult().delete();
+            LOG.debug("Removed job {}", job.getId());
+        }
+    }
+
+    private void complete(PdfJob job, File file, Throwable error) {
+        if (error == null) {
+            try {
+                File result = new File(jobsFolder, job.getId() + ".pdf");
+                FileLinks.link(file, result);
+                job.succeeded(result);
+                LOG.info("Job {} finished", job.getId());
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        if (error != null) {
+            LOG.warn("Job {} failed", job.getId(), error);
+            job.failed(message(error));
+        }
+        pdfService.release(job.getRequest());
+        if (job.getCallbackUrl() != null) {
+            callbackExecutor.execute(() -> callback(job));
+        }
+    }
+
+    private void finish(JobRecord record, File file, Throwable error) {
+        if (error == null) {
+            try {
+                distributedJobs.storeResult(record.getId(), file);
+                record.setState(JobState.DONE);
+                LOG.info("Job {} finished", record.getId());
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        if (error != null) {
+            LOG.warn("Job {} failed", record.getId(), error);
+            record.setState(JobState.FAILED);
+            record.setError(message(error));
+        }
+        record.setCompletedAt(System.currentTimeMillis());
+        try {
+            distributedJobs.save(record);
+        } catch (IOException e) {
+            LOG.error("Could not store the state of job {}", record.getId(), e);
+        }
+        if (record.getCallbackUrl() != null) {
+            PdfJob job = restore(record);
+            callbackExecutor.execute(() -> callback(job));
+        }
+    }
+
+    /**
+     * @return the job as the job API reports it
+     */
+    private PdfJob restore(JobRecord record) {
+        PdfRequest request = new PdfRequest(record.getId(), null);
+        request.setPriority(Priority.BULK);
+        request.setTenant(record.getTenant());
+        request.setQueuedAt(record.getSubmittedAt());
+        request.setStartedAt(record.getStartedAt());
+        request.setFinishedAt(record.getCompletedAt());
+        PdfJob job = new PdfJob(request, record.getCallbackUrl(), record.getSubmittedAt());
+        if (record.getState() == JobState.DONE) {
+            job.succeeded(distributedJobs.result(record.getId()), record.getCompletedAt());
+        } else if (record.getState() == JobState.FAILED) {
+            job.failed(record.getError(), record.getCompletedAt());
+        }
+        return job;
+    }
+
+    private static String message(Throwable error) {
+        Throwable cause = error.getCause() != null ? error.getCause() : error;
+        return cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName();
+    }
+
+    private void callback(PdfJob job) {
+        try {
+            restTemplate.postForLocation(job.getCallbackUrl(), status(job));
+        } catch (RestClientException e) {
+            LOG.warn("Could not call back {} for job {}: {}", job.getCallbackUrl(), job.getId(), e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package de.wits.pdf.service;
+
+import de.wits.pdf.configuration.FileSystemPathProperties;
+import de.wits.pdf.configuration.GenerationProperties;
+import de.wits.pdf.model.PdfRequest;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Runs pdflatex on a template until the cross references are stable. After every pass the log is
+ * checked for rerun requests and the auxiliary files are compared with the previous pass, so documents
+ * without references, table of contents or outlines get away with a single pass.
+ * <p>
+ * Previews of documents that refer to labels, citations or a table of contents start with a pass in
+ * {@code -draftmode}, which only writes the auxiliary files and skips reading images and writing the PDF.
+ */
+@Component
+public class LatexCompiler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LatexCompiler.class);
+
+    static final Pattern RERUN_REQUEST = Pattern.compile("Rerun to get|Rerun LaTeX|Please rerun LaTeX|Label\\(s\\) may have changed");
+    static final Pattern REFERENCES = Pattern.compile("\\\\newlabel|\\\\bibcite|\\\\@writefile");
+    static final String[] AUXILIARY_EXTENSIONS = {".aux", ".toc", ".lof", ".lot", ".out"};
+    static final Pattern SOURCE_REFERENCES = Pattern.compile(
+            "\\\\(?:[cC]?ref|pageref|eqref|autoref|nameref|cite[a-z]*|tableofcontents|listof[a-z]+|printbibliography)\\b");
+    static final Pattern FORMAT_ERROR = Pattern.compile(
+            "Fatal format file error|made by different executable version|I can't find the format file|---! .* was written by");
+
+    private final FileSystemPathProperties fileSystemPathConfig;
+    private final GenerationProperties generationOptionsProperties;
+    private final PdfMetrics metrics;
+    private final FormatCache formatCache;
+    private final TexWorkerPool texWorkerPool;
+    private final ProcessSupervisor processSupervisor;
+
+    @Autowired
+    public LatexCompiler(FileSystemPathProperties fileSystemPathConfig, GenerationProperties generationOptionsProperties,
+                         PdfMetrics metrics, FormatCache formatCache, TexWorkerPool texWorkerPool,
+                         ProcessSupervisor processSupervisor) {
+        this.fileSystemPathConfig = fileSystemPathConfig;
+        this.generationOptionsProperties = generationOptionsProperties;
+        this.metrics = metrics;
+        this.formatCache = formatCache;
+        this.texWorkerPool = texWorkerPool;
+        this.processSupervisor = processSupervisor;
+    }
+
+    /**
+     * Compiles the template into a PDF next to it. Uses the pre-compiled format of the preamble if one is
+     * available; if pdflatex cannot load it, the format is discarded and the template compiled without
+     * it. Errors in the template are not retried. All passes share the deadline of the request.
+     *
+     * @param request the request the template belongs to, null if there is none
+     * @return the number of pdflatex passes that were needed
+     * @throws LatexException if pdflatex did not produce a document
+     */
+    public int compile(File templateFile, PdfRequest request) throws PDFCreationFailedException, IOException {
+        String format = formatCache.formatFor(templateFile);
+        if (format != null) {
+            try {
+                return compile(templateFile, format, request);
+            } catch (FormatLoadException e) {
+                LOG.warn("Compiling {} with format {} failed: {}", templateFile, format, e.getMessage());
+            }
+            formatCache.discard(format);
+        }
+        return compile(templateFile, null, request);
+    }
+
+    private int compile(File templateFile, String format, PdfRequest request) throws PDFCreationFailedException, IOException {
+        String pdfLatexPath = fileSystemPathConfig.getPdfLatex();
+        String pdfLatexMode = "--interaction=nonstopmode";
+        String pdfLatexOutput = "--output-directory=" + templateFile.getParent();
+        String shellEscapeCommand = "--shell-escape";
+        String templatePath = templateFile.getAbsolutePath();
+        List<String> processArgs = new ArrayList<>();
+        processArgs.add(pdfLatexPath);
+        if (format != null) {
+            processArgs.add("-fmt=" + format);
+        }
+        processArgs.addAll(Arrays.asList(templatePath, pdfLatexMode, pdfLatexOutput, shellEscapeCommand));
+        ProcessBuilder processBuilder = new ProcessBuilder(processArgs);
+        processBuilder.directory(templateFile.getParentFile());
+        if (format != null) {
+            // the trailing separator keeps the default search path for the standard formats
+            processBuilder.environment().put("TEXFORMATS", formatCache.getFormatsFolder().getAbsolutePath() + File.pathSeparator);
+        }
+
+        String previousState = auxiliaryState(templateFile);
+        int maxRuns = Math.max(1, generationOptionsProperties.getMaxRuns());
+        boolean draft = request != null && request.isPreview() && maxRuns > 1 && needsDraftPass(templateFile);
+        long deadline = processSupervisor.deadline(request);
+        long start = System.currentTimeMillis();
+        for (int pass = 1; ; ++pass) {
+            long passStart = System.currentTimeMillis();
+            SupervisedProcess process = null;
+            try {
+                if (draft) {
+                    List<String> draftArgs = new ArrayList<>(processArgs);
+                    draftArgs.add(1, "-draftmode");
+                    ProcessBuilder draftBuilder = new ProcessBuilder(draftArgs).directory(templateFile.getParentFile());
+                    draftBuilder.environment().putAll(processBuilder.environment());
+                    LOG.debug("Doing draft run {} with the arguments: {}", pass, draftArgs);
+                    process = processSupervisor.run("pdflatex", draftBuilder, request, deadline);
+                } else if (format != null || !texWorkerPool.compile(templateFile, request, deadline)) {
+                    // the pool runs the default format only
+                    LOG.debug("Doing PDF creating run {} with the arguments: {}", pass, processArgs);
+                    process = processSupervisor.run("pdflatex", processBuilder, request, deadline);
+                }
+            } catch (InterruptedException ex) {
+                LOG.warn("The process pdfLaTeX was interrupted and an exception occurred!", ex);
+                Thread.currentThread().interrupt();
+                throw new PDFCreationFailedException("pdfLaTeX was interrupted", ex);
+            }
+            metrics.recordLatexPass(pass, System.currentTimeMillis() - passStart);
+            if (format != null && !sibling(templateFile, ".pdf").isFile() && formatFailed(templateFile, process)) {
+                throw new FormatLoadException("pdflatex could not load format " + format);
+            }
+            if (draft) {
+                // no document yet, the next pass writes it with the references in place
+                draft = false;
+                previousState = auxiliaryState(templateFile);
+                continue;
+            }
+            if (!sibling(templateFile, ".pdf").isFile()) {
+                // further passes would not get any further
+                throw new LatexException("pdflatex did not produce a document: " + firstError(templateFile));
+            }
+
+            String state = auxiliaryState(templateFile);
+            if (pass >= maxRuns || !needsRerun(templateFile, previousState, state)) {
+                LOG.info("Compiled {} in {} pdflatex pass(es){}", templatePath, pass, format != null ? " using format " + format : "");
+                metrics.recordLatexPasses(pass);
+                metrics.recordLatex(System.currentTimeMillis() - start);
+                return pass;
+            }
+            previousState = state;
+        }
+    }
+
+    /**
+     * Decides whether another pass is necessary. LaTeX asks for one explicitly in most cases; otherwise
+     * a pass is repeated while the auxiliary files change. On the first pass there is nothing to compare
+     * against, so any written reference means the document has not seen them yet.
+     */
+    boolean needsRerun(File templateFile, String previousState, String state) throws IOException {
+        File logFile = sibling(templateFile, ".log");
+        if (logFile.isFile() && RERUN_REQUEST.matcher(FileUtils.readFileToString(logFile)).find()) {
+            return true;
+        }
+        if (previousState.isEmpty()) {
+            return hasReferences(templateFile);
+        }
+        return !previousState.equals(state);
+    }
+
+    /**
+     * @return true if pdflatex stopped because it could not load the format; it may do so before it
+     * opens the log, so its output is checked too
+     */
+    boolean formatFailed(File templateFile, SupervisedProcess process) throws IOException {
+        if (process != null && FORMAT_ERROR.matcher(process.getOutput()).find()) {
+            return true;
+        }
+        File logFile = sibling(templateFile, ".log");
+        return logFile.isFile() && FORMAT_ERROR.matcher(FileUtils.readFileToString(logFile)).find();
+    }
+
+    /**
+     * @return true if the template refers to something that is only known after a first pass
+     */
+    boolean needsDraftPass(File templateFile) throws IOException {
+        return SOURCE_REFERENCES.matcher(FileUtils.readFileToString(templateFile, "UTF-8")).find();
+    }
+
+    /**
+     * @return the first error message of the log, including its line number if there is one
+     */
+    String firstError(File templateFile) throws IOException {
+        File logFile = sibling(templateFile, ".log");
+        if (!logFile.isFile()) {
+            return "no log written";
+        }
+        String[] lines = FileUtils.readFileToString(logFile).split("\\r?\\n");
+        for (int i = 0; i < lines.length; i++) {
+            if (lines[i].startsWith("! ")) {
+                for (int j = i + 1; j < lines.length && j <= i + 5; j++) {
+                    if (lines[j].startsWith("l.")) {
+                        return lines[i].substring(2) + " (" + lines[j].trim() + ")";
+                    }
+                }
+                return lines[i].substring(2);
+            }
+        }
+        return "no error in the log";
+    }
+
+    private boolean hasReferences(File templateFile) throws IOException {
+        File auxFile = sibling(templateFile, ".aux");
+        if (auxFile.isFile() && REFERENCES.matcher(FileUtils.readFileToString(auxFile)).find()) {
+            return true;
+        }
+        for (String extension : AUXILIARY_EXTENSIONS) {
+            File file = sibling(templateFile, extension);
+            if (!extension.equals(".aux") && file.isFile() && file.length() > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return a hash over the auxiliary files, empty if none were written yet
+     */
+    private String auxiliaryState(File templateFile) throws IOException {
+        MessageDigest digest = Digests.sha256();
+        boolean found = false;
+        for (String extension : AUXILIARY_EXTENSIONS) {
+            File file = sibling(templateFile, extension);
+            if (file.isFile()) {
+                found = true;
+                digest.update(extension.getBytes());
+                digest.update(Files.readAllBytes(file.toPath()));
+            }
+        }
+        return found ? Digests.hex(digest.digest()) : "";
+    }
+
+    private static File sibling(File templateFile, String extension) {
+        return new File(templateFile.getParentFile(), templateFile.getName().replaceAll("\\.tex$", extension));
+    }
+}
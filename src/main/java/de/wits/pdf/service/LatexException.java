@@ -0,0 +1,11 @@
+package de.wits.pdf.service;
+
+/**
+ * Thrown when pdflatex did not produce a document. The message carries the first error of the log.
+ */
+public class LatexException extends PDFCreationFailedException {
+
+    public LatexException(String s) {
+        super(s);
+    }
+}
@@ -0,0 +1,234 @@
+package de.wits.pdf.service;
+
+import de.wits.pdf.configuration.FileSystemPathProperties;
+import de.wits.pdf.configuration.MediaProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Downloaded media shared by all requests, stored below {@code pdf.temporal/media}. Every URL maps to a
+ * {@code <sha256>.bin} file and a {@code <sha256>.properties} file holding the validators (ETag,
+ * Last-Modified) the origin server sent along. The folder is size bounded and evicted least recently
+ * used first. Normalized images are kept in {@code normalized}, named by the hash of their source
+ * content and conversion; they count towards the size of the cache and are evicted the same way.
+ * <p>
+ * Recency is tracked in memory: workspaces hard link the cached files, so their modification time must stay
+ * as it is for {@link FileHashes} to keep reusing their hashes.
+ */
+@Component
+public class MediaCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MediaCache.class);
+    static final String MEDIA_FOLDER = "media";
+    static final String NORMALIZED_FOLDER = "normalized";
+
+    private static final String ETAG = "etag";
+    private static final String LAST_MODIFIED = "lastModified";
+    private static final String VALIDATED_AT = "validatedAt";
+    private static final String URL = "url";
+
+    private final FileSystemPathProperties fileSystemPathProperties;
+    private final MediaProperties mediaProperties;
+    private final AtomicLong size = new AtomicLong();
+    private final Map<String, Long> lastUsed = new ConcurrentHashMap<>();
+    private File mediaFolder;
+    private File normalizedFolder;
+
+    @Autowired
+    public MediaCache(FileSystemPathProperties fileSystemPathProperties, MediaProperties mediaProperties) {
+        this.fileSystemPathProperties = fileSystemPathProperties;
+        this.mediaProperties = mediaProperties;
+    }
+
+    @PostConstruct
+    public void init() {
+        mediaFolder = new File(fileSystemPathProperties.getTemporal(), MEDIA_FOLDER);
+        normalizedFolder = new File(mediaFolder, NORMALIZED_FOLDER);
+        normalizedFolder.mkdirs();
+        size.set(entries().stream().mapToLong(File::length).sum());
+    }
+
+    /**
+     * @return the bytes taken by the downloads and normalized images
+     */
+    public long getSize() {
+        return size.get();
+    }
+
+    public File getMediaFolder() {
+        return mediaFolder;
+    }
+
+    File file(String url) {
+        return new File(mediaFolder, Digests.sha256Hex(url) + ".bin");
+    }
+
+    /**
+     * @return the normalized image stored under the key, which may not exist yet
+     */
+    File normalizedFile(String key) {
+        return new File(normalizedFolder, key + ".bin");
+    }
+
+    /**
+     * Moves a converted image into the cache.
+     */
+    File storeNormalized(String key, File converted) throws IOException {
+        File target = normalizedFile(key);
+        Files.move(converted.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        touch(target);
+        if (size.addAndGet(target.length()) > mediaProperties.getCacheMaxBytes()) {
+            evict();
+        }
+        return target;
+    }
+
+    File newNormalizedFile() throws IOException {
+        return File.createTempFile("normalize", ".part", normalizedFolder);
+    }
+
+    /**
+     * @return the validators stored for the URL, empty if it was never downloaded
+     */
+    Properties validators(String url) {
+        Properties properties = new Properties();
+        File metaFile = metaFile(url);
+        if (metaFile.isFile() && file(url).isFile()) {
+            try (InputStream in = new FileInputStream(metaFile)) {
+                properties.load(in);
+            } catch (IOException e) {
+                LOG.warn("Could not read the cached validators of {}", url, e);
+                properties.clear();
+            }
+        }
+        return properties;
+    }
+
+    String etag(Properties validators) {
+        return validators.getProperty(ETAG);
+    }
+
+    String lastModified(Properties validators) {
+        return validators.getProperty(LAST_MODIFIED);
+    }
+
+    boolean isFresh(Properties validators) {
+        String validatedAt = validators.getProperty(VALIDATED_AT);
+        return validatedAt != null
+                && System.currentTimeMillis() - Long.parseLong(validatedAt) < mediaProperties.getMaxAge() * 1000;
+    }
+
+    /**
+     * Moves a finished download into the cache.
+     */
+    File store(String url, File download, String etag, String lastModified) throws IOException {
+        File target = file(url);
+        long previous = target.isFile() ? target.length() : 0;
+        Files.move(download.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Properties properties = new Properties();
+        properties.setProperty(URL, url);
+        if (etag != null) {
+            properties.setProperty(ETAG, etag);
+        }
+        if (lastModified != null) {
+            properties.setProperty(LAST_MODIFIED, lastModified);
+        }
+        writeValidators(url, properties);
+        touch(target);
+        if (size.addAndGet(target.length() - previous) > mediaProperties.getCacheMaxBytes()) {
+            evict();
+        }
+        return target;
+    }
+
+    /**
+     * Marks a cached download as confirmed by the origin server.
+     */
+    File validated(String url, Properties validators) throws IOException {
+        writeValidators(url, validators);
+        return touch(url);
+    }
+
+    File touch(String url) {
+        return touch(file(url));
+    }
+
+    /**
+     * Marks a cached file as recently used without changing its modification time.
+     */
+    File touch(File file) {
+        lastUsed.put(file.getPath(), System.currentTimeMillis());
+        return file;
+    }
+
+    File newDownloadFile() throws IOException {
+        return File.createTempFile("download", ".part", mediaFolder);
+    }
+
+    /**
+     * Removes the least recently used downloads until the cache fits into its configured size.
+     */
+    public synchronized void evict() {
+        List<File> files = entries();
+        files.sort(Comparator.comparingLong(file -> lastUsed.getOrDefault(file.getPath(), file.lastModified())));
+        long total = files.stream().mapToLong(File::length).sum();
+        for (File file : files) {
+            if (total <= mediaProperties.getCacheMaxBytes()) {
+                break;
+            }
+            total -= file.length();
+            new File(file.getParentFile(), file.getName().replaceAll("\\.bin$", ".properties")).delete();
+            file.delete();
+            lastUsed.remove(file.getPath());
+        }
+        size.set(total);
+    }
+
+    /**
+     * @return the downloads and normalized images
+     */
+    private List<File> entries() {
+        List<File> entries = new ArrayList<>();
+        for (File folder : new File[]{mediaFolder, normalizedFolder}) {
+            File[] files = folder.listFiles((dir, name) -> name.endsWith(".bin"));
+            if (files != null) {
+                entries.addAll(Arrays.asList(files));
+            }
+        }
+        return entries;
+    }
+
+    private void writeValidators(String url, Properties properties) throws IOException {
+        properties.setProperty(VALIDATED_AT, Long.toString(System.currentTimeMillis()));
+        File metaFile = metaFile(url);
+        File tmp = new File(mediaFolder, metaFile.getName() + "." + Thread.currentThread().getId() + ".tmp");
+        try (OutputStream out = new FileOutputStream(tmp)) {
+            properties.store(out, null);
+        }
+        Files.move(tmp.toPath(), metaFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private File metaFile(String url) {
+        return new File(mediaFolder, Digests.sha256Hex(url) + ".properties");
+    }
+}
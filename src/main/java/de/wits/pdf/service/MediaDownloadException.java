@@ -0,0 +1,13 @@
+package de.wits.pdf.service;
+
+import java.io.IOException;
+
+/**
+ * Thrown when media referenced by a template could not be downloaded.
+ */
+public class MediaDownloadException extends IOException {
+
+    public MediaDownloadException(String s, Throwable cause) {
+        super(s, cause);
+    }
+}
@@ -0,0 +1,295 @@
+package de.wits.pdf.service;
+
+import de.wits.pdf.configuration.MediaProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Prepares downloaded images for pdflatex before compiling. The real type of every file is detected
+ * from its content: images pdflatex cannot read, e.g. GIF, are converted to PNG, and PNG and JPEG images
+ * with far more pixels than {@code media.dpi} needs at their printed size are downsampled. The printed
+ * size is taken from the {@code width}, {@code height} or {@code scale} option of the
+ * {@code \includegraphics} of the image; widths relative to the page count as {@code media.max-print-width}.
+ * PDFs are used as they are.
+ * <p>
+ * All images of a template are processed concurrently on a bounded pool. Results are stored in the
+ * {@link MediaCache} under the hash of the source content and the target width, so an image is
+ * processed once however often and under whichever URL it is used; the same conversion running for
+ * different requests is shared.
+ */
+@Component
+public class MediaNormalizer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MediaNormalizer.class);
+
+    /**
+     * Images up to this factor above the target width are used as they are, a conversion would not gain much.
+     */
+    private static final double TOLERANCE = 1.25;
+    private static final Pattern LENGTH = Pattern.compile("^\\s*([0-9]*\\.?[0-9]+)\\s*(pt|bp|mm|cm|in|pc|dd|cc)\\s*$");
+
+    private final MediaProperties mediaProperties;
+    private final MediaCache mediaCache;
+    private final PdfMetrics metrics;
+    private final ConcurrentMap<String, CompletableFuture<File>> inFlight = new ConcurrentHashMap<>();
+    private ExecutorService executor;
+
+    @Autowired
+    public MediaNormalizer(MediaProperties mediaProperties, MediaCache mediaCache, PdfMetrics metrics) {
+        this.mediaProperties = mediaProperties;
+        this.mediaCache = mediaCache;
+        this.metrics = metrics;
+    }
+
+    @PostConstruct
+    public void start() {
+        AtomicInteger count = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(Math.max(1, mediaProperties.getNormalizeThreads()), runnable -> {
+            Thread thread = new Thread(runnable, "media-normalize-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Normalizes the downloaded media of a template in parallel. An image that cannot be processed is
+     * used as it is.
+     *
+     * @param media   the downloaded file of every URL
+     * @param options the {@code \includegraphics} options of the references of every URL
+     * @param preview true to use {@code media.preview-dpi}
+     * @return the file to compile with for every URL, in the order of the given media
+     */
+    public Map<String, File> normalize(Map<String, File> media, Map<String, List<String>> options, boolean preview) throws IOException {
+        if (!mediaProperties.isNormalize() || media.isEmpty()) {
+            return media;
+        }
+        int dpi = preview ? mediaProperties.getPreviewDpi() : mediaProperties.getDpi();
+        Map<String, CompletableFuture<File>> results = new LinkedHashMap<>();
+        for (Map.Entry<String, File> entry : media.entrySet()) {
+            List<String> references = options.getOrDefault(entry.getKey(), Collections.emptyList());
+            results.put(entry.getKey(), CompletableFuture.supplyAsync(() -> normalizeOrKeep(entry.getValue(), references, dpi), executor)
+                    .thenCompose(future -> future));
+        }
+        Map<String, File> files = new LinkedHashMap<>();
+        for (Map.Entry<String, CompletableFuture<File>> result : results.entrySet()) {
+            try {
+                files.put(result.getKey(), result.getValue().get());
+            } catch (ExecutionException e) {
+                LOG.warn("Could not normalize the media of {}, using it as it is", result.getKey(), e.getCause());
+                files.put(result.getKey(), media.get(result.getKey()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while normalizing " + result.getKey());
+            }
+        }
+        return files;
+    }
+
+    private CompletableFuture<File> normalizeOrKeep(File source, List<String> references, int dpi) {
+        try {
+            return normalize(source, references, dpi);
+        } catch (IOException e) {
+            CompletableFuture<File> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    /**
+     * @return completed with the normalized copy, or the source itself if it can be used as it is
+     */
+    CompletableFuture<File> normalize(File source, List<String> references, int dpi) throws IOException {
+        String type = RasterImages.type(source);
+        if (type == null || RasterImages.PDF.equals(type) || RasterImages.JBIG2.equals(type)) {
+            return CompletableFuture.completedFuture(source);
+        }
+        RasterImages.Info info = RasterImages.info(source);
+        if (info == null) {
+            // e.g. WebP or CMYK JPEG, pdflatex reports what it makes of it
+            return CompletableFuture.completedFuture(source);
+        }
+        int width = Math.min(info.width, Math.max(1, (int) Math.ceil(widestPrintedWidth(references, info) * dpi)));
+        boolean readable = RasterImages.PNG.equals(type) || RasterImages.JPEG.equals(type);
+        if (readable && info.width <= width * TOLERANCE) {
+            return CompletableFuture.completedFuture(source);
+        }
+        String format = RasterImages.JPEG.equals(type) ? RasterImages.JPEG : RasterImages.PNG;
+        String key = key(source, width, format);
+        File cached = mediaCache.normalizedFile(key);
+        if (cached.isFile()) {
+            mediaCache.touch(cached);
+            metrics.recordMediaNormalizedHit();
+            return CompletableFuture.completedFuture(cached);
+        }
+        CompletableFuture<File> conversion = new CompletableFuture<>();
+        CompletableFuture<File> running = inFlight.putIfAbsent(key, conversion);
+        if (running != null) {
+            return running;
+        }
+        try {
+            long start = System.currentTimeMillis();
+            File converted = mediaCache.newNormalizedFile();
+            try {
+                RasterImages.scale(source, converted, width, format);
+                File result = mediaCache.storeNormalized(key, converted);
+                LOG.debug("Normalized {} {}x{} to width {} as {}", type, info.width, info.height, width, format);
+                metrics.recordMediaNormalized(System.currentTimeMillis() - start);
+                conversion.complete(result);
+            } finally {
+                Files.deleteIfExists(converted.toPath());
+            }
+        } catch (IOException | RuntimeException e) {
+            conversion.completeExceptionally(e);
+        } finally {
+            inFlight.remove(key, conversion);
+        }
+        return conversion;
+    }
+
+    /**
+     * @return the widest width in inches the image is printed with, {@code media.max-print-width} if
+     * any reference sizes it relative to the page
+     */
+    private double widestPrintedWidth(List<String> references, RasterImages.Info info) {
+        double maxWidth = mediaProperties.getMaxPrintWidth() / 2.54;
+        if (references.isEmpty()) {
+            return Math.max(maxWidth, info.naturalWidthInches());
+        }
+        double printed = 0;
+        for (String options : references) {
+            double width = printedWidth(options, info);
+            printed = Math.max(printed, Double.isNaN(width) ? maxWidth : width);
+        }
+        return printed;
+    }
+
+    /**
+     * @return the width in inches the options print the image with, NaN if it is not known before compiling
+     */
+    static double printedWidth(String options, RasterImages.Info info) {
+        if (options == null) {
+            return Double.NaN;
+        }
+        double width = Double.NaN;
+        double height = Double.NaN;
+        double scale = 1;
+        boolean keepAspectRatio = false;
+        for (String option : options.split(",")) {
+            String[] pair = option.split("=", 2);
+            String key = pair[0].trim();
+            String value = pair.length > 1 ? pair[1].trim() : "";
+            switch (key) {
+                case "width":
+                    width = inches(value);
+                    if (Double.isNaN(width)) {
+                        return Double.NaN;
+                    }
+                    break;
+                case "height":
+                case "totalheight":
+                    height = inches(value);
+                    if (Double.isNaN(height)) {
+                        return Double.NaN;
+                    }
+                    break;
+                case "scale":
+                    try {
+                        scale = Double.parseDouble(value);
+                    } catch (NumberFormatException e) {
+                        return Double.NaN;
+                    }
+                    break;
+                case "keepaspectratio":
+                    keepAspectRatio = true;
+                    break;
+                case "angle":
+                case "origin":
+                case "viewport":
+                case "trim":
+                    // the printed width depends on more than the options tell
+                    return Double.NaN;
+                default:
+                    break;
+            }
+        }
+        double heightAsWidth = height * info.naturalWidthInches() / info.naturalHeightInches();
+        if (!Double.isNaN(width) && !Double.isNaN(height)) {
+            return keepAspectRatio ? Math.min(width, heightAsWidth) * scale : width * scale;
+        }
+        if (!Double.isNaN(width)) {
+            return width * scale;
+        }
+        if (!Double.isNaN(height)) {
+            return heightAsWidth * scale;
+        }
+        return info.naturalWidthInches() * scale;
+    }
+
+    /**
+     * @return the length in inches, NaN if it is relative, e.g. {@code 0.5\textwidth}
+     */
+    static double inches(String length) {
+        Matcher matcher = LENGTH.matcher(length);
+        if (!matcher.matches()) {
+            return Double.NaN;
+        }
+        double value = Double.parseDouble(matcher.group(1));
+        switch (matcher.group(2)) {
+            case "pt":
+                return value / 72.27;
+            case "bp":
+                return value / 72;
+            case "mm":
+                return value / 25.4;
+            case "cm":
+                return value / 2.54;
+            case "pc":
+                return value * 12 / 72.27;
+            case "dd":
+                return value * 1238 / 1157 / 72.27;
+            case "cc":
+                return value * 12 * 1238 / 1157 / 72.27;
+            default:
+                return value;
+        }
+    }
+
+    private static String key(File source, int width, String format) throws IOException {
+        MessageDigest digest = Digests.sha256();
+        digest.update(FileHashes.hash(source.toPath()).getBytes(StandardCharsets.US_ASCII));
+        digest.update(ByteBuffer.allocate(4).putInt(width).array());
+        digest.update(format.getBytes());
+        return Digests.hex(digest.digest());
+    }
+}
@@ -0,0 +1,129 @@
+package de.wits.pdf.service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rewrites {@code img:http(s)://...} references to local file names and collects the URLs to download.
+ * A reference runs up to the next closing brace, normally the end of the {@code \includegraphics}
+ * argument. URLs that only differ in LaTeX escaping share their file. {@code var:} placeholders in the
+ * URL are filled with their values as they are when the template variables are given.
+ */
+final class MediaReferences implements TemplateRewriter.Directive {
+
+    static final String PREFIX = "img:";
+
+    private final Map<String, String> names = new LinkedHashMap<>();
+    private final Map<String, List<String>> options = new HashMap<>();
+    private final TemplateVariables variables;
+
+    MediaReferences() {
+        this(null);
+    }
+
+    /**
+     * @param variables the variables filled into the URLs, null to keep their placeholders
+     */
+    MediaReferences(TemplateVariables variables) {
+        this.variables = variables;
+    }
+
+    /**
+     * @return the local file name of every referenced URL, in the order of their first reference
+     */
+    Map<String, String> getNames() {
+        return names;
+    }
+
+    /**
+     * @return the options of the {@code \includegraphics} of every reference of a URL, empty for none
+     * and null where the reference is no argument of {@code \includegraphics}
+     */
+    Map<String, List<String>> getOptions() {
+        return options;
+    }
+
+    @Override
+    public String getPrefix() {
+        return PREFIX;
+    }
+
+    @Override
+    public int rewrite(CharSequence template, int start, Appendable out) throws IOException, PDFCreationFailedException {
+        boolean placeholder = variables != null && startsWith(template, start, TemplateVariables.PREFIX);
+        if (!placeholder && !startsWith(template, start, "http://") && !startsWith(template, start, "https://")) {
+            return -1;
+        }
+        int end = start;
+        while (end < template.length() && template.charAt(end) != '}') {
+            end++;
+        }
+        String reference = template.subSequence(start, end).toString();
+        if (variables != null) {
+            reference = variables.fillVerbatim(reference);
+            if (!reference.startsWith("http://") && !reference.startsWith("https://")) {
+                return -1;
+            }
+        }
+        String url = unescape(reference);
+        String name = names.get(url);
+        if (name == null) {
+            name = "img" + names.size() + ".png";
+            names.put(url, name);
+        }
+        options.computeIfAbsent(url, key -> new ArrayList<>()).add(options(template, start - PREFIX.length()));
+        out.append(name);
+        return end;
+    }
+
+    /**
+     * @param prefix index of the prefix
+     * @return the text between the brackets of {@code \includegraphics[...]{prefix}}, empty if there
+     * are no brackets
+     */
+    static String options(CharSequence template, int prefix) {
+        int brace = prefix - 1;
+        if (brace < 0 || template.charAt(brace) != '{') {
+            return null;
+        }
+        int end = brace - 1;
+        while (end >= 0 && Character.isWhitespace(template.charAt(end))) {
+            end--;
+        }
+        if (end < 0 || template.charAt(end) != ']') {
+            return endsWith(template, end + 1, "\\includegraphics") ? "" : null;
+        }
+        int open = end - 1;
+        while (open >= 0 && template.charAt(open) != '[' && template.charAt(open) != ']') {
+            open--;
+        }
+        if (open < 0 || template.charAt(open) != '[' || !endsWith(template, open, "\\includegraphics")) {
+            return null;
+        }
+        return template.subSequence(open + 1, end).toString();
+    }
+
+    static String unescape(String url) {
+        return url.replace("\\", "").replace("&amp;", "&");
+    }
+
+    private static boolean endsWith(CharSequence template, int end, String suffix) {
+        return end >= suffix.length() && startsWith(template, end - suffix.length(), suffix);
+    }
+
+    private static boolean startsWith(CharSequence template, int start, String prefix) {
+        if (template.length() - start < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (template.charAt(start + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
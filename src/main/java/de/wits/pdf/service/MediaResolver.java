@@ -0,0 +1,194 @@
+package de.wits.pdf.service;
+
+import de.wits.pdf.configuration.MediaProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fetches the media referenced by templates. All URLs of a template are downloaded concurrently on a
+ * bounded pool and stored in the shared {@link MediaCache}. Cached files are revalidated with the origin
+ * server (If-None-Match / If-Modified-Since) once they are older than {@code media.max-age}. Downloads of
+ * the same URL running for different requests are shared.
+ */
+@Component
+public class MediaResolver {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MediaResolver.class);
+
+    private final MediaProperties mediaProperties;
+    private final MediaCache mediaCache;
+    private final PdfMetrics metrics;
+    private final ConcurrentMap<String, CompletableFuture<File>> inFlight = new ConcurrentHashMap<>();
+    private ExecutorService executor;
+
+    @Autowired
+    public MediaResolver(MediaProperties mediaProperties, MediaCache mediaCache, PdfMetrics metrics) {
+        this.mediaProperties = mediaProperties;
+        this.mediaCache = mediaCache;
+        this.metrics = metrics;
+    }
+
+    @PostConstruct
+    public void start() {
+        AtomicInteger count = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(mediaProperties.getThreads(), runnable -> {
+            Thread thread = new Thread(runnable, "media-download-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Downloads the given URLs in parallel. Repeated URLs are fetched once.
+     *
+     * @return the cached file of every URL, in the order of the given URLs
+     * @throws MediaDownloadException if any of the downloads failed
+     */
+    public Map<String, File> resolve(Collection<String> urls) throws IOException {
+        if (urls.isEmpty()) {
+            return new LinkedHashMap<>();
+        }
+        long start = System.currentTimeMillis();
+        Map<String, CompletableFuture<File>> downloads = new LinkedHashMap<>();
+        for (String url : new LinkedHashSet<>(urls)) {
+            downloads.put(url, fetchAsync(url));
+        }
+        Map<String, File> files = new LinkedHashMap<>();
+        for (Map.Entry<String, CompletableFuture<File>> download : downloads.entrySet()) {
+            try {
+                files.put(download.getKey(), download.getValue().get());
+            } catch (ExecutionException e) {
+                throw new MediaDownloadException("Could not download media from " + download.getKey(), e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while downloading " + download.getKey());
+            }
+        }
+        metrics.recordMedia(System.currentTimeMillis() - start);
+        return files;
+    }
+
+    /**
+     * Makes a cached file available in a job folder.
+     */
+    public void link(File cached, File target) throws IOException {
+        FileLinks.link(cached, target);
+    }
+
+    private CompletableFuture<File> fetchAsync(String url) {
+        CompletableFuture<File> download = new CompletableFuture<>();
+        CompletableFuture<File> running = inFlight.putIfAbsent(url, download);
+        if (running != null) {
+            return running;
+        }
+        executor.execute(() -> {
+            File file;
+            try {
+                file = fetch(url);
+            } catch (Exception e) {
+                inFlight.remove(url, download);
+                download.completeExceptionally(e);
+                return;
+            }
+            inFlight.remove(url, download);
+            download.complete(file);
+        });
+        return download;
+    }
+
+    File fetch(String url) throws IOException {
+        Properties validators = mediaCache.validators(url);
+        if (mediaCache.isFresh(validators)) {
+            metrics.recordMediaHit();
+            return mediaCache.touch(url);
+        }
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(mediaProperties.getConnectTimeout());
+        connection.setReadTimeout(mediaProperties.getReadTimeout());
+        connection.setInstanceFollowRedirects(true);
+        String etag = mediaCache.etag(validators);
+        String lastModified = mediaCache.lastModified(validators);
+        if (etag != null) {
+            connection.setRequestProperty("If-None-Match", etag);
+        }
+        if (lastModified != null) {
+            connection.setRequestProperty("If-Modified-Since", lastModified);
+        }
+
+        try {
+            int status = connection.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED && !validators.isEmpty()) {
+                LOG.debug("Media {} not modified", url);
+                metrics.recordMediaRevalidated();
+                return mediaCache.validated(url, validators);
+            }
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Server answered " + status + " for " + url);
+            }
+            long length = connection.getContentLengthLong();
+            if (length > mediaProperties.getMaxBytes()) {
+                throw new IOException("Media " + url + " has " + length + " bytes, the limit is " + mediaProperties.getMaxBytes());
+            }
+
+            LOG.info("Downloading media from {}", url);
+            long start = System.currentTimeMillis();
+            File download = mediaCache.newDownloadFile();
+            try {
+                copy(connection.getInputStream(), download, url);
+                metrics.recordMediaDownload(System.currentTimeMillis() - start);
+                return mediaCache.store(url, download, connection.getHeaderField("ETag"), connection.getHeaderField("Last-Modified"));
+            } finally {
+                Files.deleteIfExists(download.toPath());
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private void copy(InputStream body, File target, String url) throws IOException {
+        byte[] buffer = new byte[8192];
+        long total = 0;
+        try (InputStream in = body; OutputStream out = new FileOutputStream(target)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                total += read;
+                if (total > mediaProperties.getMaxBytes()) {
+                    throw new IOException("Media " + url + " exceeds the limit of " + mediaProperties.getMaxBytes() + " bytes");
+                }
+                out.write(buffer, 0, read);
+            }
+        }
+    }
+}
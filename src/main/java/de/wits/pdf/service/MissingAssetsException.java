@@ -0,0 +1,24 @@
+package de.wits.pdf.service;
+
+import java.util.List;
+
+/**
+ * Thrown when the manifest of an uploaded bundle names assets the store does not have. The client sends
+ * the bundle again with these files included.
+ */
+public class MissingAssetsException extends UploadRejectedException {
+
+    private final List<String> missing;
+
+    public MissingAssetsException(List<String> missing) {
+        super("Missing " + missing.size() + " assets");
+        this.missing = missing;
+    }
+
+    /**
+     * @return the SHA-256 hashes of the missing assets
+     */
+    public List<String> getMissing() {
+        return missing;
+    }
+}
@@ -0,0 +1,91 @@
+package de.wits.pdf.service;
+
+import de.wits.pdf.model.OptimizationLevel;
+import de.wits.pdf.model.PdfRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Concatenates rendered documents into one PDF without rendering them again. Outlines and page labels
+ * of the parts are carried over, see {@link PdfPostProcessor#merge(List, File, OptimizationLevel, PdfRequest)}.
+ * <p>
+ * Merges run on the render workers like any other request.
+ */
+@Service
+public class PdfMerger {
+
+    static final String RESULT_FILE_NAME = "merged.pdf";
+
+    private final WorkspaceManager workspaceManager;
+    private final RenderScheduler renderScheduler;
+    private final PdfPostProcessor postProcessor;
+
+    @Autowired
+    public PdfMerger(WorkspaceManager workspaceManager, RenderScheduler renderScheduler,
+                     PdfPostProcessor postProcessor) {
+        this.workspaceManager = workspaceManager;
+        this.renderScheduler = renderScheduler;
+        this.postProcessor = postProcessor;
+    }
+
+    /**
+     * Creates the working folder of a merge. It has to be given back with {@link #release(PdfRequest)}.
+     *
+     * @param tenant the client the merge is rendered for
+     * @throws RenderQueueFullException if there is no room for the working folder
+     */
+    public PdfRequest newMerge(String tenant) throws RenderQueueFullException {
+        PdfRequest merge = new PdfRequest(UUID.randomUUID(), null);
+        merge.setTenant(tenant);
+        workspaceManager.create(merge, "merge-");
+        return merge;
+    }
+
+    /**
+     * Places a rendered document into the working folder of a merge.
+     *
+     * @return the part to pass to {@link #merge(PdfRequest, List, OptimizationLevel)}
+     */
+    public File addPart(PdfRequest merge, int index, File pdfFile) throws IOException {
+        File part = new File(merge.getTmpFolder().getParentFile(), String.format("part-%04d.pdf", index));
+        FileLinks.link(pdfFile, part);
+        return part;
+    }
+
+    /**
+     * Concatenates the parts in the given order.
+     *
+     * @param level post processing of the merged document. Parts that have been optimized already do
+     *              not need {@link OptimizationLevel#FULL}.
+     * @return the merged document inside the working folder of the merge
+     * @throws RenderQueueFullException if the render backlog is full
+     */
+    public File merge(PdfRequest merge, List<File> parts, OptimizationLevel level) throws PDFCreationFailedException {
+        if (parts.isEmpty()) {
+            throw new PDFCreationFailedException("Nothing to merge");
+        }
+        File folder = merge.getTmpFolder().getParentFile();
+        try {
+            return renderScheduler.submit(merge, () -> postProcessor.merge(parts, new File(folder, RESULT_FILE_NAME), level, merge)).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof PDFCreationFailedException) {
+                throw (PDFCreationFailedException) cause;
+            }
+            throw new PDFCreationFailedException("Could not merge the PDF Documents.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PDFCreationFailedException("Interrupted while waiting for the merged PDF Document.", e);
+        }
+    }
+
+    public void release(PdfRequest merge) {
+        workspaceManager.release(merge);
+    }
+}
@@ -0,0 +1,275 @@
+package de.wits.pdf.service;
+
+import de.wits.pdf.model.Priority;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.boot.actuate.metrics.GaugeService;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+
+/**
+ * Records the PDF pipeline metrics. They are published through the actuator {@code /metrics} endpoint
+ * and as MBeans, which Jolokia serves under {@code /jolokia}.
+ * <p>
+ * The counter and gauge services are backed by Dropwizard metrics: names starting with {@code timer.}
+ * become timers and names starting with {@code histogram.} histograms, both with percentiles. Other
+ * submitted values are plain gauges.
+ */
+@Component
+public class PdfMetrics {
+
+    private final CounterService counterService;
+    private final GaugeService gaugeService;
+
+    @Autowired
+    public PdfMetrics(CounterService counterService, GaugeService gaugeService) {
+        this.counterService = counterService;
+        this.gaugeService = gaugeService;
+    }
+
+    public void recordQueue(int waiting, int active) {
+        gaugeService.submit("pdf.queue.waiting", waiting);
+        gaugeService.submit("pdf.queue.active", active);
+    }
+
+    /**
+     * @param decision increase, decrease or hold
+     * @param cpuLoad  share of the CPUs used, NaN if unknown
+     */
+    public void recordConcurrencyLimit(int limit, String decision, double cpuLoad) {
+        gaugeService.submit("pdf.render.limit", limit);
+        counterService.increment("pdf.render.limit." + decision);
+        if (!Double.isNaN(cpuLoad)) {
+            gaugeService.submit("pdf.render.cpu", cpuLoad);
+        }
+    }
+
+    public void recordQueueWait(Priority priority, long millis) {
+        gaugeService.submit("timer.pdf.queue.wait", millis);
+        gaugeService.submit("timer.pdf.queue.wait." + name(priority), millis);
+    }
+
+    public void recordExecution(Priority priority, long millis) {
+        gaugeService.submit("timer.pdf.render", millis);
+        gaugeService.submit("timer.pdf.render." + name(priority), millis);
+    }
+
+    /**
+     * @param pass one based number of the pass within its compile
+     */
+    public void recordLatexPass(int pass, long millis) {
+        gaugeService.submit("timer.pdf.latex.pass", millis);
+        gaugeService.submit("timer.pdf.latex.pass." + pass, millis);
+    }
+
+    public void recordLatex(long millis) {
+        gaugeService.submit("timer.pdf.latex", millis);
+    }
+
+    public void recordLatexPasses(int passes) {
+        gaugeService.submit("histogram.pdf.latex.passes", passes);
+        counterService.increment("pdf.latex.passes." + passes);
+    }
+
+    public void recordFormatHit() {
+        counterService.increment("pdf.format.hit");
+    }
+
+    public void recordFormatBuild(long millis) {
+        gaugeService.submit("timer.pdf.format.build", millis);
+    }
+
+    public void recordFormatBuildFailure() {
+        counterService.increment("pdf.format.build.failure");
+    }
+
+    /**
+     * @param tenant whether only the backlog of the tenant was full
+     */
+    public void recordRejected(boolean tenant) {
+        counterService.increment("pdf.queue.rejected");
+        if (tenant) {
+            counterService.increment("pdf.queue.rejected.tenant");
+        }
+    }
+
+    public void recordCacheHit() {
+        counterService.increment("pdf.cache.hit");
+    }
+
+    public void recordCacheMiss() {
+        counterService.increment("pdf.cache.miss");
+    }
+
+    /**
+     * A request that found an identical render in progress and waited for it.
+     */
+    public void recordCacheShared() {
+        counterService.increment("pdf.cache.shared");
+    }
+
+    /**
+     * Time a render waited for all of its media, downloaded or not.
+     */
+    public void recordMedia(long millis) {
+        gaugeService.submit("timer.pdf.media", millis);
+    }
+
+    public void recordMediaDownload(long millis) {
+        counterService.increment("pdf.media.download");
+        gaugeService.submit("timer.pdf.media.download", millis);
+    }
+
+    /**
+     * A cached download that was used without asking the origin server.
+     */
+    public void recordMediaHit() {
+        counterService.increment("pdf.media.hit");
+    }
+
+    /**
+     * A cached download the origin server confirmed as unchanged.
+     */
+    public void recordMediaRevalidated() {
+        counterService.increment("pdf.media.revalidated");
+    }
+
+    /**
+     * An image converted or downsampled before compiling.
+     */
+    public void recordMediaNormalized(long millis) {
+        counterService.increment("pdf.media.normalized");
+        gaugeService.submit("timer.pdf.media.normalize", millis);
+    }
+
+    /**
+     * An image whose normalized copy was made for an earlier request.
+     */
+    public void recordMediaNormalizedHit() {
+        counterService.increment("pdf.media.normalized.hit");
+    }
+
+    /**
+     * An asset of a bundle that was taken from the asset store instead of the upload.
+     */
+    public void recordAssetReused() {
+        counterService.increment("pdf.assets.reused");
+    }
+
+    public void recordAssetStored() {
+        counterService.increment("pdf.assets.stored");
+    }
+
+    public void recordAssetEvicted() {
+        counterService.increment("pdf.assets.evicted");
+    }
+
+    public void recordAssetStore(long usedBytes) {
+        gaugeService.submit("pdf.assets.used", usedBytes);
+    }
+
+    /**
+     * @param stage metadata for copying the metadata over the Ghostscript output, merge for merging,
+     *              pages for cutting a document down to a page range
+     */
+    public void recordPostProcessing(String stage, long millis) {
+        gaugeService.submit("timer.pdf.postprocess." + stage, millis);
+    }
+
+    public void recordTexWorkers(int idle, int busy) {
+        gaugeService.submit("pdf.tex.workers.idle", idle);
+        gaugeService.submit("pdf.tex.workers.busy", busy);
+    }
+
+    /**
+     * A pass that found no waiting pdflatex process and started its own.
+     */
+    public void recordTexPoolMiss() {
+        counterService.increment("pdf.tex.workers.miss");
+    }
+
+    /**
+     * A pdflatex process of the pool that crashed or timed out.
+     */
+    public void recordTexWorkerRestart() {
+        counterService.increment("pdf.tex.workers.restart");
+    }
+
+    /**
+     * @param name the program, e.g. pdflatex or gs
+     */
+    public void recordProcess(String name, long millis, long cpuMillis) {
+        gaugeService.submit("timer.pdf.process." + name, millis);
+        gaugeService.submit("timer.pdf.process." + name + ".cpu", cpuMillis);
+    }
+
+    /**
+     * @param reason timeout, cancelled or interrupted
+     */
+    public void recordProcessKilled(String name, String reason) {
+        counterService.increment("pdf.process." + name + ".killed." + reason);
+    }
+
+    /**
+     * @param failed the sample renders that failed
+     */
+    public void recordWarmup(long millis, int failed) {
+        gaugeService.submit("timer.pdf.warmup", millis);
+        gaugeService.submit("pdf.warmup.failed", failed);
+    }
+
+    public void recordDiskUsage(long usedBytes, long freeBytes) {
+        gaugeService.submit("pdf.temporal.used", usedBytes);
+        gaugeService.submit("pdf.temporal.free", freeBytes);
+    }
+
+    public void recordWorkspaces(int active, long usedBytes) {
+        gaugeService.submit("pdf.workspace.active", active);
+        gaugeService.submit("pdf.workspace.used", usedBytes);
+    }
+
+    /**
+     * A job that was turned away because its working folder would not fit.
+     */
+    public void recordWorkspaceRejected() {
+        counterService.increment("pdf.workspace.rejected");
+    }
+
+    /**
+     * @param deleted folders left behind that the sweep removed
+     */
+    public void recordWorkspaceSweep(int deleted) {
+        counterService.increment("pdf.workspace.sweep");
+        gaugeService.submit("histogram.pdf.workspace.swept", deleted);
+    }
+
+    public void recordFailure(Throwable error) {
+        counterService.increment("pdf.failure." + failureCause(error));
+    }
+
+    /**
+     * @return timeout, cancelled, latex, download or other
+     */
+    static String failureCause(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof RenderTimeoutException) {
+                return "timeout";
+            }
+            if (cause instanceof RenderCancelledException) {
+                return "cancelled";
+            }
+            if (cause instanceof LatexException) {
+                return "latex";
+            }
+            if (cause instanceof MediaDownloadException) {
+                return "download";
+            }
+        }
+        return "other";
+    }
+
+    private static String name(Priority priority) {
+        return priority.name().toLowerCase(Locale.ROOT);
+    }
+}
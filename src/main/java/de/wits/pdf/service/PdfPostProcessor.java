@@ -0,0 +1,341 @@
+package de.wits.pdf.service;
+
+import de.wits.pdf.model.OptimizationLevel;
+import de.wits.pdf.model.PageRange;
+import de.wits.pdf.model.PdfRequest;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSInteger;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSNumber;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.multipdf.PDFCloneUtility;
+import org.apache.pdfbox.multipdf.PDFMergerUtility;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDDocumentCatalog;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.interactive.action.PDAction;
+import org.apache.pdfbox.pdmodel.interactive.action.PDActionGoTo;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAnnotation;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAnnotationLink;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDDestination;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDNamedDestination;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDPageDestination;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDPageFitDestination;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDPageXYZDestination;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDDocumentOutline;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDOutlineItem;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDOutlineNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Post processes rendered documents according to an {@link OptimizationLevel}. The only external
+ * process is the Ghostscript pass of {@link OptimizationLevel#FULL}; Ghostscript drops the document
+ * information, outline and page labels, so they are copied over from the input in the JVM afterwards.
+ * Merging documents happens in the JVM as well.
+ */
+@Component
+public class PdfPostProcessor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PdfPostProcessor.class);
+
+    /**
+     * Documents are parsed in memory up to this size, larger ones are buffered in temporary files.
+     */
+    private static final long MAX_MAIN_MEMORY_BYTES = 16 * 1024 * 1024;
+
+    private final ProcessSupervisor processSupervisor;
+    private final PdfMetrics metrics;
+
+    @Autowired
+    public PdfPostProcessor(ProcessSupervisor processSupervisor, PdfMetrics metrics) {
+        this.processSupervisor = processSupervisor;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Post processes a rendered document. Its output is written next to it.
+     *
+     * @param request the request the document belongs to, its deadline applies to Ghostscript
+     * @return the processed document, the input itself if there was nothing to do or Ghostscript failed
+     */
+    public File process(File pdfFile, OptimizationLevel level, PdfRequest request) throws IOException, InterruptedException, PDFCreationFailedException {
+        if (level != OptimizationLevel.FULL) {
+            // pdflatex output carries its metadata already
+            return pdfFile;
+        }
+        File folder = pdfFile.getParentFile();
+        File optimized = new File(folder, "gs-" + pdfFile.getName());
+        if (!ghostscript(pdfFile, optimized, request)) {
+            return pdfFile;
+        }
+        File result = new File(folder, "final-" + pdfFile.getName());
+        long start = System.currentTimeMillis();
+        try (PDDocument source = load(pdfFile); PDDocument target = load(optimized)) {
+            copyMetadata(source, target);
+            target.save(result);
+        }
+        metrics.recordPostProcessing("metadata", System.currentTimeMillis() - start);
+        Files.delete(optimized.toPath());
+        return result;
+    }
+
+    /**
+     * Concatenates documents. Unless the level is {@link OptimizationLevel#NONE}, the outlines and page
+     * labels of the parts are shifted to the page the part starts on. Once any part has page labels,
+     * parts without them get decimal labels starting at 1, otherwise they would continue the labels of
+     * the part before. Missing document information entries are taken from the first part that has them.
+     *
+     * @return the merged and post processed document
+     */
+    public File merge(List<File> parts, File target, OptimizationLevel level, PdfRequest request) throws IOException, InterruptedException, PDFCreationFailedException {
+        boolean keepMetadata = level != OptimizationLevel.NONE;
+        long start = System.currentTimeMillis();
+        List<PDDocument> sources = new ArrayList<>(parts.size());
+        try (PDDocument merged = new PDDocument(memoryUsage())) {
+            PDFMergerUtility merger = new PDFMergerUtility();
+            PDFCloneUtility cloner = new PDFCloneUtility(merged);
+            PDDocumentOutline outline = new PDDocumentOutline();
+            COSArray labels = new COSArray();
+            boolean labelled = false;
+
+            for (File part : parts) {
+                // the clones in the merged document refer to their sources until it is saved
+                PDDocument source = load(part);
+                sources.add(source);
+                int offset = merged.getNumberOfPages();
+                PDDocumentCatalog catalog = source.getDocumentCatalog();
+
+                PDDocumentOutline partOutline = catalog.getDocumentOutline();
+                if (keepMetadata) {
+                    COSArray partLabels = pageLabels(catalog);
+                    if (partLabels != null) {
+                        labelled = true;
+                        for (int i = 0; i + 1 < partLabels.size(); i += 2) {
+                            labels.add(COSInteger.get(((COSNumber) partLabels.getObject(i)).intValue() + offset));
+                            labels.add(cloner.cloneForNewDocument(partLabels.getObject(i + 1)));
+                        }
+                    } else {
+                        COSDictionary decimal = new COSDictionary();
+                        decimal.setName(COSName.S, "D");
+                        labels.add(COSInteger.get(offset));
+                        labels.add(decimal);
+                    }
+                    // destination names repeat between parts, only the first part keeps its names
+                    resolveLinks(source);
+                }
+                // outlines and labels are rebuilt for the merged page numbers
+                catalog.setDocumentOutline(null);
+                catalog.getCOSObject().removeItem(COSName.PAGE_LABELS);
+                merger.appendDocument(merged, source);
+                if (keepMetadata) {
+                    copyOutline(source, partOutline, merged, offset, outline);
+                }
+            }
+
+            merged.getDocumentCatalog().getCOSObject().removeItem(COSName.PAGE_LABELS);
+            if (keepMetadata && outline.hasChildren()) {
+                merged.getDocumentCatalog().setDocumentOutline(outline);
+            }
+            if (keepMetadata && labelled) {
+                merged.getDocumentCatalog().getCOSObject().setItem(COSName.PAGE_LABELS, pageLabels(labels));
+            }
+            LOG.info("Merging {} documents into {}", parts.size(), target);
+            merged.save(target);
+        } finally {
+            for (PDDocument source : sources) {
+                source.close();
+            }
+        }
+        metrics.recordPostProcessing("merge", System.currentTimeMillis() - start);
+        return process(target, level, request);
+    }
+
+    /**
+     * Cuts a document down to a range of pages, written next to it. The pages keep their numbers as page
+     * labels; the outline is dropped, it would point to pages that are gone.
+     *
+     * @throws PDFCreationFailedException if the document ends before the range starts
+     */
+    public File extract(File pdfFile, PageRange pages) throws IOException, PDFCreationFailedException {
+        long start = System.currentTimeMillis();
+        File result = new File(pdfFile.getParentFile(), "pages-" + pdfFile.getName());
+        try (PDDocument document = load(pdfFile)) {
+            int count = document.getNumberOfPages();
+            if (pages.getFirst() > count) {
+                throw new PDFCreationFailedException("Page " + pages.getFirst() + " requested, the document has " + count + " pages");
+            }
+            for (int index = count - 1; index >= 0; index--) {
+                if (index + 1 < pages.getFirst() || index + 1 > pages.getLast()) {
+                    document.removePage(index);
+                }
+            }
+            PDDocumentCatalog catalog = document.getDocumentCatalog();
+            catalog.setDocumentOutline(null);
+            catalog.getCOSObject().removeItem(COSName.PAGE_LABELS);
+            if (pages.getFirst() > 1) {
+                COSDictionary decimal = new COSDictionary();
+                decimal.setName(COSName.S, "D");
+                decimal.setInt(COSName.ST, pages.getFirst());
+                COSArray labels = new COSArray();
+                labels.add(COSInteger.ZERO);
+                labels.add(decimal);
+                catalog.getCOSObject().setItem(COSName.PAGE_LABELS, pageLabels(labels));
+            }
+            document.save(result);
+        }
+        metrics.recordPostProcessing("pages", System.currentTimeMillis() - start);
+        return result;
+    }
+
+    private boolean ghostscript(File input, File output, PdfRequest request) throws IOException, InterruptedException, PDFCreationFailedException {
+        ProcessBuilder processBuilder = new ProcessBuilder("gs", "-sDEVICE=pdfwrite", "-dProcessDSCComments=false",
+                "-dCompatibilityLevel=1.4", "-dNOPAUSE", "-dQUIET", "-dBATCH", "-sOutputFile=" + output.getName(), input.getName());
+        processBuilder.directory(input.getParentFile());
+        LOG.info("Running ghostscript optimization on {}", input);
+        SupervisedProcess process = processSupervisor.start("gs", processBuilder);
+        if (processSupervisor.await(process, request, processSupervisor.deadline(request)) != 0 || !output.isFile()) {
+            LOG.warn("Optimize failed. Using non optimized");
+            LOG.warn("Output: {}", process.getOutput());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Copies document information, XMP metadata, outline, page labels and page mode from one document to
+     * a document with the same pages.
+     */
+    static void copyMetadata(PDDocument source, PDDocument target) throws IOException {
+        PDFCloneUtility cloner = new PDFCloneUtility(target);
+        COSDictionary sourceCatalog = source.getDocumentCatalog().getCOSObject();
+        COSDictionary targetCatalog = target.getDocumentCatalog().getCOSObject();
+
+        target.getDocument().getTrailer().setItem(COSName.INFO,
+                cloner.cloneForNewDocument(source.getDocumentInformation().getCOSObject()));
+        for (COSName key : new COSName[]{COSName.METADATA, COSName.PAGE_LABELS, COSName.PAGE_MODE}) {
+            COSBase value = sourceCatalog.getDictionaryObject(key);
+            if (value != null) {
+                targetCatalog.setItem(key, cloner.cloneForNewDocument(value));
+            }
+        }
+        PDDocumentOutline outline = new PDDocumentOutline();
+        copyOutline(source, source.getDocumentCatalog().getDocumentOutline(), target, 0, outline);
+        target.getDocumentCatalog().setDocumentOutline(outline.hasChildren() ? outline : null);
+    }
+
+    /**
+     * Rebuilds an outline with destinations pointing to the pages of another document, shifted by the
+     * given number of pages. Items whose destination cannot be resolved keep their title only.
+     */
+    private static void copyOutline(PDDocument source, PDOutlineNode from, PDDocument target, int offset, PDOutlineNode to) throws IOException {
+        if (from == null) {
+            return;
+        }
+        for (PDOutlineItem item : from.children()) {
+            PDOutlineItem copy = new PDOutlineItem();
+            copy.setTitle(item.getTitle());
+            PDDestination destination = item.getDestination();
+            if (destination == null && item.getAction() instanceof PDActionGoTo) {
+                destination = ((PDActionGoTo) item.getAction()).getDestination();
+            }
+            PDPageDestination pageDestination = resolve(source, destination);
+            int index = pageDestination == null ? -1 : pageIndex(source, pageDestination) + offset;
+            if (index >= offset && index < target.getNumberOfPages()) {
+                copy.setDestination(move(pageDestination, target.getPage(index)));
+            }
+            to.addLast(copy);
+            copyOutline(source, item, target, offset, copy);
+            if (item.isNodeOpen()) {
+                copy.openNode();
+            }
+        }
+    }
+
+    /**
+     * Replaces named destinations of links with the pages they point to.
+     */
+    private static void resolveLinks(PDDocument document) throws IOException {
+        for (PDPage page : document.getPages()) {
+            for (PDAnnotation annotation : page.getAnnotations()) {
+                if (!(annotation instanceof PDAnnotationLink)) {
+                    continue;
+                }
+                PDAnnotationLink link = (PDAnnotationLink) annotation;
+                PDAction action = link.getAction();
+                PDDestination destination = action instanceof PDActionGoTo ? ((PDActionGoTo) action).getDestination() : link.getDestination();
+                if (destination instanceof PDNamedDestination) {
+                    PDPageDestination resolved = resolve(document, destination);
+                    if (action instanceof PDActionGoTo) {
+                        ((PDActionGoTo) action).setDestination(resolved);
+                    } else {
+                        link.setDestination(resolved);
+                    }
+                }
+            }
+        }
+    }
+
+    private static PDPageDestination resolve(PDDocument document, PDDestination destination) throws IOException {
+        if (destination instanceof PDNamedDestination) {
+            return document.getDocumentCatalog().findNamedDestinationPage((PDNamedDestination) destination);
+        }
+        return destination instanceof PDPageDestination ? (PDPageDestination) destination : null;
+    }
+
+    private static int pageIndex(PDDocument document, PDPageDestination destination) {
+        if (destination.getPage() != null) {
+            return document.getPages().indexOf(destination.getPage());
+        }
+        return destination.getPageNumber();
+    }
+
+    private static PDPageDestination move(PDPageDestination destination, PDPage page) {
+        PDPageDestination moved;
+        if (destination instanceof PDPageXYZDestination) {
+            PDPageXYZDestination xyz = (PDPageXYZDestination) destination;
+            PDPageXYZDestination copy = new PDPageXYZDestination();
+            copy.setLeft(xyz.getLeft());
+            copy.setTop(xyz.getTop());
+            copy.setZoom(xyz.getZoom());
+            moved = copy;
+        } else {
+            moved = new PDPageFitDestination();
+        }
+        moved.setPage(page);
+        return moved;
+    }
+
+    private static COSArray pageLabels(PDDocumentCatalog catalog) {
+        COSBase labels = catalog.getCOSObject().getDictionaryObject(COSName.PAGE_LABELS);
+        if (!(labels instanceof COSDictionary)) {
+            return null;
+        }
+        COSBase nums = ((COSDictionary) labels).getDictionaryObject(COSName.NUMS);
+        return nums instanceof COSArray ? (COSArray) nums : null;
+    }
+
+    private static COSDictionary pageLabels(COSArray nums) {
+        COSDictionary labels = new COSDictionary();
+        labels.setItem(COSName.NUMS, nums);
+        return labels;
+    }
+
+    private static PDDocument load(File pdfFile) throws IOException {
+        return PDDocument.load(pdfFile, memoryUsage());
+    }
+
+    private static MemoryUsageSetting memoryUsage() {
+        return MemoryUsageSetting.setupMixed(MAX_MAIN_MEMORY_BYTES);
+    }
+}
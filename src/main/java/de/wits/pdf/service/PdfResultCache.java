@@ -0,0 +1,262 @@
+package de.wits.pdf.service;
+
+import de.wits.pdf.configuration.CacheProperties;
+import de.wits.pdf.configuration.FileSystemPathProperties;
+import de.wits.pdf.model.OptimizationLevel;
+import de.wits.pdf.model.PageRange;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Content addressed cache of rendered PDF files. The key is a hash over the normalized template, every
+ * other file of the job workspace (downloaded media, bundled assets) and the optimization level, so byte
+ * identical requests are only rendered once.
+ * <p>
+ * Results live in the {@code cache} folder below {@code pdf.temporal}, which is size bounded and evicted
+ * least recently used first. They are handed out as hard links in the workspace of the job, so an
+ * eviction does not pull a result from under the response that is still sending it. Concurrent identical
+ * requests share one render.
+ * <p>
+ * There is deliberately no in-memory tier of result bytes. Callers get files, and a hit on disk costs one
+ * hard link, while bytes held in the heap would have to be written out into the workspace again. Hot
+ * results stay in the page cache of the operating system anyway.
+ * <p>
+ * The files of a workspace are hashed through {@link FileHashes}; shared media and assets are hard links
+ * whose hashes are known already, so the key of a hit costs little more than hashing the template.
+ */
+@Component
+public class PdfResultCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PdfResultCache.class);
+    private static final Pattern TRAILING_WHITESPACE = Pattern.compile("[ \\t]+$", Pattern.MULTILINE);
+    private static final Pattern SERVED = Pattern.compile("cached-([0-9a-f]{64})\\.pdf");
+    static final String CACHE_FOLDER = "cache";
+
+    private final CacheProperties cacheProperties;
+    private final FileSystemPathProperties fileSystemPathProperties;
+    private final PdfMetrics metrics;
+    private final ConcurrentMap<String, CompletableFuture<File>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong size = new AtomicLong();
+    private File cacheFolder;
+
+    @Autowired
+    public PdfResultCache(CacheProperties cacheProperties, FileSystemPathProperties fileSystemPathProperties, PdfMetrics metrics) {
+        this.cacheProperties = cacheProperties;
+        this.fileSystemPathProperties = fileSystemPathProperties;
+        this.metrics = metrics;
+    }
+
+    @PostConstruct
+    public void init() {
+        cacheFolder = new File(fileSystemPathProperties.getTemporal(), CACHE_FOLDER);
+        cacheFolder.mkdirs();
+        File[] files = cacheFolder.listFiles((dir, name) -> name.endsWith(".pdf"));
+        size.set(files == null ? 0 : Arrays.stream(files).mapToLong(File::length).sum());
+    }
+
+    /**
+     * Computes the cache key of a job.
+     *
+     * @param template  the template as submitted; the media references it is compiled with follow from it
+     * @param variables values of its placeholders, null if they are not filled
+     * @param workspace the job folder holding the media and assets referenced by the template
+     * @param optimization post processing of the result
+     * @param pages        the pages the result is cut down to, null for all
+     */
+    public String key(String template, Map<String, String> variables, File workspace, OptimizationLevel optimization,
+                      PageRange pages) throws IOException {
+        MessageDigest digest = Digests.sha256();
+        String normalized = TRAILING_WHITESPACE.matcher(template.replace("\r\n", "\n")).replaceAll("");
+        digest.update(normalized.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) optimization.ordinal());
+        if (pages != null) {
+            digest.update(("pages " + pages).getBytes(StandardCharsets.UTF_8));
+        }
+        if (variables != null) {
+            for (Map.Entry<String, String> variable : new TreeMap<>(variables).entrySet()) {
+                // zero bytes cannot be part of the names or values
+                digest.update((byte) 0);
+                digest.update(variable.getKey().getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                digest.update(variable.getValue().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        Path root = workspace.toPath();
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(root)) {
+            files = walk.filter(Files::isRegularFile)
+                    .filter(path -> !isTemplate(root, path))
+                    .sorted(Comparator.comparing(path -> root.relativize(path).toString()))
+                    .collect(Collectors.toList());
+        }
+        for (Path file : files) {
+            digest.update(root.relativize(file).toString().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(FileHashes.hash(file).getBytes(StandardCharsets.US_ASCII));
+        }
+        return Digests.hex(digest.digest());
+    }
+
+    /**
+     * Returns the cached result for the key, rendering and caching it on a miss. If the same key is
+     * already being rendered the caller waits for that render instead of starting another one, unless
+     * that render gets cancelled.
+     *
+     * @param workspace the folder the result is linked into, where it stays until the folder is deleted;
+     *                  null to get the file in the cache
+     */
+    public File get(String key, Callable<File> render, File workspace) throws Exception {
+        if (!cacheProperties.isEnabled()) {
+            return render.call();
+        }
+        File hit = serve(key, workspace);
+        if (hit != null) {
+            metrics.recordCacheHit();
+            LOG.info("Serving cached result {}", key);
+            return hit;
+        }
+
+        CompletableFuture<File> pending = new CompletableFuture<>();
+        CompletableFuture<File> running = inFlight.putIfAbsent(key, pending);
+        if (running != null) {
+            metrics.recordCacheShared();
+            LOG.info("Waiting for the identical render {} in progress", key);
+            try {
+                running.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RenderCancelledException) {
+                    // cancelled by its own client, not a reason to fail ours
+                    return get(key, render, workspace);
+                }
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+            File shared = serve(key, workspace);
+            // evicted right away by a full cache
+            return shared != null ? shared : get(key, render, workspace);
+        }
+
+        metrics.recordCacheMiss();
+        File served;
+        try {
+            served = store(key, render.call(), workspace);
+        } catch (Exception e) {
+            // removed first, so waiters retrying after a cancellation do not find it again
+            inFlight.remove(key);
+            pending.completeExceptionally(e);
+            throw e;
+        }
+        inFlight.remove(key);
+        pending.complete(served);
+        return served;
+    }
+
+    /**
+     * Removes the least recently used results until the cache fits into its configured size. Links handed
+     * out keep their content.
+     */
+    public synchronized void evict() {
+        File[] files = cacheFolder.listFiles((dir, name) -> name.endsWith(".pdf"));
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        long total = Arrays.stream(files).mapToLong(File::length).sum();
+        for (File file : files) {
+            if (total <= cacheProperties.getDiskMaxBytes()) {
+                break;
+            }
+            total -= file.length();
+            if (file.delete()) {
+                LOG.debug("Evicted cached result {}", file.getName());
+            }
+        }
+        size.set(total);
+    }
+
+    /**
+     * @return the bytes taken by the cached results as of the last store or eviction
+     */
+    public long getSize() {
+        return size.get();
+    }
+
+    public File getCacheFolder() {
+        return cacheFolder;
+    }
+
+    /**
+     * @return the key of a cached result or of a link to one, null for other files
+     */
+    public String keyOf(File file) {
+        if (cacheFolder.equals(file.getParentFile()) && file.getName().endsWith(".pdf")) {
+            return file.getName().replaceAll("\\.pdf$", "");
+        }
+        Matcher matcher = SERVED.matcher(file.getName());
+        return matcher.matches() ? matcher.group(1) : null;
+    }
+
+    /**
+     * Hands out a cached result. Evictions wait, so the result cannot disappear before it is linked.
+     *
+     * @return the result, null if the cache does not have it
+     */
+    private synchronized File serve(String key, File workspace) throws IOException {
+        File file = new File(cacheFolder, key + ".pdf");
+        if (!file.isFile()) {
+            return null;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        return link(file, key, workspace);
+    }
+
+    private File store(String key, File rendered, File workspace) throws IOException {
+        File served;
+        synchronized (this) {
+            File target = new File(cacheFolder, key + ".pdf");
+            Files.move(rendered.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            served = link(target, key, workspace);
+        }
+        evict();
+        return served;
+    }
+
+    private static File link(File cached, String key, File workspace) throws IOException {
+        if (workspace == null) {
+            return cached;
+        }
+        File served = new File(workspace, "cached-" + key + ".pdf");
+        FileLinks.link(cached, served);
+        return served;
+    }
+
+    private static boolean isTemplate(Path root, Path path) {
+        return path.getParent().equals(root) && path.getFileName().toString().equals("template.tex");
+    }
+}
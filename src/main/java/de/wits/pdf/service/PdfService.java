@@ -3,6 +3,7 @@ package de.wits.pdf.service;
 import de.wits.pdf.model.PdfRequest;
 
 import java.io.File;
+import java.io.InputStream;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 
@@ -10,6 +11,16 @@ public interface PdfService {
 
     public CompletableFuture<File> getPdf(PdfRequest template) throws PDFCreationFailedException, ExecutionException, InterruptedException;
 
-    public File getPdf(byte[] template) throws PDFCreationFailedException;
+    public File getPdf(PdfRequest request, InputStream zipFile) throws PDFCreationFailedException;
+
+    /**
+     * Deletes the working folder of a request once its result has been delivered.
+     */
+    public void release(PdfRequest request);
+
+    /**
+     * Stops a request that is no longer wanted, whether it is still waiting or already rendering.
+     */
+    public void cancel(PdfRequest request);
 
 }
@@ -1,104 +1,78 @@
 package de.wits.pdf.service;
 
-import com.google.common.io.Files;
-import de.wits.pdf.configuration.FileSystemPathProperties;
 import de.wits.pdf.configuration.GenerationProperties;
+import de.wits.pdf.model.OptimizationLevel;
 import de.wits.pdf.model.PdfRequest;
-import net.lingala.zip4j.core.ZipFile;
 import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.io.FileSystemResource;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
-import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.URL;
-import java.util.LinkedList;
-import java.util.Queue;
-import java.util.UUID;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class PdfServiceImpl implements PdfService {
 
     private static final Logger LOG = LoggerFactory.getLogger(PdfServiceImpl.class);
-    private static final int RUN_COUNT = 2;
-    private static final int MAX_PROCESSES = 6;
-    private static final String META_FILE_NAME = "metadata";
 
-    static final Pattern MEDIA_REGEX = Pattern.compile("img:(https?:\\/\\/[^}]*)");
-
-    private transient FileSystemPathProperties fileSystemPathConfig;
+    private transient WorkspaceManager workspaceManager;
     private transient GenerationProperties generationOptionsProperties;
-
-    Queue<PdfRequest> processQueue, waitQueue;
+    private transient RenderScheduler renderScheduler;
+    private transient PdfResultCache resultCache;
+    private transient MediaResolver mediaResolver;
+    private transient MediaNormalizer mediaNormalizer;
+    private transient LatexCompiler latexCompiler;
+    private transient ZipExtractor zipExtractor;
+    private transient AssetStore assetStore;
+    private transient PdfPostProcessor postProcessor;
 
     @Autowired
-    public PdfServiceImpl(FileSystemPathProperties fileSystemPathConfig, GenerationProperties generationOptionsProperties) {
-        this.fileSystemPathConfig = fileSystemPathConfig;
+    public PdfServiceImpl(WorkspaceManager workspaceManager, GenerationProperties generationOptionsProperties,
+                          RenderScheduler renderScheduler, PdfResultCache resultCache, MediaResolver mediaResolver,
+                          MediaNormalizer mediaNormalizer, LatexCompiler latexCompiler, ZipExtractor zipExtractor,
+                          AssetStore assetStore, PdfPostProcessor postProcessor) {
+        this.workspaceManager = workspaceManager;
         this.generationOptionsProperties = generationOptionsProperties;
-        processQueue = new ArrayBlockingQueue<>(MAX_PROCESSES, true);
-        waitQueue = new LinkedList<>();
+        this.renderScheduler = renderScheduler;
+        this.resultCache = resultCache;
+        this.mediaResolver = mediaResolver;
+        this.mediaNormalizer = mediaNormalizer;
+        this.latexCompiler = latexCompiler;
+        this.zipExtractor = zipExtractor;
+        this.assetStore = assetStore;
+        this.postProcessor = postProcessor;
     }
 
-    @Async
     @Override
     public CompletableFuture<File> getPdf(PdfRequest request) throws PDFCreationFailedException, ExecutionException, InterruptedException {
-        File file = null;
-        try {
-            File tmpFile = new File(setupTmpFolder(), "template.tex");
-            request.setTmpFolder(tmpFile);
-
-            if (processQueue.offer(request)) {
-                LOG.info("Had space inmediately. Queue size; " + processQueue.size());
-                file = generatePdfSyncronously(request);
-            } else {
-                waitQueue.offer(request);
-                LOG.info("Need to wait. Queue size is; " + processQueue.size());
-                file = generatePdfAsynchronously(request).get();
-            }
-        } catch (Exception e) {
-            LOG.error("Error happened", e);
-            throw new RuntimeException(e);
-        } finally {
-            processQueue.remove(request);
-            LOG.info("Cleared. New queue size: " + processQueue.size());
-        }
+        workspaceManager.create(request, "");
 
-
-        return CompletableFuture.completedFuture(file);
-    }
-
-    private CompletableFuture<File> generatePdfAsynchronously(PdfRequest request) throws InterruptedException, PDFCreationFailedException {
-        LOG.info("Gotta wait. Queue size: " + waitQueue.size());
-        while (!waitQueue.peek().equals(request)) { // Wait until you are the first one in the queue
-            Thread.sleep(500);
-        }
-        LOG.info("First one in the queue. Gotta wait since the amount of processes running is " + processQueue.size());
-        while (processQueue.size() >= MAX_PROCESSES) { // Wait until there is space in the execution queue
-            Thread.sleep(500);
-        }
-        processQueue.add(request);
-        waitQueue.poll();
-
-        return CompletableFuture.completedFuture(generatePdfSyncronously(request));
+        return renderScheduler.submit(request, () -> generatePdfSyncronously(request));
     }
 
     private File generatePdfSyncronously(PdfRequest request) throws PDFCreationFailedException {
         File file = null;
         try {
-            String template = processTemplateMedia(request.getLatexTemplate(), request.getTmpFolder().getParentFile());
-            file = process(template, request.getTmpFolder());
+            file = process(request.getLatexTemplate(), request.getTmpFolder(), optimization(request), request);
+        } catch (PDFCreationFailedException e) {
+            throw e;
         } catch (Exception e) {
             throw new PDFCreationFailedException("Could not create PDF Document.", e);
         }
@@ -107,24 +81,46 @@ public class PdfServiceImpl implements PdfService {
     }
 
     @Override
-    public File getPdf(byte[] zipFile) throws PDFCreationFailedException {
-        File file = null;
+    public File getPdf(PdfRequest request, InputStream zipFile) throws PDFCreationFailedException {
+        File tmpFolder = workspaceManager.create(request, "");
+        LOG.info("Extracting zip file to " + tmpFolder.getAbsolutePath());
         try {
-            File tmpFile = setupTmpFolder();
-
-            File writtenZipFile = new File(tmpFile, "tmp.zip");
-            tmpFile.mkdirs();
-            LOG.info("Moving zip file to " + tmpFile.getAbsolutePath());
-            Files.write(zipFile, writtenZipFile);
-
-            ZipFile zip = new ZipFile(writtenZipFile);
-            zip.extractAll(tmpFile.getPath());
+            zipExtractor.extract(zipFile, tmpFolder.toPath());
+        } catch (IOException e) {
+            throw new UploadRejectedException("Could not extract the zip file.", e);
+        }
+        try {
+            assetStore.assemble(request, tmpFolder);
+        } catch (IOException e) {
+            throw new PDFCreationFailedException("Could not link the assets of the zip file.", e);
+        }
+        workspaceManager.measure(request);
 
-            String template = FileUtils.readFileToString(new File(tmpFile, "template.tex"));
+        OptimizationLevel optimization = optimization(request);
+        CompletableFuture<File> result = renderScheduler.submit(request, () -> generatePdfFromFolder(tmpFolder, optimization, request));
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof PDFCreationFailedException) {
+                throw (PDFCreationFailedException) cause;
+            }
+            throw new PDFCreationFailedException("Could not create PDF Document.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PDFCreationFailedException("Interrupted while waiting for the PDF Document.", e);
+        }
+    }
 
-            template = processTemplateMedia(template, tmpFile.getParentFile());
-            file = process(template, new File(tmpFile, "template.tex"));
+    private File generatePdfFromFolder(File tmpFolder, OptimizationLevel optimization, PdfRequest request) throws PDFCreationFailedException {
+        File file = null;
+        try {
+            File templateFile = new File(tmpFolder, "template.tex");
+            String template = FileUtils.readFileToString(templateFile, "UTF-8");
+            file = process(template, templateFile, optimization, request);
 
+        } catch (PDFCreationFailedException e) {
+            throw e;
         } catch (Exception e) {
             throw new PDFCreationFailedException("Could not create PDF Document.", e);
         }
@@ -132,158 +128,101 @@ public class PdfServiceImpl implements PdfService {
         return file;
     }
 
-    private File setupTmpFolder() {
-        return new File(fileSystemPathConfig.getTemporal() + File.separator + UUID.randomUUID());
+    @Override
+    public void release(PdfRequest request) {
+        workspaceManager.release(request);
+        assetStore.release(request);
     }
 
-    private File process(String template, File tmpFile) throws PDFCreationFailedException, IOException, InterruptedException {
-        FileUtils.writeStringToFile(tmpFile, template, "UTF-8");
-        return generate(tmpFile);
+    @Override
+    public void cancel(PdfRequest request) {
+        renderScheduler.cancel(request);
     }
 
-    public File generate(File templateFile) throws PDFCreationFailedException, IOException, InterruptedException {
-        return this.generate(templateFile, true);
+    private OptimizationLevel optimization(PdfRequest request) {
+        if (request.isPreview()) {
+            return OptimizationLevel.NONE;
+        }
+        return request.getOptimization() != null ? request.getOptimization() : generationOptionsProperties.getOptimization();
     }
 
-    public File generate(File templateFile, boolean optimize) throws PDFCreationFailedException, IOException, InterruptedException {
-        File outputFile = null;
-        try {
-            String pdfLatexPath = fileSystemPathConfig.getPdfLatex();
-            String pdfLatexMode = "--interaction=nonstopmode";
-            String pdfLatexOutput = "--output-directory=" + templateFile.getParent();
-            String shellEscapeCommand = "--shell-escape";
-            String templatePath = templateFile.getAbsolutePath();
-            String[] processArgs = new String[]{
-                    pdfLatexPath, templatePath, pdfLatexMode, pdfLatexOutput, shellEscapeCommand
-            };
-            ProcessBuilder processBuilder = new ProcessBuilder(processArgs);
-            processBuilder.redirectErrorStream(true);
-            processBuilder.directory(templateFile.getParentFile());
-
-            for (int i = 1; i <= RUN_COUNT; ++i) {
-                Process process = processBuilder.start();
-                LOG.debug("Doing PDF creating run {} with the arguments: {}", i, processArgs);
-                /*InputStreamReader inputStreamReader = new InputStreamReader(process.getInputStream());
-                BufferedReader bufferedReader = new BufferedReader(inputStreamReader);
-                StringBuilder outputBuilder = new StringBuilder();
-                String line = null;
-
-                try {
-                    while ((line = bufferedReader.readLine()) != null) {
-                        outputBuilder.append(line + System.getProperty("line.separator"));
-                    }
-                } finally {
-                    bufferedReader.close();
-                }
-
-                String outputStream = outputBuilder.toString();*/
-                try {
-                    boolean exitStatus = process.waitFor(generationOptionsProperties.getTimeout(), TimeUnit.SECONDS);
-
-                    if (!exitStatus) {
-                        LOG.warn("PDF Creation return non zero exit value: {}", exitStatus);
-                        throw new PDFCreationFailedException("Template wrong. Non Zero exit code: " + exitStatus);
-
-                    }
-                } catch (InterruptedException ex) {
-                    LOG.warn("The process pdfLaTeX was interrupted and an exception occurred!", ex);
-                    throw new PDFCreationFailedException("pdfLaTeX was interrupted", ex);
-                }
-            }
-            String resultFileName = templateFile.getName().replaceAll(".tex$", ".pdf");
-
-            if (optimize) {
-                String[] backupArgs = new String[]{
-                        "pdftk", resultFileName, "dump_data_utf8", "output", META_FILE_NAME
-                };
-                LOG.info("Creating a backup of the metadata of the pdf file");
-                ProcessBuilder backupProcessBuilder = new ProcessBuilder(backupArgs);
-                backupProcessBuilder.redirectErrorStream(true);
-                backupProcessBuilder.directory(templateFile.getParentFile());
-                Process bprocess = backupProcessBuilder.start();
-                bprocess.waitFor();
-                String[] optimizeArgs = new String[]{
-                        "gs", "-sDEVICE=pdfwrite", "-dProcessDSCComments=false", "-dCompatibilityLevel=1.4", "-dNOPAUSE", "-dQUIET", "-dBATCH", "-sOutputFile=final-" + resultFileName, resultFileName
-                };
-                LOG.info("Running ghostscript optimization using {}", optimizeArgs);
-                ProcessBuilder optimizeProcessBuilder = new ProcessBuilder(optimizeArgs);
-                optimizeProcessBuilder.redirectErrorStream(true);
-                optimizeProcessBuilder.directory(templateFile.getParentFile());
-                Process process = optimizeProcessBuilder.start();
-                InputStreamReader inputStreamReader = new InputStreamReader(process.getInputStream());
-                BufferedReader bufferedReader = new BufferedReader(inputStreamReader);
-                StringBuilder outputBuilder = new StringBuilder();
-                String line = null;
-                try {
-                    while ((line = bufferedReader.readLine()) != null) {
-                        outputBuilder.append(line + System.getProperty("line.separator"));
-                    }
-                } finally {
-                    bufferedReader.close();
-                }
+    private File process(String template, File tmpFile, OptimizationLevel optimization, PdfRequest request) throws Exception {
+        if (request.getAssets() != null) {
+            linkAssets(request.getAssets(), tmpFile.getParentFile());
+        }
+        processTemplate(template, request.getVariables(), tmpFile, request.isPreview());
+        // the patched template follows from the original, the variables and the media in the workspace
+        String key = resultCache.key(template, request.getVariables(), tmpFile.getParentFile(), optimization, request.getPages());
+        if (Warmup.TENANT.equals(request.getTenant())) {
+            // the warm-up has to run the processes, not find its own results
+            return generate(tmpFile, optimization, request);
+        }
+        return resultCache.get(key, () -> generate(tmpFile, optimization, request), tmpFile.getParentFile());
+    }
 
-                String outputStream = outputBuilder.toString();
-                try {
-                    if (process.waitFor() > 0) {
-                        LOG.warn("Optimize failed. Using non optimized");
-                        LOG.warn("Output: {}", outputStream);
-                    } else {
-                        resultFileName = "final-" + resultFileName;
-                    }
+    public File generate(File templateFile) throws PDFCreationFailedException, IOException, InterruptedException {
+        return this.generate(templateFile, OptimizationLevel.FULL);
+    }
 
-                    String patchedResultFileName = "patched-" + resultFileName;
-                    String[] restoreArgs = new String[]{
-                            "pdftk", resultFileName, "update_info_utf8", META_FILE_NAME, "output", patchedResultFileName
-                    };
-                    resultFileName = patchedResultFileName;
-                    LOG.info("Restoring the pdf metadata with args {}", restoreArgs);
-                    ProcessBuilder restoreProcessBuilder = new ProcessBuilder(restoreArgs);
-                    restoreProcessBuilder.redirectErrorStream(true);
-                    restoreProcessBuilder.directory(templateFile.getParentFile());
-                    restoreProcessBuilder.start();
-                    Process reprocess = restoreProcessBuilder.start();
+    public File generate(File templateFile, OptimizationLevel optimization) throws PDFCreationFailedException, IOException, InterruptedException {
+        return this.generate(templateFile, optimization, null);
+    }
 
-                    reprocess.waitFor();
-                } catch (InterruptedException e) {
-                    LOG.warn("Interrupted while optimizing. use normal", e);
-                }
-            }
-            outputFile = new File(new FileSystemResource(new File(templateFile.getParent())).getFile(), resultFileName);
-            LOG.info("PDF successfully created. Moving to output resource: {}", outputFile.getAbsolutePath());
-        } catch (InterruptedException e) {
-            throw e;
-        } finally {
-            // Clear the temp folder after the work is done
-            //FileUtils.deleteDirectory(templateFile.getParentFile());
+    /**
+     * @param request the request the document is rendered for; its deadline and cancellation apply to
+     *                every process. Null renders without a request.
+     */
+    public File generate(File templateFile, OptimizationLevel optimization, PdfRequest request) throws PDFCreationFailedException, IOException, InterruptedException {
+        latexCompiler.compile(templateFile, request);
+        String resultFileName = templateFile.getName().replaceAll(".tex$", ".pdf");
+        File workspace = new FileSystemResource(new File(templateFile.getParent())).getFile();
+
+        File outputFile = postProcessor.process(new File(workspace, resultFileName), optimization, request);
+        if (request != null && request.getPages() != null) {
+            outputFile = postProcessor.extract(outputFile, request.getPages());
         }
-
+        LOG.info("PDF successfully created. Moving to output resource: {}", outputFile.getAbsolutePath());
         return outputFile;
     }
 
-    private String processTemplateMedia(String template, File tempFolder) throws IOException {
-        Matcher matcher = MEDIA_REGEX.matcher(template);
-        String patchedTemplate = template;
-        int mediaIndex = 0;
-        while (matcher.find()) {
-            String mediaURL = matcher.group(1);
-            mediaURL = mediaURL.replaceAll("}", ""); //FIXME: write a decent regex
-            String filteredURL = mediaURL.replace("\\", "");
-            filteredURL = filteredURL.replace("&amp;", "&");
-            filteredURL = filteredURL.replace("\\&", "&");
-            String mediaName = "img" + mediaIndex + ".png";
-            File mediaFolder = new File(tempFolder, mediaName);
-            LOG.info("Downloading media from " + filteredURL);
-            try {
-                FileUtils.copyURLToFile(new URL(filteredURL), mediaFolder);
-            } catch (IOException ex) {
-                throw ex;
-            }
-
-            patchedTemplate = patchedTemplate.replace("img:" + mediaURL, mediaName);
-            mediaIndex++;
+    /**
+     * Writes the template to the file with its media references pointing to local copies of the media,
+     * which are downloaded and linked next to it, and its placeholders filled if there are variables.
+     *
+     * @param preview normalizes the images to the lower resolution of previews
+     */
+    void processTemplate(String template, Map<String, String> variables, File templateFile, boolean preview) throws IOException, PDFCreationFailedException {
+        File folder = templateFile.getParentFile();
+        folder.mkdirs();
+        TemplateVariables templateVariables = variables != null ? new TemplateVariables(variables) : null;
+        MediaReferences media = new MediaReferences(templateVariables);
+        TemplateRewriter rewriter = templateVariables != null ? new TemplateRewriter(media, templateVariables)
+                : new TemplateRewriter(media);
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(templateFile), StandardCharsets.UTF_8))) {
+            rewriter.rewrite(template, out);
         }
 
-        return patchedTemplate;
+        Map<String, String> names = media.getNames();
+        Map<String, File> files = mediaNormalizer.normalize(mediaResolver.resolve(names.keySet()), media.getOptions(), preview);
+        for (Map.Entry<String, File> entry : files.entrySet()) {
+            mediaResolver.link(entry.getValue(), new File(folder, names.get(entry.getKey())));
+        }
     }
 
+    /**
+     * Links the assets into the workspace. Files named like the outputs of the job are left out; pdflatex
+     * would write through their links into the assets.
+     */
+    private static void linkAssets(File assets, File workspace) throws IOException {
+        Path root = assets.toPath();
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(root)) {
+            files = walk.filter(Files::isRegularFile)
+                    .filter(path -> !(path.getParent().equals(root) && path.getFileName().toString().startsWith("template.")))
+                    .collect(Collectors.toList());
+        }
+        for (Path file : files) {
+            FileLinks.linkReadOnly(file.toFile(), workspace.toPath().resolve(root.relativize(file)).toFile());
+        }
+    }
 }
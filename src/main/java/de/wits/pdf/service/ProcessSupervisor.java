@@ -0,0 +1,167 @@
+package de.wits.pdf.service;
+
+import de.wits.pdf.configuration.GenerationProperties;
+import de.wits.pdf.model.PdfRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Starts and watches the external processes of the pipeline (pdflatex, Ghostscript). Their output is
+ * drained in the background, so a chatty process never blocks on a full pipe, and the last
+ * {@link #OUTPUT_BYTES} bytes are kept for error reports.
+ * <p>
+ * A render request has one deadline for all its processes: {@code generation.timeout} seconds after a
+ * worker picked it up. Processes that are still running at the deadline, or whose request is cancelled,
+ * are killed together with their children. Every process runs in its own process group for that, if
+ * {@code setsid} is available.
+ */
+@Component
+public class ProcessSupervisor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ProcessSupervisor.class);
+    static final int OUTPUT_BYTES = 64 * 1024;
+    private static final long POLL_MILLIS = 50;
+
+    private final GenerationProperties generationProperties;
+    private final PdfMetrics metrics;
+    private ExecutorService drainers;
+    private boolean setsid;
+
+    @Autowired
+    public ProcessSupervisor(GenerationProperties generationProperties, PdfMetrics metrics) {
+        this.generationProperties = generationProperties;
+        this.metrics = metrics;
+    }
+
+    @PostConstruct
+    public void start() {
+        AtomicInteger count = new AtomicInteger();
+        drainers = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "process-output-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        setsid = onPath("setsid");
+        if (!setsid) {
+            LOG.warn("setsid is not available, children of timed out processes may survive them");
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (drainers != null) {
+            drainers.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the deadline of all processes of the request in epoch milliseconds, 0 if there is none
+     */
+    public long deadline(PdfRequest request) {
+        if (generationProperties.getTimeout() <= 0) {
+            return 0;
+        }
+        long start = request != null && request.getStartedAt() > 0 ? request.getStartedAt() : System.currentTimeMillis();
+        return start + TimeUnit.SECONDS.toMillis(generationProperties.getTimeout());
+    }
+
+    /**
+     * Starts a process as described by the builder and drains its output. Output redirects of the
+     * builder are ignored; the builder itself is left as it is, so it can be started again.
+     */
+    SupervisedProcess start(String name, ProcessBuilder processBuilder) throws IOException {
+        List<String> command = new ArrayList<>(processBuilder.command());
+        if (setsid) {
+            command.add(0, "setsid");
+        }
+        ProcessBuilder supervised = new ProcessBuilder(command).directory(processBuilder.directory()).redirectErrorStream(true);
+        supervised.environment().clear();
+        supervised.environment().putAll(processBuilder.environment());
+        SupervisedProcess process = new SupervisedProcess(name, supervised.start(), setsid, OUTPUT_BYTES);
+        drainers.execute(process::drain);
+        return process;
+    }
+
+    /**
+     * Starts a process and waits for it.
+     *
+     * @see #await(SupervisedProcess, PdfRequest, long)
+     */
+    SupervisedProcess run(String name, ProcessBuilder processBuilder, PdfRequest request, long deadline)
+            throws IOException, InterruptedException, PDFCreationFailedException {
+        SupervisedProcess process = start(name, processBuilder);
+        await(process, request, deadline);
+        return process;
+    }
+
+    /**
+     * Waits for a process to exit. Kills it if the deadline passes, the request is cancelled or the
+     * waiting thread is interrupted.
+     *
+     * @param request  the request the process works for, null for background work
+     * @param deadline epoch milliseconds, 0 for none
+     * @return the exit value
+     * @throws RenderTimeoutException   if the deadline passed
+     * @throws RenderCancelledException if the request was cancelled
+     */
+    int await(SupervisedProcess process, PdfRequest request, long deadline)
+            throws InterruptedException, PDFCreationFailedException {
+        try {
+            while (!process.getProcess().waitFor(POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                process.sampleCpu();
+                if (request != null && request.isCancelled()) {
+                    kill(process, "cancelled");
+                    throw new RenderCancelledException("Request " + request.getId() + " was cancelled");
+                }
+                if (deadline > 0 && System.currentTimeMillis() > deadline) {
+                    kill(process, "timeout");
+                    throw new RenderTimeoutException(process.getName() + " did not finish before its deadline");
+                }
+            }
+        } catch (InterruptedException e) {
+            kill(process, "interrupted");
+            throw e;
+        }
+        int exitValue = process.getProcess().exitValue();
+        long millis = System.currentTimeMillis() - process.getStartedAt();
+        metrics.recordProcess(process.getName(), millis, process.getCpuMillis());
+        if (request != null) {
+            request.addProcessMillis(millis);
+        }
+        LOG.debug("{} {} exited with {} after {} ms using {} ms CPU", process.getName(), process.getPid(), exitValue,
+                millis, process.getCpuMillis());
+        return exitValue;
+    }
+
+    void kill(SupervisedProcess process, String reason) {
+        LOG.warn("Killing {} {} ({}). Last output:\n{}", process.getName(), process.getPid(), reason, process.getOutput());
+        process.kill();
+        metrics.recordProcessKilled(process.getName(), reason);
+    }
+
+    private static boolean onPath(String program) {
+        String path = System.getenv("PATH");
+        if (path == null) {
+            return false;
+        }
+        for (String folder : path.split(File.pathSeparator)) {
+            if (new File(folder, program).canExecute()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
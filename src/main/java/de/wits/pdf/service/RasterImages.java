@@ -0,0 +1,280 @@
+package de.wits.pdf.service;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOInvalidTreeException;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+
+/**
+ * Reads and rescales raster images with ImageIO. Images are subsampled while they are read, so large
+ * photos are never decoded at full size, and interpolated down to the exact width afterwards. The pixel
+ * size is scaled up accordingly: pdflatex places a rescaled copy at the natural size of the original.
+ */
+final class RasterImages {
+
+    static final String PDF = "pdf";
+    static final String PNG = "png";
+    static final String JPEG = "jpeg";
+    static final String JBIG2 = "jbig2";
+
+    private static final String STANDARD_FORMAT = "javax_imageio_1.0";
+    /**
+     * Millimeters per pixel at 72 dpi, which pdflatex assumes for images without a resolution.
+     */
+    private static final double DEFAULT_PIXEL_SIZE = 25.4 / 72;
+
+    /**
+     * Size of a raster image.
+     */
+    static final class Info {
+
+        final int width;
+        final int height;
+        /**
+         * Millimeters per pixel.
+         */
+        final double pixelWidth;
+        final double pixelHeight;
+
+        Info(int width, int height, double pixelWidth, double pixelHeight) {
+            this.width = width;
+            this.height = height;
+            this.pixelWidth = pixelWidth;
+            this.pixelHeight = pixelHeight;
+        }
+
+        /**
+         * @return the width pdflatex prints the image with if the template does not scale it
+         */
+        double naturalWidthInches() {
+            return width * pixelWidth / 25.4;
+        }
+
+        double naturalHeightInches() {
+            return height * pixelHeight / 25.4;
+        }
+    }
+
+    private RasterImages() {
+    }
+
+    /**
+     * Detects the type of a file from its first bytes.
+     *
+     * @return the format name, e.g. {@link #PNG}, or null if unknown
+     */
+    static String type(File file) throws IOException {
+        byte[] head = new byte[12];
+        int length;
+        try (InputStream in = new FileInputStream(file)) {
+            length = in.read(head);
+        }
+        if (startsWith(head, length, 0x25, 0x50, 0x44, 0x46)) {
+            return PDF;
+        }
+        if (startsWith(head, length, 0x89, 0x50, 0x4E, 0x47)) {
+            return PNG;
+        }
+        if (startsWith(head, length, 0xFF, 0xD8, 0xFF)) {
+            return JPEG;
+        }
+        if (startsWith(head, length, 0x97, 0x4A, 0x42, 0x32)) {
+            return JBIG2;
+        }
+        if (startsWith(head, length, 0x47, 0x49, 0x46, 0x38)) {
+            return "gif";
+        }
+        if (startsWith(head, length, 0x42, 0x4D)) {
+            return "bmp";
+        }
+        if (startsWith(head, length, 0x49, 0x49, 0x2A, 0x00) || startsWith(head, length, 0x4D, 0x4D, 0x00, 0x2A)) {
+            return "tiff";
+        }
+        if (startsWith(head, length, 0x52, 0x49, 0x46, 0x46) && length >= 12 && head[8] == 'W' && head[9] == 'E' && head[10] == 'B' && head[11] == 'P') {
+            return "webp";
+        }
+        return null;
+    }
+
+    /**
+     * @return the size of the image, null if it is no raster image ImageIO can read
+     */
+    static Info info(File file) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            ImageReader reader = reader(in);
+            if (reader == null) {
+                return null;
+            }
+            try {
+                reader.setInput(in, true, false);
+                double[] pixelSize = pixelSize(reader.getImageMetadata(0));
+                return new Info(reader.getWidth(0), reader.getHeight(0), pixelSize[0], pixelSize[1]);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Writes a copy of the image with the given width and the same natural size.
+     *
+     * @param format {@link #JPEG} or {@link #PNG}, images with transparency are always written as PNG
+     */
+    static void scale(File source, File target, int width, String format) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(source)) {
+            ImageReader reader = reader(in);
+            if (reader == null) {
+                throw new IOException("No image reader for " + source);
+            }
+            try {
+                reader.setInput(in, true, false);
+                int sourceWidth = reader.getWidth(0);
+                int sourceHeight = reader.getHeight(0);
+                double[] pixelSize = pixelSize(reader.getImageMetadata(0));
+                ImageReadParam readParam = reader.getDefaultReadParam();
+                // at least twice the target width is left for the interpolation
+                int step = Math.max(1, sourceWidth / (2 * width));
+                readParam.setSourceSubsampling(step, step, 0, 0);
+                BufferedImage image = reader.read(0, readParam);
+                if (image.getWidth() > width) {
+                    image = resize(image, width, Math.max(1, (int) Math.round((double) sourceHeight * width / sourceWidth)));
+                }
+                boolean alpha = image.getColorModel().hasAlpha();
+                write(image, JPEG.equals(format) && !alpha ? JPEG : PNG, target,
+                        pixelSize[0] * sourceWidth / image.getWidth(), pixelSize[1] * sourceHeight / image.getHeight());
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static ImageReader reader(ImageInputStream in) {
+        Iterator<ImageReader> readers = in != null ? ImageIO.getImageReaders(in) : null;
+        return readers != null && readers.hasNext() ? readers.next() : null;
+    }
+
+    private static BufferedImage resize(BufferedImage image, int width, int height) {
+        boolean alpha = image.getColorModel().hasAlpha();
+        BufferedImage resized = new BufferedImage(width, height, alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = resized.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        graphics.drawImage(image, 0, 0, width, height, null);
+        graphics.dispose();
+        return resized;
+    }
+
+    /**
+     * @return horizontal and vertical size of a pixel in millimeters
+     */
+    private static double[] pixelSize(IIOMetadata metadata) {
+        double[] size = {DEFAULT_PIXEL_SIZE, DEFAULT_PIXEL_SIZE};
+        if (metadata == null || !metadata.isStandardMetadataFormatSupported()) {
+            return size;
+        }
+        IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(STANDARD_FORMAT);
+        size[0] = value(root, "HorizontalPixelSize", size[0]);
+        size[1] = value(root, "VerticalPixelSize", size[1]);
+        return size;
+    }
+
+    private static double value(IIOMetadataNode root, String name, double fallback) {
+        NodeList nodes = root.getElementsByTagName(name);
+        if (nodes.getLength() == 0) {
+            return fallback;
+        }
+        try {
+            double value = Double.parseDouble(((Element) nodes.item(0)).getAttribute("value"));
+            return value > 0 && !Double.isInfinite(value) ? value : fallback;
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    private static void write(BufferedImage image, String format, File target, double horizontal, double vertical) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName(format).next();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(target)) {
+            writer.setOutput(out);
+            ImageWriteParam writeParam = writer.getDefaultWriteParam();
+            IIOMetadata metadata = writer.getDefaultImageMetadata(ImageTypeSpecifier.createFromRenderedImage(image), writeParam);
+            // the writers invert pixel sizes given in the standard format, the native formats are set instead
+            try {
+                if (JPEG.equals(format)) {
+                    setDensity(metadata, horizontal, vertical);
+                } else {
+                    setPhysicalSize(metadata, horizontal, vertical);
+                }
+            } catch (IIOInvalidTreeException e) {
+                throw new IOException("Could not set the resolution of " + target, e);
+            }
+            writer.write(null, new IIOImage(image, null, metadata), writeParam);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    /**
+     * Sets the JFIF density in dots per inch.
+     */
+    private static void setDensity(IIOMetadata metadata, double horizontal, double vertical) throws IIOInvalidTreeException {
+        String format = metadata.getNativeMetadataFormatName();
+        IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(format);
+        NodeList jfif = root.getElementsByTagName("app0JFIF");
+        if (jfif.getLength() == 0) {
+            return;
+        }
+        Element density = (Element) jfif.item(0);
+        density.setAttribute("resUnits", "1");
+        density.setAttribute("Xdensity", Long.toString(dotsPerInch(horizontal)));
+        density.setAttribute("Ydensity", Long.toString(dotsPerInch(vertical)));
+        metadata.setFromTree(format, root);
+    }
+
+    /**
+     * Sets the PNG pHYs chunk in pixels per meter.
+     */
+    private static void setPhysicalSize(IIOMetadata metadata, double horizontal, double vertical) throws IIOInvalidTreeException {
+        IIOMetadataNode physical = new IIOMetadataNode("pHYs");
+        physical.setAttribute("pixelsPerUnitXAxis", Long.toString(Math.round(1000 / horizontal)));
+        physical.setAttribute("pixelsPerUnitYAxis", Long.toString(Math.round(1000 / vertical)));
+        physical.setAttribute("unitSpecifier", "meter");
+        IIOMetadataNode root = new IIOMetadataNode(metadata.getNativeMetadataFormatName());
+        root.appendChild(physical);
+        metadata.mergeTree(metadata.getNativeMetadataFormatName(), root);
+    }
+
+    private static long dotsPerInch(double millimeters) {
+        return Math.max(1, Math.min(65535, Math.round(25.4 / millimeters)));
+    }
+
+    private static boolean startsWith(byte[] head, int length, int... magic) {
+        if (length < magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if ((head[i] & 0xFF) != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
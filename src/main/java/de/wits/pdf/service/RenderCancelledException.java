@@ -0,0 +1,11 @@
+package de.wits.pdf.service;
+
+/**
+ * Thrown when a render job was cancelled by its client. The processes working for it have been killed.
+ */
+public class RenderCancelledException extends PDFCreationFailedException {
+
+    public RenderCancelledException(String s) {
+        super(s);
+    }
+}
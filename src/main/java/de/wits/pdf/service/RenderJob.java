@@ -0,0 +1,34 @@
+package de.wits.pdf.service;
+
+import de.wits.pdf.model.PdfRequest;
+
+import java.io.File;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A request waiting in (or taken from) the {@link RenderQueue} together with the work to run for it.
+ */
+class RenderJob {
+
+    private final PdfRequest request;
+    private final Callable<File> task;
+    private final CompletableFuture<File> result = new CompletableFuture<>();
+
+    RenderJob(PdfRequest request, Callable<File> task) {
+        this.request = request;
+        this.task = task;
+    }
+
+    PdfRequest getRequest() {
+        return request;
+    }
+
+    Callable<File> getTask() {
+        return task;
+    }
+
+    CompletableFuture<File> getResult() {
+        return result;
+    }
+}
@@ -0,0 +1,292 @@
+package de.wits.pdf.service;
+
+import de.wits.pdf.configuration.GenerationProperties;
+import de.wits.pdf.model.PdfRequest;
+import de.wits.pdf.model.Priority;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded backlog of jobs waiting for a render worker. Workers block on {@link #take()} and are
+ * signalled as soon as a job they may run is admitted or finished, so nobody has to poll.
+ * <p>
+ * Interactive jobs are always taken before bulk jobs. Within a class every tenant has its own FIFO
+ * lane, and the lanes are served by weighted fair queueing: each lane carries a virtual time that
+ * advances by the inverse of the tenant weight whenever one of its jobs is taken, and the lane with the
+ * lowest virtual time goes next. A lane that starts waiting again joins at the current virtual time,
+ * so idle tenants do not save up credit. Tenants and bulk jobs at their limit of running jobs are
+ * skipped until one of their jobs is {@link #done(RenderJob) done}, and no job is taken while the
+ * {@link #setLimit(int) limit} of running jobs is reached.
+ */
+class RenderQueue {
+
+    private final ReentrantLock lock = new ReentrantLock(true);
+    private final Condition changed = lock.newCondition();
+    private final GenerationProperties generationProperties;
+    private final Map<Priority, Map<String, Lane>> lanes = new EnumMap<>(Priority.class);
+    private final Map<Priority, Double> virtualTimes = new EnumMap<>(Priority.class);
+    private final Map<Priority, Integer> waitingByClass = new EnumMap<>(Priority.class);
+    private final Map<Priority, Integer> activeByClass = new EnumMap<>(Priority.class);
+    private final Map<String, Integer> waitingByTenant = new HashMap<>();
+    private final Map<String, Integer> activeByTenant = new HashMap<>();
+    private int size;
+    private int active;
+    private int limit = Integer.MAX_VALUE;
+
+    RenderQueue(GenerationProperties generationProperties) {
+        this.generationProperties = generationProperties;
+        for (Priority priority : Priority.values()) {
+            lanes.put(priority, new LinkedHashMap<>());
+            virtualTimes.put(priority, 0.0);
+            waitingByClass.put(priority, 0);
+            activeByClass.put(priority, 0);
+        }
+    }
+
+    /**
+     * Admits the job if the backlog, the backlog of its class and the backlog of its tenant have room left.
+     *
+     * @throws TenantBacklogFullException if its tenant has too many jobs waiting
+     * @throws RenderQueueFullException   if the backlog is full
+     */
+    void offer(RenderJob job) throws RenderQueueFullException {
+        Priority priority = job.getRequest().getPriority();
+        String tenant = tenant(job.getRequest());
+        lock.lock();
+        try {
+            if (size >= generationProperties.getBacklog()) {
+                throw new RenderQueueFullException("Render backlog is full (" + generationProperties.getBacklog() + " jobs waiting)");
+            }
+            if (priority == Priority.BULK && limited(waitingByClass.get(priority), generationProperties.getBulkBacklog())) {
+                throw new RenderQueueFullException("Bulk backlog is full (" + generationProperties.getBulkBacklog() + " jobs waiting)");
+            }
+            if (limited(waitingByTenant.getOrDefault(tenant, 0), generationProperties.getTenantBacklog())) {
+                throw new TenantBacklogFullException("Backlog of tenant " + tenant + " is full ("
+                        + generationProperties.getTenantBacklog() + " jobs waiting)");
+            }
+            Lane lane = lanes.get(priority).get(tenant);
+            if (lane == null) {
+                lane = new Lane(virtualTimes.get(priority));
+                lanes.get(priority).put(tenant, lane);
+            } else if (lane.jobs.isEmpty()) {
+                lane.pass = Math.max(lane.pass, virtualTimes.get(priority));
+            }
+            lane.jobs.addLast(job);
+            waiting(priority, tenant, 1);
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for the next job a worker may run and counts it as running. Jobs that were cancelled while
+     * waiting are skipped.
+     */
+    RenderJob take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                RenderJob job = next();
+                if (job != null) {
+                    return job;
+                }
+                changed.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Counts a job taken with {@link #take()} as no longer running.
+     */
+    void done(RenderJob job) {
+        Priority priority = job.getRequest().getPriority();
+        String tenant = tenant(job.getRequest());
+        lock.lock();
+        try {
+            active--;
+            activeByClass.merge(priority, -1, Integer::sum);
+            if (activeByTenant.merge(tenant, -1, Integer::sum) <= 0) {
+                activeByTenant.remove(tenant);
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Changes how many jobs may run at the same time. Running jobs above a lowered limit finish.
+     */
+    void setLimit(int limit) {
+        lock.lock();
+        try {
+            this.limit = limit;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the job of the request out of the queue.
+     *
+     * @return the job, null if the request is not waiting
+     */
+    RenderJob remove(PdfRequest request) {
+        lock.lock();
+        try {
+            Lane lane = lanes.get(request.getPriority()).get(tenant(request));
+            if (lane == null) {
+                return null;
+            }
+            for (RenderJob job : lane.jobs) {
+                if (job.getRequest().equals(request)) {
+                    lane.jobs.remove(job);
+                    waiting(request.getPriority(), tenant(request), -1);
+                    return job;
+                }
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return zero based position of the request among the waiting jobs of its tenant and class, -1 if
+     * it is not waiting
+     */
+    int positionOf(PdfRequest request) {
+        lock.lock();
+        try {
+            Lane lane = lanes.get(request.getPriority()).get(tenant(request));
+            if (lane == null) {
+                return -1;
+            }
+            int position = 0;
+            for (RenderJob job : lane.jobs) {
+                if (job.getRequest().equals(request)) {
+                    return position;
+                }
+                position++;
+            }
+            return -1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size(Priority priority) {
+        lock.lock();
+        try {
+            return waitingByClass.get(priority);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private RenderJob next() {
+        if (active >= limit) {
+            return null;
+        }
+        for (Priority priority : Priority.values()) {
+            if (priority == Priority.BULK && limited(activeByClass.get(priority), generationProperties.getBulkMaxActive())) {
+                continue;
+            }
+            RenderJob job = next(priority);
+            if (job != null) {
+                return job;
+            }
+        }
+        return null;
+    }
+
+    private RenderJob next(Priority priority) {
+        double virtualTime = virtualTimes.get(priority);
+        String chosen = null;
+        Lane best = null;
+        for (Iterator<Map.Entry<String, Lane>> it = lanes.get(priority).entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Lane> entry = it.next();
+            Lane lane = entry.getValue();
+            discardCancelled(priority, entry.getKey(), lane);
+            if (lane.jobs.isEmpty()) {
+                if (lane.pass <= virtualTime) {
+                    // no credit left to remember
+                    it.remove();
+                }
+                continue;
+            }
+            if (limited(activeByTenant.getOrDefault(entry.getKey(), 0), generationProperties.getTenantMaxActive())) {
+                continue;
+            }
+            if (best == null || lane.pass < best.pass) {
+                chosen = entry.getKey();
+                best = lane;
+            }
+        }
+        if (best == null) {
+            return null;
+        }
+        RenderJob job = best.jobs.pollFirst();
+        waiting(priority, chosen, -1);
+        virtualTimes.put(priority, Math.max(virtualTime, best.pass));
+        best.pass += 1.0 / Math.max(1, generationProperties.getTenantWeights().getOrDefault(chosen, 1));
+        active++;
+        activeByClass.merge(priority, 1, Integer::sum);
+        activeByTenant.merge(chosen, 1, Integer::sum);
+        return job;
+    }
+
+    private void discardCancelled(Priority priority, String tenant, Lane lane) {
+        while (!lane.jobs.isEmpty() && lane.jobs.peekFirst().getResult().isDone()) {
+            lane.jobs.pollFirst();
+            waiting(priority, tenant, -1);
+        }
+    }
+
+    private void waiting(Priority priority, String tenant, int delta) {
+        size += delta;
+        waitingByClass.merge(priority, delta, Integer::sum);
+        if (waitingByTenant.merge(tenant, delta, Integer::sum) <= 0) {
+            waitingByTenant.remove(tenant);
+        }
+    }
+
+    private static boolean limited(int count, int limit) {
+        return limit > 0 && count >= limit;
+    }
+
+    private static String tenant(PdfRequest request) {
+        return request.getTenant() != null ? request.getTenant() : "";
+    }
+
+    private static class Lane {
+
+        final Deque<RenderJob> jobs = new ArrayDeque<>();
+        double pass;
+
+        Lane(double pass) {
+            this.pass = pass;
+        }
+    }
+}
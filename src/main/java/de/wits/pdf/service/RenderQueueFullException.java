@@ -0,0 +1,12 @@
+package de.wits.pdf.service;
+
+/**
+ * Thrown when a render job cannot be admitted because the backlog of waiting jobs is full or there is
+ * no room for its working folder.
+ */
+public class RenderQueueFullException extends PDFCreationFailedException {
+
+    public RenderQueueFullException(String s) {
+        super(s);
+    }
+}
@@ -0,0 +1,179 @@
+package de.wits.pdf.service;
+
+import de.wits.pdf.configuration.GenerationProperties;
+import de.wits.pdf.model.PdfRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs render jobs on a pool of workers. Jobs are admitted into a bounded backlog and rejected
+ * right away once it is full. Interactive requests go before bulk jobs, and the tenants share the
+ * workers fairly, see {@link RenderQueue}. With {@code generation.adaptive-workers} the number of jobs
+ * running at the same time follows the pdflatex and Ghostscript times and the CPU load, see
+ * {@link ConcurrencyLimiter}; otherwise it is {@code generation.workers}.
+ */
+@Component
+public class RenderScheduler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RenderScheduler.class);
+
+    private final GenerationProperties generationProperties;
+    private final PdfMetrics metrics;
+    private final AtomicInteger active = new AtomicInteger();
+    private final List<Thread> workers = new ArrayList<>();
+
+    private RenderQueue queue;
+    private ConcurrencyLimiter limiter;
+
+    @Autowired
+    public RenderScheduler(GenerationProperties generationProperties, PdfMetrics metrics) {
+        this.generationProperties = generationProperties;
+        this.metrics = metrics;
+    }
+
+    @PostConstruct
+    public void start() {
+        queue = new RenderQueue(generationProperties);
+        int threads = generationProperties.getWorkers();
+        if (generationProperties.isAdaptiveWorkers()) {
+            limiter = new ConcurrencyLimiter(generationProperties, new CpuLoad(), metrics);
+            threads = limiter.getMax();
+            queue.setLimit(limiter.getLimit());
+        }
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(this::work, "render-worker-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+        LOG.info("Started {} render workers running up to {} jobs with a backlog of {}", threads, getLimit(),
+                generationProperties.getBacklog());
+    }
+
+    @PreDestroy
+    public void stop() {
+        workers.forEach(Thread::interrupt);
+    }
+
+    /**
+     * Admits a render job.
+     *
+     * @return future completed with the rendered file once a worker has run the task
+     * @throws TenantBacklogFullException if the tenant of the request has too many jobs waiting
+     * @throws RenderQueueFullException   if the backlog is full
+     */
+    public CompletableFuture<File> submit(PdfRequest request, Callable<File> task) throws RenderQueueFullException {
+        RenderJob job = new RenderJob(request, task);
+        request.setQueuedAt(System.currentTimeMillis());
+        try {
+            queue.offer(job);
+        } catch (RenderQueueFullException e) {
+            metrics.recordRejected(e instanceof TenantBacklogFullException);
+            throw e;
+        }
+        metrics.recordQueue(queue.size(), active.get());
+        LOG.debug("Admitted request {}. Waiting jobs: {}, active jobs: {}", request.getId(), queue.size(), active.get());
+        return job.getResult();
+    }
+
+    /**
+     * Cancels a request. A waiting request leaves the backlog and its future fails with a
+     * {@link RenderCancelledException}; the processes of a running one are killed by the
+     * {@link ProcessSupervisor}.
+     */
+    public void cancel(PdfRequest request) {
+        request.cancel();
+        RenderJob job = queue.remove(request);
+        if (job != null) {
+            LOG.info("Cancelled waiting request {}", request.getId());
+            RenderCancelledException cancelled = new RenderCancelledException("Request " + request.getId() + " was cancelled");
+            metrics.recordFailure(cancelled);
+            metrics.recordQueue(queue.size(), active.get());
+            job.getResult().completeExceptionally(cancelled);
+        }
+    }
+
+    /**
+     * @return zero based position of the request in the backlog, -1 if it is not waiting
+     */
+    public int positionOf(PdfRequest request) {
+        return queue.positionOf(request);
+    }
+
+    public int getWaiting() {
+        return queue.size();
+    }
+
+    public int getActive() {
+        return active.get();
+    }
+
+    /**
+     * @return how many jobs may run at the same time
+     */
+    public int getLimit() {
+        return limiter != null ? limiter.getLimit() : generationProperties.getWorkers();
+    }
+
+    private void work() {
+        while (!Thread.currentThread().isInterrupted()) {
+            RenderJob job;
+            try {
+                job = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            run(job);
+        }
+    }
+
+    private void run(RenderJob job) {
+        PdfRequest request = job.getRequest();
+        request.setStartedAt(System.currentTimeMillis());
+        active.incrementAndGet();
+        metrics.recordQueue(queue.size(), active.get());
+        try {
+            job.getResult().complete(job.getTask().call());
+        } catch (Exception e) {
+            metrics.recordFailure(e);
+            job.getResult().completeExceptionally(e);
+        } finally {
+            queue.done(job);
+            int running = active.getAndDecrement();
+            metrics.recordQueue(queue.size(), active.get());
+            request.setFinishedAt(System.currentTimeMillis());
+            adapt(request, running);
+            metrics.recordQueueWait(request.getPriority(), request.getQueueWaitMillis());
+            metrics.recordExecution(request.getPriority(), request.getExecutionMillis());
+            LOG.info("{} request {} of tenant {} waited {} ms in the queue and rendered in {} ms", request.getPriority(),
+                    request.getId(), request.getTenant(), request.getQueueWaitMillis(), request.getExecutionMillis());
+        }
+    }
+
+    /**
+     * Feeds the limiter the time pdflatex and Ghostscript took. Jobs served from the cache or waiting for
+     * downloads say nothing about contention for the CPUs, and jobs without processes are left out.
+     */
+    private void adapt(PdfRequest request, int running) {
+        if (limiter == null || request.getProcessMillis() == 0) {
+            return;
+        }
+        int previous = limiter.getLimit();
+        int limit = limiter.done(request.getProcessMillis(), queue.size(), running, request.getFinishedAt());
+        if (limit != previous) {
+            queue.setLimit(limit);
+            LOG.info("Changed the number of concurrent renders from {} to {}", previous, limit);
+        }
+    }
+}
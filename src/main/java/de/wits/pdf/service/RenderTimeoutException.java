@@ -0,0 +1,11 @@
+package de.wits.pdf.service;
+
+/**
+ * Thrown when a render job runs past its deadline. The processes working for it have been killed.
+ */
+public class RenderTimeoutException extends PDFCreationFailedException {
+
+    public RenderTimeoutException(String s) {
+        super(s);
+    }
+}
@@ -0,0 +1,181 @@
+package de.wits.pdf.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A child process started by the {@link ProcessSupervisor}. Its output is drained into a ring buffer
+ * that keeps the last bytes, and its CPU time is sampled from {@code /proc} while it runs.
+ */
+class SupervisedProcess {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SupervisedProcess.class);
+
+    /**
+     * Unit of the CPU times in {@code /proc/<pid>/stat}.
+     */
+    private static final long CLOCK_TICKS_PER_SECOND = 100;
+    private static final long KILL_TIMEOUT_SECONDS = 5;
+
+    private final String name;
+    private final Process process;
+    private final long pid;
+    private final boolean processGroup;
+    private final byte[] output;
+    private volatile long startedAt = System.currentTimeMillis();
+    private long written;
+    private volatile long cpuMillis;
+    private volatile long cpuBaseline;
+
+    SupervisedProcess(String name, Process process, boolean processGroup, int outputBytes) {
+        this.name = name;
+        this.process = process;
+        this.pid = pid(process);
+        this.processGroup = processGroup && pid > 0;
+        this.output = new byte[outputBytes];
+    }
+
+    String getName() {
+        return name;
+    }
+
+    Process getProcess() {
+        return process;
+    }
+
+    long getPid() {
+        return pid;
+    }
+
+    /**
+     * @return when the process was started, or when its timing was {@link #restartTiming() restarted}
+     */
+    long getStartedAt() {
+        return startedAt;
+    }
+
+    /**
+     * @return CPU time of the process and its finished children at the last sample, since the start of
+     * its timing
+     */
+    long getCpuMillis() {
+        return cpuMillis - cpuBaseline;
+    }
+
+    /**
+     * Measures wall and CPU time from now on. For processes started ahead of the work they wait for,
+     * whose idle time says nothing about that work.
+     */
+    void restartTiming() {
+        sampleCpu();
+        cpuBaseline = cpuMillis;
+        startedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * @return the last bytes the process wrote to stdout and stderr
+     */
+    synchronized String getOutput() {
+        if (written <= output.length) {
+            return new String(output, 0, (int) written, StandardCharsets.UTF_8);
+        }
+        int start = (int) (written % output.length);
+        byte[] ordered = new byte[output.length];
+        System.arraycopy(output, start, ordered, 0, output.length - start);
+        System.arraycopy(output, 0, ordered, output.length - start, start);
+        return new String(ordered, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the output of the process until it closes it.
+     */
+    void drain() {
+        byte[] buffer = new byte[4096];
+        try (InputStream in = process.getInputStream()) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                append(buffer, read);
+            }
+        } catch (IOException e) {
+            LOG.debug("Stopped reading the output of {} {}", name, pid, e);
+        }
+    }
+
+    private synchronized void append(byte[] buffer, int length) {
+        for (int i = 0; i < length; i++) {
+            output[(int) (written++ % output.length)] = buffer[i];
+        }
+    }
+
+    /**
+     * Updates the CPU time from {@code /proc}, while the process is still there.
+     */
+    void sampleCpu() {
+        if (pid <= 0) {
+            return;
+        }
+        try {
+            String stat = new String(Files.readAllBytes(Paths.get("/proc", Long.toString(pid), "stat")), StandardCharsets.US_ASCII);
+            // the command name may contain spaces, the fields are counted after it
+            String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+            long ticks = Long.parseLong(fields[11]) + Long.parseLong(fields[12]) + Long.parseLong(fields[13]) + Long.parseLong(fields[14]);
+            cpuMillis = ticks * 1000 / CLOCK_TICKS_PER_SECOND;
+        } catch (IOException | RuntimeException e) {
+            // gone already, or no procfs
+        }
+    }
+
+    /**
+     * Kills the process together with everything it started, and waits until it has exited.
+     */
+    void kill() {
+        boolean interrupted = Thread.interrupted();
+        try {
+            if (processGroup && process.isAlive()) {
+                try {
+                    Process kill = new ProcessBuilder("kill", "-KILL", "--", "-" + pid).redirectErrorStream(true).start();
+                    kill.waitFor(KILL_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                    process.waitFor(KILL_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                } catch (IOException e) {
+                    LOG.warn("Could not kill the process group of {} {}", name, pid, e);
+                }
+            }
+            process.destroyForcibly();
+            if (!process.waitFor(KILL_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                LOG.warn("{} {} did not exit within {} s of being killed", name, pid, KILL_TIMEOUT_SECONDS);
+            }
+        } catch (InterruptedException e) {
+            interrupted = true;
+        } finally {
+            if (interrupted) {
+                // killing is what interrupted callers are waiting for, they learn of it afterwards
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * {@code Process.pid()} only exists from Java 9 on; Java 8 keeps it in a private field.
+     */
+    private static long pid(Process process) {
+        try {
+            return (Long) Process.class.getMethod("pid").invoke(process);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            try {
+                Field field = process.getClass().getDeclaredField("pid");
+                field.setAccessible(true);
+                return field.getInt(process);
+            } catch (ReflectiveOperationException | RuntimeException ex) {
+                return -1;
+            }
+        }
+    }
+}
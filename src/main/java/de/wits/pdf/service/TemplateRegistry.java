@@ -0,0 +1,183 @@
+package de.wits.pdf.service;
+
+import de.wits.pdf.configuration.FileSystemPathProperties;
+import de.wits.pdf.model.RegisteredTemplate;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.regex.Pattern;
+
+/**
+ * Named, versioned templates with their assets, so clients only send the data of a document. Every
+ * registration of a name adds a new version; renders use the latest version unless they ask for
+ * another one.
+ * <p>
+ * Versions are stored as {@code <name>/<version>/template.tex} plus assets in the {@code pdf.templates}
+ * folder and survive restarts. Their sources are kept in memory, and the pre-compiled format of their
+ * preamble is built right after the registration.
+ */
+@Service
+public class TemplateRegistry {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TemplateRegistry.class);
+    static final String TEMPLATES_FOLDER = "templates";
+    static final String TEMPLATE_FILE = "template.tex";
+    static final Pattern NAME = Pattern.compile("[A-Za-z0-9][A-Za-z0-9_-]{0,63}");
+
+    private final FileSystemPathProperties fileSystemPathProperties;
+    private final ZipExtractor zipExtractor;
+    private final FormatCache formatCache;
+    private final Map<String, NavigableMap<Integer, RegisteredTemplate>> templates = new ConcurrentHashMap<>();
+    private File templatesFolder;
+
+    @Autowired
+    public TemplateRegistry(FileSystemPathProperties fileSystemPathProperties, ZipExtractor zipExtractor, FormatCache formatCache) {
+        this.fileSystemPathProperties = fileSystemPathProperties;
+        this.zipExtractor = zipExtractor;
+        this.formatCache = formatCache;
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        templatesFolder = fileSystemPathProperties.getTemplates() != null ? new File(fileSystemPathProperties.getTemplates())
+                : new File(fileSystemPathProperties.getTemporal(), TEMPLATES_FOLDER);
+        templatesFolder.mkdirs();
+        File[] names = templatesFolder.listFiles(File::isDirectory);
+        if (names == null) {
+            return;
+        }
+        for (File name : names) {
+            File[] versions = name.listFiles(File::isDirectory);
+            for (File version : versions != null ? versions : new File[0]) {
+                if (version.getName().matches("\\d+") && new File(version, TEMPLATE_FILE).isFile()) {
+                    load(name.getName(), Integer.parseInt(version.getName()), version);
+                } else {
+                    // left over from an interrupted registration
+                    FileUtils.deleteDirectory(version);
+                }
+            }
+        }
+        LOG.info("Loaded {} registered templates from {}", templates.size(), templatesFolder);
+    }
+
+    public File getTemplatesFolder() {
+        return templatesFolder;
+    }
+
+    /**
+     * Registers a template without assets as the next version of the name.
+     */
+    public RegisteredTemplate register(String name, String template) throws PDFCreationFailedException, IOException {
+        File staging = staging(name);
+        try {
+            FileUtils.writeStringToFile(new File(staging, TEMPLATE_FILE), template, "UTF-8");
+            return publish(name, staging);
+        } finally {
+            FileUtils.deleteDirectory(staging);
+        }
+    }
+
+    /**
+     * Registers a zip file holding {@code template.tex} and its assets as the next version of the name.
+     *
+     * @throws UploadRejectedException if the zip file is malformed, too large or has no template
+     */
+    public RegisteredTemplate register(String name, InputStream zipFile) throws PDFCreationFailedException, IOException {
+        File staging = staging(name);
+        try {
+            zipExtractor.extract(zipFile, staging.toPath());
+            if (!new File(staging, TEMPLATE_FILE).isFile()) {
+                throw new UploadRejectedException("Zip file has no " + TEMPLATE_FILE);
+            }
+            return publish(name, staging);
+        } finally {
+            FileUtils.deleteDirectory(staging);
+        }
+    }
+
+    /**
+     * @param version the version, null for the latest one
+     * @return the template, null if it is not registered
+     */
+    public RegisteredTemplate get(String name, Integer version) {
+        NavigableMap<Integer, RegisteredTemplate> versions = templates.get(name);
+        if (versions == null || versions.isEmpty()) {
+            return null;
+        }
+        if (version == null) {
+            Map.Entry<Integer, RegisteredTemplate> latest = versions.lastEntry();
+            return latest != null ? latest.getValue() : null;
+        }
+        return versions.get(version);
+    }
+
+    /**
+     * @return all versions of the name, oldest first
+     */
+    public List<RegisteredTemplate> versions(String name) {
+        NavigableMap<Integer, RegisteredTemplate> versions = templates.get(name);
+        return versions != null ? new ArrayList<>(versions.values()) : new ArrayList<>();
+    }
+
+    /**
+     * Removes a version. Renders that have started already keep their linked copies of the assets.
+     *
+     * @return false if the version is not registered
+     */
+    public synchronized boolean delete(String name, int version) throws IOException {
+        NavigableMap<Integer, RegisteredTemplate> versions = templates.get(name);
+        RegisteredTemplate removed = versions != null ? versions.remove(version) : null;
+        if (removed == null) {
+            return false;
+        }
+        FileUtils.deleteDirectory(removed.getFolder());
+        LOG.info("Deleted template {} version {}", name, version);
+        return true;
+    }
+
+    private File staging(String name) throws PDFCreationFailedException {
+        if (name == null || !NAME.matcher(name).matches()) {
+            throw new PDFCreationFailedException("Template names consist of up to 64 letters, digits, - and _: " + name);
+        }
+        return new File(new File(templatesFolder, name), "upload-" + UUID.randomUUID());
+    }
+
+    private synchronized RegisteredTemplate publish(String name, File staging) throws IOException {
+        RegisteredTemplate latest = get(name, null);
+        int version = latest != null ? latest.getVersion() + 1 : 1;
+        File folder = new File(staging.getParentFile(), Integer.toString(version));
+        Files.move(staging.toPath(), folder.toPath());
+        RegisteredTemplate template = load(name, version, folder);
+        LOG.info("Registered template {} version {}", name, version);
+        try {
+            formatCache.prepare(new File(folder, TEMPLATE_FILE));
+        } catch (IOException e) {
+            LOG.warn("Could not prepare the format of template {} version {}", name, version, e);
+        }
+        return template;
+    }
+
+    private RegisteredTemplate load(String name, int version, File folder) throws IOException {
+        File templateFile = new File(folder, TEMPLATE_FILE);
+        String source = FileUtils.readFileToString(templateFile, "UTF-8");
+        RegisteredTemplate template = new RegisteredTemplate(name, version, templateFile.lastModified(), folder, source,
+                TemplateVariables.names(source));
+        templates.computeIfAbsent(name, key -> new ConcurrentSkipListMap<>()).put(version, template);
+        return template;
+    }
+}
@@ -0,0 +1,73 @@
+package de.wits.pdf.service;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Rewrites the directives of a template, such as {@code img:} or {@code var:}, in a single pass. The
+ * template is copied to the output as it is scanned; every directive rewrites its own occurrence only,
+ * so the cost is linear in the template size no matter how many directives it holds.
+ */
+final class TemplateRewriter {
+
+    /**
+     * A kind of placeholder in templates, introduced by a fixed prefix.
+     */
+    interface Directive {
+
+        /**
+         * @return the text introducing the directive, e.g. {@code img:}
+         */
+        String getPrefix();
+
+        /**
+         * Writes the replacement of one occurrence.
+         *
+         * @param start index right after the prefix
+         * @return index after the consumed argument, or -1 without writing anything if this is not an
+         * occurrence after all; the prefix is copied as it is then
+         */
+        int rewrite(CharSequence template, int start, Appendable out) throws IOException, PDFCreationFailedException;
+    }
+
+    private final Map<String, Directive> directives = new LinkedHashMap<>();
+    private final Pattern prefixes;
+
+    TemplateRewriter(Directive... directives) {
+        StringBuilder pattern = new StringBuilder();
+        for (Directive directive : directives) {
+            this.directives.put(directive.getPrefix(), directive);
+            pattern.append(pattern.length() > 0 ? "|" : "").append(Pattern.quote(directive.getPrefix()));
+        }
+        this.prefixes = Pattern.compile(pattern.toString());
+    }
+
+    String rewrite(CharSequence template) throws PDFCreationFailedException {
+        StringBuilder out = new StringBuilder(template.length() + 64);
+        try {
+            rewrite(template, out);
+        } catch (IOException e) {
+            // a StringBuilder does not throw
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+
+    void rewrite(CharSequence template, Appendable out) throws IOException, PDFCreationFailedException {
+        Matcher matcher = prefixes.matcher(template);
+        int copied = 0;
+        while (copied < template.length() && matcher.find(copied)) {
+            out.append(template, copied, matcher.start());
+            int end = directives.get(matcher.group()).rewrite(template, matcher.end(), out);
+            if (end < 0) {
+                out.append(matcher.group());
+                end = matcher.end();
+            }
+            copied = end;
+        }
+        out.append(template, copied, template.length());
+    }
+}
@@ -0,0 +1,160 @@
+package de.wits.pdf.service;
+
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Fills {@code var:name} placeholders of a template. Values are escaped, so they always end up as text
+ * in the document. Names start with a letter, followed by letters, digits and {@code _ . -}; they do
+ * not end in {@code .} or {@code -}, so {@code Dear var:name.} ends the sentence after the placeholder.
+ * <p>
+ * Placeholders in the URL of an {@code img:} reference are filled by {@link MediaReferences} with the
+ * value as it is, since the URL is downloaded rather than typeset.
+ */
+final class TemplateVariables implements TemplateRewriter.Directive {
+
+    static final String PREFIX = "var:";
+
+    private final Map<String, String> values;
+    private final Set<String> names = new LinkedHashSet<>();
+
+    /**
+     * @param values the values to fill in, null to only collect the names and keep the placeholders
+     */
+    TemplateVariables(Map<String, String> values) {
+        this.values = values;
+    }
+
+    static String apply(String template, Map<String, String> values) throws PDFCreationFailedException {
+        return new TemplateRewriter(new TemplateVariables(values)).rewrite(template);
+    }
+
+    /**
+     * @return the names of all placeholders of the template, in the order they first appear
+     */
+    static Set<String> names(String template) {
+        TemplateVariables variables = new TemplateVariables(null);
+        try {
+            new TemplateRewriter(variables).rewrite(template);
+        } catch (PDFCreationFailedException e) {
+            // only thrown for missing values
+            throw new IllegalStateException(e);
+        }
+        return variables.names;
+    }
+
+    @Override
+    public String getPrefix() {
+        return PREFIX;
+    }
+
+    @Override
+    public int rewrite(CharSequence template, int start, Appendable out) throws IOException, PDFCreationFailedException {
+        int end = nameEnd(template, start);
+        if (end < 0) {
+            return -1;
+        }
+        String name = template.subSequence(start, end).toString();
+        names.add(name);
+        if (values == null) {
+            out.append(template, start - PREFIX.length(), end);
+            return end;
+        }
+        out.append(escape(value(name)));
+        return end;
+    }
+
+    /**
+     * Fills the placeholders of a text with their values as they are, without escaping them.
+     */
+    String fillVerbatim(String text) throws PDFCreationFailedException {
+        if (values == null) {
+            return text;
+        }
+        StringBuilder filled = new StringBuilder(text.length());
+        int copied = 0;
+        int prefix;
+        while ((prefix = text.indexOf(PREFIX, copied)) >= 0) {
+            int start = prefix + PREFIX.length();
+            int end = nameEnd(text, start);
+            if (end < 0) {
+                filled.append(text, copied, start);
+                copied = start;
+                continue;
+            }
+            String name = text.substring(start, end);
+            names.add(name);
+            filled.append(text, copied, prefix).append(value(name));
+            copied = end;
+        }
+        return filled.append(text, copied, text.length()).toString();
+    }
+
+    /**
+     * @return the index after the name starting at the index, -1 if no name starts there
+     */
+    private static int nameEnd(CharSequence template, int start) {
+        if (start >= template.length() || !isLetter(template.charAt(start))) {
+            return -1;
+        }
+        int end = start + 1;
+        while (end < template.length() && isNamePart(template.charAt(end))) {
+            end++;
+        }
+        // punctuation after the placeholder
+        while (template.charAt(end - 1) == '.' || template.charAt(end - 1) == '-') {
+            end--;
+        }
+        return end;
+    }
+
+    private String value(String name) throws PDFCreationFailedException {
+        String value = values.get(name);
+        if (value == null) {
+            throw new PDFCreationFailedException("No value for the template variable " + name);
+        }
+        return value;
+    }
+
+    private static boolean isLetter(char c) {
+        return c >= 'A' && c <= 'Z' || c >= 'a' && c <= 'z';
+    }
+
+    private static boolean isNamePart(char c) {
+        return isLetter(c) || c >= '0' && c <= '9' || c == '_' || c == '.' || c == '-';
+    }
+
+    static String escape(String value) {
+        StringBuilder escaped = new StringBuilder(value.length() + 16);
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '\\':
+                    escaped.append("\\textbackslash{}");
+                    break;
+                case '{':
+                case '}':
+                case '$':
+                case '&':
+                case '#':
+                case '%':
+                case '_':
+                    escaped.append('\\').append(c);
+                    break;
+                case '~':
+                    escaped.append("\\textasciitilde{}");
+                    break;
+                case '^':
+                    escaped.append("\\textasciicircum{}");
+                    break;
+                case '\n':
+                    escaped.append("\\newline{}");
+                    break;
+                default:
+                    escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+}
@@ -0,0 +1,12 @@
+package de.wits.pdf.service;
+
+/**
+ * Thrown when a render job cannot be admitted because its tenant has as many jobs waiting as it may.
+ * Jobs of other tenants are still admitted.
+ */
+public class TenantBacklogFullException extends RenderQueueFullException {
+
+    public TenantBacklogFullException(String s) {
+        super(s);
+    }
+}
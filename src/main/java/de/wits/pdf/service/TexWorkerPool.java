@@ -0,0 +1,286 @@
+package de.wits.pdf.service;
+
+import de.wits.pdf.configuration.FileSystemPathProperties;
+import de.wits.pdf.configuration.TexPoolProperties;
+import de.wits.pdf.model.PdfRequest;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Keeps pdflatex processes started ahead of time, so a pass does not pay for process start, reading the
+ * TeX configuration and loading the LaTeX format. Every process waits in its own folder below
+ * {@code pdf.temporal/workers} for the name of the file to compile, which it reads from stdin.
+ * <p>
+ * TeX ends once the document is done, so a process serves exactly one pass and is replaced in the
+ * background right away. Idle processes that died or have been waiting longer than
+ * {@code tex-pool.max-idle} are replaced by the periodic health check. If no process is idle, the caller
+ * starts pdflatex itself.
+ * <p>
+ * A render runs its passes one after the other, so no more processes are kept than the
+ * {@link RenderScheduler} lets jobs run at the same time. With adaptive workers the pool follows the
+ * current limit.
+ */
+@Component
+public class TexWorkerPool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TexWorkerPool.class);
+    static final String WORKERS_FOLDER = "workers";
+    static final String JOB_NAME = "template";
+
+    /**
+     * Run as the first line of the process: reads a line from the terminal into a macro and expands it.
+     * Reading from the terminal is not allowed in nonstop mode, so the process starts in scroll mode and
+     * the job line switches to nonstop mode.
+     */
+    static final String WAIT_FOR_JOB = "\\read16 to\\pdfservicejob \\pdfservicejob";
+
+    private final TexPoolProperties texPoolProperties;
+    private final FileSystemPathProperties fileSystemPathProperties;
+    private final PdfMetrics metrics;
+    private final ProcessSupervisor processSupervisor;
+    private final RenderScheduler renderScheduler;
+    private final BlockingQueue<TexWorker> idle = new LinkedBlockingQueue<>();
+    private final AtomicInteger busy = new AtomicInteger();
+    private final AtomicInteger starting = new AtomicInteger();
+    private final AtomicInteger count = new AtomicInteger();
+    private ScheduledExecutorService executor;
+    private File workersFolder;
+
+    @Autowired
+    public TexWorkerPool(TexPoolProperties texPoolProperties, FileSystemPathProperties fileSystemPathProperties, PdfMetrics metrics,
+                         ProcessSupervisor processSupervisor, RenderScheduler renderScheduler) {
+        this.texPoolProperties = texPoolProperties;
+        this.fileSystemPathProperties = fileSystemPathProperties;
+        this.metrics = metrics;
+        this.processSupervisor = processSupervisor;
+        this.renderScheduler = renderScheduler;
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        workersFolder = new File(fileSystemPathProperties.getTemporal(), WORKERS_FOLDER);
+        workersFolder.mkdirs();
+        // processes of a previous run are gone
+        FileUtils.cleanDirectory(workersFolder);
+        if (!texPoolProperties.isEnabled()) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "tex-pool");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::checkHealth, 0, texPoolProperties.getHealthCheckInterval(), TimeUnit.SECONDS);
+        LOG.info("Keeping {} pdflatex processes ready", getSize());
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        TexWorker worker;
+        while ((worker = idle.poll()) != null) {
+            worker.destroy();
+        }
+    }
+
+    public File getWorkersFolder() {
+        return workersFolder;
+    }
+
+    public int getIdle() {
+        return idle.size();
+    }
+
+    public int getBusy() {
+        return busy.get();
+    }
+
+    /**
+     * @return how many processes are kept waiting: {@code tex-pool.size}, at most as many as jobs may run
+     * at the same time
+     */
+    public int getSize() {
+        int limit = renderScheduler.getLimit();
+        return texPoolProperties.getSize() > 0 ? Math.min(texPoolProperties.getSize(), limit) : limit;
+    }
+
+    /**
+     * Runs one pdflatex pass over the template on a waiting process. The files of the template folder are
+     * linked into the folder of the process, and everything in it is moved back afterwards.
+     *
+     * @param request  the request the template belongs to, null if there is none
+     * @param deadline epoch milliseconds the pass has to be finished by, 0 for none
+     * @return false if no process was ready or the template cannot be compiled by one; the pass has not
+     * run then
+     * @throws RenderTimeoutException   if the pass did not finish before the deadline
+     * @throws RenderCancelledException if the request was cancelled during the pass
+     */
+    public boolean compile(File templateFile, PdfRequest request, long deadline) throws PDFCreationFailedException, IOException, InterruptedException {
+        if (executor == null || !templateFile.getName().equals(JOB_NAME + ".tex")) {
+            return false;
+        }
+        TexWorker worker = idle.poll();
+        replenish();
+        if (worker == null) {
+            metrics.recordTexPoolMiss();
+            return false;
+        }
+        if (!worker.process.getProcess().isAlive()) {
+            discard(worker);
+            metrics.recordTexWorkerRestart();
+            return false;
+        }
+
+        busy.incrementAndGet();
+        recordUsage();
+        Path workspace = templateFile.getParentFile().toPath();
+        try {
+            transfer(workspace, worker.folder.toPath(), false);
+            // the time spent idle is not part of the job
+            worker.process.restartTiming();
+            try (OutputStream stdin = worker.process.getProcess().getOutputStream()) {
+                stdin.write(("\\nonstopmode\\input{" + JOB_NAME + ".tex}\n").getBytes(StandardCharsets.UTF_8));
+            }
+            try {
+                processSupervisor.await(worker.process, request, deadline);
+            } catch (RenderTimeoutException e) {
+                metrics.recordTexWorkerRestart();
+                throw e;
+            }
+            transfer(worker.folder.toPath(), workspace, true);
+            return true;
+        } finally {
+            discard(worker);
+            busy.decrementAndGet();
+            recordUsage();
+        }
+    }
+
+    /**
+     * Replaces idle processes that died or waited too long, stops those above the size of the pool and
+     * starts missing ones.
+     */
+    void checkHealth() {
+        long deadline = System.currentTimeMillis() - texPoolProperties.getMaxIdle() * 1000;
+        for (TexWorker worker : idle) {
+            boolean dead = !worker.process.getProcess().isAlive();
+            if ((dead || worker.spawnedAt < deadline) && idle.remove(worker)) {
+                if (dead) {
+                    LOG.warn("Idle pdflatex process {} exited with {}", worker.folder.getName(), worker.process.getProcess().exitValue());
+                    metrics.recordTexWorkerRestart();
+                }
+                discard(worker);
+            }
+        }
+        TexWorker surplus;
+        while (idle.size() > getSize() && (surplus = idle.poll()) != null) {
+            discard(surplus);
+        }
+        replenish();
+        recordUsage();
+    }
+
+    private synchronized void replenish() {
+        if (executor.isShutdown()) {
+            return;
+        }
+        int missing = getSize() - idle.size() - starting.get();
+        for (int i = 0; i < missing; i++) {
+            starting.incrementAndGet();
+            executor.execute(() -> {
+                try {
+                    idle.add(spawn());
+                } catch (IOException e) {
+                    LOG.warn("Could not start a pdflatex process", e);
+                } finally {
+                    starting.decrementAndGet();
+                }
+                recordUsage();
+            });
+        }
+    }
+
+    private TexWorker spawn() throws IOException {
+        File folder = new File(workersFolder, "worker-" + count.getAndIncrement());
+        folder.mkdirs();
+        ProcessBuilder processBuilder = new ProcessBuilder(fileSystemPathProperties.getPdfLatex(), "--interaction=scrollmode",
+                "-jobname=" + JOB_NAME, "--output-directory=" + folder.getAbsolutePath(), "--shell-escape", WAIT_FOR_JOB);
+        processBuilder.directory(folder);
+        return new TexWorker(processSupervisor.start("pdflatex-warm", processBuilder), folder);
+    }
+
+    private void discard(TexWorker worker) {
+        worker.destroy();
+        try {
+            FileUtils.deleteDirectory(worker.folder);
+        } catch (IOException e) {
+            LOG.warn("Could not delete the folder of pdflatex process {}", worker.folder.getName(), e);
+        }
+    }
+
+    /**
+     * Makes every file below the source available at the same relative path below the target, by moving
+     * or hard linking it.
+     */
+    private static void transfer(Path source, Path target, boolean move) throws IOException {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(source)) {
+            files = walk.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+        for (Path file : files) {
+            Path destination = target.resolve(source.relativize(file));
+            if (move) {
+                Files.createDirectories(destination.getParent());
+                Files.move(file, destination, StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                FileLinks.link(file.toFile(), destination.toFile());
+            }
+        }
+    }
+
+    private void recordUsage() {
+        metrics.recordTexWorkers(idle.size(), busy.get());
+    }
+
+    private static class TexWorker {
+
+        final SupervisedProcess process;
+        final File folder;
+        final long spawnedAt = System.currentTimeMillis();
+
+        TexWorker(SupervisedProcess process, File folder) {
+            this.process = process;
+            this.folder = folder;
+        }
+
+        void destroy() {
+            if (process.getProcess().isAlive()) {
+                process.kill();
+            }
+        }
+    }
+}
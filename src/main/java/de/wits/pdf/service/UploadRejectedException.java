@@ -0,0 +1,15 @@
+package de.wits.pdf.service;
+
+/**
+ * Thrown when an uploaded bundle is malformed or exceeds the configured limits.
+ */
+public class UploadRejectedException extends PDFCreationFailedException {
+
+    public UploadRejectedException(String s) {
+        super(s);
+    }
+
+    public UploadRejectedException(String s, Exception e) {
+        super(s, e);
+    }
+}
@@ -0,0 +1,175 @@
+package de.wits.pdf.service;
+
+import de.wits.pdf.configuration.FileSystemPathProperties;
+import de.wits.pdf.configuration.WarmupProperties;
+import de.wits.pdf.model.PdfRequest;
+import de.wits.pdf.model.Priority;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Renders sample templates through the whole pipeline once the application has started, so the first
+ * requests of a fresh instance do not pay for the font map and file name caches of TeX, the first
+ * Ghostscript runs and the JIT compilation of the request path. The formats of the samples are built
+ * before they are rendered, the renders fill the media cache with what the samples reference.
+ * <p>
+ * The instance reports being ready on {@code /ready} once the warm-up is over, successful or not;
+ * {@code /health} only tells that the process is alive. The renders of the warm-up tenant bypass the
+ * result cache, so every round runs the processes again.
+ */
+@Service
+public class Warmup {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Warmup.class);
+    static final String WARMUP_FOLDER = "warmup";
+    static final String TENANT = "warmup";
+
+    private final WarmupProperties warmupProperties;
+    private final FileSystemPathProperties fileSystemPathProperties;
+    private final ResourceLoader resourceLoader;
+    private final PdfService pdfService;
+    private final FormatCache formatCache;
+    private final PdfMetrics metrics;
+    private volatile boolean ready;
+
+    @Autowired
+    public Warmup(WarmupProperties warmupProperties, FileSystemPathProperties fileSystemPathProperties, ResourceLoader resourceLoader,
+                  PdfService pdfService, FormatCache formatCache, PdfMetrics metrics) {
+        this.warmupProperties = warmupProperties;
+        this.fileSystemPathProperties = fileSystemPathProperties;
+        this.resourceLoader = resourceLoader;
+        this.pdfService = pdfService;
+        this.formatCache = formatCache;
+        this.metrics = metrics;
+        this.ready = !warmupProperties.isEnabled();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (ready) {
+            return;
+        }
+        Thread thread = new Thread(this::warmUp, "warmup");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return true once the warm-up is over or if it is disabled
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    void warmUp() {
+        long start = System.currentTimeMillis();
+        long deadline = start + TimeUnit.SECONDS.toMillis(warmupProperties.getTimeout());
+        int rendered = 0;
+        int failed = 0;
+        try {
+            List<String> templates = load();
+            prepareFormats(templates, deadline);
+            for (int round = 0; round <= warmupProperties.getRounds(); round++) {
+                // the last round renders previews
+                boolean preview = round == warmupProperties.getRounds();
+                for (String template : templates) {
+                    if (render(template, preview, deadline)) {
+                        rendered++;
+                    } else {
+                        failed++;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (TimeoutException e) {
+            LOG.warn("Warm-up did not finish within {} s", warmupProperties.getTimeout());
+        } finally {
+            long millis = System.currentTimeMillis() - start;
+            metrics.recordWarmup(millis, failed);
+            ready = true;
+            LOG.info("Warmed up with {} renders in {} ms, {} failed; ready", rendered, millis, failed);
+        }
+    }
+
+    private List<String> load() {
+        List<String> templates = new ArrayList<>();
+        for (String location : warmupProperties.getTemplates()) {
+            Resource resource = resourceLoader.getResource(location);
+            try (InputStream in = resource.getInputStream()) {
+                templates.add(IOUtils.toString(in, "UTF-8"));
+            } catch (IOException e) {
+                LOG.warn("Could not read the warm-up template {}: {}", location, e.getMessage());
+            }
+        }
+        return templates;
+    }
+
+    /**
+     * Builds the formats of the samples right away instead of after their first uses.
+     */
+    private void prepareFormats(List<String> templates, long deadline) throws InterruptedException, TimeoutException {
+        File folder = new File(fileSystemPathProperties.getTemporal(), WARMUP_FOLDER);
+        try {
+            for (int i = 0; i < templates.size(); i++) {
+                File templateFile = new File(new File(folder, String.valueOf(i)), "template.tex");
+                FileUtils.writeStringToFile(templateFile, templates.get(i), "UTF-8");
+                formatCache.prepare(templateFile);
+            }
+            if (!formatCache.awaitBuilds(deadline)) {
+                throw new TimeoutException();
+            }
+        } catch (IOException e) {
+            LOG.warn("Could not prepare the formats of the warm-up templates: {}", e.getMessage());
+        } finally {
+            try {
+                FileUtils.deleteDirectory(folder);
+            } catch (IOException e) {
+                LOG.warn("Could not delete {}", folder, e);
+            }
+        }
+    }
+
+    /**
+     * @return false if the render failed
+     */
+    private boolean render(String template, boolean preview, long deadline) throws InterruptedException, TimeoutException {
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+            throw new TimeoutException();
+        }
+        PdfRequest request = new PdfRequest(UUID.randomUUID(), template);
+        request.setTenant(TENANT);
+        request.setPriority(Priority.BULK);
+        request.setPreview(preview);
+        try {
+            pdfService.getPdf(request).get(remaining, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException | InterruptedException e) {
+            pdfService.cancel(request);
+            throw e;
+        } catch (Exception e) {
+            LOG.warn("Warm-up render failed", e);
+            return false;
+        } finally {
+            pdfService.release(request);
+        }
+    }
+}
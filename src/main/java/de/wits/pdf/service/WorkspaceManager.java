@@ -0,0 +1,200 @@
+package de.wits.pdf.service;
+
+import de.wits.pdf.configuration.FileSystemPathProperties;
+import de.wits.pdf.configuration.WorkspaceProperties;
+import de.wits.pdf.model.PdfRequest;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out the working folders of the jobs and deletes them as soon as they are given back, i.e. once
+ * the result has been delivered or moved into the result cache.
+ * <p>
+ * New folders are refused if they would not fit into the quota next to the folders in use, or while
+ * the file system runs low on space; the job is rejected like one that finds the render backlog full.
+ * Every folder counts with the configured reservation until it is measured to take more, by
+ * {@link #measure(PdfRequest)} once an upload is extracted into it or by {@link #sweep()}. The sweep
+ * also removes folders that were left behind, a batch at a time and only once they are older than the
+ * configured age. Folders of running jobs are never touched.
+ */
+@Service
+public class WorkspaceManager {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WorkspaceManager.class);
+    static final String WORKSPACES_FOLDER = "workspaces";
+
+    private final WorkspaceProperties workspaceProperties;
+    private final FileSystemPathProperties fileSystemPathProperties;
+    private final PdfMetrics metrics;
+    // bytes counted for every folder in use
+    private final Map<String, Long> active = new ConcurrentHashMap<>();
+    private final AtomicLong usedBytes = new AtomicLong();
+    private File workspacesFolder;
+
+    @Autowired
+    public WorkspaceManager(WorkspaceProperties workspaceProperties, FileSystemPathProperties fileSystemPathProperties,
+                            PdfMetrics metrics) {
+        this.workspaceProperties = workspaceProperties;
+        this.fileSystemPathProperties = fileSystemPathProperties;
+        this.metrics = metrics;
+    }
+
+    @PostConstruct
+    public void start() {
+        workspacesFolder = workspaceProperties.getFolder() != null ? new File(workspaceProperties.getFolder())
+                : new File(fileSystemPathProperties.getTemporal(), WORKSPACES_FOLDER);
+        workspacesFolder.mkdirs();
+    }
+
+    public File getWorkspacesFolder() {
+        return workspacesFolder;
+    }
+
+    /**
+     * Creates the working folder of a request and points its template file into it. It has to be given
+     * back with {@link #release(PdfRequest)}.
+     *
+     * @param prefix distinguishes the kind of work in the folder name, e.g. {@code merge-}
+     * @throws RenderQueueFullException if there is no room for another folder
+     */
+    public File create(PdfRequest request, String prefix) throws RenderQueueFullException {
+        long reserved = workspaceProperties.getReservedBytes();
+        String name = prefix + request.getId();
+        synchronized (this) {
+            long used = usedBytes.get();
+            long free = workspacesFolder.getUsableSpace();
+            if (used + reserved > workspaceProperties.getMaxBytes() || free < workspaceProperties.getMinFreeBytes()) {
+                metrics.recordWorkspaceRejected();
+                throw new RenderQueueFullException("No room for another workspace (" + used + " bytes used, " + free + " bytes free)");
+            }
+            // registered first, so the sweep never sees it untracked
+            active.put(name, reserved);
+            usedBytes.addAndGet(reserved);
+        }
+        File folder = new File(workspacesFolder, name);
+        folder.mkdirs();
+        request.setTmpFolder(new File(folder, "template.tex"));
+        return folder;
+    }
+
+    /**
+     * Deletes the working folder of a request. Does nothing if it has been released already.
+     */
+    public void release(PdfRequest request) {
+        if (request.getTmpFolder() == null) {
+            return;
+        }
+        File folder = request.getTmpFolder().getParentFile();
+        try {
+            FileUtils.deleteDirectory(folder);
+        } catch (IOException e) {
+            // left to the sweep
+            LOG.warn("Could not delete the working folder of request {}", request.getId(), e);
+        }
+        Long measured = active.remove(folder.getName());
+        if (measured != null) {
+            usedBytes.addAndGet(-measured);
+        }
+    }
+
+    /**
+     * Counts the working folder of a request with its current size if that exceeds its reservation, e.g.
+     * right after an upload has been extracted into it.
+     */
+    public void measure(PdfRequest request) {
+        if (request.getTmpFolder() != null) {
+            measure(request.getTmpFolder().getParentFile().getName());
+        }
+    }
+
+    /**
+     * Measures the folders in use and deletes up to a batch of folders that are no longer in use and
+     * older than the configured age. Those are left behind by failed deletions, by instances that
+     * stopped, or belong to other instances sharing the folder while they are young.
+     *
+     * @return the number of deleted folders
+     */
+    public int sweep() {
+        for (String name : active.keySet()) {
+            measure(name);
+        }
+        metrics.recordWorkspaces(active.size(), usedBytes.get());
+
+        long deadline = System.currentTimeMillis() - workspaceProperties.getMaxAge() * 1000;
+        int deleted = 0;
+        try (DirectoryStream<Path> folders = Files.newDirectoryStream(workspacesFolder.toPath())) {
+            for (Path folder : folders) {
+                if (deleted >= workspaceProperties.getSweepBatch()) {
+                    break;
+                }
+                if (active.containsKey(folder.getFileName().toString()) || folder.toFile().lastModified() >= deadline) {
+                    continue;
+                }
+                try {
+                    FileUtils.forceDelete(folder.toFile());
+                    deleted++;
+                } catch (IOException e) {
+                    LOG.warn("Could not delete the abandoned working folder {}", folder, e);
+                }
+            }
+        } catch (IOException e) {
+            LOG.warn("Could not sweep the working folders", e);
+        }
+        if (deleted > 0) {
+            LOG.info("Deleted {} abandoned working folders", deleted);
+        }
+        metrics.recordWorkspaceSweep(deleted);
+        return deleted;
+    }
+
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    private void measure(String name) {
+        long size = Math.max(size(new File(workspacesFolder, name).toPath()), workspaceProperties.getReservedBytes());
+        Long counted = active.get(name);
+        // released or measured by another thread while measuring otherwise
+        if (counted != null && active.replace(name, counted, size)) {
+            usedBytes.addAndGet(size - counted);
+        }
+    }
+
+    private static long size(Path folder) {
+        AtomicLong size = new AtomicLong();
+        try {
+            Files.walkFileTree(folder, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                    size.addAndGet(attributes.size());
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    // the job may delete its files while we walk
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            LOG.debug("Could not measure {}", folder, e);
+        }
+        return size.get();
+    }
+}
@@ -0,0 +1,123 @@
+package de.wits.pdf.service;
+
+import de.wits.pdf.configuration.UploadProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Unpacks an uploaded zip archive while it is being received. Entries are written straight into the job
+ * folder, so memory use does not depend on the size of the upload. The extracted size, the number of
+ * entries and the compression ratio are checked as the data flows.
+ */
+@Component
+public class ZipExtractor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ZipExtractor.class);
+
+    /**
+     * The compression ratio is only checked beyond this many extracted bytes, small archives of text
+     * files legitimately compress very well.
+     */
+    private static final long RATIO_THRESHOLD = 1024 * 1024;
+
+    private final UploadProperties uploadProperties;
+
+    @Autowired
+    public ZipExtractor(UploadProperties uploadProperties) {
+        this.uploadProperties = uploadProperties;
+    }
+
+    public void extract(InputStream upload, Path target) throws IOException, UploadRejectedException {
+        Files.createDirectories(target);
+        Path root = target.toAbsolutePath().normalize();
+        CountingInputStream counting = new CountingInputStream(upload);
+        byte[] buffer = new byte[8192];
+        long extracted = 0;
+        int entries = 0;
+
+        try (ZipInputStream zip = new ZipInputStream(counting)) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (++entries > uploadProperties.getMaxEntries()) {
+                    throw new UploadRejectedException("Zip file has more than " + uploadProperties.getMaxEntries() + " entries");
+                }
+                Path path = root.resolve(entry.getName()).normalize();
+                if (!path.startsWith(root)) {
+                    throw new UploadRejectedException("Zip entry " + entry.getName() + " points outside of the job folder");
+                }
+                if (entry.isDirectory()) {
+                    Files.createDirectories(path);
+                    continue;
+                }
+                Files.createDirectories(path.getParent());
+                try (OutputStream out = Files.newOutputStream(path)) {
+                    int read;
+                    while ((read = zip.read(buffer)) != -1) {
+                        extracted += read;
+                        check(extracted, counting.getCount());
+                        out.write(buffer, 0, read);
+                    }
+                }
+            }
+        }
+        LOG.info("Extracted {} entries with {} bytes from {} uploaded bytes into {}", entries, extracted, counting.getCount(), target);
+    }
+
+    private void check(long extracted, long uploaded) throws UploadRejectedException {
+        if (extracted > uploadProperties.getMaxUncompressedBytes()) {
+            throw new UploadRejectedException("Zip file extracts to more than " + uploadProperties.getMaxUncompressedBytes() + " bytes");
+        }
+        if (extracted > RATIO_THRESHOLD && extracted > uploaded * uploadProperties.getMaxCompressionRatio()) {
+            throw new UploadRejectedException("Zip file exceeds the compression ratio of " + uploadProperties.getMaxCompressionRatio());
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = super.read();
+            if (read != -1) {
+                count++;
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
+}
@@ -1,7 +1,13 @@
 package de.wits.pdf.task;
 
 import de.wits.pdf.configuration.FileSystemPathProperties;
-import org.apache.commons.io.FileUtils;
+import de.wits.pdf.service.AssetStore;
+import de.wits.pdf.service.FormatCache;
+import de.wits.pdf.service.JobService;
+import de.wits.pdf.service.MediaCache;
+import de.wits.pdf.service.PdfMetrics;
+import de.wits.pdf.service.PdfResultCache;
+import de.wits.pdf.service.WorkspaceManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -9,7 +15,6 @@ import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 import java.io.File;
-import java.io.IOException;
 
 /**
  * Created by alberto on 22.08.17.
@@ -18,21 +23,56 @@ import java.io.IOException;
 public class CleanupTask {
 
     FileSystemPathProperties fileSystemPathProperties;
+    PdfResultCache resultCache;
+    MediaCache mediaCache;
+    FormatCache formatCache;
+    AssetStore assetStore;
+    JobService jobService;
+    PdfMetrics metrics;
+    WorkspaceManager workspaceManager;
 
     @Autowired
-    public CleanupTask(FileSystemPathProperties fileSystemPathProperties) {
+    public CleanupTask(FileSystemPathProperties fileSystemPathProperties, PdfResultCache resultCache, MediaCache mediaCache,
+                       FormatCache formatCache, AssetStore assetStore, JobService jobService, PdfMetrics metrics,
+                       WorkspaceManager workspaceManager) {
         this.fileSystemPathProperties = fileSystemPathProperties;
+        this.resultCache = resultCache;
+        this.mediaCache = mediaCache;
+        this.formatCache = formatCache;
+        this.assetStore = assetStore;
+        this.jobService = jobService;
+        this.metrics = metrics;
+        this.workspaceManager = workspaceManager;
     }
 
     private static final Logger LOG = LoggerFactory.getLogger(CleanupTask.class);
 
     @Scheduled(cron = "0 0 5 1/1 * ?")
-    public void clearTempFolder() {
-        LOG.info("Clearing temporal folder");
-        try {
-            FileUtils.cleanDirectory(new File(fileSystemPathProperties.getTemporal()));
-        } catch (IOException e) {
-            LOG.error("Could not clear the temp folder ", e);
-        }
+    public void evictCaches() {
+        LOG.info("Evicting caches");
+        resultCache.evict();
+        mediaCache.evict();
+        formatCache.evict();
+    }
+
+    @Scheduled(fixedDelay = 60000)
+    public void sweepWorkspaces() {
+        workspaceManager.sweep();
+    }
+
+    @Scheduled(fixedDelay = 60000)
+    public void expireJobs() {
+        jobService.expire();
+    }
+
+    /**
+     * Adds up the sizes the caches, the asset store and the workspace manager keep track of anyway instead
+     * of walking the temporal folder. Workspaces count the shared files they link a second time.
+     */
+    @Scheduled(fixedDelay = 60000)
+    public void recordDiskUsage() {
+        long used = workspaceManager.getUsedBytes() + assetStore.getSize() + resultCache.getSize()
+                + mediaCache.getSize() + formatCache.getSize();
+        metrics.recordDiskUsage(used, new File(fileSystemPathProperties.getTemporal()).getUsableSpace());
     }
 }
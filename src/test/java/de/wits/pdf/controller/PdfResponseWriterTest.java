@@ -0,0 +1,108 @@
+package de.wits.pdf.controller;
+
+import de.wits.pdf.service.PdfResultCache;
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class PdfResponseWriterTest {
+
+    private static final String CONTENT = "%PDF-1.4 0123456789";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private PdfResponseWriter writer;
+    private File pdfFile;
+
+    @Before
+    public void setUp() throws IOException {
+        pdfFile = temporaryFolder.newFile("cached-abc.pdf");
+        FileUtils.writeStringToFile(pdfFile, CONTENT);
+        PdfResultCache resultCache = mock(PdfResultCache.class);
+        when(resultCache.keyOf(pdfFile)).thenReturn("abc");
+        writer = new PdfResponseWriter(resultCache);
+    }
+
+    @Test
+    public void streamsTheWholeFile() throws IOException {
+        MockHttpServletResponse response = write(new MockHttpServletRequest("GET", "/"));
+
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getContentType()).isEqualTo("application/pdf");
+        assertThat(response.getHeader("Content-Length")).isEqualTo(Integer.toString(CONTENT.length()));
+        assertThat(response.getHeader("ETag")).isEqualTo("\"abc\"");
+        assertThat(response.getContentAsString()).isEqualTo(CONTENT);
+    }
+
+    @Test
+    public void servesByteRanges() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/");
+        request.addHeader("Range", "bytes=9-12");
+
+        MockHttpServletResponse response = write(request);
+
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getHeader("Content-Range")).isEqualTo("bytes 9-12/" + CONTENT.length());
+        assertThat(response.getContentAsString()).isEqualTo("0123");
+    }
+
+    @Test
+    public void servesSuffixRanges() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/");
+        request.addHeader("Range", "bytes=-3");
+
+        assertThat(write(request).getContentAsString()).isEqualTo("789");
+    }
+
+    @Test
+    public void rejectsUnsatisfiableRanges() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/");
+        request.addHeader("Range", "bytes=100-");
+
+        MockHttpServletResponse response = write(request);
+
+        assertThat(response.getStatus()).isEqualTo(416);
+        assertThat(response.getHeader("Content-Range")).isEqualTo("bytes */" + CONTENT.length());
+    }
+
+    @Test
+    public void answersNotModifiedForAMatchingEtag() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/");
+        request.addHeader("If-None-Match", "\"abc\"");
+
+        MockHttpServletResponse response = write(request);
+
+        assertThat(response.getStatus()).isEqualTo(304);
+        assertThat(response.getContentAsByteArray()).isEmpty();
+    }
+
+    @Test
+    public void ignoresRangesForAnOutdatedIfRange() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/");
+        request.addHeader("Range", "bytes=9-12");
+        request.addHeader("If-Range", "\"other\"");
+
+        MockHttpServletResponse response = write(request);
+
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getContentAsString()).isEqualTo(CONTENT);
+    }
+
+    private MockHttpServletResponse write(MockHttpServletRequest request) throws IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        writer.write(pdfFile, request, response);
+        return response;
+    }
+}
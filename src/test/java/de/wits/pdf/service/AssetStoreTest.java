@@ -0,0 +1,166 @@
+package de.wits.pdf.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.wits.pdf.configuration.AssetProperties;
+import de.wits.pdf.configuration.FileSystemPathProperties;
+import de.wits.pdf.configuration.UploadProperties;
+import de.wits.pdf.model.PdfRequest;
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+public class AssetStoreTest {
+
+    private static final String LOGO = "logo";
+    private static final String STYLE = "\\ProvidesPackage{corporate}";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private AssetProperties assetProperties;
+    private AssetStore assetStore;
+
+    @Before
+    public void setUp() {
+        FileSystemPathProperties fileSystemPathProperties = new FileSystemPathProperties();
+        fileSystemPathProperties.setTemporal(temporaryFolder.getRoot().getAbsolutePath());
+        assetProperties = new AssetProperties();
+        assetStore = new AssetStore(assetProperties, fileSystemPathProperties, new UploadProperties(), new ObjectMapper(),
+                mock(PdfMetrics.class));
+        assetStore.init();
+    }
+
+    @Test
+    public void assemblesLaterBundlesFromTheStore() throws Exception {
+        File first = workspace("first");
+        write(first, "template.tex", "\\input{corporate}");
+        write(first, "images/logo.png", LOGO);
+        write(first, "corporate.sty", STYLE);
+        assetStore.assemble(request(), first);
+
+        assertThat(assetStore.file(hash(STYLE))).isFile();
+        assertThat(assetStore.file(hash("\\input{corporate}"))).doesNotExist();
+        assertThat(assetStore.missing(Arrays.asList(hash(LOGO), hash("other")))).containsExactly(hash("other"));
+
+        File second = workspace("second");
+        write(second, "template.tex", "\\input{corporate}");
+        Map<String, String> manifest = new LinkedHashMap<>();
+        manifest.put("images/logo.png", hash(LOGO));
+        manifest.put("corporate.sty", hash(STYLE));
+        write(second, AssetStore.MANIFEST, new ObjectMapper().writeValueAsString(manifest));
+        assetStore.assemble(request(), second);
+
+        assertThat(new File(second, AssetStore.MANIFEST)).doesNotExist();
+        assertThat(FileUtils.readFileToString(new File(second, "images/logo.png"), "UTF-8")).isEqualTo(LOGO);
+        assertThat(Files.isSameFile(new File(second, "corporate.sty").toPath(), new File(first, "corporate.sty").toPath())).isTrue();
+    }
+
+    @Test
+    public void reportsMissingAssetsAndKeepsTheUploadedOnes() throws Exception {
+        File workspace = workspace("job");
+        write(workspace, "corporate.sty", STYLE);
+        write(workspace, AssetStore.MANIFEST, "{\"logo.png\": \"" + hash(LOGO) + "\", \"../escape\": \"" + hash(STYLE) + "\"}");
+
+        assertThatThrownBy(() -> assetStore.assemble(request(), workspace)).isInstanceOf(UploadRejectedException.class);
+
+        File retry = workspace("retry");
+        write(retry, AssetStore.MANIFEST, "{\"logo.png\": \"" + hash(LOGO) + "\", \"corporate.sty\": \"" + hash(STYLE) + "\"}");
+        assertThatThrownBy(() -> assetStore.assemble(request(), retry)).isInstanceOf(MissingAssetsException.class)
+                .hasFieldOrPropertyWithValue("missing", Collections.singletonList(hash(LOGO)));
+    }
+
+    @Test
+    public void evictsOnlyAssetsNoJobUses() throws Exception {
+        assetProperties.setMaxBytes(STYLE.length());
+        PdfRequest running = request();
+        File workspace = workspace("running");
+        write(workspace, "corporate.sty", STYLE);
+        assetStore.assemble(running, workspace);
+
+        assertThat(assetStore.put(hash(LOGO), new ByteArrayInputStream(LOGO.getBytes(StandardCharsets.UTF_8)))).isTrue();
+        assertThat(assetStore.file(hash(LOGO))).doesNotExist();
+        assertThat(assetStore.file(hash(STYLE))).isFile();
+
+        assetStore.release(running);
+        assetStore.evict();
+        assertThat(assetStore.file(hash(STYLE))).isFile();
+        assetProperties.setMaxBytes(0);
+        assetStore.evict();
+        assertThat(assetStore.file(hash(STYLE))).doesNotExist();
+    }
+
+    @Test
+    public void rejectsAssetsNotMatchingTheirHash() throws Exception {
+        assertThatThrownBy(() -> assetStore.put(hash(STYLE), new ByteArrayInputStream(LOGO.getBytes(StandardCharsets.UTF_8))))
+                .isInstanceOf(UploadRejectedException.class);
+        assertThat(assetStore.file(hash(STYLE))).doesNotExist();
+        assertThat(assetStore.put(hash(LOGO), new ByteArrayInputStream(LOGO.getBytes(StandardCharsets.UTF_8)))).isTrue();
+        assertThat(assetStore.put(hash(LOGO), new ByteArrayInputStream(LOGO.getBytes(StandardCharsets.UTF_8)))).isFalse();
+    }
+
+    @Test
+    public void linksAssetsReadOnly() throws Exception {
+        File first = workspace("first");
+        write(first, "corporate.sty", STYLE);
+        assetStore.assemble(request(), first);
+
+        File second = workspace("second");
+        write(second, AssetStore.MANIFEST, "{\"corporate.sty\": \"" + hash(STYLE) + "\", \"template.tex\": \"" + hash(STYLE) + "\"}");
+        assetStore.assemble(request(), second);
+
+        assertThat(Files.getPosixFilePermissions(assetStore.file(hash(STYLE)).toPath())).doesNotContain(PosixFilePermission.OWNER_WRITE);
+        assertThat(Files.getPosixFilePermissions(new File(second, "corporate.sty").toPath())).doesNotContain(PosixFilePermission.OWNER_WRITE);
+        assertThat(Files.getPosixFilePermissions(new File(second, "template.tex").toPath())).contains(PosixFilePermission.OWNER_WRITE);
+    }
+
+    @Test
+    public void dropsAssetsModifiedInTheStore() throws Exception {
+        assetStore.put(hash(LOGO), new ByteArrayInputStream(LOGO.getBytes(StandardCharsets.UTF_8)));
+        File stored = assetStore.file(hash(LOGO));
+        // as a job running as root could through its link
+        stored.setWritable(true);
+        FileUtils.writeStringToFile(stored, "tampered", "UTF-8");
+        stored.setLastModified(stored.lastModified() - 10000);
+
+        File workspace = workspace("job");
+        write(workspace, AssetStore.MANIFEST, "{\"logo.png\": \"" + hash(LOGO) + "\"}");
+        assertThatThrownBy(() -> assetStore.assemble(request(), workspace)).isInstanceOf(MissingAssetsException.class);
+        assertThat(stored).doesNotExist();
+
+        assertThat(assetStore.put(hash(LOGO), new ByteArrayInputStream(LOGO.getBytes(StandardCharsets.UTF_8)))).isTrue();
+    }
+
+    private File workspace(String name) throws IOException {
+        return temporaryFolder.newFolder(name);
+    }
+
+    private static void write(File folder, String path, String content) throws IOException {
+        FileUtils.writeStringToFile(new File(folder, path), content, "UTF-8");
+    }
+
+    private static PdfRequest request() {
+        return new PdfRequest(UUID.randomUUID(), null);
+    }
+
+    private static String hash(String content) {
+        return Digests.hex(Digests.sha256().digest(content.getBytes(StandardCharsets.UTF_8)));
+    }
+}
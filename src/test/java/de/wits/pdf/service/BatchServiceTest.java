@@ -0,0 +1,104 @@
+package de.wits.pdf.service;
+
+import de.wits.pdf.configuration.GenerationProperties;
+import de.wits.pdf.model.BatchItemResult;
+import de.wits.pdf.model.BatchRequest;
+import de.wits.pdf.model.JobState;
+import de.wits.pdf.model.PdfRequest;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class BatchServiceTest {
+
+    private PdfService pdfService;
+    private BatchService batchService;
+
+    @Before
+    public void setUp() throws Exception {
+        pdfService = mock(PdfService.class);
+        GenerationProperties generationProperties = new GenerationProperties();
+        generationProperties.setWorkers(2);
+        batchService = new BatchService(pdfService, generationProperties);
+        when(pdfService.getPdf(any(PdfRequest.class))).thenAnswer(invocation -> {
+            PdfRequest request = (PdfRequest) invocation.getArguments()[0];
+            if (request.getLatexTemplate().contains("broken")) {
+                CompletableFuture<File> failed = new CompletableFuture<>();
+                failed.completeExceptionally(new PDFCreationFailedException("broken template"));
+                return failed;
+            }
+            String template = request.getVariables() != null
+                    ? TemplateVariables.apply(request.getLatexTemplate(), request.getVariables()) : request.getLatexTemplate();
+            return CompletableFuture.completedFuture(new File(template + ".pdf"));
+        });
+    }
+
+    @Test
+    public void rendersEveryVariableSet() throws Exception {
+        BatchRequest batch = new BatchRequest();
+        batch.setTemplate("report-var:name");
+        batch.setVariables(Arrays.asList(Collections.singletonMap("name", "a"), Collections.singletonMap("name", "b"),
+                Collections.singletonMap("name", "c")));
+        List<String> delivered = new ArrayList<>();
+
+        List<BatchItemResult> results = batchService.render(batch, "tenant", (result, pdfFile) -> delivered.add(pdfFile.getName()));
+
+        assertThat(delivered).containsExactlyInAnyOrder("report-a.pdf", "report-b.pdf", "report-c.pdf");
+        assertThat(results).extracting(BatchItemResult::getState).containsOnly(JobState.DONE);
+        verify(pdfService, atLeast(3)).release(any(PdfRequest.class));
+    }
+
+    @Test
+    public void reportsFailuresPerDocument() throws Exception {
+        BatchRequest batch = new BatchRequest();
+        batch.setTemplates(Arrays.asList("first", "broken", "third"));
+        batch.getVariables().clear();
+
+        List<BatchItemResult> results = batchService.render(batch, "tenant", (result, pdfFile) -> {
+        });
+
+        assertThat(results).extracting(BatchItemResult::getState).containsExactly(JobState.DONE, JobState.FAILED, JobState.DONE);
+        assertThat(results.get(1).getError()).isEqualTo("broken template");
+    }
+
+    @Test
+    public void reportsMissingVariablesAsFailures() throws Exception {
+        BatchRequest batch = new BatchRequest();
+        batch.setTemplate("var:name");
+        batch.setVariables(Arrays.asList(Collections.singletonMap("name", "a"), Collections.singletonMap("other", "b")));
+
+        List<BatchItemResult> results = batchService.render(batch, "tenant", (result, pdfFile) -> {
+        });
+
+        assertThat(results).extracting(BatchItemResult::getState).containsExactly(JobState.DONE, JobState.FAILED);
+    }
+
+    @Test
+    public void fillsTheVariablesWhileRenderingLikeForRegisteredTemplates() throws Exception {
+        BatchRequest batch = new BatchRequest();
+        batch.setTemplate("\\includegraphics{img:var:logo}");
+        batch.setVariables(Collections.singletonList(Collections.singletonMap("logo", "https://example.com/logo_small.png")));
+        ArgumentCaptor<PdfRequest> request = ArgumentCaptor.forClass(PdfRequest.class);
+
+        batchService.render(batch, "tenant", (result, pdfFile) -> {
+        });
+
+        verify(pdfService).getPdf(request.capture());
+        assertThat(request.getValue().getLatexTemplate()).isEqualTo("\\includegraphics{img:var:logo}");
+        assertThat(request.getValue().getVariables()).containsEntry("logo", "https://example.com/logo_small.png");
+    }
+}
@@ -0,0 +1,93 @@
+package de.wits.pdf.service;
+
+import de.wits.pdf.configuration.GenerationProperties;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.anyDouble;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ConcurrencyLimiterTest {
+
+    private GenerationProperties generationProperties;
+    private CpuLoad cpuLoad;
+    private PdfMetrics metrics;
+    private long now;
+
+    @Before
+    public void setUp() {
+        generationProperties = new GenerationProperties();
+        generationProperties.setWorkers(4);
+        generationProperties.setMinWorkers(2);
+        generationProperties.setMaxWorkers(6);
+        cpuLoad = mock(CpuLoad.class);
+        metrics = mock(PdfMetrics.class);
+    }
+
+    @Test
+    public void growsWhileJobsWaitAndCpusAreIdle() {
+        when(cpuLoad.sample()).thenReturn(0.3);
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(generationProperties, cpuLoad, metrics);
+
+        for (int i = 0; i < 10; i++) {
+            done(limiter, 1000, 5, limiter.getLimit());
+        }
+
+        assertThat(limiter.getLimit()).isEqualTo(6);
+        verify(metrics).recordConcurrencyLimit(6, ConcurrencyLimiter.INCREASE, 0.3);
+    }
+
+    @Test
+    public void keepsTheLimitWithoutDemandOrWithBusyCpus() {
+        when(cpuLoad.sample()).thenReturn(0.3);
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(generationProperties, cpuLoad, metrics);
+
+        done(limiter, 1000, 0, 4);
+        done(limiter, 1000, 5, 2);
+        when(cpuLoad.sample()).thenReturn(0.95);
+        done(limiter, 1000, 5, 4);
+
+        assertThat(limiter.getLimit()).isEqualTo(4);
+    }
+
+    @Test
+    public void backsOffWhenRendersGetSlower() {
+        when(cpuLoad.sample()).thenReturn(0.5);
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(generationProperties, cpuLoad, metrics);
+        for (int i = 0; i < 20; i++) {
+            done(limiter, 1000, 0, 4);
+        }
+
+        done(limiter, 8000, 5, 4);
+        assertThat(limiter.getLimit()).isEqualTo(3);
+
+        done(limiter, 9000, 5, 3);
+        done(limiter, 9000, 5, 3);
+        assertThat(limiter.getLimit()).isEqualTo(2);
+        verify(metrics, times(2)).recordConcurrencyLimit(anyInt(), eq(ConcurrencyLimiter.DECREASE), anyDouble());
+    }
+
+    @Test
+    public void decidesAtMostOncePerInterval() {
+        when(cpuLoad.sample()).thenReturn(0.3);
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(generationProperties, cpuLoad, metrics);
+
+        now = 10_000;
+        limiter.done(1000, 5, 4, now);
+        limiter.done(1000, 5, 5, now + 10);
+        limiter.done(1000, 5, 5, now + 20);
+
+        assertThat(limiter.getLimit()).isEqualTo(5);
+    }
+
+    private void done(ConcurrencyLimiter limiter, long executionMillis, int waiting, int running) {
+        now += generationProperties.getLimitInterval();
+        limiter.done(executionMillis, waiting, running, now);
+    }
+}
@@ -0,0 +1,86 @@
+package de.wits.pdf.service;
+
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.CreateQueueResult;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.wits.pdf.configuration.DistributedProperties;
+import de.wits.pdf.model.JobRecord;
+import de.wits.pdf.model.JobState;
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class DistributedJobsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private AmazonSQS sqs;
+    private DistributedJobs distributedJobs;
+
+    @Before
+    public void setUp() throws Exception {
+        DistributedProperties properties = new DistributedProperties();
+        properties.setEnabled(true);
+        properties.setSharedFolder(folder.getRoot().getAbsolutePath());
+        sqs = mock(AmazonSQS.class);
+        when(sqs.createQueue("pdf-jobs")).thenReturn(new CreateQueueResult().withQueueUrl("http://localhost:9324/queue/pdf-jobs"));
+        distributedJobs = new DistributedJobs(properties, new ObjectMapper(), Optional.of(sqs));
+        distributedJobs.start();
+    }
+
+    @Test
+    public void publishesTheJobIdAndSharesTheJob() throws Exception {
+        JobRecord record = new JobRecord(UUID.randomUUID(), "tenant", null);
+
+        distributedJobs.publish(record, "\\documentclass{article}");
+
+        verify(sqs).sendMessage("http://localhost:9324/queue/pdf-jobs", record.getId().toString());
+        assertThat(distributedJobs.template(record.getId())).isEqualTo("\\documentclass{article}");
+        JobRecord found = distributedJobs.find(record.getId());
+        assertThat(found.getState()).isEqualTo(JobState.QUEUED);
+        assertThat(found.getTenant()).isEqualTo("tenant");
+        assertThat(found.getSubmittedAt()).isEqualTo(record.getSubmittedAt());
+    }
+
+    @Test
+    public void expiresCompletedJobsWithTheirResults() throws Exception {
+        JobRecord done = new JobRecord(UUID.randomUUID(), "tenant", null);
+        distributedJobs.publish(done, "template");
+        File pdf = folder.newFile("result.pdf");
+        FileUtils.writeStringToFile(pdf, "%PDF");
+        distributedJobs.storeResult(done.getId(), pdf);
+        done.setState(JobState.DONE);
+        done.setCompletedAt(1000);
+        distributedJobs.save(done);
+        JobRecord queued = new JobRecord(UUID.randomUUID(), "tenant", null);
+        distributedJobs.publish(queued, "template");
+
+        distributedJobs.expire(2000);
+
+        assertThat(distributedJobs.find(done.getId())).isNull();
+        assertThat(distributedJobs.result(done.getId())).doesNotExist();
+        assertThat(distributedJobs.find(queued.getId())).isNotNull();
+    }
+
+    @Test
+    public void marksCancelledJobs() throws Exception {
+        UUID id = UUID.randomUUID();
+        assertThat(distributedJobs.isCancelled(id)).isFalse();
+
+        distributedJobs.cancel(id);
+
+        assertThat(distributedJobs.isCancelled(id)).isTrue();
+    }
+}
@@ -0,0 +1,147 @@
+package de.wits.pdf.service;
+
+import de.wits.pdf.configuration.FileSystemPathProperties;
+import de.wits.pdf.configuration.FormatProperties;
+import de.wits.pdf.configuration.GenerationProperties;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class FormatCacheTest {
+
+    private static final String TEMPLATE = "\\documentclass{article}\n\\begin{document}\nText\n\\end{document}\n";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final PdfMetrics metrics = mock(PdfMetrics.class);
+    private ProcessSupervisor processSupervisor;
+    private FormatCache formatCache;
+
+    @Before
+    public void setUp() throws IOException {
+        // stands in for pdflatex -ini and dumps an empty format under the job name
+        File pdfLatex = temporaryFolder.newFile("pdflatex");
+        FileUtils.writeStringToFile(pdfLatex, "#!/bin/sh\nfor arg; do case \"$arg\" in -jobname=*) job=\"${arg#-jobname=}\";; esac; done\n"
+                + "echo format > \"$job.fmt\"\n", "UTF-8");
+        pdfLatex.setExecutable(true);
+        FileSystemPathProperties fileSystemPathProperties = new FileSystemPathProperties();
+        fileSystemPathProperties.setTemporal(temporaryFolder.newFolder("temporal").getAbsolutePath());
+        fileSystemPathProperties.setPdfLatex(pdfLatex.getAbsolutePath());
+        processSupervisor = new ProcessSupervisor(new GenerationProperties(), metrics);
+        processSupervisor.start();
+        formatCache = new FormatCache(new FormatProperties(), fileSystemPathProperties, metrics, processSupervisor);
+        formatCache.start();
+    }
+
+    @After
+    public void tearDown() {
+        formatCache.stop();
+        processSupervisor.stop();
+    }
+
+    @Test
+    public void buildsTheFormatOfPreamblesUsedOften() throws Exception {
+        File templateFile = template("job", TEMPLATE);
+
+        assertThat(formatCache.formatFor(templateFile)).isNull();
+        assertThat(formatCache.formatFor(templateFile)).isNull();
+        assertThat(formatCache.awaitBuilds(System.currentTimeMillis() + 10000)).isTrue();
+
+        String format = formatCache.formatFor(template("other", TEMPLATE.replace("Text", "Other text")));
+        assertThat(format).isNotNull();
+        assertThat(new File(formatCache.getFormatsFolder(), format + ".fmt")).isFile();
+        verify(metrics).recordFormatBuild(anyLong());
+        verify(metrics).recordFormatHit();
+    }
+
+    @Test
+    public void waitsForBuildsUntilTheDeadline() throws Exception {
+        File pdfLatex = new File(temporaryFolder.getRoot(), "pdflatex");
+        FileUtils.writeStringToFile(pdfLatex, "#!/bin/sh\nsleep 1\n", "UTF-8");
+        formatCache.prepare(template("job", TEMPLATE));
+
+        assertThat(formatCache.awaitBuilds(System.currentTimeMillis() + 100)).isFalse();
+        assertThat(formatCache.awaitBuilds(System.currentTimeMillis() + 10000)).isTrue();
+        assertThat(formatCache.awaitBuilds(System.currentTimeMillis())).isTrue();
+    }
+
+    @Test
+    public void discardsFormatsThatCouldNotBeLoaded() throws Exception {
+        File templateFile = template("job", TEMPLATE);
+        formatCache.prepare(templateFile);
+        formatCache.awaitBuilds(System.currentTimeMillis() + 10000);
+        String format = formatCache.formatFor(templateFile);
+
+        formatCache.discard(format);
+
+        assertThat(new File(formatCache.getFormatsFolder(), format + ".fmt")).doesNotExist();
+        assertThat(formatCache.formatFor(templateFile)).isNull();
+    }
+
+    @Test
+    public void preparesNoFormatForPreamblesWithPlaceholders() throws Exception {
+        formatCache.prepare(template("job", "\\documentclass{article}\n\\title{var:title}\n\\begin{document}\n\\end{document}\n"));
+
+        assertThat(formatCache.awaitBuilds(System.currentTimeMillis() + 10000)).isTrue();
+        assertThat(formatCache.getFormatsFolder().list((dir, name) -> name.endsWith(".fmt"))).isEmpty();
+    }
+
+    @Test
+    public void doesNotRetryFailedBuilds() throws Exception {
+        File pdfLatex = new File(temporaryFolder.getRoot(), "pdflatex");
+        File runs = new File(temporaryFolder.getRoot(), "runs");
+        FileUtils.writeStringToFile(pdfLatex, "#!/bin/sh\necho run >> " + runs.getAbsolutePath() + "\nexit 1\n", "UTF-8");
+        File templateFile = template("job", TEMPLATE);
+
+        formatCache.prepare(templateFile);
+        assertThat(formatCache.awaitBuilds(System.currentTimeMillis() + 10000)).isTrue();
+        for (int i = 0; i < 3; i++) {
+            assertThat(formatCache.formatFor(templateFile)).isNull();
+        }
+        formatCache.prepare(templateFile);
+        assertThat(formatCache.awaitBuilds(System.currentTimeMillis() + 10000)).isTrue();
+
+        assertThat(FileUtils.readLines(runs)).hasSize(1);
+        verify(metrics).recordFormatBuildFailure();
+    }
+
+    @Test
+    public void buildsNoFormatForPreamblesReadingLocalFiles() throws Exception {
+        File input = template("input", TEMPLATE.replace("\\begin{document}", "\\input{header}\n\\begin{document}"));
+        FileUtils.writeStringToFile(new File(input.getParentFile(), "header.tex"), "\\title{Header}", "UTF-8");
+        File image = template("image", TEMPLATE.replace("\\begin{document}", "\\pgfdeclareimage{logo}{images/logo}\n\\begin{document}"));
+        FileUtils.writeStringToFile(new File(image.getParentFile(), "images/logo.png"), "logo", "UTF-8");
+        File conditional = template("conditional", TEMPLATE.replace("\\begin{document}",
+                "\\IfFileExists{local.tex}{\\input{local.tex}}{}\n\\begin{document}"));
+
+        for (File templateFile : Arrays.asList(input, image, conditional)) {
+            formatCache.prepare(templateFile);
+            assertThat(formatCache.formatFor(templateFile)).isNull();
+            assertThat(formatCache.formatFor(templateFile)).isNull();
+        }
+
+        assertThat(formatCache.awaitBuilds(System.currentTimeMillis() + 10000)).isTrue();
+        assertThat(formatCache.getFormatsFolder().list((dir, name) -> name.endsWith(".fmt"))).isEmpty();
+        verify(metrics, never()).recordFormatBuild(anyLong());
+    }
+
+    private File template(String folder, String content) throws IOException {
+        File templateFile = new File(temporaryFolder.newFolder(folder), "template.tex");
+        FileUtils.writeStringToFile(templateFile, content, "UTF-8");
+        return templateFile;
+    }
+}
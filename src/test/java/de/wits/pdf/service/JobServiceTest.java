@@ -0,0 +1,177 @@
+package de.wits.pdf.service;
+
+import com.sun.net.httpserver.HttpServer;
+import de.wits.pdf.configuration.FileSystemPathProperties;
+import de.wits.pdf.configuration.JobProperties;
+import de.wits.pdf.model.JobState;
+import de.wits.pdf.model.PdfJob;
+import de.wits.pdf.model.PdfRequest;
+import de.wits.pdf.model.Priority;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class JobServiceTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final PdfService pdfService = mock(PdfService.class);
+    private final List<PdfRequest> requests = new ArrayList<>();
+    private final List<CompletableFuture<File>> results = new ArrayList<>();
+    private JobProperties jobProperties;
+    private JobService jobService;
+
+    @Before
+    public void setUp() throws Exception {
+        FileSystemPathProperties fileSystemPathProperties = new FileSystemPathProperties();
+        fileSystemPathProperties.setTemporal(temporaryFolder.newFolder("temporal").getAbsolutePath());
+        jobProperties = new JobProperties();
+        when(pdfService.getPdf(any(PdfRequest.class))).thenAnswer(invocation -> {
+            requests.add((PdfRequest) invocation.getArguments()[0]);
+            CompletableFuture<File> result = new CompletableFuture<>();
+            results.add(result);
+            return result;
+        });
+        jobService = new JobService(pdfService, mock(RenderScheduler.class), jobProperties, fileSystemPathProperties,
+                mock(DistributedJobs.class));
+        jobService.start();
+    }
+
+    @After
+    public void tearDown() {
+        jobService.stop();
+    }
+
+    @Test
+    public void keepsTheResultsOfJobsRenderedInTheBackground() throws Exception {
+        PdfJob job = jobService.submit("template", null, "tenant");
+
+        assertThat(job.getState()).isEqualTo(JobState.QUEUED);
+        assertThat(requests.get(0).getPriority()).isEqualTo(Priority.BULK);
+        assertThat(requests.get(0).getTenant()).isEqualTo("tenant");
+
+        results.get(0).complete(pdf("%PDF"));
+
+        assertThat(jobService.get(job.getId())).isSameAs(job);
+        assertThat(job.getState()).isEqualTo(JobState.DONE);
+        assertThat(job.getResult().getParentFile()).isEqualTo(jobService.getJobsFolder());
+        assertThat(job.getResult()).hasContent("%PDF");
+        verify(pdfService).release(requests.get(0));
+    }
+
+    @Test
+    public void reportsFailedJobs() throws Exception {
+        PdfJob job = jobService.submit("template", null, "tenant");
+
+        results.get(0).completeExceptionally(new PDFCreationFailedException("broken template"));
+
+        assertThat(job.getState()).isEqualTo(JobState.FAILED);
+        assertThat(job.getError()).isEqualTo("broken template");
+        verify(pdfService).release(requests.get(0));
+    }
+
+    @Test
+    public void rejectsCallbacksThatAreNoHttpUrls() {
+        assertThatThrownBy(() -> jobService.submit("template", "file:///etc/passwd", "tenant"))
+                .isInstanceOf(PDFCreationFailedException.class);
+        assertThat(requests).isEmpty();
+    }
+
+    @Test
+    public void expiresFinishedJobsAfterTheirTtl() throws Exception {
+        jobProperties.setTtl(60);
+        PdfJob finished = jobService.submit("finished", null, "tenant");
+        PdfJob recent = jobService.submit("recent", null, "tenant");
+        PdfJob running = jobService.submit("running", null, "tenant");
+        results.get(0).complete(pdf("finished"));
+        results.get(1).complete(pdf("recent"));
+        File result = finished.getResult();
+        finished.succeeded(result, System.currentTimeMillis() - 61 * 1000);
+
+        jobService.expire();
+
+        assertThat(jobService.get(finished.getId())).isNull();
+        assertThat(result).doesNotExist();
+        assertThat(jobService.get(recent.getId())).isSameAs(recent);
+        assertThat(jobService.get(running.getId())).isSameAs(running);
+    }
+
+    @Test
+    public void makesRoomByDroppingTheOldestFinishedJobs() throws Exception {
+        jobProperties.setMaxJobs(2);
+        PdfJob finished = jobService.submit("finished", null, "tenant");
+        PdfJob running = jobService.submit("running", null, "tenant");
+        results.get(0).complete(pdf("finished"));
+
+        PdfJob next = jobService.submit("next", null, "tenant");
+
+        assertThat(jobService.get(finished.getId())).isNull();
+        assertThat(jobService.get(running.getId())).isSameAs(running);
+        assertThat(jobService.get(next.getId())).isSameAs(next);
+        assertThatThrownBy(() -> jobService.submit("rejected", null, "tenant")).isInstanceOf(RenderQueueFullException.class);
+    }
+
+    @Test
+    public void cancelsUnfinishedJobsAndRemovesFinishedOnes() throws Exception {
+        PdfJob running = jobService.submit("running", null, "tenant");
+        PdfJob finished = jobService.submit("finished", null, "tenant");
+        results.get(1).complete(pdf("finished"));
+        File result = finished.getResult();
+
+        assertThat(jobService.cancel(running)).isTrue();
+        verify(pdfService).cancel(running.getRequest());
+        assertThat(jobService.cancel(finished)).isFalse();
+        assertThat(jobService.get(finished.getId())).isNull();
+        assertThat(result).doesNotExist();
+    }
+
+    @Test
+    public void postsTheFinalStatusToTheCallback() throws Exception {
+        BlockingQueue<String> callbacks = new LinkedBlockingQueue<>();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/callback", exchange -> {
+            callbacks.add(IOUtils.toString(exchange.getRequestBody(), "UTF-8"));
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        });
+        server.start();
+        try {
+            PdfJob job = jobService.submit("template", "http://localhost:" + server.getAddress().getPort() + "/callback", "tenant");
+
+            results.get(0).complete(pdf("%PDF"));
+
+            String status = callbacks.poll(10, TimeUnit.SECONDS);
+            assertThat(status).contains(job.getId().toString()).contains("DONE");
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private File pdf(String content) throws IOException {
+        File file = temporaryFolder.newFile();
+        FileUtils.writeStringToFile(file, content, "UTF-8");
+        return file;
+    }
+}
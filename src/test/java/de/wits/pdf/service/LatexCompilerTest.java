@@ -0,0 +1,117 @@
+package de.wits.pdf.service;
+
+import de.wits.pdf.configuration.FileSystemPathProperties;
+import de.wits.pdf.configuration.GenerationProperties;
+import de.wits.pdf.model.PdfRequest;
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class LatexCompilerTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private FormatCache formatCache;
+    private ProcessSupervisor processSupervisor;
+    private LatexCompiler latexCompiler;
+    private File templateFile;
+
+    @Before
+    public void setUp() throws IOException {
+        formatCache = mock(FormatCache.class);
+        processSupervisor = mock(ProcessSupervisor.class);
+        latexCompiler = new LatexCompiler(new FileSystemPathProperties(), new GenerationProperties(), mock(PdfMetrics.class),
+                formatCache, mock(TexWorkerPool.class), processSupervisor);
+        templateFile = temporaryFolder.newFile("template.tex");
+    }
+
+    @Test
+    public void singlePassForDocumentsWithoutReferences() throws IOException {
+        write("template.aux", "\\relax \n\\gdef \\@abspage@last{1}\n");
+        write("template.log", "Output written on template.pdf (1 page, 1234 bytes).\n");
+
+        assertThat(latexCompiler.needsRerun(templateFile, "", "state")).isFalse();
+    }
+
+    @Test
+    public void rerunsWhenLatexAsksForIt() throws IOException {
+        write("template.log", "LaTeX Warning: Label(s) may have changed. Rerun to get cross-references right.\n");
+
+        assertThat(latexCompiler.needsRerun(templateFile, "state", "state")).isTrue();
+    }
+
+    @Test
+    public void rerunsAfterTheFirstPassWroteReferences() throws IOException {
+        write("template.aux", "\\relax \n\\newlabel{sec:intro}{{1}{1}}\n");
+
+        assertThat(latexCompiler.needsRerun(templateFile, "", "state")).isTrue();
+    }
+
+    @Test
+    public void rerunsWhileTheAuxiliaryFilesChange() throws IOException {
+        assertThat(latexCompiler.needsRerun(templateFile, "before", "after")).isTrue();
+        assertThat(latexCompiler.needsRerun(templateFile, "after", "after")).isFalse();
+    }
+
+    @Test
+    public void draftPassOnlyForDocumentsWithReferences() throws IOException {
+        write("template.tex", "\\documentclass{article}\\begin{document}See section~\\ref{sec:intro}.\\end{document}\n");
+        assertThat(latexCompiler.needsDraftPass(templateFile)).isTrue();
+
+        write("template.tex", "\\documentclass{article}\\begin{document}\\section{Intro}\\label{sec:intro}\\end{document}\n");
+        assertThat(latexCompiler.needsDraftPass(templateFile)).isFalse();
+    }
+
+    @Test
+    public void reportsTheFirstErrorOfTheLog() throws IOException {
+        write("template.log", "(./template.tex\n! Undefined control sequence.\nl.3 \\foo\n\n! Emergency stop.\n");
+
+        assertThat(latexCompiler.firstError(templateFile)).isEqualTo("Undefined control sequence. (l.3 \\foo)");
+    }
+
+    @Test
+    public void keepsTheFormatWhenTheTemplateIsBroken() throws Exception {
+        when(formatCache.formatFor(templateFile)).thenReturn("format");
+        when(formatCache.getFormatsFolder()).thenReturn(temporaryFolder.getRoot());
+        write("template.log", "(./template.tex\n! Undefined control sequence.\nl.3 \\foo\n");
+
+        assertThatThrownBy(() -> latexCompiler.compile(templateFile, null)).isExactlyInstanceOf(LatexException.class);
+
+        verify(formatCache, never()).discard(anyString());
+        verify(processSupervisor, times(1)).run(anyString(), any(ProcessBuilder.class), eq((PdfRequest) null), anyLong());
+    }
+
+    @Test
+    public void compilesWithoutTheFormatIfItCannotBeLoaded() throws Exception {
+        when(formatCache.formatFor(templateFile)).thenReturn("format");
+        when(formatCache.getFormatsFolder()).thenReturn(temporaryFolder.getRoot());
+        write("template.log", "---! format.fmt made by different executable version\n(Fatal format file error; I'm stymied)\n");
+
+        assertThatThrownBy(() -> latexCompiler.compile(templateFile, null)).isExactlyInstanceOf(LatexException.class);
+
+        verify(formatCache).discard("format");
+        verify(processSupervisor, times(2)).run(anyString(), any(ProcessBuilder.class), eq((PdfRequest) null), anyLong());
+    }
+
+    private void write(String name, String content) throws IOException {
+        FileUtils.writeStringToFile(new File(temporaryFolder.getRoot(), name), content);
+    }
+}
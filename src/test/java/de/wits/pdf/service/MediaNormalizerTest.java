@@ -0,0 +1,119 @@
+package de.wits.pdf.service;
+
+import de.wits.pdf.configuration.FileSystemPathProperties;
+import de.wits.pdf.configuration.MediaProperties;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class MediaNormalizerTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private PdfMetrics metrics;
+    private MediaNormalizer mediaNormalizer;
+
+    @Before
+    public void setUp() {
+        FileSystemPathProperties fileSystemPathProperties = new FileSystemPathProperties();
+        fileSystemPathProperties.setTemporal(temporaryFolder.getRoot().getAbsolutePath());
+        MediaProperties mediaProperties = new MediaProperties();
+        MediaCache mediaCache = new MediaCache(fileSystemPathProperties, mediaProperties);
+        mediaCache.init();
+        metrics = mock(PdfMetrics.class);
+        mediaNormalizer = new MediaNormalizer(mediaProperties, mediaCache, metrics);
+        mediaNormalizer.start();
+    }
+
+    @After
+    public void tearDown() {
+        mediaNormalizer.stop();
+    }
+
+    @Test
+    public void downsamplesToThePrintedSize() throws IOException {
+        File photo = image("photo.bin", "jpeg", 4000, 3000);
+        File icon = image("icon.bin", "png", 200, 200);
+        Map<String, File> media = new LinkedHashMap<>();
+        media.put("http://media/photo.jpg", photo);
+        media.put("http://media/icon.png", icon);
+        Map<String, List<String>> options = new HashMap<>();
+        options.put("http://media/photo.jpg", Collections.singletonList("width=2in"));
+
+        Map<String, File> normalized = mediaNormalizer.normalize(media, options, false);
+
+        assertThat(normalized.get("http://media/icon.png")).isEqualTo(icon);
+        File scaled = normalized.get("http://media/photo.jpg");
+        assertThat(scaled).isNotEqualTo(photo);
+        assertThat(RasterImages.type(scaled)).isEqualTo(RasterImages.JPEG);
+        RasterImages.Info info = RasterImages.info(scaled);
+        assertThat(info.width).isEqualTo(600);
+        // JFIF stores whole dots per inch, 10.8 becomes 11
+        assertThat(info.naturalWidthInches()).isCloseTo(4000 / 72.0, within(1.5));
+
+        RasterImages.Info preview = RasterImages.info(mediaNormalizer.normalize(media, options, true).get("http://media/photo.jpg"));
+        assertThat(preview.width).isEqualTo(192);
+    }
+
+    @Test
+    public void convertsOtherFormatsOnceForAllUrls() throws IOException {
+        File first = image("first.bin", "gif", 100, 100);
+        File second = temporaryFolder.newFile("second.bin");
+        Files.copy(first.toPath(), second.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Map<String, File> media = new LinkedHashMap<>();
+        media.put("http://media/first.gif", first);
+        Map<String, File> again = new LinkedHashMap<>();
+        again.put("http://other/second.gif", second);
+
+        File converted = mediaNormalizer.normalize(media, Collections.emptyMap(), false).get("http://media/first.gif");
+        File cached = mediaNormalizer.normalize(again, Collections.emptyMap(), false).get("http://other/second.gif");
+
+        assertThat(RasterImages.type(converted)).isEqualTo(RasterImages.PNG);
+        assertThat(RasterImages.info(converted).width).isEqualTo(100);
+        assertThat(cached).isEqualTo(converted);
+        verify(metrics, times(1)).recordMediaNormalized(anyLong());
+        verify(metrics, times(1)).recordMediaNormalizedHit();
+    }
+
+    @Test
+    public void readsThePrintedWidthFromTheOptions() {
+        RasterImages.Info info = new RasterImages.Info(720, 360, 25.4 / 72, 25.4 / 72);
+
+        assertThat(MediaNormalizer.printedWidth("", info)).isCloseTo(10, within(0.001));
+        assertThat(MediaNormalizer.printedWidth("width=5.08cm", info)).isCloseTo(2, within(0.001));
+        assertThat(MediaNormalizer.printedWidth("height=72bp", info)).isCloseTo(2, within(0.001));
+        assertThat(MediaNormalizer.printedWidth("scale=0.5", info)).isCloseTo(5, within(0.001));
+        assertThat(MediaNormalizer.printedWidth("width=4in,height=1in,keepaspectratio", info)).isCloseTo(2, within(0.001));
+        assertThat(MediaNormalizer.printedWidth("width=0.5\\textwidth", info)).isNaN();
+        assertThat(MediaNormalizer.printedWidth("angle=90,width=2in", info)).isNaN();
+        assertThat(MediaNormalizer.printedWidth(null, info)).isNaN();
+    }
+
+    private File image(String name, String format, int width, int height) throws IOException {
+        File file = temporaryFolder.newFile(name);
+        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), format, file);
+        return file;
+    }
+}
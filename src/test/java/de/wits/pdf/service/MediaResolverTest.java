@@ -0,0 +1,175 @@
+package de.wits.pdf.service;
+
+import com.sun.net.httpserver.HttpServer;
+import de.wits.pdf.configuration.FileSystemPathProperties;
+import de.wits.pdf.configuration.MediaProperties;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+public class MediaResolverTest {
+
+    private static final byte[] IMAGE = "not really a png".getBytes(StandardCharsets.UTF_8);
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private HttpServer server;
+    private AtomicInteger downloads = new AtomicInteger();
+    private AtomicInteger revalidations = new AtomicInteger();
+    private MediaProperties mediaProperties;
+    private MediaCache mediaCache;
+    private MediaResolver mediaResolver;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/image.png", exchange -> {
+            if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                revalidations.incrementAndGet();
+                exchange.sendResponseHeaders(304, -1);
+            } else {
+                downloads.incrementAndGet();
+                exchange.getResponseHeaders().add("ETag", "\"v1\"");
+                exchange.sendResponseHeaders(200, IMAGE.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(IMAGE);
+                }
+            }
+            exchange.close();
+        });
+        server.createContext("/missing.png", exchange -> {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+        });
+        server.start();
+
+        FileSystemPathProperties fileSystemPathProperties = new FileSystemPathProperties();
+        fileSystemPathProperties.setTemporal(temporaryFolder.getRoot().getAbsolutePath());
+        mediaProperties = new MediaProperties();
+        mediaCache = new MediaCache(fileSystemPathProperties, mediaProperties);
+        mediaCache.init();
+        mediaResolver = new MediaResolver(mediaProperties, mediaCache, mock(PdfMetrics.class));
+        mediaResolver.start();
+    }
+
+    @After
+    public void tearDown() {
+        mediaResolver.stop();
+        server.stop(0);
+    }
+
+    @Test
+    public void downloadsRepeatedUrlsOnce() throws IOException {
+        String url = url("/image.png");
+
+        Map<String, File> media = mediaResolver.resolve(Arrays.asList(url, url, url));
+
+        assertThat(media).hasSize(1);
+        assertThat(Files.readAllBytes(media.get(url).toPath())).isEqualTo(IMAGE);
+        assertThat(downloads.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void revalidatesStaleEntriesWithTheEtag() throws IOException {
+        mediaProperties.setMaxAge(0);
+        String url = url("/image.png");
+
+        mediaResolver.resolve(Arrays.asList(url));
+        Map<String, File> media = mediaResolver.resolve(Arrays.asList(url));
+
+        assertThat(downloads.get()).isEqualTo(1);
+        assertThat(revalidations.get()).isEqualTo(1);
+        assertThat(Files.readAllBytes(media.get(url).toPath())).isEqualTo(IMAGE);
+    }
+
+    @Test
+    public void usesFreshEntriesWithoutAskingTheServer() throws IOException {
+        String url = url("/image.png");
+
+        mediaResolver.resolve(Arrays.asList(url));
+        mediaResolver.resolve(Arrays.asList(url));
+
+        assertThat(downloads.get()).isEqualTo(1);
+        assertThat(revalidations.get()).isZero();
+    }
+
+    @Test
+    public void leavesTheModificationTimeOfHitsAlone() throws IOException {
+        String url = url("/image.png");
+        File cached = mediaResolver.resolve(Arrays.asList(url)).get(url);
+        cached.setLastModified(1000000000000L);
+
+        mediaResolver.resolve(Arrays.asList(url));
+
+        assertThat(cached.lastModified()).isEqualTo(1000000000000L);
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedEntriesFirst() throws Exception {
+        File older = mediaCache.storeNormalized("older", normalized());
+        File newer = mediaCache.storeNormalized("newer", normalized());
+        older.setLastModified(1000000000000L);
+        newer.setLastModified(2000000000000L);
+        Thread.sleep(10);
+        mediaCache.touch(older);
+        mediaProperties.setCacheMaxBytes(IMAGE.length);
+
+        mediaCache.evict();
+
+        assertThat(older).exists();
+        assertThat(newer).doesNotExist();
+    }
+
+    @Test
+    public void rejectsMediaAboveTheSizeLimit() {
+        mediaProperties.setMaxBytes(4);
+
+        assertThatThrownBy(() -> mediaResolver.resolve(Arrays.asList(url("/image.png"))))
+                .isInstanceOf(IOException.class);
+    }
+
+    @Test
+    public void failsOnServerErrors() {
+        assertThatThrownBy(() -> mediaResolver.resolve(Arrays.asList(url("/missing.png"))))
+                .isInstanceOf(MediaDownloadException.class)
+                .hasMessageContaining("missing.png");
+    }
+
+    @Test
+    public void linksCachedFilesIntoTheJobFolder() throws IOException {
+        String url = url("/image.png");
+        File cached = mediaResolver.resolve(Arrays.asList(url)).get(url);
+        File target = new File(temporaryFolder.newFolder("job"), "img0.png");
+
+        mediaResolver.link(cached, target);
+
+        assertThat(Files.readAllBytes(target.toPath())).isEqualTo(IMAGE);
+    }
+
+    private File normalized() throws IOException {
+        File file = mediaCache.newNormalizedFile();
+        Files.write(file.toPath(), IMAGE);
+        return file;
+    }
+
+    private String url(String path) {
+        return "http://localhost:" + server.getAddress().getPort() + path;
+    }
+}
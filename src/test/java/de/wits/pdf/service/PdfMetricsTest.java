@@ -0,0 +1,21 @@
+package de.wits.pdf.service;
+
+import org.junit.Test;
+
+import java.util.concurrent.ExecutionException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PdfMetricsTest {
+
+    @Test
+    public void classifiesFailuresByTheirCause() {
+        assertThat(PdfMetrics.failureCause(new RenderTimeoutException("late"))).isEqualTo("timeout");
+        assertThat(PdfMetrics.failureCause(new ExecutionException(new RenderCancelledException("gone")))).isEqualTo("cancelled");
+        assertThat(PdfMetrics.failureCause(new PDFCreationFailedException("Could not create PDF Document.",
+                new LatexException("Undefined control sequence.")))).isEqualTo("latex");
+        assertThat(PdfMetrics.failureCause(new PDFCreationFailedException("Could not create PDF Document.",
+                new MediaDownloadException("Could not download media", null)))).isEqualTo("download");
+        assertThat(PdfMetrics.failureCause(new IllegalStateException())).isEqualTo("other");
+    }
+}
@@ -0,0 +1,168 @@
+package de.wits.pdf.service;
+
+import de.wits.pdf.model.OptimizationLevel;
+import de.wits.pdf.model.PageRange;
+import org.apache.pdfbox.pdmodel.PDDestinationNameTreeNode;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDDocumentNameDictionary;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDPageLabelRange;
+import org.apache.pdfbox.pdmodel.common.PDPageLabels;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.interactive.action.PDActionGoTo;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAnnotationLink;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDNamedDestination;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDPageDestination;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDPageFitDestination;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDDocumentOutline;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDOutlineItem;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+public class PdfPostProcessorTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final PdfPostProcessor postProcessor = new PdfPostProcessor(mock(ProcessSupervisor.class), mock(PdfMetrics.class));
+
+    @Test
+    public void mergeShiftsOutlinesAndPageLabels() throws Exception {
+        File invoice = document("invoice.pdf", "Invoice", 3, 1, null);
+        File contract = document("contract.pdf", "Contract", 2, 0, "C-");
+
+        File merged = postProcessor.merge(Arrays.asList(invoice, contract), temporaryFolder.newFile("merged.pdf"), OptimizationLevel.METADATA, null);
+
+        try (PDDocument document = PDDocument.load(merged)) {
+            assertThat(document.getNumberOfPages()).isEqualTo(5);
+            assertThat(document.getDocumentInformation().getTitle()).isEqualTo("Invoice");
+            assertThat(document.getDocumentCatalog().getPageLabels().getLabelsByPageIndices())
+                    .containsExactly("1", "2", "3", "C-1", "C-2");
+
+            List<PDOutlineItem> items = new ArrayList<>();
+            document.getDocumentCatalog().getDocumentOutline().children().forEach(items::add);
+            assertThat(items).extracting(PDOutlineItem::getTitle).containsExactly("Invoice", "Contract");
+            assertThat(document.getPages().indexOf(items.get(0).findDestinationPage(document))).isEqualTo(1);
+            assertThat(document.getPages().indexOf(items.get(1).findDestinationPage(document))).isEqualTo(3);
+
+            // the link of the second part pointed to a named destination the first part uses as well
+            PDAnnotationLink link = (PDAnnotationLink) document.getPage(3).getAnnotations().get(0);
+            PDPageDestination target = (PDPageDestination) ((PDActionGoTo) link.getAction()).getDestination();
+            assertThat(document.getPages().indexOf(target.getPage())).isEqualTo(4);
+        }
+    }
+
+    @Test
+    public void plainMergeDropsOutlinesAndPageLabels() throws Exception {
+        File invoice = document("invoice.pdf", "Invoice", 1, 0, null);
+        File contract = document("contract.pdf", "Contract", 1, 0, "C-");
+
+        File merged = postProcessor.merge(Arrays.asList(invoice, contract), temporaryFolder.newFile("merged.pdf"), OptimizationLevel.NONE, null);
+
+        try (PDDocument document = PDDocument.load(merged)) {
+            assertThat(document.getNumberOfPages()).isEqualTo(2);
+            assertThat(document.getDocumentCatalog().getDocumentOutline()).isNull();
+            assertThat(document.getDocumentCatalog().getPageLabels()).isNull();
+        }
+    }
+
+    @Test
+    public void copiesMetadataToARewrittenDocument() throws Exception {
+        File original = document("original.pdf", "Report", 2, 1, "R-");
+
+        try (PDDocument source = PDDocument.load(original); PDDocument rewritten = new PDDocument()) {
+            rewritten.addPage(new PDPage(PDRectangle.A4));
+            rewritten.addPage(new PDPage(PDRectangle.A4));
+
+            PdfPostProcessor.copyMetadata(source, rewritten);
+
+            assertThat(rewritten.getDocumentInformation().getTitle()).isEqualTo("Report");
+            assertThat(rewritten.getDocumentCatalog().getPageLabels().getLabelsByPageIndices()).containsExactly("R-1", "R-2");
+            PDOutlineItem item = rewritten.getDocumentCatalog().getDocumentOutline().getFirstChild();
+            assertThat(item.getTitle()).isEqualTo("Report");
+            assertThat(item.findDestinationPage(rewritten)).isEqualTo(rewritten.getPage(1));
+        }
+    }
+
+    @Test
+    public void leavesDocumentsWithoutGhostscriptPassAlone() throws Exception {
+        File original = document("original.pdf", "Report", 1, 0, null);
+
+        assertThat(postProcessor.process(original, OptimizationLevel.METADATA, null)).isEqualTo(original);
+        assertThat(postProcessor.process(original, OptimizationLevel.NONE, null)).isEqualTo(original);
+    }
+
+    @Test
+    public void extractsAPageRangeKeepingThePageNumbers() throws Exception {
+        File original = document("report.pdf", "Report", 5, 0, null);
+
+        File extracted = postProcessor.extract(original, PageRange.parse("2-3"));
+
+        try (PDDocument document = PDDocument.load(extracted)) {
+            assertThat(document.getNumberOfPages()).isEqualTo(2);
+            assertThat(document.getDocumentCatalog().getDocumentOutline()).isNull();
+            assertThat(document.getDocumentCatalog().getPageLabels().getLabelsByPageIndices()).containsExactly("2", "3");
+        }
+        assertThatThrownBy(() -> postProcessor.extract(original, PageRange.parse("6-")))
+                .isInstanceOf(PDFCreationFailedException.class);
+    }
+
+    /**
+     * Creates a document with one bookmark pointing to the given page, and a link on the first page to
+     * the named destination {@code target}, which is the last page.
+     */
+    private File document(String name, String title, int pages, int bookmarkPage, String labelPrefix) throws IOException {
+        File file = temporaryFolder.newFile(name);
+        try (PDDocument document = new PDDocument()) {
+            for (int i = 0; i < pages; i++) {
+                document.addPage(new PDPage(PDRectangle.A4));
+            }
+            document.getDocumentInformation().setTitle(title);
+
+            PDPageFitDestination last = new PDPageFitDestination();
+            last.setPage(document.getPage(pages - 1));
+            PDDestinationNameTreeNode destinations = new PDDestinationNameTreeNode();
+            destinations.setNames(Collections.singletonMap("target", last));
+            PDDocumentNameDictionary names = new PDDocumentNameDictionary(document.getDocumentCatalog());
+            names.setDests(destinations);
+            document.getDocumentCatalog().setNames(names);
+
+            PDActionGoTo goTo = new PDActionGoTo();
+            goTo.setDestination(new PDNamedDestination("target"));
+            PDAnnotationLink link = new PDAnnotationLink();
+            link.setRectangle(new PDRectangle(10, 10, 100, 20));
+            link.setAction(goTo);
+            document.getPage(0).getAnnotations().add(link);
+
+            PDDocumentOutline outline = new PDDocumentOutline();
+            PDOutlineItem item = new PDOutlineItem();
+            item.setTitle(title);
+            item.setDestination(document.getPage(bookmarkPage));
+            outline.addLast(item);
+            document.getDocumentCatalog().setDocumentOutline(outline);
+
+            if (labelPrefix != null) {
+                PDPageLabels labels = new PDPageLabels(document);
+                PDPageLabelRange range = new PDPageLabelRange();
+                range.setStyle(PDPageLabelRange.STYLE_DECIMAL);
+                range.setPrefix(labelPrefix);
+                labels.setLabelItem(0, range);
+                document.getDocumentCatalog().setPageLabels(labels);
+            }
+            document.save(file);
+        }
+        return file;
+    }
+}
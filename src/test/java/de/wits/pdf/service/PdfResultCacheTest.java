@@ -0,0 +1,165 @@
+package de.wits.pdf.service;
+
+import de.wits.pdf.configuration.CacheProperties;
+import de.wits.pdf.configuration.FileSystemPathProperties;
+import de.wits.pdf.model.OptimizationLevel;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+public class PdfResultCacheTest {
+
+    private static final String TEMPLATE = "\\documentclass{article}\n\\begin{document}\nText\n\\end{document}\n";
+    private static final String KEY = "0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final PdfMetrics metrics = mock(PdfMetrics.class);
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private CacheProperties cacheProperties;
+    private PdfResultCache resultCache;
+
+    @Before
+    public void setUp() throws IOException {
+        FileSystemPathProperties fileSystemPathProperties = new FileSystemPathProperties();
+        fileSystemPathProperties.setTemporal(temporaryFolder.newFolder("temporal").getAbsolutePath());
+        cacheProperties = new CacheProperties();
+        resultCache = new PdfResultCache(cacheProperties, fileSystemPathProperties, metrics);
+        resultCache.init();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void keysFollowTheTemplateAndTheFilesOfTheWorkspace() throws Exception {
+        File workspace = temporaryFolder.newFolder("workspace");
+        write(workspace, "template.tex", TEMPLATE);
+        write(workspace, "media/logo.png", "logo");
+        String key = key(TEMPLATE, workspace);
+
+        assertThat(key(TEMPLATE.replace("Text", "Text  \r"), workspace)).isEqualTo(key);
+        // the patched template follows from the submitted one
+        write(workspace, "template.tex", "patched");
+        assertThat(key(TEMPLATE, workspace)).isEqualTo(key);
+        assertThat(resultCache.key(TEMPLATE, Collections.singletonMap("name", "value"), workspace, OptimizationLevel.FULL, null))
+                .isNotEqualTo(key);
+        assertThat(resultCache.key(TEMPLATE, null, workspace, OptimizationLevel.NONE, null)).isNotEqualTo(key);
+        write(workspace, "media/logo.png", "other logo");
+        assertThat(key(TEMPLATE, workspace)).isNotEqualTo(key);
+    }
+
+    @Test
+    public void servesHitsWithoutRendering() throws Exception {
+        File first = temporaryFolder.newFolder("first");
+        File rendered = resultCache.get(KEY, () -> result(first, "pdf"), first);
+
+        File second = temporaryFolder.newFolder("second");
+        File hit = resultCache.get(KEY, () -> {
+            throw new AssertionError("rendered again");
+        }, second);
+
+        assertThat(rendered.getParentFile()).isEqualTo(first);
+        assertThat(hit.getParentFile()).isEqualTo(second);
+        assertThat(hit).hasContent("pdf");
+        assertThat(resultCache.keyOf(hit)).isEqualTo(KEY);
+        assertThat(resultCache.getSize()).isEqualTo(3);
+        verify(metrics).recordCacheMiss();
+        verify(metrics).recordCacheHit();
+    }
+
+    @Test
+    public void sharesTheRenderOfIdenticalRequests() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger renders = new AtomicInteger();
+        File first = temporaryFolder.newFolder("first");
+        File second = temporaryFolder.newFolder("second");
+        Future<File> rendering = executor.submit(() -> resultCache.get(KEY, () -> {
+            renders.incrementAndGet();
+            started.countDown();
+            release.await();
+            return result(first, "pdf");
+        }, first));
+        started.await();
+
+        Future<File> waiting = executor.submit(() -> resultCache.get(KEY, () -> {
+            renders.incrementAndGet();
+            return result(second, "pdf");
+        }, second));
+        verify(metrics, timeout(1000)).recordCacheShared();
+        release.countDown();
+
+        assertThat(rendering.get(10, TimeUnit.SECONDS)).hasContent("pdf");
+        assertThat(waiting.get(10, TimeUnit.SECONDS).getParentFile()).isEqualTo(second);
+        assertThat(renders.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void rendersItselfWhenTheSharedRenderIsCancelled() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        File second = temporaryFolder.newFolder("second");
+        Future<File> cancelled = executor.submit(() -> resultCache.get(KEY, () -> {
+            started.countDown();
+            release.await();
+            throw new RenderCancelledException("cancelled");
+        }, temporaryFolder.newFolder("first")));
+        started.await();
+
+        Future<File> waiting = executor.submit(() -> resultCache.get(KEY, () -> result(second, "own pdf"), second));
+        verify(metrics, timeout(1000)).recordCacheShared();
+        release.countDown();
+
+        assertThat(waiting.get(10, TimeUnit.SECONDS)).hasContent("own pdf");
+        assertThatThrownBy(() -> cancelled.get(10, TimeUnit.SECONDS)).hasCauseInstanceOf(RenderCancelledException.class);
+    }
+
+    @Test
+    public void servedResultsSurviveTheirEviction() throws Exception {
+        cacheProperties.setDiskMaxBytes(0);
+        File workspace = temporaryFolder.newFolder("workspace");
+
+        File served = resultCache.get(KEY, () -> result(workspace, "pdf"), workspace);
+
+        assertThat(new File(resultCache.getCacheFolder(), KEY + ".pdf")).doesNotExist();
+        assertThat(resultCache.getSize()).isZero();
+        assertThat(served).hasContent("pdf");
+    }
+
+    private String key(String template, File workspace) throws IOException {
+        return resultCache.key(template, null, workspace, OptimizationLevel.FULL, null);
+    }
+
+    private static File result(File workspace, String content) throws IOException {
+        return write(workspace, "template.pdf", content);
+    }
+
+    private static File write(File folder, String name, String content) throws IOException {
+        File file = new File(folder, name);
+        FileUtils.writeStringToFile(file, content, "UTF-8");
+        return file;
+    }
+}
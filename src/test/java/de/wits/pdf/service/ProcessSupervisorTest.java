@@ -0,0 +1,86 @@
+package de.wits.pdf.service;
+
+import de.wits.pdf.configuration.GenerationProperties;
+import de.wits.pdf.model.PdfRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class ProcessSupervisorTest {
+
+    private final PdfMetrics metrics = mock(PdfMetrics.class);
+    private ProcessSupervisor supervisor;
+
+    @Before
+    public void setUp() {
+        supervisor = new ProcessSupervisor(new GenerationProperties(), metrics);
+        supervisor.start();
+    }
+
+    @After
+    public void tearDown() {
+        supervisor.stop();
+    }
+
+    @Test
+    public void keepsTheTailOfLargeOutputs() throws Exception {
+        // far more than a pipe buffer, the process would block if nobody read it
+        SupervisedProcess process = supervisor.run("yes", new ProcessBuilder("sh", "-c", "yes | head -c 1000000; echo end"),
+                null, System.currentTimeMillis() + 10000);
+
+        assertThat(process.getProcess().exitValue()).isEqualTo(0);
+        for (int i = 0; i < 50 && !process.getOutput().endsWith("end\n"); i++) {
+            Thread.sleep(20);
+        }
+        assertThat(process.getOutput()).hasSize(ProcessSupervisor.OUTPUT_BYTES).endsWith("y\nend\n");
+        verify(metrics).recordProcess(eq("yes"), anyLong(), anyLong());
+    }
+
+    @Test
+    public void timesProcessesFromTheRestartOfTheirTiming() throws Exception {
+        PdfRequest request = new PdfRequest(UUID.randomUUID(), "");
+        SupervisedProcess process = supervisor.start("sleep", new ProcessBuilder("sleep", "1"));
+        Thread.sleep(700);
+
+        process.restartTiming();
+        supervisor.await(process, request, System.currentTimeMillis() + 10000);
+
+        ArgumentCaptor<Long> millis = ArgumentCaptor.forClass(Long.class);
+        verify(metrics).recordProcess(eq("sleep"), millis.capture(), anyLong());
+        assertThat(millis.getValue()).isLessThan(700L);
+        assertThat(request.getProcessMillis()).isEqualTo(millis.getValue());
+    }
+
+    @Test
+    public void killsProcessesAtTheDeadline() throws Exception {
+        SupervisedProcess process = supervisor.start("sleep", new ProcessBuilder("sh", "-c", "sleep 30 & wait"));
+
+        assertThatThrownBy(() -> supervisor.await(process, null, System.currentTimeMillis() + 200))
+                .isInstanceOf(RenderTimeoutException.class);
+
+        assertThat(process.getProcess().isAlive()).isFalse();
+        verify(metrics).recordProcessKilled("sleep", "timeout");
+    }
+
+    @Test
+    public void killsProcessesOfCancelledRequests() throws Exception {
+        PdfRequest request = new PdfRequest(UUID.randomUUID(), "");
+        SupervisedProcess process = supervisor.start("sleep", new ProcessBuilder("sleep", "30"));
+
+        request.cancel();
+
+        assertThatThrownBy(() -> supervisor.await(process, request, 0)).isInstanceOf(RenderCancelledException.class);
+        assertThat(process.getProcess().isAlive()).isFalse();
+        verify(metrics).recordProcessKilled("sleep", "cancelled");
+    }
+}
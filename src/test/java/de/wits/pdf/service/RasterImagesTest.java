@@ -0,0 +1,75 @@
+package de.wits.pdf.service;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.Element;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class RasterImagesTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void scalesToTheSameNaturalSize() throws IOException {
+        File source = image("photo.jpg", "jpeg", 2400, 1200);
+        File target = new File(temporaryFolder.getRoot(), "scaled.jpg");
+
+        RasterImages.scale(source, target, 600, RasterImages.JPEG);
+
+        BufferedImage scaled = ImageIO.read(target);
+        assertThat(scaled.getWidth()).isEqualTo(600);
+        assertThat(scaled.getHeight()).isEqualTo(300);
+        // four times the size of a pixel at the 72 dpi pdflatex assumes for the original
+        assertThat(pixelSize(target)).isCloseTo(4 * 25.4 / 72, within(0.01));
+        assertThat(RasterImages.type(target)).isEqualTo(RasterImages.JPEG);
+        assertThat(RasterImages.info(target).naturalWidthInches())
+                .isCloseTo(RasterImages.info(source).naturalWidthInches(), within(0.1));
+
+        File png = new File(temporaryFolder.getRoot(), "scaled.png");
+        RasterImages.scale(image("chart.png", "png", 2400, 1200), png, 600, RasterImages.PNG);
+        assertThat(pixelSize(png)).isCloseTo(4 * 25.4 / 72, within(0.01));
+        assertThat(RasterImages.type(png)).isEqualTo(RasterImages.PNG);
+    }
+
+    @Test
+    public void detectsTheTypeFromTheContent() throws IOException {
+        File document = temporaryFolder.newFile("figure.png");
+        FileUtils.writeStringToFile(document, "%PDF-1.4");
+        File text = temporaryFolder.newFile("notes.jpg");
+        FileUtils.writeStringToFile(text, "<html>");
+
+        assertThat(RasterImages.type(document)).isEqualTo(RasterImages.PDF);
+        assertThat(RasterImages.type(image("photo.png", "jpeg", 10, 10))).isEqualTo(RasterImages.JPEG);
+        assertThat(RasterImages.type(image("animation.png", "gif", 10, 10))).isEqualTo("gif");
+        assertThat(RasterImages.type(text)).isNull();
+        assertThat(RasterImages.info(document)).isNull();
+    }
+
+    private File image(String name, String format, int width, int height) throws IOException {
+        File file = temporaryFolder.newFile(name);
+        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), format, file);
+        return file;
+    }
+
+    private static double pixelSize(File file) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            ImageReader reader = ImageIO.getImageReaders(in).next();
+            reader.setInput(in);
+            IIOMetadataNode root = (IIOMetadataNode) reader.getImageMetadata(0).getAsTree("javax_imageio_1.0");
+            return Double.parseDouble(((Element) root.getElementsByTagName("HorizontalPixelSize").item(0)).getAttribute("value"));
+        }
+    }
+}
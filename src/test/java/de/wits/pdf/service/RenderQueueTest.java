@@ -0,0 +1,185 @@
+package de.wits.pdf.service;
+
+import de.wits.pdf.configuration.GenerationProperties;
+import de.wits.pdf.model.PdfRequest;
+import de.wits.pdf.model.Priority;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class RenderQueueTest {
+
+    private GenerationProperties generationProperties;
+    private RenderQueue queue;
+
+    @Before
+    public void setUp() {
+        generationProperties = new GenerationProperties();
+        queue = new RenderQueue(generationProperties);
+    }
+
+    @Test
+    public void takesInteractiveJobsFirst() throws Exception {
+        queue.offer(job("a", Priority.BULK));
+        queue.offer(job("a", Priority.BULK));
+        queue.offer(job("b", Priority.INTERACTIVE));
+
+        assertThat(tenantsOf(take(3))).containsExactly("b/INTERACTIVE", "a/BULK", "a/BULK");
+    }
+
+    @Test
+    public void sharesTheWorkersFairlyBetweenTenants() throws Exception {
+        for (int i = 0; i < 6; i++) {
+            queue.offer(job("bulky", Priority.BULK));
+        }
+        queue.offer(job("small", Priority.BULK));
+        queue.offer(job("small", Priority.BULK));
+
+        assertThat(tenantsOf(take(5))).containsExactly("bulky/BULK", "small/BULK", "bulky/BULK", "small/BULK", "bulky/BULK");
+    }
+
+    @Test
+    public void sharesByWeight() throws Exception {
+        generationProperties.getTenantWeights().put("heavy", 2);
+        for (int i = 0; i < 4; i++) {
+            queue.offer(job("heavy", Priority.BULK));
+            queue.offer(job("light", Priority.BULK));
+        }
+
+        List<String> taken = tenantsOf(take(6));
+
+        assertThat(taken.stream().filter(tenant -> tenant.startsWith("heavy")).count()).isEqualTo(4);
+    }
+
+    @Test
+    public void skipsTenantsAtTheirLimitOfRunningJobs() throws Exception {
+        generationProperties.setTenantMaxActive(1);
+        queue.offer(job("a", Priority.INTERACTIVE));
+        queue.offer(job("a", Priority.INTERACTIVE));
+        queue.offer(job("b", Priority.BULK));
+
+        RenderJob first = queue.take();
+        assertThat(tenantsOf(take(1))).containsExactly("b/BULK");
+
+        queue.done(first);
+        assertThat(tenantsOf(take(1))).containsExactly("a/INTERACTIVE");
+    }
+
+    @Test
+    public void keepsWorkersFreeOfBulkJobs() throws Exception {
+        generationProperties.setBulkMaxActive(1);
+        queue.offer(job("a", Priority.BULK));
+        queue.offer(job("a", Priority.BULK));
+        queue.offer(job("b", Priority.INTERACTIVE));
+
+        RenderJob bulk = take(2).get(1);
+        assertThat(queue.size(Priority.BULK)).isEqualTo(1);
+        queue.done(bulk);
+        assertThat(tenantsOf(take(1))).containsExactly("a/BULK");
+    }
+
+    @Test
+    public void runsNoMoreJobsThanTheLimit() throws Exception {
+        queue.setLimit(1);
+        queue.offer(job("a", Priority.INTERACTIVE));
+        queue.offer(job("b", Priority.INTERACTIVE));
+
+        RenderJob first = queue.take();
+        Thread waiting = new Thread(() -> {
+            try {
+                queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        waiting.start();
+        waiting.join(200);
+        assertThat(waiting.isAlive()).isTrue();
+
+        queue.setLimit(2);
+        waiting.join(1000);
+        assertThat(waiting.isAlive()).isFalse();
+        queue.done(first);
+        assertThat(queue.size()).isZero();
+    }
+
+    @Test
+    public void limitsTheBacklogPerTenant() throws Exception {
+        generationProperties.setTenantBacklog(2);
+        queue.offer(job("a", Priority.BULK));
+        queue.offer(job("a", Priority.INTERACTIVE));
+
+        assertThatThrownBy(() -> queue.offer(job("a", Priority.BULK))).isInstanceOf(TenantBacklogFullException.class);
+        queue.offer(job("b", Priority.BULK));
+        assertThat(queue.size()).isEqualTo(3);
+    }
+
+    @Test
+    public void limitsTheBacklog() throws Exception {
+        generationProperties.setBacklog(2);
+        generationProperties.setBulkBacklog(1);
+        queue.offer(job("a", Priority.BULK));
+
+        assertThatThrownBy(() -> queue.offer(job("b", Priority.BULK))).isInstanceOf(RenderQueueFullException.class)
+                .isNotInstanceOf(TenantBacklogFullException.class);
+        queue.offer(job("b", Priority.INTERACTIVE));
+        assertThatThrownBy(() -> queue.offer(job("c", Priority.INTERACTIVE))).isInstanceOf(RenderQueueFullException.class);
+    }
+
+    @Test
+    public void removesWaitingJobs() throws Exception {
+        RenderJob first = job("a", Priority.BULK);
+        RenderJob second = job("a", Priority.BULK);
+        queue.offer(first);
+        queue.offer(second);
+
+        assertThat(queue.positionOf(second.getRequest())).isEqualTo(1);
+        assertThat(queue.remove(first.getRequest())).isSameAs(first);
+        assertThat(queue.positionOf(second.getRequest())).isZero();
+        assertThat(queue.positionOf(first.getRequest())).isEqualTo(-1);
+        assertThat(queue.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void hasNoPositionForJobsThatLeftTheBacklog() throws Exception {
+        RenderJob taken = job("a", Priority.INTERACTIVE);
+        RenderJob waiting = job("a", Priority.INTERACTIVE);
+        queue.offer(taken);
+        queue.offer(waiting);
+
+        assertThat(queue.take()).isSameAs(taken);
+        assertThat(queue.positionOf(taken.getRequest())).isEqualTo(-1);
+        assertThat(queue.positionOf(waiting.getRequest())).isZero();
+        assertThat(queue.positionOf(job("b", Priority.INTERACTIVE).getRequest())).isEqualTo(-1);
+        assertThat(queue.remove(taken.getRequest())).isNull();
+    }
+
+    private List<RenderJob> take(int count) throws InterruptedException {
+        List<RenderJob> jobs = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            jobs.add(queue.take());
+        }
+        return jobs;
+    }
+
+    private static List<String> tenantsOf(List<RenderJob> jobs) {
+        List<String> tenants = new ArrayList<>();
+        for (RenderJob job : jobs) {
+            tenants.add(job.getRequest().getTenant() + "/" + job.getRequest().getPriority());
+        }
+        return tenants;
+    }
+
+    private static RenderJob job(String tenant, Priority priority) {
+        PdfRequest request = new PdfRequest(UUID.randomUUID(), "template");
+        request.setTenant(tenant);
+        request.setPriority(priority);
+        return new RenderJob(request, null);
+    }
+}
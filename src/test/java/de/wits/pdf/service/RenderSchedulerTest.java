@@ -0,0 +1,133 @@
+package de.wits.pdf.service;
+
+import de.wits.pdf.configuration.GenerationProperties;
+import de.wits.pdf.model.PdfRequest;
+import de.wits.pdf.model.Priority;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyDouble;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+public class RenderSchedulerTest {
+
+    private final PdfMetrics metrics = mock(PdfMetrics.class);
+    private GenerationProperties generationProperties;
+    private RenderScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        generationProperties = new GenerationProperties();
+        generationProperties.setWorkers(1);
+    }
+
+    @After
+    public void tearDown() {
+        if (scheduler != null) {
+            scheduler.stop();
+        }
+    }
+
+    @Test
+    public void adaptsTheLimitOnlyToJobsThatRanProcesses() throws Exception {
+        generationProperties.setAdaptiveWorkers(true);
+        generationProperties.setMaxWorkers(1);
+        generationProperties.setLimitInterval(0);
+        start();
+
+        // served from the cache
+        scheduler.submit(request(), () -> new File("cached.pdf")).get();
+        PdfRequest compiled = request();
+        scheduler.submit(compiled, () -> {
+            compiled.addProcessMillis(200);
+            return new File("compiled.pdf");
+        }).get();
+
+        // recorded after the limiter has seen the job
+        verify(metrics, timeout(1000).times(2)).recordExecution(any(Priority.class), anyLong());
+        verify(metrics).recordConcurrencyLimit(anyInt(), anyString(), anyDouble());
+    }
+
+    @Test
+    public void rejectsJobsWhenTheBacklogIsFull() throws Exception {
+        generationProperties.setBacklog(1);
+        start();
+        CountDownLatch release = block(request());
+        scheduler.submit(request(), () -> new File("waiting.pdf"));
+
+        assertThatThrownBy(() -> scheduler.submit(request(), () -> new File("rejected.pdf")))
+                .isInstanceOf(RenderQueueFullException.class);
+        verify(metrics).recordRejected(false);
+        release.countDown();
+    }
+
+    @Test
+    public void cancelsWaitingJobs() throws Exception {
+        start();
+        PdfRequest running = request();
+        CountDownLatch release = block(running);
+        PdfRequest first = request();
+        PdfRequest second = request();
+        AtomicBoolean called = new AtomicBoolean();
+        CompletableFuture<File> cancelled = scheduler.submit(first, () -> {
+            called.set(true);
+            return new File("cancelled.pdf");
+        });
+        CompletableFuture<File> waiting = scheduler.submit(second, () -> new File("waiting.pdf"));
+
+        assertThat(scheduler.positionOf(running)).isEqualTo(-1);
+        assertThat(scheduler.positionOf(first)).isZero();
+        assertThat(scheduler.positionOf(second)).isEqualTo(1);
+
+        scheduler.cancel(first);
+
+        assertThat(first.isCancelled()).isTrue();
+        assertThat(scheduler.positionOf(first)).isEqualTo(-1);
+        assertThat(scheduler.positionOf(second)).isZero();
+        assertThat(scheduler.getWaiting()).isEqualTo(1);
+        assertThatThrownBy(cancelled::get).hasCauseInstanceOf(RenderCancelledException.class);
+        release.countDown();
+        assertThat(waiting.get(10, TimeUnit.SECONDS)).hasName("waiting.pdf");
+        assertThat(called.get()).isFalse();
+    }
+
+    /**
+     * Occupies the only worker until the returned latch is counted down.
+     */
+    private CountDownLatch block(PdfRequest request) throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        scheduler.submit(request, () -> {
+            started.countDown();
+            release.await();
+            return new File("running.pdf");
+        });
+        assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+        return release;
+    }
+
+    private void start() {
+        scheduler = new RenderScheduler(generationProperties, metrics);
+        scheduler.start();
+    }
+
+    private static PdfRequest request() {
+        return new PdfRequest(UUID.randomUUID(), "template");
+    }
+}
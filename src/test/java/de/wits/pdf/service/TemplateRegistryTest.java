@@ -0,0 +1,116 @@
+package de.wits.pdf.service;
+
+import de.wits.pdf.configuration.FileSystemPathProperties;
+import de.wits.pdf.configuration.UploadProperties;
+import de.wits.pdf.model.RegisteredTemplate;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+public class TemplateRegistryTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private FileSystemPathProperties fileSystemPathProperties;
+    private TemplateRegistry templateRegistry;
+
+    @Before
+    public void setUp() throws IOException {
+        fileSystemPathProperties = new FileSystemPathProperties();
+        fileSystemPathProperties.setTemplates(temporaryFolder.getRoot().getPath());
+        templateRegistry = newRegistry();
+    }
+
+    @Test
+    public void registersNewVersions() throws Exception {
+        templateRegistry.register("invoice", "first var:customer");
+        RegisteredTemplate second = templateRegistry.register("invoice", "second var:customer var:total");
+
+        assertThat(second.getVersion()).isEqualTo(2);
+        assertThat(second.getVariables()).containsOnly("customer", "total");
+        assertThat(templateRegistry.get("invoice", null).getSource()).isEqualTo("second var:customer var:total");
+        assertThat(templateRegistry.get("invoice", 1).getSource()).isEqualTo("first var:customer");
+        assertThat(templateRegistry.versions("invoice")).extracting("version").containsExactly(1, 2);
+    }
+
+    @Test
+    public void registersZipFilesWithAssets() throws Exception {
+        byte[] zip = zip("template.tex", "\\includegraphics{logo.png}", "logo.png", "png");
+
+        RegisteredTemplate template = templateRegistry.register("letter", new ByteArrayInputStream(zip));
+
+        assertThat(new File(template.getFolder(), "logo.png")).hasContent("png");
+    }
+
+    @Test
+    public void rejectsZipFilesWithoutTemplate() throws Exception {
+        byte[] zip = zip("logo.png", "png");
+
+        assertThatThrownBy(() -> templateRegistry.register("letter", new ByteArrayInputStream(zip)))
+                .isInstanceOf(UploadRejectedException.class);
+        assertThat(templateRegistry.get("letter", null)).isNull();
+        assertThat(new File(temporaryFolder.getRoot(), "letter").list()).isEmpty();
+    }
+
+    @Test
+    public void rejectsInvalidNames() {
+        assertThatThrownBy(() -> templateRegistry.register("../letter", "text"))
+                .isInstanceOf(PDFCreationFailedException.class);
+    }
+
+    @Test
+    public void reloadsTemplatesAfterRestart() throws Exception {
+        templateRegistry.register("invoice", "first");
+        templateRegistry.register("invoice", "second var:total");
+        new File(temporaryFolder.getRoot(), "invoice/upload-interrupted").mkdirs();
+
+        TemplateRegistry restarted = newRegistry();
+
+        assertThat(restarted.get("invoice", null).getVersion()).isEqualTo(2);
+        assertThat(restarted.get("invoice", null).getVariables()).containsOnly("total");
+        assertThat(new File(temporaryFolder.getRoot(), "invoice/upload-interrupted")).doesNotExist();
+    }
+
+    @Test
+    public void deletesVersions() throws Exception {
+        RegisteredTemplate template = templateRegistry.register("invoice", "first");
+
+        assertThat(templateRegistry.delete("invoice", 1)).isTrue();
+        assertThat(templateRegistry.delete("invoice", 1)).isFalse();
+        assertThat(templateRegistry.get("invoice", null)).isNull();
+        assertThat(template.getFolder()).doesNotExist();
+    }
+
+    private TemplateRegistry newRegistry() throws IOException {
+        TemplateRegistry registry = new TemplateRegistry(fileSystemPathProperties, new ZipExtractor(new UploadProperties()),
+                mock(FormatCache.class));
+        registry.start();
+        return registry;
+    }
+
+    private static byte[] zip(String... namesAndContents) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            for (int i = 0; i < namesAndContents.length; i += 2) {
+                zip.putNextEntry(new ZipEntry(namesAndContents[i]));
+                zip.write(namesAndContents[i + 1].getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+            }
+        }
+        return bytes.toByteArray();
+    }
+}
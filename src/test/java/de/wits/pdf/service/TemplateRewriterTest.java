@@ -0,0 +1,94 @@
+package de.wits.pdf.service;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+public class TemplateRewriterTest {
+
+    @Test
+    public void rewritesMediaReferencesToLocalFiles() throws PDFCreationFailedException {
+        MediaReferences media = new MediaReferences();
+
+        String result = new TemplateRewriter(media).rewrite(
+                "\\includegraphics{img:https://example.com/a.png?x=1\\&amp;y=2} \\includegraphics{img:http://example.com/b.png}"
+                        + " \\includegraphics{img:https://example.com/a.png?x=1&y=2}");
+
+        assertThat(result).isEqualTo("\\includegraphics{img0.png} \\includegraphics{img1.png} \\includegraphics{img0.png}");
+        assertThat(media.getNames()).containsExactly(entry("https://example.com/a.png?x=1&y=2", "img0.png"),
+                entry("http://example.com/b.png", "img1.png"));
+    }
+
+    @Test
+    public void collectsTheIncludegraphicsOptionsOfEveryReference() throws PDFCreationFailedException {
+        MediaReferences media = new MediaReferences();
+
+        new TemplateRewriter(media).rewrite("\\includegraphics[width=2cm]{img:http://example.com/a.png}"
+                + " \\includegraphics{img:http://example.com/a.png} \\href{img:http://example.com/b.png}");
+
+        assertThat(media.getOptions()).containsEntry("http://example.com/a.png", Arrays.asList("width=2cm", ""));
+        assertThat(media.getOptions().get("http://example.com/b.png")).containsExactly((String) null);
+    }
+
+    @Test
+    public void keepsReferencesThatArePrefixesOfOthersApart() throws PDFCreationFailedException {
+        MediaReferences media = new MediaReferences();
+
+        String result = new TemplateRewriter(media).rewrite("{img:https://example.com/a.png.png}{img:https://example.com/a.png}");
+
+        assertThat(result).isEqualTo("{img0.png}{img1.png}");
+    }
+
+    @Test
+    public void leavesOtherTextAlone() throws PDFCreationFailedException {
+        MediaReferences media = new MediaReferences();
+
+        String result = new TemplateRewriter(media).rewrite("img: see below, img:logo.png, var:name img:");
+
+        assertThat(result).isEqualTo("img: see below, img:logo.png, var:name img:");
+        assertThat(media.getNames()).isEmpty();
+    }
+
+    @Test
+    public void appliesSeveralDirectivesInOnePass() throws PDFCreationFailedException {
+        MediaReferences media = new MediaReferences();
+        TemplateVariables variables = new TemplateVariables(Collections.singletonMap("name", "img:http://x"));
+
+        String result = new TemplateRewriter(media, variables).rewrite("var:name \\includegraphics{img:http://example.com/c.png}");
+
+        // values are text, not directives
+        assertThat(result).isEqualTo("img:http://x \\includegraphics{img0.png}");
+    }
+
+    @Test
+    public void endsPlaceholdersBeforeTheEndOfASentence() throws PDFCreationFailedException {
+        MediaReferences media = new MediaReferences();
+        TemplateVariables variables = new TemplateVariables(Collections.singletonMap("name", "Ada"));
+
+        String result = new TemplateRewriter(media, variables).rewrite("Dear var:name. Yours, var:name- or var:name, again");
+
+        assertThat(result).isEqualTo("Dear Ada. Yours, Ada- or Ada, again");
+    }
+
+    @Test
+    public void fillsPlaceholdersInMediaReferencesVerbatim() throws PDFCreationFailedException {
+        Map<String, String> values = new HashMap<>();
+        values.put("logo", "https://example.com/logo_small.png");
+        values.put("id", "7");
+        TemplateVariables variables = new TemplateVariables(values);
+        MediaReferences media = new MediaReferences(variables);
+
+        String result = new TemplateRewriter(media, variables).rewrite(
+                "\\includegraphics{img:var:logo} \\includegraphics{img:https://example.com/images/var:id} var:logo");
+
+        assertThat(result).isEqualTo("\\includegraphics{img0.png} \\includegraphics{img1.png} https://example.com/logo\\_small.png");
+        assertThat(media.getNames()).containsExactly(entry("https://example.com/logo_small.png", "img0.png"),
+                entry("https://example.com/images/7", "img1.png"));
+    }
+}
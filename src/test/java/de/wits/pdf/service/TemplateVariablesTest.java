@@ -0,0 +1,51 @@
+package de.wits.pdf.service;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class TemplateVariablesTest {
+
+    @Test
+    public void fillsPlaceholders() throws PDFCreationFailedException {
+        Map<String, String> values = new HashMap<>();
+        values.put("firstName", "Ada");
+        values.put("last_name", "Lovelace");
+
+        String result = TemplateVariables.apply("\\textbf{var:firstName} var:last_name", values);
+
+        assertThat(result).isEqualTo("\\textbf{Ada} Lovelace");
+    }
+
+    @Test
+    public void leavesPunctuationAfterPlaceholdersInTheText() throws PDFCreationFailedException {
+        Map<String, String> values = new HashMap<>();
+        values.put("name", "Ada");
+        values.put("city", "London");
+        values.put("first.name", "Augusta");
+
+        String result = TemplateVariables.apply("Dear var:name. From var:city-- to var:city, var:first.name...", values);
+
+        assertThat(result).isEqualTo("Dear Ada. From London-- to London, Augusta...");
+        assertThat(TemplateVariables.names("Dear var:name. var:city- var:first.name,")).containsExactly("name", "city", "first.name");
+    }
+
+    @Test
+    public void escapesLatexSpecialCharacters() throws PDFCreationFailedException {
+        String result = TemplateVariables.apply("var:company", Collections.singletonMap("company", "Smith & Sons 100% {$}"));
+
+        assertThat(result).isEqualTo("Smith \\& Sons 100\\% \\{\\$\\}");
+    }
+
+    @Test
+    public void failsOnMissingValues() {
+        assertThatThrownBy(() -> TemplateVariables.apply("var:missing", Collections.emptyMap()))
+                .isInstanceOf(PDFCreationFailedException.class)
+                .hasMessageContaining("missing");
+    }
+}
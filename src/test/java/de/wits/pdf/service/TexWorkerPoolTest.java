@@ -0,0 +1,125 @@
+package de.wits.pdf.service;
+
+import de.wits.pdf.configuration.FileSystemPathProperties;
+import de.wits.pdf.configuration.GenerationProperties;
+import de.wits.pdf.configuration.TexPoolProperties;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TexWorkerPoolTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final PdfMetrics metrics = mock(PdfMetrics.class);
+    private final ProcessSupervisor supervisor = new ProcessSupervisor(new GenerationProperties(), metrics);
+    private final RenderScheduler scheduler = mock(RenderScheduler.class);
+    private TexWorkerPool pool;
+
+    @After
+    public void tearDown() {
+        if (pool != null) {
+            pool.stop();
+        }
+        supervisor.stop();
+    }
+
+    @Test
+    public void compilesOnAWaitingProcess() throws Exception {
+        // stands in for pdflatex: waits for the job line, then writes its outputs
+        start("read -r line\ncat template.tex > template.pdf\necho \"$line\" > template.log\n");
+        File workspace = temporaryFolder.newFolder("workspace");
+        File templateFile = new File(workspace, "template.tex");
+        FileUtils.writeStringToFile(templateFile, "hello");
+
+        assertThat(pool.compile(templateFile, null, System.currentTimeMillis() + 10000)).isTrue();
+
+        assertThat(FileUtils.readFileToString(new File(workspace, "template.pdf"))).isEqualTo("hello");
+        assertThat(FileUtils.readFileToString(new File(workspace, "template.log"))).contains("\\input{template.tex}");
+        assertThat(pool.getBusy()).isEqualTo(0);
+    }
+
+    @Test
+    public void killsProcessesThatTimeOut() throws Exception {
+        start("read line\nsleep 30\n");
+        File templateFile = new File(temporaryFolder.newFolder("workspace"), "template.tex");
+        FileUtils.writeStringToFile(templateFile, "hello");
+
+        assertThatThrownBy(() -> pool.compile(templateFile, null, System.currentTimeMillis() + 1000))
+                .isInstanceOf(RenderTimeoutException.class);
+
+        verify(metrics).recordTexWorkerRestart();
+        assertThat(pool.getBusy()).isEqualTo(0);
+    }
+
+    @Test
+    public void replacesProcessesThatDied() throws Exception {
+        start("exit 1\n");
+        Thread.sleep(500);
+
+        pool.checkHealth();
+
+        verify(metrics, atLeastOnce()).recordTexWorkerRestart();
+    }
+
+    @Test
+    public void keepsNoMoreProcessesThanRenderWorkers() throws Exception {
+        when(scheduler.getLimit()).thenReturn(2);
+        start("read line\n", 4);
+        for (int i = 0; i < 50 && pool.getIdle() < 2; i++) {
+            Thread.sleep(100);
+        }
+        Thread.sleep(300);
+        assertThat(pool.getIdle()).isEqualTo(2);
+
+        when(scheduler.getLimit()).thenReturn(1);
+        pool.checkHealth();
+
+        assertThat(pool.getIdle()).isEqualTo(1);
+    }
+
+    @Test
+    public void leavesOtherTemplatesToTheCaller() throws Exception {
+        start("read line\n");
+        File templateFile = new File(temporaryFolder.newFolder("workspace"), "other.tex");
+
+        assertThat(pool.compile(templateFile, null, 0)).isFalse();
+    }
+
+    private void start(String script) throws IOException, InterruptedException {
+        when(scheduler.getLimit()).thenReturn(6);
+        start(script, 1);
+    }
+
+    private void start(String script, int size) throws IOException, InterruptedException {
+        File pdfLatex = temporaryFolder.newFile("pdflatex");
+        FileUtils.writeStringToFile(pdfLatex, "#!/bin/sh\n" + script);
+        pdfLatex.setExecutable(true);
+        FileSystemPathProperties paths = new FileSystemPathProperties();
+        paths.setTemporal(temporaryFolder.newFolder("temporal").getAbsolutePath());
+        paths.setPdfLatex(pdfLatex.getAbsolutePath());
+        TexPoolProperties properties = new TexPoolProperties();
+        properties.setSize(size);
+        properties.setHealthCheckInterval(3600);
+
+        supervisor.start();
+        pool = new TexWorkerPool(properties, paths, metrics, supervisor, scheduler);
+        pool.start();
+        for (int i = 0; i < 50 && pool.getIdle() == 0; i++) {
+            Thread.sleep(100);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package de.wits.pdf.service;
+
+import de.wits.pdf.configuration.FileSystemPathProperties;
+import de.wits.pdf.configuration.WarmupProperties;
+import de.wits.pdf.model.PdfRequest;
+import de.wits.pdf.model.Priority;
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.core.io.DefaultResourceLoader;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class WarmupTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private WarmupProperties warmupProperties;
+    private FileSystemPathProperties fileSystemPathProperties;
+    private PdfService pdfService;
+    private FormatCache formatCache;
+    private PdfMetrics metrics;
+    private final List<PdfRequest> requests = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        warmupProperties = new WarmupProperties();
+        fileSystemPathProperties = new FileSystemPathProperties();
+        fileSystemPathProperties.setTemporal(temporaryFolder.getRoot().getAbsolutePath());
+        pdfService = mock(PdfService.class);
+        formatCache = mock(FormatCache.class);
+        metrics = mock(PdfMetrics.class);
+        when(formatCache.awaitBuilds(anyLong())).thenReturn(true);
+        when(pdfService.getPdf(any(PdfRequest.class))).thenAnswer(invocation -> {
+            PdfRequest request = (PdfRequest) invocation.getArguments()[0];
+            requests.add(request);
+            if (request.getLatexTemplate().contains("broken")) {
+                CompletableFuture<File> failed = new CompletableFuture<>();
+                failed.completeExceptionally(new PDFCreationFailedException("broken template"));
+                return failed;
+            }
+            return CompletableFuture.completedFuture(new File("template.pdf"));
+        });
+    }
+
+    @Test
+    public void rendersTheSamplesBeforeItIsReady() throws Exception {
+        warmupProperties.setRounds(2);
+        Warmup warmup = warmup();
+        assertThat(warmup.isReady()).isFalse();
+
+        warmup.warmUp();
+
+        assertThat(warmup.isReady()).isTrue();
+        assertThat(requests).hasSize(3);
+        assertThat(requests).extracting(PdfRequest::getTenant).containsOnly(Warmup.TENANT);
+        assertThat(requests.get(0).getLatexTemplate()).contains("\\begin{document}");
+        assertThat(requests).extracting(PdfRequest::isPreview).containsExactly(false, false, true);
+        assertThat(requests).extracting(PdfRequest::getPriority).containsOnly(Priority.BULK);
+        verify(formatCache).prepare(any(File.class));
+        verify(pdfService, times(3)).release(any(PdfRequest.class));
+        verify(metrics).recordWarmup(anyLong(), eq(0));
+        assertThat(new File(temporaryFolder.getRoot(), Warmup.WARMUP_FOLDER)).doesNotExist();
+    }
+
+    @Test
+    public void becomesReadyDespiteFailingSamples() throws Exception {
+        File broken = temporaryFolder.newFile("broken.tex");
+        FileUtils.writeStringToFile(broken, "broken", "UTF-8");
+        warmupProperties.setRounds(1);
+        warmupProperties.setTemplates(Arrays.asList("file:" + broken.getAbsolutePath(), "classpath:warmup/missing.tex"));
+        Warmup warmup = warmup();
+
+        warmup.warmUp();
+
+        assertThat(warmup.isReady()).isTrue();
+        assertThat(requests).hasSize(2);
+        verify(metrics).recordWarmup(anyLong(), eq(2));
+    }
+
+    @Test
+    public void isReadyRightAwayWhenDisabled() {
+        warmupProperties.setEnabled(false);
+
+        assertThat(warmup().isReady()).isTrue();
+    }
+
+    private Warmup warmup() {
+        return new Warmup(warmupProperties, fileSystemPathProperties, new DefaultResourceLoader(), pdfService, formatCache, metrics);
+    }
+}
@@ -0,0 +1,115 @@
+package de.wits.pdf.service;
+
+import de.wits.pdf.configuration.FileSystemPathProperties;
+import de.wits.pdf.configuration.WorkspaceProperties;
+import de.wits.pdf.model.PdfRequest;
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+public class WorkspaceManagerTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private WorkspaceProperties workspaceProperties;
+    private WorkspaceManager workspaceManager;
+
+    @Before
+    public void setUp() {
+        FileSystemPathProperties paths = new FileSystemPathProperties();
+        paths.setTemporal(temporaryFolder.getRoot().getPath());
+        workspaceProperties = new WorkspaceProperties();
+        workspaceProperties.setMinFreeBytes(0);
+        workspaceManager = new WorkspaceManager(workspaceProperties, paths, mock(PdfMetrics.class));
+        workspaceManager.start();
+    }
+
+    @Test
+    public void deletesReleasedWorkspaces() throws Exception {
+        PdfRequest request = new PdfRequest(UUID.randomUUID(), "text");
+
+        File folder = workspaceManager.create(request, "");
+        FileUtils.writeStringToFile(request.getTmpFolder(), "text", "UTF-8");
+        workspaceManager.release(request);
+        workspaceManager.release(request);
+
+        assertThat(request.getTmpFolder().getParentFile()).isEqualTo(folder);
+        assertThat(folder).doesNotExist();
+    }
+
+    @Test
+    public void rejectsWorkspacesBeyondTheQuota() throws Exception {
+        workspaceProperties.setMaxBytes(100);
+        workspaceProperties.setReservedBytes(10);
+        PdfRequest request = new PdfRequest(UUID.randomUUID(), "text");
+        workspaceManager.create(request, "");
+        FileUtils.writeByteArrayToFile(new File(request.getTmpFolder().getParentFile(), "template.pdf"), new byte[200]);
+        workspaceManager.sweep();
+
+        assertThat(workspaceManager.getUsedBytes()).isEqualTo(200);
+        assertThatThrownBy(() -> workspaceManager.create(new PdfRequest(UUID.randomUUID(), "text"), ""))
+                .isInstanceOf(RenderQueueFullException.class);
+
+        workspaceManager.release(request);
+        assertThat(workspaceManager.getUsedBytes()).isZero();
+        workspaceManager.create(new PdfRequest(UUID.randomUUID(), "text"), "");
+    }
+
+    @Test
+    public void reservesRoomForNewWorkspacesBeforeTheyAreMeasured() throws Exception {
+        workspaceProperties.setMaxBytes(100);
+        workspaceProperties.setReservedBytes(40);
+        PdfRequest first = new PdfRequest(UUID.randomUUID(), "text");
+        workspaceManager.create(first, "");
+        workspaceManager.create(new PdfRequest(UUID.randomUUID(), "text"), "");
+
+        assertThat(workspaceManager.getUsedBytes()).isEqualTo(80);
+        assertThatThrownBy(() -> workspaceManager.create(new PdfRequest(UUID.randomUUID(), "text"), ""))
+                .isInstanceOf(RenderQueueFullException.class);
+
+        FileUtils.writeByteArrayToFile(new File(first.getTmpFolder().getParentFile(), "upload.bin"), new byte[50]);
+        workspaceManager.measure(first);
+        assertThat(workspaceManager.getUsedBytes()).isEqualTo(90);
+
+        workspaceManager.release(first);
+        assertThat(workspaceManager.getUsedBytes()).isEqualTo(40);
+        workspaceManager.create(new PdfRequest(UUID.randomUUID(), "text"), "");
+    }
+
+    @Test
+    public void sweepsOldFoldersThatAreNotInUse() throws Exception {
+        workspaceProperties.setSweepBatch(1);
+        File root = workspaceManager.getWorkspacesFolder();
+        File young = new File(root, "young");
+        young.mkdirs();
+        File abandoned = old(new File(root, "abandoned"));
+        File abandonedToo = old(new File(root, "abandoned-too"));
+        PdfRequest request = new PdfRequest(UUID.randomUUID(), "text");
+        File running = old(workspaceManager.create(request, ""));
+
+        assertThat(workspaceManager.sweep()).isEqualTo(1);
+        assertThat(workspaceManager.sweep()).isEqualTo(1);
+        assertThat(workspaceManager.sweep()).isZero();
+
+        assertThat(abandoned).doesNotExist();
+        assertThat(abandonedToo).doesNotExist();
+        assertThat(young).exists();
+        assertThat(running).exists();
+    }
+
+    private File old(File folder) {
+        folder.mkdirs();
+        folder.setLastModified(System.currentTimeMillis() - (workspaceProperties.getMaxAge() + 60) * 1000);
+        return folder;
+    }
+}
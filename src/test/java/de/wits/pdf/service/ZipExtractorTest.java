@@ -0,0 +1,95 @@
+package de.wits.pdf.service;
+
+import de.wits.pdf.configuration.UploadProperties;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ZipExtractorTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private UploadProperties uploadProperties;
+    private ZipExtractor zipExtractor;
+    private Path target;
+
+    @Before
+    public void setUp() {
+        uploadProperties = new UploadProperties();
+        zipExtractor = new ZipExtractor(uploadProperties);
+        target = temporaryFolder.getRoot().toPath().resolve("job");
+    }
+
+    @Test
+    public void extractsNestedEntries() throws Exception {
+        byte[] zip = zip("template.tex", "\\documentclass{article}".getBytes(StandardCharsets.UTF_8),
+                "images/logo.png", new byte[]{1, 2, 3});
+
+        zipExtractor.extract(new ByteArrayInputStream(zip), target);
+
+        assertThat(new String(Files.readAllBytes(target.resolve("template.tex")), StandardCharsets.UTF_8)).isEqualTo("\\documentclass{article}");
+        assertThat(Files.readAllBytes(target.resolve("images/logo.png"))).isEqualTo(new byte[]{1, 2, 3});
+    }
+
+    @Test
+    public void rejectsEntriesOutsideOfTheJobFolder() throws Exception {
+        byte[] zip = zip("../escape.tex", new byte[]{1});
+
+        assertThatThrownBy(() -> zipExtractor.extract(new ByteArrayInputStream(zip), target))
+                .isInstanceOf(UploadRejectedException.class);
+        assertThat(Files.exists(target.resolveSibling("escape.tex"))).isFalse();
+    }
+
+    @Test
+    public void rejectsTooManyEntries() throws Exception {
+        uploadProperties.setMaxEntries(1);
+        byte[] zip = zip("a.tex", new byte[]{1}, "b.tex", new byte[]{2});
+
+        assertThatThrownBy(() -> zipExtractor.extract(new ByteArrayInputStream(zip), target))
+                .isInstanceOf(UploadRejectedException.class);
+    }
+
+    @Test
+    public void rejectsHighlyCompressedArchives() throws Exception {
+        byte[] zip = zip("zeros.bin", new byte[4 * 1024 * 1024]);
+
+        assertThatThrownBy(() -> zipExtractor.extract(new ByteArrayInputStream(zip), target))
+                .isInstanceOf(UploadRejectedException.class)
+                .hasMessageContaining("compression ratio");
+    }
+
+    @Test
+    public void rejectsArchivesAboveTheExtractedSizeLimit() throws Exception {
+        uploadProperties.setMaxUncompressedBytes(2);
+        byte[] zip = zip("template.tex", new byte[]{1, 2, 3});
+
+        assertThatThrownBy(() -> zipExtractor.extract(new ByteArrayInputStream(zip), target))
+                .isInstanceOf(UploadRejectedException.class);
+    }
+
+    private static byte[] zip(Object... namesAndContents) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            for (int i = 0; i < namesAndContents.length; i += 2) {
+                zip.putNextEntry(new ZipEntry((String) namesAndContents[i]));
+                zip.write((byte[]) namesAndContents[i + 1]);
+                zip.closeEntry();
+            }
+        }
+        return bytes.toByteArray();
+    }
+}